@@ -21,7 +21,18 @@ package sviolet.thistle.model.bitmap;
 
 import sviolet.thistle.util.conversion.HashUtils;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * <p>Bitmap抽象实现, 数据访问层未实现</p>
@@ -31,7 +42,7 @@ import java.io.IOException;
  * @see BloomBitmap
  * @author S.Violet
  */
-public abstract class AbstractBitmap implements BloomBitmap {
+public abstract class AbstractBitmap implements BulkBloomBitmap {
 
     // 00000001 00000010 00000100 00001000 ...
     private static final byte[] F = new byte[8];
@@ -39,6 +50,8 @@ public abstract class AbstractBitmap implements BloomBitmap {
     // 11111110 11111101 11111011 11110111 ...
     private static final byte[] R = new byte[8];
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     // Max length of data (byte array)
     private static final int MAX_BYTE_ARRAY_LENGTH = Integer.MAX_VALUE >> 3;
 
@@ -48,9 +61,57 @@ public abstract class AbstractBitmap implements BloomBitmap {
         }
     }
 
+    /**
+     * 布隆过滤器哈希函数个数最大值
+     */
+    public static final int MAX_BLOOM_HASH_NUM = 64;
+
     // bit size
     protected final int size;
 
+    /**
+     * 脏页大小(字节)
+     */
+    public static final int DIRTY_PAGE_SIZE = 4096;
+
+    private static final int DIRTY_PAGE_SHIFT = 12;
+
+    /**
+     * 流式读写时每块的页数(64K byte)
+     */
+    private static final int STREAM_CHUNK_PAGES = 16;
+    private static final int STREAM_CHUNK_SIZE = STREAM_CHUNK_PAGES * DIRTY_PAGE_SIZE;
+
+    // 脏页标记, 每页1bit, null表示未开启脏页跟踪
+    private volatile AtomicLongArray dirtyPages;
+
+    // 布隆过滤器哈希函数个数, 0表示旧算法
+    private volatile int bloomHashNum = 0;
+
+    private final BloomHash.Consumer bloomAdder = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int hashNum = bloomHashNum;
+            for (int i = 0 ; i < hashNum ; i++) {
+                put(BloomHash.index(hash1, hash2, i, size), true);
+            }
+            return true;
+        }
+    };
+
+    private final BloomHash.Consumer bloomChecker = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int hashNum = bloomHashNum;
+            for (int i = 0 ; i < hashNum ; i++) {
+                if (!get(BloomHash.index(hash1, hash2, i, size))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
     /**
      * 创建指定容量的Bitmap
      *
@@ -105,7 +166,11 @@ public abstract class AbstractBitmap implements BloomBitmap {
         if (bitIndex < 0 || bitIndex >= size) {
             throw new IllegalArgumentException("Out of bound, The bitIndex must be >= 0 and < " + size + ", but it's " + bitIndex);
         }
-        return putBitToSlot(bitIndexToSlotIndex(bitIndex), bitIndexToSlotOffset(bitIndex), value);
+        int slotIndex = bitIndexToSlotIndex(bitIndex);
+        boolean result = putBitToSlot(slotIndex, bitIndexToSlotOffset(bitIndex), value);
+        // 先写数据后标记, 与writeDeltaTo的先清除标记后读数据配合, 保证修改不丢失
+        markDirty(slotIndex, 1);
+        return result;
     }
 
     /**
@@ -143,7 +208,11 @@ public abstract class AbstractBitmap implements BloomBitmap {
      */
     @Override
     public void inject(byte[] src, int byteOffset) {
+        if (src == null) {
+            return;
+        }
         dataAccess_inject(src, byteOffset);
+        markDirty(byteOffset, src.length);
     }
 
     /**
@@ -169,36 +238,184 @@ public abstract class AbstractBitmap implements BloomBitmap {
      */
     @Override
     public void computeWith(Bitmap computeWith, Bitmap resultBitmap, ComputeFunction computeFunction) {
-        if (computeWith == null) {
-            throw new IllegalArgumentException("Bitmap 'computeWith' is null");
-        }
-        if (resultBitmap == null) {
-            throw new IllegalArgumentException("Bitmap 'resultBitmap' is null");
-        }
-        if (computeFunction == null) {
-            throw new IllegalArgumentException("ComputeFunction is null");
-        }
-        if (!(computeWith instanceof AbstractBitmap)) {
-            throw new IllegalArgumentException("Bitmap 'computeWith' is not an instance of AbstractBitmap");
-        }
-        if (!(resultBitmap instanceof AbstractBitmap)) {
-            throw new IllegalArgumentException("Bitmap 'resultBitmap' is not an instance of AbstractBitmap");
-        }
-        if (size() != computeWith.size() || size() != resultBitmap.size()) {
-            throw new IllegalArgumentException("The size of the three Bitmaps must be the same, this size: " + size() +
-                    ", 'computeWith' size:" + computeWith.size() + ", 'resultBitmap' size :" + resultBitmap.size());
-        }
+        checkCompute(this, computeWith, resultBitmap, computeFunction);
         if (size() <= 0) {
             return;
         }
+        if (!(computeWith instanceof AbstractBitmap) || !(resultBitmap instanceof AbstractBitmap)) {
+            // 其他实现(例如CompressedBitmap), 分块导出计算后导入
+            computeByChunk(this, computeWith, resultBitmap, computeFunction);
+            return;
+        }
         AbstractBitmap that = (AbstractBitmap) computeWith;
         AbstractBitmap result = (AbstractBitmap) resultBitmap;
+        int operation = operationOf(computeFunction);
+        if (operation != OPERATION_UNKNOWN) {
+            // 按long(64bit)批量计算
+            int wordSize = slotSizeToWordSize(bitIndexToSlotIndex(size()));
+            if (wordSize > PARALLEL_THRESHOLD) {
+                forkJoinPool().invoke(new WordComputeTask(this, that, result, operation, 0, wordSize));
+            } else {
+                computeWords(this, that, result, operation, 0, wordSize);
+            }
+            result.markDirty(0, bitIndexToSlotIndex(size()));
+            return;
+        }
         for (int i = 0 ; i < bitIndexToSlotIndex(size()) ; i++) {
             // 不保证写入成功, 如果result的数据正在变化, 这里可能会写入失败(不会报错)
             result.dataAccess_putSlot(i,
                     computeFunction.compute(this.dataAccess_getSlot(i), that.dataAccess_getSlot(i)),
                     result.dataAccess_getSlot(i));
         }
+        result.markDirty(0, bitIndexToSlotIndex(size()));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void and(Bitmap that) {
+        computeWith(that, this, ComputeFunction.AND);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void and(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.AND);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void or(Bitmap that) {
+        computeWith(that, this, ComputeFunction.OR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void or(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.OR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void xor(Bitmap that) {
+        computeWith(that, this, ComputeFunction.XOR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void xor(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.XOR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void andNot(Bitmap that) {
+        computeWith(that, this, ComputeFunction.AND_NOT);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void andNot(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.AND_NOT);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int cardinality() {
+        int wordSize = slotSizeToWordSize(bitIndexToSlotIndex(size()));
+        if (wordSize > PARALLEL_THRESHOLD) {
+            return forkJoinPool().invoke(new CardinalityTask(this, 0, wordSize));
+        }
+        return countWords(this, 0, wordSize);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int nextSetBit(int fromBitIndex) {
+        if (fromBitIndex < 0) {
+            throw new IllegalArgumentException("fromBitIndex must be >= 0, but it's " + fromBitIndex);
+        }
+        if (fromBitIndex >= size) {
+            return -1;
+        }
+        int wordSize = slotSizeToWordSize(bitIndexToSlotIndex(size()));
+        int wordIndex = fromBitIndex >>> 6;
+        long word = dataAccess_getWord(wordIndex) & (-1L << fromBitIndex);
+        while (true) {
+            if (word != 0) {
+                return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++wordIndex >= wordSize) {
+                return -1;
+            }
+            word = dataAccess_getWord(wordIndex);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int nextClearBit(int fromBitIndex) {
+        if (fromBitIndex < 0) {
+            throw new IllegalArgumentException("fromBitIndex must be >= 0, but it's " + fromBitIndex);
+        }
+        if (fromBitIndex >= size) {
+            return -1;
+        }
+        int wordSize = slotSizeToWordSize(bitIndexToSlotIndex(size()));
+        int wordIndex = fromBitIndex >>> 6;
+        long word = ~dataAccess_getWord(wordIndex) & (-1L << fromBitIndex);
+        while (true) {
+            if (word != 0) {
+                int bitIndex = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                // 最后一个long可能不完整
+                return bitIndex < size ? bitIndex : -1;
+            }
+            if (++wordIndex >= wordSize) {
+                return -1;
+            }
+            word = ~dataAccess_getWord(wordIndex);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void forEachSetBit(BitVisitor visitor) {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor is null");
+        }
+        int wordSize = slotSizeToWordSize(bitIndexToSlotIndex(size()));
+        for (int wordIndex = 0 ; wordIndex < wordSize ; wordIndex++) {
+            long word = dataAccess_getWord(wordIndex);
+            while (word != 0) {
+                if (!visitor.visit((wordIndex << 6) + Long.numberOfTrailingZeros(word))) {
+                    return;
+                }
+                word &= word - 1;
+            }
+        }
     }
 
     /**
@@ -207,9 +424,35 @@ public abstract class AbstractBitmap implements BloomBitmap {
     @Override
     public void bloomAdd(byte[] data){
         if (data == null) {
-            data = new byte[0];
+            data = BloomHash.EMPTY;
+        }
+        bloomAdd(data, 0, data.length);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean bloomContains(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return bloomContains(data, 0, data.length);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)需要复制数据
+     */
+    @Override
+    public void bloomAdd(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        if (bloomHashNum > 0) {
+            BloomHash.murmur3(data, offset, length, bloomAdder);
+            return;
         }
-        int[] hashes = bloomHash(data);
+        int[] hashes = bloomHash(copyOf(data, offset, length));
         for (int hash : hashes) {
             put(hash % size, true);
         }
@@ -217,13 +460,16 @@ public abstract class AbstractBitmap implements BloomBitmap {
 
     /**
      * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)需要复制数据
      */
     @Override
-    public boolean bloomContains(byte[] data) {
-        if (data == null) {
-            data = new byte[0];
+    public boolean bloomContains(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        if (bloomHashNum > 0) {
+            return BloomHash.murmur3(data, offset, length, bloomChecker);
         }
-        int[] hashes = bloomHash(data);
+        int[] hashes = bloomHash(copyOf(data, offset, length));
         for (int hash : hashes) {
             if (!get(hash % size)) {
                 return false;
@@ -232,6 +478,225 @@ public abstract class AbstractBitmap implements BloomBitmap {
         return true;
     }
 
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)需要复制数据
+     */
+    @Override
+    public void bloomAdd(ByteBuffer data) {
+        if (data == null) {
+            bloomAdd((byte[]) null);
+            return;
+        }
+        if (bloomHashNum > 0) {
+            BloomHash.murmur3(data, bloomAdder);
+            return;
+        }
+        bloomAdd(copyOf(data));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)需要复制数据
+     */
+    @Override
+    public boolean bloomContains(ByteBuffer data) {
+        if (data == null) {
+            return bloomContains((byte[]) null);
+        }
+        if (bloomHashNum > 0) {
+            return BloomHash.murmur3(data, bloomChecker);
+        }
+        return bloomContains(copyOf(data));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)需要编码为byte[]
+     */
+    @Override
+    public void bloomAdd(CharSequence data) {
+        if (data == null) {
+            bloomAdd((byte[]) null);
+            return;
+        }
+        if (bloomHashNum > 0) {
+            BloomHash.murmur3Utf8(data, bloomAdder);
+            return;
+        }
+        bloomAdd(data.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)需要编码为byte[]
+     */
+    @Override
+    public boolean bloomContains(CharSequence data) {
+        if (data == null) {
+            return bloomContains((byte[]) null);
+        }
+        if (bloomHashNum > 0) {
+            return BloomHash.murmur3Utf8(data, bloomChecker);
+        }
+        return bloomContains(data.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)逐个添加
+     */
+    @Override
+    public void bloomAddAll(byte[][] keys) {
+        if (keys == null) {
+            return;
+        }
+        int hashNum = bloomHashNum;
+        if (hashNum <= 0) {
+            for (byte[] key : keys) {
+                bloomAdd(key);
+            }
+            return;
+        }
+        BloomHash.IndexCollector collector = new BloomIndexCollector(hashNum, Math.min(keys.length, BloomHash.BATCH_SIZE));
+        for (int start = 0 ; start < keys.length ; start += BloomHash.BATCH_SIZE) {
+            int end = Math.min(start + BloomHash.BATCH_SIZE, keys.length);
+            collector.reset();
+            for (int i = start ; i < end ; i++) {
+                byte[] key = keys[i] != null ? keys[i] : BloomHash.EMPTY;
+                BloomHash.murmur3(key, 0, key.length, collector);
+            }
+            // 排序后按地址顺序写入, 相邻索引落在同一个缓存行/页
+            int[] indexes = collector.indexes;
+            int count = collector.position;
+            Arrays.sort(indexes, 0, count);
+            for (int i = 0 ; i < count ; i++) {
+                put(indexes[i], true);
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 旧算法(bloomHashNum = 0)逐个检查
+     */
+    @Override
+    public int bloomContainsAll(byte[][] keys, BitSet result) {
+        if (result == null) {
+            throw new IllegalArgumentException("result is null");
+        }
+        if (keys == null) {
+            return 0;
+        }
+        int hashNum = bloomHashNum;
+        int containsNum = 0;
+        if (hashNum <= 0) {
+            for (int i = 0 ; i < keys.length ; i++) {
+                boolean contains = bloomContains(keys[i]);
+                result.set(i, contains);
+                if (contains) {
+                    containsNum++;
+                }
+            }
+            return containsNum;
+        }
+        BloomHash.IndexCollector collector = new BloomIndexCollector(hashNum, Math.min(keys.length, BloomHash.BATCH_SIZE));
+        for (int start = 0 ; start < keys.length ; start += BloomHash.BATCH_SIZE) {
+            int end = Math.min(start + BloomHash.BATCH_SIZE, keys.length);
+            collector.reset();
+            for (int i = start ; i < end ; i++) {
+                byte[] key = keys[i] != null ? keys[i] : BloomHash.EMPTY;
+                BloomHash.murmur3(key, 0, key.length, collector);
+            }
+            int[] indexes = collector.indexes;
+            int position = 0;
+            for (int i = start ; i < end ; i++) {
+                // 不提前返回, k次读取互不依赖, CPU可以同时发出
+                boolean contains = true;
+                for (int j = 0 ; j < hashNum ; j++) {
+                    contains &= get(indexes[position++]);
+                }
+                result.set(i, contains);
+                if (contains) {
+                    containsNum++;
+                }
+            }
+        }
+        return containsNum;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public double bloomEstimatedFpp() {
+        if (size <= 0) {
+            return 1.0;
+        }
+        // 旧算法(bloomHash)固定3个哈希
+        int hashNum = bloomHashNum > 0 ? bloomHashNum : 3;
+        return Math.pow((double) cardinality() / size, hashNum);
+    }
+
+    /**
+     * @return 布隆过滤器哈希函数个数(k), 0表示使用旧算法(bloomHash方法, 3个哈希)
+     */
+    public int getBloomHashNum() {
+        return bloomHashNum;
+    }
+
+    /**
+     * <p>设置布隆过滤器哈希函数个数(k). 大于0时, 对数据计算一次128位哈希(MurmurHash3), 通过双重哈希生成k个索引, 不创建对象;
+     * 等于0时, 使用旧算法(bloomHash方法, djb2/sdbm/fnv1三个哈希). 建议使用BloomBitmapBuilder根据预期数据量和误判率创建.</p>
+     *
+     * <p>注意!!! 必须在添加数据前设置, 添加数据后修改会导致bloomContains结果错误!!!</p>
+     *
+     * @param bloomHashNum 哈希函数个数, 0表示旧算法, 取值范围[0, 64]
+     */
+    public void setBloomHashNum(int bloomHashNum) {
+        if (bloomHashNum < 0 || bloomHashNum > MAX_BLOOM_HASH_NUM) {
+            throw new IllegalArgumentException("bloomHashNum must be >= 0 and <= " + MAX_BLOOM_HASH_NUM + ", but it's " + bloomHashNum);
+        }
+        this.bloomHashNum = bloomHashNum;
+    }
+
+    private static byte[] copyOf(byte[] data, int offset, int length) {
+        if (offset == 0 && length == data.length) {
+            return data;
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        return copy;
+    }
+
+    private static byte[] copyOf(ByteBuffer data) {
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * 批量操作的索引收集器
+     */
+    private class BloomIndexCollector extends BloomHash.IndexCollector {
+
+        private BloomIndexCollector(int hashNum, int capacity) {
+            super(hashNum, capacity);
+        }
+
+        @Override
+        int index(long hash1, long hash2, int i) {
+            return BloomHash.index(hash1, hash2, i, size);
+        }
+
+    }
+
     /**
      * 布隆hash算法, 可自定义
      */
@@ -243,6 +708,249 @@ public abstract class AbstractBitmap implements BloomBitmap {
         return hashes;
     }
 
+    /* ******************************************************************************************************** */
+
+    /**
+     * <p>开启/关闭脏页跟踪. 开启后, 每DIRTY_PAGE_SIZE(4K)字节用1bit记录是否被修改(put/inject/computeWith的结果),
+     * writeDeltaTo只输出被修改过的页, 用于定期增量备份. 开启时全部页标记为脏, 第一次writeDeltaTo输出全部数据.</p>
+     *
+     * <p>内存占用: 容量 / 32768 字节(1G bit约4K byte). 开启后put会多一次标记(已标记时只有一次读).</p>
+     *
+     * <p>注意: 通过dataAccess_方法(子类或CountingBloomFilter)直接修改的数据不会被标记.</p>
+     *
+     * @param enabled true: 开启, false: 关闭
+     */
+    public void setDirtyTracking(boolean enabled) {
+        if (!enabled) {
+            dirtyPages = null;
+            return;
+        }
+        if (dirtyPages != null) {
+            return;
+        }
+        int pageNum = pageNum();
+        AtomicLongArray dirtyPages = new AtomicLongArray((pageNum + 63) >>> 6);
+        for (int i = 0 ; i < pageNum ; i += 64) {
+            dirtyPages.set(i >>> 6, pageNum - i >= 64 ? -1L : (1L << (pageNum - i)) - 1L);
+        }
+        this.dirtyPages = dirtyPages;
+    }
+
+    /**
+     * @return true: 已开启脏页跟踪
+     */
+    public boolean isDirtyTracking() {
+        return dirtyPages != null;
+    }
+
+    /**
+     * @return 当前脏页数量, 未开启脏页跟踪时返回-1
+     */
+    public int getDirtyPageNum() {
+        AtomicLongArray dirtyPages = this.dirtyPages;
+        if (dirtyPages == null) {
+            return -1;
+        }
+        int count = 0;
+        for (int i = 0 ; i < dirtyPages.length() ; i++) {
+            count += Long.bitCount(dirtyPages.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * 将全部数据(与extractAll()相同)写入channel, 按块写出, 不复制整个Bitmap. 不影响脏页标记.
+     *
+     * @param channel 输出
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        int slotSize = bitIndexToSlotIndex(size);
+        byte[] buffer = null;
+        for (int offset = 0 ; offset < slotSize ; offset += STREAM_CHUNK_SIZE) {
+            buffer = writeRange(channel, offset, Math.min(STREAM_CHUNK_SIZE, slotSize - offset), buffer);
+        }
+    }
+
+    /**
+     * 从channel读取全部数据(writeTo的输出), 覆盖当前数据
+     *
+     * @param channel 输入
+     * @throws EOFException 数据不完整
+     */
+    public void readFrom(ReadableByteChannel channel) throws IOException {
+        int slotSize = bitIndexToSlotIndex(size);
+        byte[] buffer = null;
+        for (int offset = 0 ; offset < slotSize ; offset += STREAM_CHUNK_SIZE) {
+            buffer = readRange(channel, offset, Math.min(STREAM_CHUNK_SIZE, slotSize - offset), buffer);
+        }
+    }
+
+    /**
+     * <p>将脏页写入channel, 并清除脏页标记. 需要先开启脏页跟踪(setDirtyTracking).</p>
+     *
+     * <p>格式(int为big-endian): [int 容量(比特数)] [int 页索引] [int 长度] [数据] ... [int -1].
+     * 相邻的脏页合并为一条记录, 接收方用applyDelta写入.</p>
+     *
+     * <p>一致性: 每64页为一组, 先清除标记再读取数据, 写入操作先写数据再标记, 输出过程中发生的修改,
+     * 要么包含在本次输出中, 要么保留标记在下次输出, 不会丢失. 但输出的各页不是同一时刻的快照.</p>
+     *
+     * @param channel 输出
+     * @return 输出的页数
+     * @throws IllegalStateException 未开启脏页跟踪
+     */
+    public int writeDeltaTo(WritableByteChannel channel) throws IOException {
+        AtomicLongArray dirtyPages = this.dirtyPages;
+        if (dirtyPages == null) {
+            throw new IllegalStateException("Dirty tracking is disabled, call setDirtyTracking(true) first");
+        }
+        int slotSize = bitIndexToSlotIndex(size);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(size).flip();
+        writeFully(channel, header);
+        byte[] buffer = null;
+        int pageCount = 0;
+        for (int i = 0 ; i < dirtyPages.length() ; i++) {
+            long pages = dirtyPages.getAndSet(i, 0L);
+            while (pages != 0) {
+                // 合并相邻脏页, 每条记录不超过STREAM_CHUNK_SIZE
+                int first = Long.numberOfTrailingZeros(pages);
+                int last = first;
+                while (last < 63 && (pages & (1L << (last + 1))) != 0 && last - first + 1 < STREAM_CHUNK_PAGES) {
+                    last++;
+                }
+                pages &= ~(((-1L) >>> (63 - last)) & (-1L << first));
+                int pageIndex = (i << 6) + first;
+                int offset = pageIndex << DIRTY_PAGE_SHIFT;
+                int length = Math.min((last - first + 1) << DIRTY_PAGE_SHIFT, slotSize - offset);
+                header.clear();
+                header.putInt(pageIndex).putInt(length).flip();
+                writeFully(channel, header);
+                buffer = writeRange(channel, offset, length, buffer);
+                pageCount += last - first + 1;
+            }
+        }
+        header.clear();
+        header.putInt(-1).flip();
+        writeFully(channel, header);
+        return pageCount;
+    }
+
+    /**
+     * 读取writeDeltaTo的输出, 写入当前Bitmap. 开启脏页跟踪时, 写入的页会被标记为脏.
+     *
+     * @param channel 输入
+     * @return 写入的页数
+     * @throws IOException 容量不一致, 数据格式错误或不完整
+     */
+    public int applyDelta(ReadableByteChannel channel) throws IOException {
+        int slotSize = bitIndexToSlotIndex(size);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.limit(4);
+        readFully(channel, header);
+        int deltaSize = header.getInt(0);
+        if (deltaSize != size) {
+            throw new IOException("The size of delta is " + deltaSize + ", but the size of this bitmap is " + size);
+        }
+        byte[] buffer = null;
+        int pageCount = 0;
+        while (true) {
+            header.clear().limit(4);
+            readFully(channel, header);
+            int pageIndex = header.getInt(0);
+            if (pageIndex == -1) {
+                return pageCount;
+            }
+            header.limit(8);
+            readFully(channel, header);
+            int length = header.getInt(4);
+            long offset = (long) pageIndex << DIRTY_PAGE_SHIFT;
+            if (pageIndex < 0 || length <= 0 || length > STREAM_CHUNK_SIZE || offset + length > slotSize) {
+                throw new IOException("Illegal delta record, pageIndex: " + pageIndex + ", length: " + length + ", bitmap bytes: " + slotSize);
+            }
+            buffer = readRange(channel, (int) offset, length, buffer);
+            pageCount += (length + DIRTY_PAGE_SIZE - 1) >>> DIRTY_PAGE_SHIFT;
+        }
+    }
+
+    /**
+     * 返回与数据共享内存的ByteBuffer, 范围[offset, offset + length), 用于writeTo/readFrom/writeDeltaTo/applyDelta,
+     * 避免复制数据. 默认返回null(不支持), 此时通过dataAccess_extract/dataAccess_inject分块复制.
+     */
+    protected ByteBuffer dataAccess_view(int offset, int length) {
+        return null;
+    }
+
+    /**
+     * 标记[slotIndex, slotIndex + length)所在的页为脏页, 未开启脏页跟踪时什么都不做
+     */
+    protected void markDirty(int slotIndex, int length) {
+        AtomicLongArray dirtyPages = this.dirtyPages;
+        if (dirtyPages == null || length <= 0) {
+            return;
+        }
+        int lastPage = (slotIndex + length - 1) >>> DIRTY_PAGE_SHIFT;
+        for (int page = slotIndex >>> DIRTY_PAGE_SHIFT ; page <= lastPage ; page++) {
+            int i = page >>> 6;
+            long bit = 1L << page;
+            while (true) {
+                long old = dirtyPages.get(i);
+                // 已标记时只有一次读
+                if ((old & bit) != 0 || dirtyPages.compareAndSet(i, old, old | bit)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int pageNum() {
+        return (bitIndexToSlotIndex(size) + DIRTY_PAGE_SIZE - 1) >>> DIRTY_PAGE_SHIFT;
+    }
+
+    private byte[] writeRange(WritableByteChannel channel, int offset, int length, byte[] buffer) throws IOException {
+        ByteBuffer view = dataAccess_view(offset, length);
+        if (view != null) {
+            writeFully(channel, view);
+            return buffer;
+        }
+        if (buffer == null || buffer.length != length) {
+            buffer = new byte[length];
+        }
+        dataAccess_extract(buffer, offset);
+        writeFully(channel, ByteBuffer.wrap(buffer));
+        return buffer;
+    }
+
+    private byte[] readRange(ReadableByteChannel channel, int offset, int length, byte[] buffer) throws IOException {
+        ByteBuffer view = dataAccess_view(offset, length);
+        if (view != null) {
+            readFully(channel, view);
+            markDirty(offset, length);
+            return buffer;
+        }
+        if (buffer == null || buffer.length != length) {
+            buffer = new byte[length];
+        }
+        readFully(channel, ByteBuffer.wrap(buffer));
+        inject(buffer, offset);
+        return buffer;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of channel, " + buffer.remaining() + " bytes remaining");
+            }
+        }
+    }
+
+    /* ******************************************************************************************************** */
+
     protected int bitIndexToSlotIndex(int bitIndex) {
         return bitIndex >> 3;
     }
@@ -261,4 +969,256 @@ public abstract class AbstractBitmap implements BloomBitmap {
 
     protected abstract void dataAccess_inject(byte[] src, int offset);
 
+    /**
+     * 读取一个long(8个slot, 低位slot在前, 即little-endian, 保证bitIndex & 0x3F即为bit在long中的位置),
+     * 超出容量的slot视为0. 默认逐个slot读取, 子类可以覆盖实现更快的读取.
+     *
+     * @param wordIndex long的索引, slotIndex = wordIndex * 8
+     */
+    protected long dataAccess_getWord(int wordIndex) {
+        int slotIndex = wordIndex << 3;
+        int end = Math.min(slotIndex + 8, bitIndexToSlotIndex(size));
+        long word = 0L;
+        for (int i = slotIndex ; i < end ; i++) {
+            word |= ((long) dataAccess_getSlot(i) & 0xFFL) << ((i - slotIndex) << 3);
+        }
+        return word;
+    }
+
+    /**
+     * 写入一个long(8个slot, little-endian), 超出容量的slot忽略. 默认逐个slot写入, 子类可以覆盖实现更快的写入.
+     * 与computeWith相同, 不保证写入成功(例如ConcurrentHeapBitmap的CAS失败).
+     *
+     * @param wordIndex long的索引, slotIndex = wordIndex * 8
+     */
+    protected void dataAccess_putWord(int wordIndex, long word) {
+        int slotIndex = wordIndex << 3;
+        int end = Math.min(slotIndex + 8, bitIndexToSlotIndex(size));
+        for (int i = slotIndex ; i < end ; i++) {
+            dataAccess_putSlot(i, (byte) (word >>> ((i - slotIndex) << 3)), dataAccess_getSlot(i));
+        }
+    }
+
+    /**
+     * 批量读取long, 用于批量计算(and/or/xor/andNot/cardinality). 默认逐个调用dataAccess_getWord, 子类可以覆盖实现更快的读取.
+     *
+     * @param wordIndex 起始long的索引
+     * @param dst 读取的long存放到这里, 从0位开始存放
+     * @param length 读取数量
+     */
+    protected void dataAccess_getWords(int wordIndex, long[] dst, int length) {
+        for (int i = 0 ; i < length ; i++) {
+            dst[i] = dataAccess_getWord(wordIndex + i);
+        }
+    }
+
+    /**
+     * 批量写入long, 用于批量计算(and/or/xor/andNot). 默认逐个调用dataAccess_putWord, 子类可以覆盖实现更快的写入.
+     *
+     * @param wordIndex 起始long的索引
+     * @param src 需要写入的long, 从0位开始读取
+     * @param length 写入数量
+     */
+    protected void dataAccess_putWords(int wordIndex, long[] src, int length) {
+        for (int i = 0 ; i < length ; i++) {
+            dataAccess_putWord(wordIndex + i, src[i]);
+        }
+    }
+
+    /* ******************************************************************************************************** */
+
+    /**
+     * 批量计算时每次读写的long数量
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * 超过这个long数量时, 使用ForkJoinPool并行计算(8192 * 64 bit = 64K byte)
+     */
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    static final int OPERATION_UNKNOWN = 0;
+    static final int OPERATION_AND = 1;
+    static final int OPERATION_OR = 2;
+    static final int OPERATION_XOR = 3;
+    static final int OPERATION_AND_NOT = 4;
+
+    static int operationOf(ComputeFunction computeFunction) {
+        if (computeFunction == ComputeFunction.AND) {
+            return OPERATION_AND;
+        } else if (computeFunction == ComputeFunction.OR) {
+            return OPERATION_OR;
+        } else if (computeFunction == ComputeFunction.XOR) {
+            return OPERATION_XOR;
+        } else if (computeFunction == ComputeFunction.AND_NOT) {
+            return OPERATION_AND_NOT;
+        }
+        return OPERATION_UNKNOWN;
+    }
+
+    static void checkCompute(Bitmap bitmap, Bitmap computeWith, Bitmap resultBitmap, ComputeFunction computeFunction) {
+        if (computeWith == null) {
+            throw new IllegalArgumentException("Bitmap 'computeWith' is null");
+        }
+        if (resultBitmap == null) {
+            throw new IllegalArgumentException("Bitmap 'resultBitmap' is null");
+        }
+        if (computeFunction == null) {
+            throw new IllegalArgumentException("ComputeFunction is null");
+        }
+        if (bitmap.size() != computeWith.size() || bitmap.size() != resultBitmap.size()) {
+            throw new IllegalArgumentException("The size of the three Bitmaps must be the same, this size: " + bitmap.size() +
+                    ", 'computeWith' size:" + computeWith.size() + ", 'resultBitmap' size :" + resultBitmap.size());
+        }
+    }
+
+    /**
+     * 通用计算: 分块extract, 计算, 再inject到结果中, 适用于任意Bitmap实现
+     */
+    static void computeByChunk(Bitmap bitmap, Bitmap computeWith, Bitmap resultBitmap, ComputeFunction computeFunction) {
+        int slotSize = bitmap.size() >>> 3;
+        byte[] buffer1 = new byte[Math.min(CHUNK_SIZE, slotSize)];
+        byte[] buffer2 = new byte[buffer1.length];
+        for (int offset = 0 ; offset < slotSize ; offset += CHUNK_SIZE) {
+            if (slotSize - offset < buffer1.length) {
+                buffer1 = new byte[slotSize - offset];
+                buffer2 = new byte[buffer1.length];
+            }
+            bitmap.extract(buffer1, offset);
+            computeWith.extract(buffer2, offset);
+            for (int i = 0 ; i < buffer1.length ; i++) {
+                buffer1[i] = computeFunction.compute(buffer1[i], buffer2[i]);
+            }
+            resultBitmap.inject(buffer1, offset);
+        }
+    }
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static int slotSizeToWordSize(int slotSize) {
+        return (slotSize + 7) >>> 3;
+    }
+
+    private static void computeWords(AbstractBitmap bitmap, AbstractBitmap that, AbstractBitmap result, int operation, int from, int to) {
+        long[] words1 = new long[Math.min(BLOCK_SIZE, to - from)];
+        long[] words2 = new long[words1.length];
+        for (int offset = from ; offset < to ; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - offset);
+            // 先读后写, result可以是bitmap或that
+            bitmap.dataAccess_getWords(offset, words1, length);
+            that.dataAccess_getWords(offset, words2, length);
+            switch (operation) {
+                case OPERATION_AND:
+                    for (int i = 0 ; i < length ; i++) {
+                        words1[i] &= words2[i];
+                    }
+                    break;
+                case OPERATION_OR:
+                    for (int i = 0 ; i < length ; i++) {
+                        words1[i] |= words2[i];
+                    }
+                    break;
+                case OPERATION_XOR:
+                    for (int i = 0 ; i < length ; i++) {
+                        words1[i] ^= words2[i];
+                    }
+                    break;
+                case OPERATION_AND_NOT:
+                    for (int i = 0 ; i < length ; i++) {
+                        words1[i] &= ~words2[i];
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+            // 不保证写入成功, 如果result的数据正在变化, 这里可能会写入失败(不会报错)
+            result.dataAccess_putWords(offset, words1, length);
+        }
+    }
+
+    private static int countWords(AbstractBitmap bitmap, int from, int to) {
+        long[] words = new long[Math.min(BLOCK_SIZE, to - from)];
+        int count = 0;
+        for (int offset = from ; offset < to ; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - offset);
+            bitmap.dataAccess_getWords(offset, words, length);
+            for (int i = 0 ; i < length ; i++) {
+                count += Long.bitCount(words[i]);
+            }
+        }
+        return count;
+    }
+
+    private static ForkJoinPool forkJoinPool() {
+        return ForkJoinPoolHolder.POOL;
+    }
+
+    /**
+     * 第一次并行计算时才创建
+     */
+    private static class ForkJoinPoolHolder {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private static class WordComputeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 6107314282465920193L;
+
+        private final AbstractBitmap bitmap;
+        private final AbstractBitmap that;
+        private final AbstractBitmap result;
+        private final int operation;
+        private final int from;
+        private final int to;
+
+        private WordComputeTask(AbstractBitmap bitmap, AbstractBitmap that, AbstractBitmap result, int operation, int from, int to) {
+            this.bitmap = bitmap;
+            this.that = that;
+            this.result = result;
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                computeWords(bitmap, that, result, operation, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new WordComputeTask(bitmap, that, result, operation, from, middle),
+                    new WordComputeTask(bitmap, that, result, operation, middle, to));
+        }
+
+    }
+
+    private static class CardinalityTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = -3520667912503847281L;
+
+        private final AbstractBitmap bitmap;
+        private final int from;
+        private final int to;
+
+        private CardinalityTask(AbstractBitmap bitmap, int from, int to) {
+            this.bitmap = bitmap;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return countWords(bitmap, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            CardinalityTask left = new CardinalityTask(bitmap, from, middle);
+            left.fork();
+            int right = new CardinalityTask(bitmap, middle, to).compute();
+            return left.join() + right;
+        }
+
+    }
+
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import sviolet.thistle.util.math.MathUtils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>分页LongBitmap抽象实现, 页数据访问层未实现</p>
+ *
+ * <p>数据被分成若干页, 每页是一个独立的数组/缓冲区, 页在第一次写入时才分配(get不会分配页, 未分配的页视为全0),
+ * 因此超大容量的Bitmap只有被写过的页才占用内存. 页的分配是线程安全的, bit读写是否线程安全由实现类决定. </p>
+ *
+ * @param <P> 页类型
+ * @see LongBitmap
+ * @author S.Violet
+ */
+public abstract class AbstractLongBitmap<P> implements LongBitmap {
+
+    /**
+     * 默认页大小(字节), 1M byte = 8M bit
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1 << 20;
+
+    private static final int MIN_PAGE_SIZE = 1 << 10;
+    private static final int MAX_PAGE_SIZE = 1 << 30;
+
+    // 00000001 00000010 00000100 00001000 ...
+    private static final byte[] F = new byte[8];
+
+    // 11111110 11111101 11111011 11110111 ...
+    private static final byte[] R = new byte[8];
+
+    static {
+        for (int i = 0 ; i < 8 ; i++) {
+            R[i] = (byte) ((F[i] = (byte) (0x01 << i)) ^ 0xFF);
+        }
+    }
+
+    // bit size
+    protected final long size;
+    // byte size
+    protected final long slotSize;
+    // page size (bytes)
+    protected final int pageSize;
+
+    private final int pageShift;
+    private final int pageMask;
+    private final AtomicReferenceArray<P> pages;
+
+    /**
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     * @param pageSize 页大小, 字节数, 必须是2的幂, 取值范围[1024, 1073741824]
+     */
+    public AbstractLongBitmap(long size, int pageSize) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must be >= 0, but it's " + size);
+        }
+        if ((size & 0x07L) > 0) {
+            throw new IllegalArgumentException("The size must be a multiple of 8, but it's " + size);
+        }
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || !MathUtils.isPowerOfTwo(pageSize)) {
+            throw new IllegalArgumentException("The pageSize must be a power of two and in [" + MIN_PAGE_SIZE + ", " +
+                    MAX_PAGE_SIZE + "], but it's " + pageSize);
+        }
+        long pageCount = ((size >>> 3) + pageSize - 1) / pageSize;
+        if (pageCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many pages (" + pageCount + "), please increase the pageSize");
+        }
+        this.size = size;
+        this.slotSize = size >>> 3;
+        this.pageSize = pageSize;
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.pageMask = pageSize - 1;
+        this.pages = new AtomicReferenceArray<>((int) pageCount);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean get(long bitIndex) {
+        if (bitIndex < 0 || bitIndex >= size) {
+            throw new IllegalArgumentException("Out of bound, The bitIndex must be >= 0 and < " + size + ", but it's " + bitIndex);
+        }
+        long slotIndex = bitIndex >>> 3;
+        P page = getPage((int) (slotIndex >>> pageShift), page_loadOnRead());
+        if (page == null) {
+            return false;
+        }
+        return (page_getSlot(page, (int) slotIndex & pageMask) & F[(int) bitIndex & 0x07]) != 0;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean put(long bitIndex, boolean value) {
+        if (bitIndex < 0 || bitIndex >= size) {
+            throw new IllegalArgumentException("Out of bound, The bitIndex must be >= 0 and < " + size + ", but it's " + bitIndex);
+        }
+        long slotIndex = bitIndex >>> 3;
+        // 未分配的页全部为0, 写0时不需要分配页
+        P page = getPage((int) (slotIndex >>> pageShift), value || page_loadOnRead());
+        if (page == null) {
+            return true;
+        }
+        int slotOffset = (int) bitIndex & 0x07;
+        int index = (int) slotIndex & pageMask;
+        byte oldValue = page_getSlot(page, index);
+        byte newValue = value ? (byte) (oldValue | F[slotOffset]) : (byte) (oldValue & R[slotOffset]);
+        return page_putSlot(page, index, newValue, oldValue);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void extract(byte[] dst, long byteOffset) {
+        if (dst == null) {
+            return;
+        }
+        checkBound(byteOffset, dst.length);
+        int dstOffset = 0;
+        while (dstOffset < dst.length) {
+            long slotIndex = byteOffset + dstOffset;
+            int pageIndex = (int) (slotIndex >>> pageShift);
+            int pageOffset = (int) slotIndex & pageMask;
+            int length = Math.min(dst.length - dstOffset, pageLength(pageIndex) - pageOffset);
+            P page = getPage(pageIndex, page_loadOnRead());
+            if (page == null) {
+                for (int i = dstOffset ; i < dstOffset + length ; i++) {
+                    dst[i] = 0;
+                }
+            } else {
+                page_extract(page, pageOffset, dst, dstOffset, length);
+            }
+            dstOffset += length;
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void inject(byte[] src, long byteOffset) {
+        if (src == null) {
+            return;
+        }
+        checkBound(byteOffset, src.length);
+        int srcOffset = 0;
+        while (srcOffset < src.length) {
+            long slotIndex = byteOffset + srcOffset;
+            int pageIndex = (int) (slotIndex >>> pageShift);
+            int pageOffset = (int) slotIndex & pageMask;
+            int length = Math.min(src.length - srcOffset, pageLength(pageIndex) - pageOffset);
+            // 未分配的页全部为0, 导入全0的数据时不需要分配页
+            P page = getPage(pageIndex, page_loadOnRead() || !isZero(src, srcOffset, length));
+            if (page != null) {
+                page_inject(page, pageOffset, src, srcOffset, length);
+            }
+            srcOffset += length;
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return 页大小(字节)
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return 总页数
+     */
+    public int getPageCount() {
+        return pages.length();
+    }
+
+    /**
+     * @return 已分配的页数
+     */
+    public int getAllocatedPageCount() {
+        int count = 0;
+        for (int i = 0 ; i < pages.length() ; i++) {
+            if (pages.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 释放所有页
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        synchronized (this) {
+            for (int i = 0 ; i < pages.length() ; i++) {
+                P page = pages.getAndSet(i, null);
+                if (page != null) {
+                    try {
+                        page_release(page);
+                    } catch (IOException e) {
+                        if (exception == null) {
+                            exception = e;
+                        }
+                    }
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * 遍历已分配的页
+     */
+    protected void forEachAllocatedPage(PageVisitor<P> visitor) {
+        for (int i = 0 ; i < pages.length() ; i++) {
+            P page = pages.get(i);
+            if (page != null) {
+                visitor.visit(i, page);
+            }
+        }
+    }
+
+    /**
+     * 页长度(字节), 最后一页可能比pageSize小
+     */
+    protected int pageLength(int pageIndex) {
+        return (int) Math.min(pageSize, slotSize - ((long) pageIndex << pageShift));
+    }
+
+    private P getPage(int pageIndex, boolean create) {
+        P page = pages.get(pageIndex);
+        if (page != null || !create) {
+            return page;
+        }
+        synchronized (this) {
+            page = pages.get(pageIndex);
+            if (page == null) {
+                page = page_create(pageIndex, pageLength(pageIndex));
+                pages.set(pageIndex, page);
+            }
+            return page;
+        }
+    }
+
+    private void checkBound(long byteOffset, int length) {
+        if (byteOffset < 0) {
+            throw new ArrayIndexOutOfBoundsException("offset < 0");
+        }
+        if (byteOffset + length > slotSize) {
+            throw new ArrayIndexOutOfBoundsException("offset + length > max " + slotSize);
+        }
+    }
+
+    private static boolean isZero(byte[] data, int offset, int length) {
+        for (int i = offset ; i < offset + length ; i++) {
+            if (data[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取时是否需要加载页(默认false, 即未分配的页视为全0). 数据来源于外部(例如文件)的实现需要返回true.
+     */
+    protected boolean page_loadOnRead() {
+        return false;
+    }
+
+    /**
+     * 创建(分配)一个页, 有同步锁
+     * @param pageIndex 页索引
+     * @param pageLength 页长度(字节)
+     */
+    protected abstract P page_create(int pageIndex, int pageLength);
+
+    protected abstract byte page_getSlot(P page, int index);
+
+    protected abstract boolean page_putSlot(P page, int index, byte newValue, byte oldValue);
+
+    protected abstract void page_extract(P page, int pageOffset, byte[] dst, int dstOffset, int length);
+
+    protected abstract void page_inject(P page, int pageOffset, byte[] src, int srcOffset, int length);
+
+    /**
+     * 释放一个页
+     */
+    protected abstract void page_release(P page) throws IOException;
+
+    protected interface PageVisitor<P> {
+
+        void visit(int pageIndex, P page);
+
+    }
+
+}
@@ -79,6 +79,8 @@ public interface Bitmap extends Closeable, AutoCloseable {
      * <p>用途示例:</p>
      * <p>两个Bitmap按位异或: bitmap1.computeWith(bitmap2, resultBitmap, (b1, b2) -> (byte) (b1 ^ b2));</p>
      *
+     * <p>使用ComputeFunction中的常量(AND/OR/XOR/AND_NOT)时, 部分实现会按long(64bit)批量计算, 比自定义computeFunction快得多.</p>
+     *
      * @param computeWith 参与计算的Bitmap, 要求三个Bitmap容量必须一致.
      * @param resultBitmap 结果保存在这个Bitmap(数据会被覆盖), 要求三个Bitmap容量必须一致.
      * @param computeFunction 计算逻辑
@@ -117,6 +119,9 @@ public interface Bitmap extends Closeable, AutoCloseable {
             }
         };
 
+        /**
+         * 两个Bitmap按位或
+         */
         static ComputeFunction OR = new ComputeFunction() {
             @Override
             public byte compute(byte b1, byte b2) {
@@ -124,6 +129,16 @@ public interface Bitmap extends Closeable, AutoCloseable {
             }
         };
 
+        /**
+         * 第一个Bitmap & ~第二个Bitmap
+         */
+        static ComputeFunction AND_NOT = new ComputeFunction() {
+            @Override
+            public byte compute(byte b1, byte b2) {
+                return (byte) (b1 & ~b2);
+            }
+        };
+
     }
 
 }
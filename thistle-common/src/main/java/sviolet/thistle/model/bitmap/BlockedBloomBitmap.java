@@ -0,0 +1,489 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>分块布隆过滤器(Blocked Bloom Filter)</p>
+ *
+ * <p>容量按512bit(64 byte, 一个CPU缓存行)分块, 对数据计算一次128位哈希(MurmurHash3), 第一个64位哈希选择块,
+ * 第二个64位哈希在块内生成k个不重复的bit位置. 一次bloomAdd/bloomContains只访问一个块, 大容量(远大于CPU缓存)时,
+ * 每次查询只有一次内存访问未命中(经典布隆过滤器是k次). 代价是相同容量下误判率略高(块内负载不均), 可以适当增大容量弥补.</p>
+ *
+ * <p>注意: 堆内存/直接内存的起始地址不保证按64 byte对齐, 一个块最多跨两个缓存行.</p>
+ *
+ * <p>数据存放在AbstractBitmap中(HEAP/DIRECT/CONCURRENT/SYNC, 见BloomBitmapBuilder.Storage), Bitmap接口的方法直接交给
+ * 存储执行, 一致性与对应的存储相同.</p>
+ *
+ * <pre>
+ *      BlockedBloomBitmap bloom = new BloomBitmapBuilder()
+ *              .expectedInsertions(50000000)
+ *              .falsePositiveProbability(0.01)
+ *              .storage(BloomBitmapBuilder.Storage.CONCURRENT)
+ *              .buildBlocked();
+ * </pre>
+ *
+ * @see BloomBitmap
+ * @see BloomBitmapBuilder
+ * @author S.Violet
+ */
+public class BlockedBloomBitmap implements BulkBloomBitmap {
+
+    /**
+     * 块大小(比特数), 512 bit = 64 byte
+     */
+    public static final int BLOCK_SIZE = 512;
+
+    private static final int BLOCK_SHIFT = 9;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final AbstractBitmap storage;
+    private final int hashNum;
+    private final int blockNum;
+
+    private final BloomHash.Consumer bloomAdder = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int base = blockIndex(hash1) << BLOCK_SHIFT;
+            int step = step(hash1);
+            for (int i = 0 ; i < hashNum ; i++) {
+                storage.put(base + (((int) hash2 + i * step) & BLOCK_MASK), true);
+            }
+            return true;
+        }
+    };
+
+    private final BloomHash.Consumer bloomChecker = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int base = blockIndex(hash1) << BLOCK_SHIFT;
+            int step = step(hash1);
+            for (int i = 0 ; i < hashNum ; i++) {
+                if (!storage.get(base + (((int) hash2 + i * step) & BLOCK_MASK))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
+    /**
+     * 使用堆内存(HeapBitmap)
+     *
+     * @param size 容量, 比特数, 必须是512的倍数
+     * @param hashNum 哈希函数个数(块内bit数), 取值范围[1, 64]
+     */
+    public BlockedBloomBitmap(int size, int hashNum) {
+        this(size, hashNum, BloomBitmapBuilder.Storage.HEAP);
+    }
+
+    /**
+     * @param size 容量, 比特数, 必须是512的倍数
+     * @param hashNum 哈希函数个数(块内bit数), 取值范围[1, 64]
+     * @param storage 存储方式
+     */
+    public BlockedBloomBitmap(int size, int hashNum, BloomBitmapBuilder.Storage storage) {
+        if (size <= 0 || (size & BLOCK_MASK) != 0) {
+            throw new IllegalArgumentException("The size must be > 0 and a multiple of " + BLOCK_SIZE + ", but it's " + size);
+        }
+        if (hashNum < 1 || hashNum > AbstractBitmap.MAX_BLOOM_HASH_NUM) {
+            throw new IllegalArgumentException("hashNum must be >= 1 and <= " + AbstractBitmap.MAX_BLOOM_HASH_NUM + ", but it's " + hashNum);
+        }
+        if (storage == null) {
+            throw new IllegalArgumentException("storage is null");
+        }
+        this.storage = BloomBitmapBuilder.createStorage(size, storage);
+        this.hashNum = hashNum;
+        this.blockNum = size >>> BLOCK_SHIFT;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void bloomAdd(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        BloomHash.murmur3(data, 0, data.length, bloomAdder);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean bloomContains(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return BloomHash.murmur3(data, 0, data.length, bloomChecker);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void bloomAdd(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        BloomHash.murmur3(data, offset, length, bloomAdder);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean bloomContains(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        return BloomHash.murmur3(data, offset, length, bloomChecker);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void bloomAdd(ByteBuffer data) {
+        if (data == null) {
+            bloomAdd((byte[]) null);
+            return;
+        }
+        BloomHash.murmur3(data, bloomAdder);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean bloomContains(ByteBuffer data) {
+        if (data == null) {
+            return bloomContains((byte[]) null);
+        }
+        return BloomHash.murmur3(data, bloomChecker);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void bloomAdd(CharSequence data) {
+        if (data == null) {
+            bloomAdd((byte[]) null);
+            return;
+        }
+        BloomHash.murmur3Utf8(data, bloomAdder);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean bloomContains(CharSequence data) {
+        if (data == null) {
+            return bloomContains((byte[]) null);
+        }
+        return BloomHash.murmur3Utf8(data, bloomChecker);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 排序后同一个块的bit连续写入
+     */
+    @Override
+    public void bloomAddAll(byte[][] keys) {
+        if (keys == null) {
+            return;
+        }
+        BloomHash.IndexCollector collector = new BlockedIndexCollector(hashNum, Math.min(keys.length, BloomHash.BATCH_SIZE));
+        for (int start = 0 ; start < keys.length ; start += BloomHash.BATCH_SIZE) {
+            int end = Math.min(start + BloomHash.BATCH_SIZE, keys.length);
+            collector.reset();
+            for (int i = start ; i < end ; i++) {
+                byte[] key = keys[i] != null ? keys[i] : BloomHash.EMPTY;
+                BloomHash.murmur3(key, 0, key.length, collector);
+            }
+            int[] indexes = collector.indexes;
+            int count = collector.position;
+            Arrays.sort(indexes, 0, count);
+            for (int i = 0 ; i < count ; i++) {
+                storage.put(indexes[i], true);
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int bloomContainsAll(byte[][] keys, BitSet result) {
+        if (result == null) {
+            throw new IllegalArgumentException("result is null");
+        }
+        if (keys == null) {
+            return 0;
+        }
+        int containsNum = 0;
+        BloomHash.IndexCollector collector = new BlockedIndexCollector(hashNum, Math.min(keys.length, BloomHash.BATCH_SIZE));
+        for (int start = 0 ; start < keys.length ; start += BloomHash.BATCH_SIZE) {
+            int end = Math.min(start + BloomHash.BATCH_SIZE, keys.length);
+            collector.reset();
+            for (int i = start ; i < end ; i++) {
+                byte[] key = keys[i] != null ? keys[i] : BloomHash.EMPTY;
+                BloomHash.murmur3(key, 0, key.length, collector);
+            }
+            int[] indexes = collector.indexes;
+            int position = 0;
+            for (int i = start ; i < end ; i++) {
+                boolean contains = true;
+                for (int j = 0 ; j < hashNum ; j++) {
+                    contains &= storage.get(indexes[position++]);
+                }
+                result.set(i, contains);
+                if (contains) {
+                    containsNum++;
+                }
+            }
+        }
+        return containsNum;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 按经典布隆过滤器公式估算, 由于块内负载不均, 实际误判率略高于估算值
+     */
+    @Override
+    public double bloomEstimatedFpp() {
+        return Math.pow((double) storage.cardinality() / storage.size(), hashNum);
+    }
+
+    /**
+     * @return 哈希函数个数(块内bit数)
+     */
+    public int getHashNum() {
+        return hashNum;
+    }
+
+    /**
+     * @return 块数量
+     */
+    public int getBlockNum() {
+        return blockNum;
+    }
+
+    private int blockIndex(long hash1) {
+        return (int) ((hash1 & Long.MAX_VALUE) % blockNum);
+    }
+
+    /**
+     * 块内步长, 奇数, 保证k(<=64)个bit位置不重复
+     */
+    private static int step(long hash1) {
+        return (int) (hash1 >>> 32) | 1;
+    }
+
+    /**
+     * 批量操作的索引收集器
+     */
+    private class BlockedIndexCollector extends BloomHash.IndexCollector {
+
+        private BlockedIndexCollector(int hashNum, int capacity) {
+            super(hashNum, capacity);
+        }
+
+        @Override
+        int index(long hash1, long hash2, int i) {
+            return (blockIndex(hash1) << BLOCK_SHIFT) + (((int) hash2 + i * step(hash1)) & BLOCK_MASK);
+        }
+
+    }
+
+    /* ******************************************************************************************************** */
+
+    @Override
+    public boolean get(int bitIndex) {
+        return storage.get(bitIndex);
+    }
+
+    @Override
+    public boolean put(int bitIndex, boolean value) {
+        return storage.put(bitIndex, value);
+    }
+
+    @Override
+    public byte[] extractAll() {
+        return storage.extractAll();
+    }
+
+    @Override
+    public void extract(byte[] dst, int byteOffset) {
+        storage.extract(dst, byteOffset);
+    }
+
+    @Override
+    public void inject(byte[] src, int byteOffset) {
+        storage.inject(src, byteOffset);
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public void computeWith(Bitmap computeWith, Bitmap resultBitmap, ComputeFunction computeFunction) {
+        storage.computeWith(unwrap(computeWith), unwrap(resultBitmap), computeFunction);
+    }
+
+    @Override
+    public void and(Bitmap that) {
+        storage.and(unwrap(that));
+    }
+
+    @Override
+    public void and(Bitmap that, Bitmap resultBitmap) {
+        storage.and(unwrap(that), unwrap(resultBitmap));
+    }
+
+    @Override
+    public void or(Bitmap that) {
+        storage.or(unwrap(that));
+    }
+
+    @Override
+    public void or(Bitmap that, Bitmap resultBitmap) {
+        storage.or(unwrap(that), unwrap(resultBitmap));
+    }
+
+    @Override
+    public void xor(Bitmap that) {
+        storage.xor(unwrap(that));
+    }
+
+    @Override
+    public void xor(Bitmap that, Bitmap resultBitmap) {
+        storage.xor(unwrap(that), unwrap(resultBitmap));
+    }
+
+    @Override
+    public void andNot(Bitmap that) {
+        storage.andNot(unwrap(that));
+    }
+
+    @Override
+    public void andNot(Bitmap that, Bitmap resultBitmap) {
+        storage.andNot(unwrap(that), unwrap(resultBitmap));
+    }
+
+    @Override
+    public int cardinality() {
+        return storage.cardinality();
+    }
+
+    @Override
+    public int nextSetBit(int fromBitIndex) {
+        return storage.nextSetBit(fromBitIndex);
+    }
+
+    @Override
+    public int nextClearBit(int fromBitIndex) {
+        return storage.nextClearBit(fromBitIndex);
+    }
+
+    @Override
+    public void forEachSetBit(BitVisitor visitor) {
+        storage.forEachSetBit(visitor);
+    }
+
+    /**
+     * 开启/关闭脏页跟踪
+     *
+     * @see AbstractBitmap#setDirtyTracking(boolean)
+     */
+    public void setDirtyTracking(boolean enabled) {
+        storage.setDirtyTracking(enabled);
+    }
+
+    /**
+     * @see AbstractBitmap#isDirtyTracking()
+     */
+    public boolean isDirtyTracking() {
+        return storage.isDirtyTracking();
+    }
+
+    /**
+     * @see AbstractBitmap#getDirtyPageNum()
+     */
+    public int getDirtyPageNum() {
+        return storage.getDirtyPageNum();
+    }
+
+    /**
+     * @see AbstractBitmap#writeTo(WritableByteChannel)
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        storage.writeTo(channel);
+    }
+
+    /**
+     * @see AbstractBitmap#readFrom(ReadableByteChannel)
+     */
+    public void readFrom(ReadableByteChannel channel) throws IOException {
+        storage.readFrom(channel);
+    }
+
+    /**
+     * @see AbstractBitmap#writeDeltaTo(WritableByteChannel)
+     */
+    public int writeDeltaTo(WritableByteChannel channel) throws IOException {
+        return storage.writeDeltaTo(channel);
+    }
+
+    /**
+     * @see AbstractBitmap#applyDelta(ReadableByteChannel)
+     */
+    public int applyDelta(ReadableByteChannel channel) throws IOException {
+        return storage.applyDelta(channel);
+    }
+
+    /**
+     * 回收内存(DIRECT存储)
+     */
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+
+    /**
+     * 与BlockedBloomBitmap计算时, 直接使用其存储, 以便按long批量计算
+     */
+    private static Bitmap unwrap(Bitmap bitmap) {
+        if (bitmap instanceof BlockedBloomBitmap) {
+            return ((BlockedBloomBitmap) bitmap).storage;
+        }
+        return bitmap;
+    }
+
+}
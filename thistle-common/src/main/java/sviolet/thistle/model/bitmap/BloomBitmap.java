@@ -33,6 +33,7 @@ package sviolet.thistle.model.bitmap;
  *     3.增加哈希算法数量(默认3个)可以减少误判率<br>
  *     4.增大Bitmap容量(size)可以减少误判率, 最大建议1000000000(10亿), 约占120M内存<br>
  *     5.要对可能塞入的元素数量做预计, 已塞入的元素数量对误判率影响非常大<br>
+ *     6.建议使用BloomBitmapBuilder, 根据预计元素数量和误判率计算容量和哈希算法数量<br>
  * </p>
  *
  * <p>
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>布隆过滤器构建器, 根据预计元素数量(n)和期望误判率(p)计算容量(m)和哈希函数个数(k)</p>
+ *
+ * <p>m = -n * ln(p) / (ln2)^2, 向上取整为64的倍数; k = m / n * ln2, 四舍五入, 最小为1</p>
+ *
+ * <p>创建出的布隆过滤器对每个数据只计算一次128位哈希(MurmurHash3), 通过双重哈希生成k个索引, 不创建对象.
+ * 可以调用bloomEstimatedFpp()查看当前估算的误判率, 判断是否需要扩容.</p>
+ *
+ * <pre>
+ *      // 预计100万元素, 误判率0.1%, 容量约1438万bit(约1.8M byte), 10个哈希
+ *      AbstractBitmap bloom = new BloomBitmapBuilder()
+ *              .expectedInsertions(1000000)
+ *              .falsePositiveProbability(0.001)
+ *              .storage(BloomBitmapBuilder.Storage.CONCURRENT)
+ *              .build();
+ * </pre>
+ *
+ * @see BloomBitmap
+ * @author S.Violet
+ */
+public class BloomBitmapBuilder {
+
+    /**
+     * 最大容量(比特数), int范围内最大的64的倍数
+     */
+    public static final int MAX_SIZE = Integer.MAX_VALUE & ~0x3F;
+
+    private long expectedInsertions = 0L;
+    private double falsePositiveProbability = 0.03;
+    private Storage storage = Storage.HEAP;
+
+    /**
+     * [必须]预计元素数量
+     */
+    public BloomBitmapBuilder expectedInsertions(long expectedInsertions) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions must be > 0, but it's " + expectedInsertions);
+        }
+        this.expectedInsertions = expectedInsertions;
+        return this;
+    }
+
+    /**
+     * [可选]期望误判率, 取值范围(0, 1), 默认0.03
+     */
+    public BloomBitmapBuilder falsePositiveProbability(double falsePositiveProbability) {
+        if (!(falsePositiveProbability > 0.0 && falsePositiveProbability < 1.0)) {
+            throw new IllegalArgumentException("falsePositiveProbability must be > 0.0 and < 1.0, but it's " + falsePositiveProbability);
+        }
+        this.falsePositiveProbability = falsePositiveProbability;
+        return this;
+    }
+
+    /**
+     * [可选]存储方式, 默认HEAP
+     */
+    public BloomBitmapBuilder storage(Storage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("storage is null");
+        }
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * @return 计算得到的容量(比特数)
+     */
+    public int getSize() {
+        checkExpectedInsertions();
+        return optimalSize(expectedInsertions, falsePositiveProbability);
+    }
+
+    /**
+     * @return 计算得到的哈希函数个数
+     */
+    public int getHashNum() {
+        checkExpectedInsertions();
+        return optimalHashNum(expectedInsertions, optimalSize(expectedInsertions, falsePositiveProbability));
+    }
+
+    /**
+     * 创建布隆过滤器
+     */
+    public AbstractBitmap build() {
+        AbstractBitmap bitmap = createStorage(getSize(), storage);
+        bitmap.setBloomHashNum(getHashNum());
+        return bitmap;
+    }
+
+    /**
+     * 创建分块布隆过滤器(BlockedBloomBitmap), 每次查询只访问一个缓存行(64 byte), 容量向上取整为512的倍数.
+     * 相同容量下, 实际误判率略高于falsePositiveProbability.
+     */
+    public BlockedBloomBitmap buildBlocked() {
+        int size = getSize();
+        size = (int) Math.min(((long) size + BlockedBloomBitmap.BLOCK_SIZE - 1) & ~(BlockedBloomBitmap.BLOCK_SIZE - 1L),
+                Integer.MAX_VALUE & ~(BlockedBloomBitmap.BLOCK_SIZE - 1));
+        return new BlockedBloomBitmap(size, getHashNum(), storage);
+    }
+
+    /**
+     * 创建计数布隆过滤器(CountingBloomFilter, 支持删除), 计数器数量等于计算得到的容量, 内存占用是普通布隆过滤器的4倍.
+     * 不支持SYNC存储.
+     */
+    public CountingBloomFilter buildCounting() {
+        int size = getSize();
+        if (size > CountingBloomFilter.MAX_COUNTER_NUM) {
+            throw new IllegalArgumentException("The counter number of counting bloom filter is too large (" + size + " > " +
+                    CountingBloomFilter.MAX_COUNTER_NUM + "), reduce expectedInsertions or increase falsePositiveProbability");
+        }
+        return new CountingBloomFilter(size, getHashNum(), storage);
+    }
+
+    /**
+     * 创建可扩容布隆过滤器(ScalableBloomFilter), expectedInsertions和falsePositiveProbability作为第一级的配置,
+     * 扩容倍数2, 误判率收紧比例0.8
+     */
+    public ScalableBloomFilter buildScalable() {
+        return buildScalable(ScalableBloomFilter.DEFAULT_GROWTH_RATIO, ScalableBloomFilter.DEFAULT_TIGHTENING_RATIO);
+    }
+
+    /**
+     * 创建可扩容布隆过滤器(ScalableBloomFilter), expectedInsertions和falsePositiveProbability作为第一级的配置
+     *
+     * @param growthRatio 扩容倍数, 每一级的预计元素数量是上一级的几倍, 取值范围[1, 16]
+     * @param tighteningRatio 误判率收紧比例, 每一级的期望误判率是上一级的几倍, 取值范围(0, 1)
+     */
+    public ScalableBloomFilter buildScalable(int growthRatio, double tighteningRatio) {
+        checkExpectedInsertions();
+        return new ScalableBloomFilter(expectedInsertions, falsePositiveProbability, storage, growthRatio, tighteningRatio);
+    }
+
+    /**
+     * 创建布谷鸟过滤器(支持删除), 容量为expectedInsertions. falsePositiveProbability >= 8 / 256时使用8bit指纹,
+     * 否则使用16bit指纹(误判率下限约0.012%). HEAP存储时创建CuckooFilter, CONCURRENT/SYNC存储时创建ConcurrentCuckooFilter,
+     * 不支持DIRECT存储.
+     */
+    public CuckooFilter buildCuckoo() {
+        checkExpectedInsertions();
+        if (expectedInsertions > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("expectedInsertions of cuckoo filter must be <= " + Integer.MAX_VALUE + ", but it's " + expectedInsertions);
+        }
+        int fingerprintBits = falsePositiveProbability >= 8.0 / 256 ? 8 : 16;
+        switch (storage) {
+            case HEAP:
+                return new CuckooFilter((int) expectedInsertions, fingerprintBits);
+            case CONCURRENT:
+            case SYNC:
+                return new ConcurrentCuckooFilter((int) expectedInsertions, fingerprintBits);
+            default:
+                throw new IllegalArgumentException("CuckooFilter does not support " + storage + " storage");
+        }
+    }
+
+    /**
+     * 创建持久化的布隆过滤器(MappedBitmap, 忽略storage), 文件存在则打开, 不存在则创建.
+     * 哈希函数个数记录在文件头中.
+     *
+     * @param file 文件
+     * @throws IOException 文件存在, 但容量或哈希函数个数与当前配置不一致
+     */
+    public MappedBitmap buildMapped(File file) throws IOException {
+        int size = getSize();
+        int hashNum = getHashNum();
+        boolean exists = file.exists() && file.length() > 0;
+        MappedBitmap bitmap = MappedBitmap.openOrCreate(file, size);
+        if (!exists) {
+            bitmap.setBloomHashNum(hashNum);
+        } else if (bitmap.getBloomHashNum() != hashNum) {
+            int existedHashNum = bitmap.getBloomHashNum();
+            bitmap.close();
+            throw new IOException("The bloomHashNum of the existed MappedBitmap file is " + existedHashNum +
+                    ", but expected bloomHashNum is " + hashNum + ", file: " + file.getAbsolutePath());
+        }
+        return bitmap;
+    }
+
+    static AbstractBitmap createStorage(int size, Storage storage) {
+        switch (storage) {
+            case DIRECT:
+                return new DirectBitmap(size);
+            case CONCURRENT:
+                return new ConcurrentWordHeapBitmap(size);
+            case SYNC:
+                return new SyncHeapBitmap(size);
+            case HEAP:
+            default:
+                return new HeapBitmap(size);
+        }
+    }
+
+    private void checkExpectedInsertions() {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions is required");
+        }
+    }
+
+    /**
+     * 计算容量: m = -n * ln(p) / (ln2)^2, 向上取整为64的倍数
+     *
+     * @param expectedInsertions 预计元素数量
+     * @param falsePositiveProbability 期望误判率
+     * @return 容量(比特数)
+     * @throws IllegalArgumentException 容量超过MAX_SIZE
+     */
+    public static int optimalSize(long expectedInsertions, double falsePositiveProbability) {
+        double size = -expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("The size of bloom bitmap is too large (" + (long) Math.ceil(size) +
+                    " bits > " + MAX_SIZE + "), reduce expectedInsertions or increase falsePositiveProbability");
+        }
+        long result = (long) Math.ceil(size);
+        result = (result + 0x3F) & ~0x3FL;
+        return (int) Math.min(Math.max(result, 64L), MAX_SIZE);
+    }
+
+    /**
+     * 计算哈希函数个数: k = m / n * ln2, 四舍五入, 取值范围[1, AbstractBitmap.MAX_BLOOM_HASH_NUM]
+     *
+     * @param expectedInsertions 预计元素数量
+     * @param size 容量(比特数)
+     * @return 哈希函数个数
+     */
+    public static int optimalHashNum(long expectedInsertions, int size) {
+        long hashNum = Math.round((double) size / expectedInsertions * Math.log(2));
+        return (int) Math.min(Math.max(hashNum, 1L), AbstractBitmap.MAX_BLOOM_HASH_NUM);
+    }
+
+    /**
+     * 存储方式
+     */
+    public enum Storage {
+
+        /**
+         * HeapBitmap, 非线程安全
+         */
+        HEAP,
+
+        /**
+         * DirectBitmap, 堆外内存, 非线程安全, 使用完毕后需要close
+         */
+        DIRECT,
+
+        /**
+         * ConcurrentWordHeapBitmap, 无锁, 线程安全
+         */
+        CONCURRENT,
+
+        /**
+         * SyncHeapBitmap, 分段锁, 线程安全
+         */
+        SYNC
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import sviolet.thistle.util.conversion.HashUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>布隆过滤器哈希(内部使用)</p>
+ *
+ * <p>对数据计算一次128位哈希(HashUtils.murmur3_128, seed 0), 结果的两个long直接交给Consumer,
+ * 由Consumer通过双重哈希(hash1 + i * hash2)生成k个索引, 整个过程不创建对象. 字符串按UTF-8计算, 与HashUtils一致.</p>
+ *
+ * @author S.Violet
+ */
+final class BloomHash {
+
+    private BloomHash() {
+    }
+
+    /**
+     * 接收128位哈希结果, hash1为128位哈希的低64位, hash2为高64位
+     */
+    interface Consumer extends HashUtils.Hash128Consumer {
+
+    }
+
+    /**
+     * 计算data[offset, offset + length)的128位哈希, 交给consumer
+     *
+     * @return consumer的返回值
+     */
+    static boolean murmur3(byte[] data, int offset, int length, Consumer consumer) {
+        return HashUtils.murmur3_128(data, offset, length, 0, consumer);
+    }
+
+    /**
+     * 计算ByteBuffer中[position, limit)的128位哈希, 交给consumer, 不修改position/limit. 结果与相同内容的byte[]一致.
+     *
+     * @return consumer的返回值
+     */
+    static boolean murmur3(ByteBuffer buffer, Consumer consumer) {
+        return HashUtils.murmur3_128(buffer, 0, consumer);
+    }
+
+    /**
+     * 计算CharSequence按UTF-8编码后的128位哈希, 交给consumer, 边编码边计算, 不创建对象.
+     * 结果与String.getBytes("UTF-8")的哈希一致(不成对的代理字符编码为'?').
+     *
+     * @return consumer的返回值
+     */
+    static boolean murmur3Utf8(CharSequence chars, Consumer consumer) {
+        return HashUtils.murmur3_128(chars, 0, consumer);
+    }
+
+    /**
+     * 批量计算时, 先把所有数据的索引收集起来, 再统一访问内存
+     */
+    static abstract class IndexCollector implements Consumer {
+
+        final int hashNum;
+        final int[] indexes;
+        int position = 0;
+
+        /**
+         * @param hashNum 每个数据的索引数
+         * @param capacity 最多收集几个数据
+         */
+        IndexCollector(int hashNum, int capacity) {
+            this.hashNum = hashNum;
+            this.indexes = new int[hashNum * capacity];
+        }
+
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            for (int i = 0 ; i < hashNum ; i++) {
+                indexes[position++] = index(hash1, hash2, i);
+            }
+            return true;
+        }
+
+        /**
+         * 第i个索引
+         */
+        abstract int index(long hash1, long hash2, int i);
+
+        void reset() {
+            position = 0;
+        }
+
+    }
+
+    /**
+     * 批量操作每批的数据个数, 一批的索引(最多64 * 64个int)放得进L1缓存
+     */
+    static final int BATCH_SIZE = 64;
+
+    static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 检查data[offset, offset + length)是否越界
+     */
+    static void checkBounds(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IllegalArgumentException("Out of bounds, data length: " + data.length + ", offset: " + offset + ", length: " + length);
+        }
+    }
+
+    /**
+     * 双重哈希生成的第i个索引, 结果为[0, size)
+     */
+    static int index(long hash1, long hash2, int i, int size) {
+        return (int) (((hash1 + i * hash2) & Long.MAX_VALUE) % size);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+/**
+ * <p>支持按字(long)批量运算的Bitmap</p>
+ *
+ * <p>在Bitmap的基础上增加按位与/或/异或, 统计, 以及遍历值为1的bit. 实现类: AbstractBitmap的子类, BlockedBloomBitmap,
+ * CompressedBitmap.</p>
+ *
+ * @see Bitmap
+ * @author S.Violet
+ */
+public interface BulkBitmap extends Bitmap {
+
+    /**
+     * 按位与, 结果保存在当前Bitmap中. 要求两个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     */
+    void and(Bitmap that);
+
+    /**
+     * 按位与, 结果保存在resultBitmap中(数据会被覆盖). 要求三个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     * @param resultBitmap 结果保存在这个Bitmap
+     */
+    void and(Bitmap that, Bitmap resultBitmap);
+
+    /**
+     * 按位或, 结果保存在当前Bitmap中. 要求两个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     */
+    void or(Bitmap that);
+
+    /**
+     * 按位或, 结果保存在resultBitmap中(数据会被覆盖). 要求三个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     * @param resultBitmap 结果保存在这个Bitmap
+     */
+    void or(Bitmap that, Bitmap resultBitmap);
+
+    /**
+     * 按位异或, 结果保存在当前Bitmap中. 要求两个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     */
+    void xor(Bitmap that);
+
+    /**
+     * 按位异或, 结果保存在resultBitmap中(数据会被覆盖). 要求三个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     * @param resultBitmap 结果保存在这个Bitmap
+     */
+    void xor(Bitmap that, Bitmap resultBitmap);
+
+    /**
+     * 当前Bitmap & ~that, 结果保存在当前Bitmap中. 要求两个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     */
+    void andNot(Bitmap that);
+
+    /**
+     * 当前Bitmap & ~that, 结果保存在resultBitmap中(数据会被覆盖). 要求三个Bitmap容量必须一致. 注意!!! 该方法非线程安全, 同computeWith
+     * @param that 参与计算的Bitmap
+     * @param resultBitmap 结果保存在这个Bitmap
+     */
+    void andNot(Bitmap that, Bitmap resultBitmap);
+
+    /**
+     * @return 值为1的bit数量
+     */
+    int cardinality();
+
+    /**
+     * @param fromBitIndex 起始位置(比特位置, 包含)
+     * @return 从fromBitIndex开始, 第一个值为1的bit位置, 不存在时返回-1
+     */
+    int nextSetBit(int fromBitIndex);
+
+    /**
+     * @param fromBitIndex 起始位置(比特位置, 包含)
+     * @return 从fromBitIndex开始, 第一个值为0的bit位置, 不存在时返回-1
+     */
+    int nextClearBit(int fromBitIndex);
+
+    /**
+     * 按顺序遍历所有值为1的bit
+     * @param visitor 访问者, 返回false时终止遍历
+     */
+    void forEachSetBit(BitVisitor visitor);
+
+    /**
+     * 遍历bit的访问者
+     */
+    interface BitVisitor {
+
+        /**
+         * @param bitIndex 值为1的bit位置
+         * @return true: 继续遍历, false: 终止遍历
+         */
+        boolean visit(int bitIndex);
+
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * <p>扩展的Bloom Bitmap</p>
+ *
+ * <p>在BloomBitmap的基础上增加切片/ByteBuffer/CharSequence数据, 批量添加/检查, 误判率估算, 同时支持BulkBitmap的批量运算. 实现类: AbstractBitmap的子类, BlockedBloomBitmap.</p>
+ *
+ * @see BloomBitmap
+ * @see BulkBitmap
+ * @author S.Violet
+ */
+public interface BulkBloomBitmap extends BloomBitmap, BulkBitmap {
+
+    /**
+     * 将data[offset, offset + length)添加到布隆过滤器, 与添加等内容的byte[]效果相同, 无需复制
+     *
+     * @param data 数据
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    void bloomAdd(byte[] data, int offset, int length);
+
+    /**
+     * 检查data[offset, offset + length)是否在布隆过滤器中存在, 与检查等内容的byte[]效果相同, 无需复制
+     *
+     * @param data 数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    boolean bloomContains(byte[] data, int offset, int length);
+
+    /**
+     * 将ByteBuffer中[position, limit)的数据添加到布隆过滤器, 不改变position/limit, 支持直接内存
+     *
+     * @param data 数据
+     */
+    void bloomAdd(ByteBuffer data);
+
+    /**
+     * 检查ByteBuffer中[position, limit)的数据是否在布隆过滤器中存在, 不改变position/limit, 支持直接内存
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    boolean bloomContains(ByteBuffer data);
+
+    /**
+     * 将字符串添加到布隆过滤器, 与添加String.getBytes("UTF-8")效果相同, 边编码边哈希, 不创建byte[]
+     *
+     * @param data 数据
+     */
+    void bloomAdd(CharSequence data);
+
+    /**
+     * 检查字符串是否在布隆过滤器中存在, 与检查String.getBytes("UTF-8")效果相同, 边编码边哈希, 不创建byte[]
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    boolean bloomContains(CharSequence data);
+
+    /**
+     * 批量添加. 先计算一批数据的全部索引, 排序后再写入内存, 相邻的索引在同一个缓存行中, 减少内存访问未命中.
+     *
+     * @param keys 数据
+     */
+    void bloomAddAll(byte[][] keys);
+
+    /**
+     * 批量检查. 先计算一批数据的全部索引, 再读取内存, 每个数据的k个bit一起读取(不提前返回), 多个内存访问可以并行.
+     *
+     * @param keys 数据
+     * @param result 结果, 第i个数据存在(可能存在)时第i个bit为1, 否则为0
+     * @return 存在(可能存在)的数据个数
+     */
+    int bloomContainsAll(byte[][] keys, BitSet result);
+
+    /**
+     * 根据当前值为1的bit比例估算误判率: (bit为1的数量 / 容量) ^ 哈希函数个数.
+     * 注意, 这个方法需要统计全部bit(cardinality), 不要频繁调用.
+     *
+     * @return 估算的当前误判率
+     */
+    double bloomEstimatedFpp();
+
+}
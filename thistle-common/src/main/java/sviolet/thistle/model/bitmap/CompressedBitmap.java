@@ -0,0 +1,981 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>[非线程安全]压缩Bitmap(Roaring Bitmap思路), 适合稀疏(绝大部分bit为0)或大段连续的数据</p>
+ *
+ * <p>按65536个bit(8K byte)分块, 每块使用一个容器存放, 全0的块不占用内存. 容器有三种:</p>
+ * <p>1.ArrayContainer: 有序的char数组, 存放块内为1的bit位置, 块内为1的bit数 <= 4096 时使用, 内存 = 2 byte * 数量<br>
+ * 2.BitmapContainer: long[1024], 块内为1的bit数 > 4096 时使用, 内存 = 8K byte<br>
+ * 3.RunContainer: 连续区间(起点, 长度), 连续数据时使用, 内存 = 4 byte * 区间数<br></p>
+ *
+ * <p>堆内存占用 = 约 4 byte * ( 容量 / 65536 ) + 各容器占用</p>
+ * <p>容量: 指的是比特数, 不是指字节数</p>
+ *
+ * <p>extractAll/extract/inject使用的数据格式与其他Bitmap(例如HeapBitmap)完全一致(稠密字节), 可以互相导入导出.</p>
+ *
+ * <p>computeWith: 两个CompressedBitmap之间使用AND/OR/XOR/AND_NOT(Bitmap.ComputeFunction中的常量)计算时, 直接按容器计算, 结果也是压缩的;
+ * 其他情况按字节计算(与AbstractBitmap相同).</p>
+ *
+ * <p>一致性: 所有操作均无同步锁, 不支持多线程.</p>
+ *
+ * <p>特点: 稀疏数据内存占用极小(比HeapBitmap小几个数量级), bit读写比HeapBitmap慢(ArrayContainer需要二分查找), bit读写不支持多线程</p>
+ *
+ * @see BulkBitmap
+ * @author S.Violet
+ */
+public class CompressedBitmap implements BulkBitmap {
+
+    // Max length of data (byte array)
+    private static final int MAX_BYTE_ARRAY_LENGTH = Integer.MAX_VALUE >> 3;
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_MASK = 0xFFFF;
+    private static final int CHUNK_BYTES = 1 << (CHUNK_SHIFT - 3);
+    private static final int CHUNK_WORDS = 1 << (CHUNK_SHIFT - 6);
+
+    /**
+     * ArrayContainer最大数量, 超过后转为BitmapContainer
+     */
+    private static final int ARRAY_MAX_CARDINALITY = 4096;
+
+    // bit size
+    private final int size;
+    private final Container[] containers;
+
+    /**
+     * 创建指定容量的Bitmap
+     *
+     * @param size 容量, 比特数(不是字节数)
+     */
+    public CompressedBitmap(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must be >= 0, but it's " + size);
+        }
+        if ((size & 0x07) > 0) {
+            throw new IllegalArgumentException("The size must be a multiple of 8, but it's " + size);
+        }
+        this.size = size;
+        this.containers = new Container[(int) (((long) size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * 根据二进制数据(稠密格式, 与extractAll一致)创建相同容量的Bitmap
+     *
+     * @param data 二进制数据
+     */
+    public CompressedBitmap(byte[] data) {
+        this(checkDataLength(data) << 3);
+        if (data != null && data.length > 0) {
+            inject(data, 0);
+        }
+    }
+
+    private static int checkDataLength(byte[] data) {
+        if (data == null) {
+            return 0;
+        }
+        if (data.length > MAX_BYTE_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("The length of data must be <= " + MAX_BYTE_ARRAY_LENGTH + ", but it's " + data.length);
+        }
+        return data.length;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean get(int bitIndex) {
+        if (bitIndex < 0 || bitIndex >= size) {
+            throw new IllegalArgumentException("Out of bound, The bitIndex must be >= 0 and < " + size + ", but it's " + bitIndex);
+        }
+        Container container = containers[bitIndex >>> CHUNK_SHIFT];
+        return container != null && container.contains(bitIndex & CHUNK_MASK);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean put(int bitIndex, boolean value) {
+        if (bitIndex < 0 || bitIndex >= size) {
+            throw new IllegalArgumentException("Out of bound, The bitIndex must be >= 0 and < " + size + ", but it's " + bitIndex);
+        }
+        int key = bitIndex >>> CHUNK_SHIFT;
+        Container container = containers[key];
+        if (value) {
+            if (container == null) {
+                container = new ArrayContainer();
+            }
+            containers[key] = container.add(bitIndex & CHUNK_MASK);
+        } else if (container != null) {
+            containers[key] = container.remove(bitIndex & CHUNK_MASK);
+        }
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public byte[] extractAll() {
+        byte[] result = new byte[size >>> 3];
+        extract(result, 0);
+        return result;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void extract(byte[] dst, int byteOffset) {
+        if (dst == null) {
+            return;
+        }
+        checkBound(byteOffset, dst.length);
+        long[] words = new long[CHUNK_WORDS];
+        int dstOffset = 0;
+        while (dstOffset < dst.length) {
+            int position = byteOffset + dstOffset;
+            int key = position / CHUNK_BYTES;
+            int chunkOffset = position % CHUNK_BYTES;
+            int length = Math.min(dst.length - dstOffset, CHUNK_BYTES - chunkOffset);
+            Container container = containers[key];
+            if (container == null) {
+                Arrays.fill(dst, dstOffset, dstOffset + length, (byte) 0);
+            } else {
+                container.toWords(words);
+                for (int i = 0 ; i < length ; i++) {
+                    int index = chunkOffset + i;
+                    dst[dstOffset + i] = (byte) (words[index >>> 3] >>> ((index & 0x07) << 3));
+                }
+            }
+            dstOffset += length;
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void inject(byte[] src, int byteOffset) {
+        if (src == null) {
+            return;
+        }
+        checkBound(byteOffset, src.length);
+        long[] words = new long[CHUNK_WORDS];
+        int srcOffset = 0;
+        while (srcOffset < src.length) {
+            int position = byteOffset + srcOffset;
+            int key = position / CHUNK_BYTES;
+            int chunkOffset = position % CHUNK_BYTES;
+            int length = Math.min(src.length - srcOffset, CHUNK_BYTES - chunkOffset);
+            Container container = containers[key];
+            if (container == null) {
+                Arrays.fill(words, 0L);
+            } else {
+                container.toWords(words);
+            }
+            for (int i = 0 ; i < length ; i++) {
+                int index = chunkOffset + i;
+                int shift = (index & 0x07) << 3;
+                words[index >>> 3] = (words[index >>> 3] & ~(0xFFL << shift)) | (((long) src[srcOffset + i] & 0xFFL) << shift);
+            }
+            containers[key] = fromWords(words);
+            srcOffset += length;
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * 注意!!! 这个方法不是线程安全的, 计算过程中, 三个Bitmap的数据如果正在变化, 会出问题!!!
+     */
+    @Override
+    public void computeWith(Bitmap computeWith, Bitmap resultBitmap, ComputeFunction computeFunction) {
+        AbstractBitmap.checkCompute(this, computeWith, resultBitmap, computeFunction);
+        if (size() <= 0) {
+            return;
+        }
+        if (computeWith instanceof CompressedBitmap && resultBitmap instanceof CompressedBitmap) {
+            int operation = AbstractBitmap.operationOf(computeFunction);
+            if (operation != AbstractBitmap.OPERATION_UNKNOWN) {
+                computeByContainer((CompressedBitmap) computeWith, (CompressedBitmap) resultBitmap, operation);
+                return;
+            }
+        }
+        AbstractBitmap.computeByChunk(this, computeWith, resultBitmap, computeFunction);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void and(Bitmap that) {
+        computeWith(that, this, ComputeFunction.AND);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void and(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.AND);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void or(Bitmap that) {
+        computeWith(that, this, ComputeFunction.OR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void or(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.OR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void xor(Bitmap that) {
+        computeWith(that, this, ComputeFunction.XOR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void xor(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.XOR);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void andNot(Bitmap that) {
+        computeWith(that, this, ComputeFunction.AND_NOT);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void andNot(Bitmap that, Bitmap resultBitmap) {
+        computeWith(that, resultBitmap, ComputeFunction.AND_NOT);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers) {
+            if (container != null) {
+                cardinality += container.cardinality();
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int nextSetBit(int fromBitIndex) {
+        if (fromBitIndex < 0) {
+            throw new IllegalArgumentException("fromBitIndex must be >= 0, but it's " + fromBitIndex);
+        }
+        if (fromBitIndex >= size) {
+            return -1;
+        }
+        int low = fromBitIndex & CHUNK_MASK;
+        for (int key = fromBitIndex >>> CHUNK_SHIFT ; key < containers.length ; key++) {
+            Container container = containers[key];
+            if (container != null) {
+                int result = container.nextSetBit(low);
+                if (result >= 0) {
+                    return (key << CHUNK_SHIFT) + result;
+                }
+            }
+            low = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int nextClearBit(int fromBitIndex) {
+        if (fromBitIndex < 0) {
+            throw new IllegalArgumentException("fromBitIndex must be >= 0, but it's " + fromBitIndex);
+        }
+        if (fromBitIndex >= size) {
+            return -1;
+        }
+        int low = fromBitIndex & CHUNK_MASK;
+        for (int key = fromBitIndex >>> CHUNK_SHIFT ; key < containers.length ; key++) {
+            Container container = containers[key];
+            int result = container == null ? low : container.nextClearBit(low);
+            if (result >= 0) {
+                // 最后一个块可能不完整
+                int bitIndex = (key << CHUNK_SHIFT) + result;
+                return bitIndex < size ? bitIndex : -1;
+            }
+            low = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void forEachSetBit(BitVisitor visitor) {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor is null");
+        }
+        for (int key = 0 ; key < containers.length ; key++) {
+            Container container = containers[key];
+            if (container != null && !container.forEach(key << CHUNK_SHIFT, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 回收内存
+     */
+    @Override
+    public void close() throws IOException {
+        // Do nothing
+    }
+
+    /**
+     * 将每个容器转换为内存占用最小的形式(例如把大段连续的数据转换为RunContainer)
+     */
+    public void runOptimize() {
+        long[] words = new long[CHUNK_WORDS];
+        for (int i = 0 ; i < containers.length ; i++) {
+            Container container = containers[i];
+            if (container != null) {
+                container.toWords(words);
+                containers[i] = fromWords(words);
+            }
+        }
+    }
+
+    /**
+     * @return 估算的堆内存占用(字节)
+     */
+    public long getMemoryUsage() {
+        long memory = 32L + 16L + 4L * containers.length;
+        for (Container container : containers) {
+            if (container != null) {
+                memory += container.memoryUsage();
+            }
+        }
+        return memory;
+    }
+
+    /* ******************************************************************************************************** */
+
+    private void computeByContainer(CompressedBitmap that, CompressedBitmap result, int operation) {
+        long[] words1 = new long[CHUNK_WORDS];
+        long[] words2 = new long[CHUNK_WORDS];
+        // result可能就是this或that, 先算完再赋值
+        Container[] resultContainers = new Container[containers.length];
+        for (int i = 0 ; i < containers.length ; i++) {
+            resultContainers[i] = compute(containers[i], that.containers[i], operation, words1, words2);
+        }
+        System.arraycopy(resultContainers, 0, result.containers, 0, resultContainers.length);
+    }
+
+    private static Container compute(Container c1, Container c2, int operation, long[] words1, long[] words2) {
+        switch (operation) {
+            case AbstractBitmap.OPERATION_AND:
+                if (c1 == null || c2 == null) {
+                    return null;
+                }
+                if (c1 instanceof ArrayContainer && c2 instanceof ArrayContainer) {
+                    return ((ArrayContainer) c1).and((ArrayContainer) c2);
+                }
+                break;
+            case AbstractBitmap.OPERATION_AND_NOT:
+                if (c1 == null) {
+                    return null;
+                }
+                if (c2 == null) {
+                    return c1.copy();
+                }
+                break;
+            case AbstractBitmap.OPERATION_OR:
+            case AbstractBitmap.OPERATION_XOR:
+                if (c1 == null) {
+                    return c2 == null ? null : c2.copy();
+                }
+                if (c2 == null) {
+                    return c1.copy();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+        c1.toWords(words1);
+        c2.toWords(words2);
+        for (int i = 0 ; i < CHUNK_WORDS ; i++) {
+            switch (operation) {
+                case AbstractBitmap.OPERATION_AND:
+                    words1[i] &= words2[i];
+                    break;
+                case AbstractBitmap.OPERATION_OR:
+                    words1[i] |= words2[i];
+                    break;
+                case AbstractBitmap.OPERATION_AND_NOT:
+                    words1[i] &= ~words2[i];
+                    break;
+                default:
+                    words1[i] ^= words2[i];
+                    break;
+            }
+        }
+        return fromWords(words1);
+    }
+
+    private void checkBound(int byteOffset, int length) {
+        if (byteOffset < 0) {
+            throw new ArrayIndexOutOfBoundsException("offset < 0");
+        }
+        if ((long) byteOffset + length > size >>> 3) {
+            throw new ArrayIndexOutOfBoundsException("offset + length > max " + (size >>> 3));
+        }
+    }
+
+    /**
+     * 根据块数据选择内存占用最小的容器, 全0返回null
+     */
+    private static Container fromWords(long[] words) {
+        int cardinality = 0;
+        int runs = 0;
+        long carry = 0L;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+            // 起点: 当前bit为1且前一个bit为0
+            runs += Long.bitCount(word & ~((word << 1) | carry));
+            carry = word >>> 63;
+        }
+        if (cardinality == 0) {
+            return null;
+        }
+        int runBytes = runs << 2;
+        if (runBytes < Math.min(cardinality << 1, CHUNK_BYTES)) {
+            return RunContainer.fromWords(words, runs);
+        }
+        if (cardinality <= ARRAY_MAX_CARDINALITY) {
+            return ArrayContainer.fromWords(words, cardinality);
+        }
+        return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    private static void setRange(long[] words, int start, int end) {
+        // [start, end]
+        int startWord = start >>> 6;
+        int endWord = end >>> 6;
+        long startMask = -1L << start;
+        long endMask = -1L >>> (63 - (end & 0x3F));
+        if (startWord == endWord) {
+            words[startWord] |= startMask & endMask;
+            return;
+        }
+        words[startWord] |= startMask;
+        for (int i = startWord + 1 ; i < endWord ; i++) {
+            words[i] = -1L;
+        }
+        words[endWord] |= endMask;
+    }
+
+    /**
+     * 块容器, 存放一个块(65536 bit)内的数据
+     */
+    private static abstract class Container {
+
+        abstract boolean contains(int low);
+
+        /**
+         * @return 添加后的容器(可能会转换为其他类型)
+         */
+        abstract Container add(int low);
+
+        /**
+         * @return 删除后的容器(可能会转换为其他类型), 为空时返回null
+         */
+        abstract Container remove(int low);
+
+        abstract int cardinality();
+
+        /**
+         * @return 从low开始第一个为1的bit, 不存在返回-1
+         */
+        abstract int nextSetBit(int low);
+
+        /**
+         * @return 从low开始第一个为0的bit, 不存在返回-1
+         */
+        abstract int nextClearBit(int low);
+
+        /**
+         * @param base 块的起始bit位置
+         * @return false: 访问者终止了遍历
+         */
+        abstract boolean forEach(int base, BitVisitor visitor);
+
+        /**
+         * 覆盖写入words
+         */
+        abstract void toWords(long[] words);
+
+        abstract Container copy();
+
+        abstract long memoryUsage();
+
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private char[] values;
+        private int cardinality;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        private static ArrayContainer fromWords(long[] words, int cardinality) {
+            char[] values = new char[cardinality];
+            int index = 0;
+            for (int i = 0 ; i < words.length ; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[index++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality >= ARRAY_MAX_CARDINALITY) {
+                long[] words = new long[CHUNK_WORDS];
+                toWords(words);
+                return new BitmapContainer(words, cardinality).add(low);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length << 1, ARRAY_MAX_CARDINALITY));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = (char) low;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (index < 0) {
+                return this;
+            }
+            System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+            cardinality--;
+            return cardinality > 0 ? this : null;
+        }
+
+        private Container and(ArrayContainer that) {
+            char[] result = new char[Math.min(this.cardinality, that.cardinality)];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < this.cardinality && j < that.cardinality) {
+                char v1 = this.values[i];
+                char v2 = that.values[j];
+                if (v1 < v2) {
+                    i++;
+                } else if (v1 > v2) {
+                    j++;
+                } else {
+                    result[count++] = v1;
+                    i++;
+                    j++;
+                }
+            }
+            return count > 0 ? new ArrayContainer(result, count) : null;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextSetBit(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < cardinality ? values[index] : -1;
+        }
+
+        @Override
+        int nextClearBit(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (index < 0) {
+                return low;
+            }
+            int value = low;
+            while (index < cardinality && values[index] == value) {
+                index++;
+                value++;
+            }
+            return value <= CHUNK_MASK ? value : -1;
+        }
+
+        @Override
+        boolean forEach(int base, BitVisitor visitor) {
+            for (int i = 0 ; i < cardinality ; i++) {
+                if (!visitor.visit(base + values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void toWords(long[] words) {
+            Arrays.fill(words, 0L);
+            for (int i = 0 ; i < cardinality ; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        long memoryUsage() {
+            return 16L + 16L + 2L * values.length;
+        }
+
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        private final long[] words;
+        private int cardinality;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            long word = words[low >>> 6];
+            long newWord = word | (1L << low);
+            if (newWord != word) {
+                words[low >>> 6] = newWord;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            long word = words[low >>> 6];
+            long newWord = word & ~(1L << low);
+            if (newWord != word) {
+                words[low >>> 6] = newWord;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX_CARDINALITY) {
+                    return cardinality > 0 ? ArrayContainer.fromWords(words, cardinality) : null;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextSetBit(int low) {
+            int wordIndex = low >>> 6;
+            long word = words[wordIndex] & (-1L << low);
+            while (true) {
+                if (word != 0) {
+                    return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++wordIndex >= CHUNK_WORDS) {
+                    return -1;
+                }
+                word = words[wordIndex];
+            }
+        }
+
+        @Override
+        int nextClearBit(int low) {
+            int wordIndex = low >>> 6;
+            long word = ~words[wordIndex] & (-1L << low);
+            while (true) {
+                if (word != 0) {
+                    return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++wordIndex >= CHUNK_WORDS) {
+                    return -1;
+                }
+                word = ~words[wordIndex];
+            }
+        }
+
+        @Override
+        boolean forEach(int base, BitVisitor visitor) {
+            for (int wordIndex = 0 ; wordIndex < CHUNK_WORDS ; wordIndex++) {
+                long word = words[wordIndex];
+                while (word != 0) {
+                    if (!visitor.visit(base + (wordIndex << 6) + Long.numberOfTrailingZeros(word))) {
+                        return false;
+                    }
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void toWords(long[] words) {
+            System.arraycopy(this.words, 0, words, 0, CHUNK_WORDS);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        long memoryUsage() {
+            return 16L + 16L + 8L * CHUNK_WORDS;
+        }
+
+    }
+
+    private static final class RunContainer extends Container {
+
+        // [start0, length0 - 1, start1, length1 - 1, ...]
+        private final char[] runs;
+        private final int runCount;
+
+        private RunContainer(char[] runs, int runCount) {
+            this.runs = runs;
+            this.runCount = runCount;
+        }
+
+        private static RunContainer fromWords(long[] words, int runCount) {
+            char[] runs = new char[runCount << 1];
+            int index = 0;
+            int start = -1;
+            for (int i = 0 ; i < CHUNK_WORDS << 6 ; i++) {
+                boolean set = (words[i >>> 6] & (1L << i)) != 0;
+                if (set && start < 0) {
+                    start = i;
+                } else if (!set && start >= 0) {
+                    runs[index++] = (char) start;
+                    runs[index++] = (char) (i - 1 - start);
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                runs[index++] = (char) start;
+                runs[index] = (char) ((CHUNK_WORDS << 6) - 1 - start);
+            }
+            return new RunContainer(runs, runCount);
+        }
+
+        @Override
+        boolean contains(int low) {
+            int index = floorRun(low);
+            return index >= 0 && low <= runEnd(index);
+        }
+
+        /**
+         * @return 最后一个起点 <= low 的区间, 不存在返回-1
+         */
+        private int floorRun(int low) {
+            int left = 0;
+            int right = runCount - 1;
+            while (left <= right) {
+                int middle = (left + right) >>> 1;
+                if (runs[middle << 1] > low) {
+                    right = middle - 1;
+                } else {
+                    left = middle + 1;
+                }
+            }
+            return right;
+        }
+
+        private int runEnd(int index) {
+            return runs[index << 1] + runs[(index << 1) + 1];
+        }
+
+        @Override
+        Container add(int low) {
+            if (contains(low)) {
+                return this;
+            }
+            return toMutable().add(low);
+        }
+
+        @Override
+        Container remove(int low) {
+            if (!contains(low)) {
+                return this;
+            }
+            return toMutable().remove(low);
+        }
+
+        /**
+         * RunContainer不直接修改, 修改时转换为Array/Bitmap容器
+         */
+        private Container toMutable() {
+            long[] words = new long[CHUNK_WORDS];
+            toWords(words);
+            int cardinality = cardinality();
+            if (cardinality <= ARRAY_MAX_CARDINALITY) {
+                return ArrayContainer.fromWords(words, cardinality);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        @Override
+        int cardinality() {
+            int cardinality = 0;
+            for (int i = 0 ; i < runCount ; i++) {
+                cardinality += runs[(i << 1) + 1] + 1;
+            }
+            return cardinality;
+        }
+
+        @Override
+        int nextSetBit(int low) {
+            int index = floorRun(low);
+            if (index >= 0 && low <= runEnd(index)) {
+                return low;
+            }
+            return index + 1 < runCount ? runs[(index + 1) << 1] : -1;
+        }
+
+        @Override
+        int nextClearBit(int low) {
+            int index = floorRun(low);
+            if (index >= 0 && low <= runEnd(index)) {
+                // 区间是最大连续区间, 结束位置的下一个bit一定为0
+                int value = runEnd(index) + 1;
+                return value <= CHUNK_MASK ? value : -1;
+            }
+            return low;
+        }
+
+        @Override
+        boolean forEach(int base, BitVisitor visitor) {
+            for (int i = 0 ; i < runCount ; i++) {
+                int end = runEnd(i);
+                for (int value = runs[i << 1] ; value <= end ; value++) {
+                    if (!visitor.visit(base + value)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void toWords(long[] words) {
+            Arrays.fill(words, 0L);
+            for (int i = 0 ; i < runCount ; i++) {
+                int start = runs[i << 1];
+                setRange(words, start, start + runs[(i << 1) + 1]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            // 不可变, 无需复制
+            return this;
+        }
+
+        @Override
+        long memoryUsage() {
+            return 16L + 16L + 2L * runs.length;
+        }
+
+    }
+
+}
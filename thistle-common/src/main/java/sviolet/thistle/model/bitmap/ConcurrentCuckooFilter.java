@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import sviolet.thistle.model.concurrent.lock.HashReentrantLocks;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>[线程安全]布谷鸟过滤器(Cuckoo Filter), 分段锁</p>
+ *
+ * <p>桶按所在的long分配到HashReentrantLocks的锁上(long序号 & (锁数量 - 1)), 共用一个long的桶(8位指纹时相邻的两个桶)使用同一个锁,
+ * 避免两个线程持有不同的锁同时读写同一个long, 互相覆盖指纹. add/contains/remove只锁两个桶对应的锁(按锁序号从小到大加锁,
+ * 不会死锁); 两个桶都满需要踢出时, 踢出路径不确定, 按顺序获取全部锁后执行(装载率接近上限时才频繁发生).
+ * extract/inject/extractAll也获取全部锁, 得到一致的快照.</p>
+ *
+ * <p>内存占用 = CuckooFilter + 锁(默认64个)</p>
+ *
+ * @see CuckooFilter
+ * @author S.Violet
+ */
+public class ConcurrentCuckooFilter extends CuckooFilter {
+
+    /**
+     * 默认锁数量
+     */
+    public static final int DEFAULT_LOCK_NUM = 64;
+
+    private final HashReentrantLocks locks;
+
+    /**
+     * @param capacity 容量(预计元素数量)
+     * @param fingerprintBits 指纹位数, 8或16
+     */
+    public ConcurrentCuckooFilter(int capacity, int fingerprintBits) {
+        this(capacity, fingerprintBits, DEFAULT_LOCK_NUM);
+    }
+
+    /**
+     * @param capacity 容量(预计元素数量)
+     * @param fingerprintBits 指纹位数, 8或16
+     * @param lockNum 锁数量, 16 32 64 128 256 512 1024
+     */
+    public ConcurrentCuckooFilter(int capacity, int fingerprintBits, int lockNum) {
+        super(capacity, fingerprintBits);
+        this.locks = new HashReentrantLocks(lockNum);
+    }
+
+    /**
+     * 根据extractAll()的数据创建
+     *
+     * @param data extractAll()的数据
+     * @param fingerprintBits 指纹位数, 8或16, 必须与导出时相同
+     * @param lockNum 锁数量, 16 32 64 128 256 512 1024
+     */
+    public ConcurrentCuckooFilter(byte[] data, int fingerprintBits, int lockNum) {
+        super(data, fingerprintBits);
+        this.locks = new HashReentrantLocks(lockNum);
+    }
+
+    @Override
+    public byte[] extractAll() {
+        lockAll();
+        try {
+            return super.extractAll();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public void extract(byte[] dst, int byteOffset) {
+        lockAll();
+        try {
+            super.extract(dst, byteOffset);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public void inject(byte[] src, int byteOffset) {
+        // 父类构造器中调用时, 锁还没有创建, 此时不存在并发
+        if (locks == null) {
+            super.inject(src, byteOffset);
+            return;
+        }
+        lockAll();
+        try {
+            super.inject(src, byteOffset);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * @return 锁数量
+     */
+    public int getLockNum() {
+        return locks.getLockNum();
+    }
+
+    @Override
+    boolean add0(int fingerprint, int bucket1, int bucket2) {
+        ReentrantLock lock1 = firstLock(bucket1, bucket2);
+        ReentrantLock lock2 = secondLock(bucket1, bucket2);
+        lock1.lock();
+        lock2.lock();
+        try {
+            if (insertIfEmpty(bucket1, fingerprint) || insertIfEmpty(bucket2, fingerprint)) {
+                return true;
+            }
+        } finally {
+            lock2.unlock();
+            lock1.unlock();
+        }
+        // 踢出会修改任意的桶, 获取全部锁
+        lockAll();
+        try {
+            // 释放锁期间可能有元素被删除
+            return insertIfEmpty(bucket1, fingerprint) || insertIfEmpty(bucket2, fingerprint) || kick(fingerprint, bucket1);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    boolean contains0(int fingerprint, int bucket1, int bucket2) {
+        ReentrantLock lock1 = firstLock(bucket1, bucket2);
+        ReentrantLock lock2 = secondLock(bucket1, bucket2);
+        lock1.lock();
+        lock2.lock();
+        try {
+            return super.contains0(fingerprint, bucket1, bucket2);
+        } finally {
+            lock2.unlock();
+            lock1.unlock();
+        }
+    }
+
+    @Override
+    boolean remove0(int fingerprint, int bucket1, int bucket2) {
+        ReentrantLock lock1 = firstLock(bucket1, bucket2);
+        ReentrantLock lock2 = secondLock(bucket1, bucket2);
+        lock1.lock();
+        lock2.lock();
+        try {
+            return super.remove0(fingerprint, bucket1, bucket2);
+        } finally {
+            lock2.unlock();
+            lock1.unlock();
+        }
+    }
+
+    /**
+     * 序号小的锁先加, 两个桶对应同一个锁时, 重入
+     */
+    private ReentrantLock firstLock(int bucket1, int bucket2) {
+        return locks.getLockByIndex(Math.min(lockIndex(bucket1), lockIndex(bucket2)));
+    }
+
+    private ReentrantLock secondLock(int bucket1, int bucket2) {
+        return locks.getLockByIndex(Math.max(lockIndex(bucket1), lockIndex(bucket2)));
+    }
+
+    /**
+     * 按桶所在的long选择锁, 而不是按桶序号, setSlot是对整个long的读改写
+     */
+    int lockIndex(int bucket) {
+        return wordIndex(bucket) & (locks.getLockNum() - 1);
+    }
+
+    private void lockAll() {
+        for (int i = 0 ; i < locks.getLockNum() ; i++) {
+            locks.getLockByIndex(i).lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = locks.getLockNum() - 1 ; i >= 0 ; i--) {
+            locks.getLockByIndex(i).unlock();
+        }
+    }
+
+}
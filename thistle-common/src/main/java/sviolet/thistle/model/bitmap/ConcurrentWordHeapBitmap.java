@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>[线程安全:CAS版]使用堆内存(HEAP)的Bitmap, 每64个bit打包存放在一个long中</p>
+ *
+ * <p>堆内存占用 = 56 byte + 1 byte * ( 容量 / 8 ) (按8字节向上取整)</p>
+ * <p>容量: 指的是比特数, 不是指字节数</p>
+ *
+ * <p>一致性: extract/inject操作有同步锁, put/get/bloomAdd/bloomContains采用CAS操作, 保证了内存可见性, put/bloomAdd使用
+ * 无限重试的CAS循环, 不会写入失败(始终返回true). computeWith无同步锁.</p>
+ * <p>注意, extract/inject会强制赋值(一般用于初始数据导入导出), extract/inject与put/bloomAdd同时进行时不保证严格的一致性.</p>
+ *
+ * <p>特点: 与ConcurrentHeapBitmap相比, 内存占用只有它的1/4(与HeapBitmap相同), bit读写支持多线程, 且put不会失败;
+ * 同一个long中的64个bit共享一个CAS单元, 极端热点下会有一定的CAS重试.</p>
+ *
+ * @see Bitmap
+ * @see BloomBitmap
+ * @see ConcurrentHeapBitmap
+ * @author S.Violet
+ */
+public class ConcurrentWordHeapBitmap extends AbstractBitmap {
+
+    private AtomicLongArray buffer;
+
+    public ConcurrentWordHeapBitmap(int size) {
+        super(size);
+    }
+
+    public ConcurrentWordHeapBitmap(byte[] data) {
+        super(data);
+    }
+
+    @Override
+    protected void dataAccess_init(int slotSize) {
+        buffer = new AtomicLongArray((slotSize + 7) >> 3);
+    }
+
+    @Override
+    protected byte dataAccess_getSlot(int index) {
+        return (byte) (buffer.get(index >> 3) >>> slotShift(index));
+    }
+
+    @Override
+    protected boolean dataAccess_putSlot(int index, byte newValue, byte oldValue) {
+        int wordIndex = index >> 3;
+        int shift = slotShift(index);
+        long mask = 0xFFL << shift;
+        long replacement = ((long) newValue & 0xFFL) << shift;
+        while (true) {
+            long word = buffer.get(wordIndex);
+            // 只比较当前slot(字节)的值, 同一个long中其他slot的变化不影响结果
+            if ((byte) (word >>> shift) != oldValue) {
+                return false;
+            }
+            if (buffer.compareAndSet(wordIndex, word, (word & ~mask) | replacement)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    protected void dataAccess_extract(byte[] dst, int offset) {
+        synchronized (this) {
+            if (dst == null) {
+                return;
+            }
+            checkBound(offset, dst.length);
+            for (int i = 0 ; i < dst.length ; i++) {
+                dst[i] = dataAccess_getSlot(offset + i);
+            }
+        }
+    }
+
+    @Override
+    protected void dataAccess_inject(byte[] src, int offset) {
+        synchronized (this) {
+            if (src == null) {
+                return;
+            }
+            checkBound(offset, src.length);
+            for (int i = 0 ; i < src.length ; i++) {
+                setSlot(offset + i, src[i]);
+            }
+        }
+    }
+
+    @Override
+    protected long dataAccess_getWord(int wordIndex) {
+        // 内部存储与word格式一致
+        return buffer.get(wordIndex);
+    }
+
+    @Override
+    protected void dataAccess_putWord(int wordIndex, long word) {
+        buffer.set(wordIndex, word);
+    }
+
+    @Override
+    protected void dataAccess_getWords(int wordIndex, long[] dst, int length) {
+        for (int i = 0 ; i < length ; i++) {
+            dst[i] = buffer.get(wordIndex + i);
+        }
+    }
+
+    @Override
+    protected void dataAccess_putWords(int wordIndex, long[] src, int length) {
+        for (int i = 0 ; i < length ; i++) {
+            buffer.set(wordIndex + i, src[i]);
+        }
+    }
+
+    /**
+     * 直接对bit所在的long做CAS, 失败时无限重试(其他线程修改了同一个long中的其他bit), 因此不会写入失败
+     */
+    @Override
+    protected boolean putBitToSlot(int slotIndex, int slotOffset, boolean value) {
+        int wordIndex = slotIndex >> 3;
+        long mask = 1L << (slotShift(slotIndex) + slotOffset);
+        while (true) {
+            long word = buffer.get(wordIndex);
+            long newWord = value ? word | mask : word & ~mask;
+            if (newWord == word || buffer.compareAndSet(wordIndex, word, newWord)) {
+                return true;
+            }
+        }
+    }
+
+    private void checkBound(int offset, int length) {
+        int slotSize = bitIndexToSlotIndex(size);
+        if (offset < 0) {
+            throw new ArrayIndexOutOfBoundsException("offset < 0");
+        }
+        if (offset + length > slotSize) {
+            throw new ArrayIndexOutOfBoundsException("offset + length > max " + slotSize);
+        }
+    }
+
+    /**
+     * 强制设置一个slot(字节)的值
+     */
+    private void setSlot(int index, byte value) {
+        int wordIndex = index >> 3;
+        int shift = slotShift(index);
+        long mask = 0xFFL << shift;
+        long replacement = ((long) value & 0xFFL) << shift;
+        while (true) {
+            long word = buffer.get(wordIndex);
+            if (buffer.compareAndSet(wordIndex, word, (word & ~mask) | replacement)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * slot(字节)在long中的位移, 低位字节在前(little-endian), 保证bitIndex & 0x3F即为bit在long中的位置
+     */
+    private static int slotShift(int slotIndex) {
+        return (slotIndex & 0x07) << 3;
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>计数布隆过滤器(Counting Bloom Filter), 支持删除元素</p>
+ *
+ * <p>每个位置是一个4bit计数器(0~15), 两个计数器压缩在一个字节中, 存放在AbstractBitmap(HEAP/DIRECT/CONCURRENT)中.
+ * 添加时k个计数器加1, 删除时k个计数器减1. 计数器达到15后不再增加, 也不再减少(饱和), 避免溢出导致误删(出现假阴性).</p>
+ *
+ * <p>内存占用 = 4 bit * 计数器数量, 是相同误判率的普通布隆过滤器的4倍</p>
+ *
+ * <p>注意!!! 只能删除添加过的元素, 删除未添加过的元素(恰好误判为存在)会导致其他元素被误删!!!</p>
+ *
+ * <p>一致性: 与存储相同. CONCURRENT存储(ConcurrentWordHeapBitmap)时, 计数器修改为CAS操作, 线程安全;
+ * HEAP/DIRECT存储时, 非线程安全. 不支持SYNC存储(SyncHeapBitmap的锁只保护bit操作).</p>
+ *
+ * <pre>
+ *      CountingBloomFilter filter = new BloomBitmapBuilder()
+ *              .expectedInsertions(1000000)
+ *              .falsePositiveProbability(0.001)
+ *              .storage(BloomBitmapBuilder.Storage.CONCURRENT)
+ *              .buildCounting();
+ *      filter.bloomAdd(sessionId);
+ *      filter.bloomRemove(sessionId);
+ * </pre>
+ *
+ * @see BloomBitmapBuilder
+ * @author S.Violet
+ */
+public class CountingBloomFilter implements Closeable {
+
+    /**
+     * 计数器最大值(饱和)
+     */
+    public static final int MAX_COUNT = 15;
+
+    /**
+     * 计数器数量最大值
+     */
+    public static final int MAX_COUNTER_NUM = (Integer.MAX_VALUE >> 3) << 1;
+
+    private final AbstractBitmap storage;
+    private final int counterNum;
+    private final int hashNum;
+
+    private final BloomHash.Consumer adder = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            for (int i = 0 ; i < hashNum ; i++) {
+                increment(BloomHash.index(hash1, hash2, i, counterNum));
+            }
+            return true;
+        }
+    };
+
+    private final BloomHash.Consumer checker = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            for (int i = 0 ; i < hashNum ; i++) {
+                if (getCounter(BloomHash.index(hash1, hash2, i, counterNum)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
+    private final BloomHash.Consumer remover = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            if (!checker.accept(hash1, hash2)) {
+                return false;
+            }
+            for (int i = 0 ; i < hashNum ; i++) {
+                decrement(BloomHash.index(hash1, hash2, i, counterNum));
+            }
+            return true;
+        }
+    };
+
+    /**
+     * @param counterNum 计数器数量(相当于普通布隆过滤器的容量), 奇数会向上取整为偶数
+     * @param hashNum 哈希函数个数, 取值范围[1, 64]
+     * @param storage 存储方式, 不支持SYNC
+     */
+    public CountingBloomFilter(int counterNum, int hashNum, BloomBitmapBuilder.Storage storage) {
+        if (counterNum <= 0 || counterNum > MAX_COUNTER_NUM) {
+            throw new IllegalArgumentException("counterNum must be > 0 and <= " + MAX_COUNTER_NUM + ", but it's " + counterNum);
+        }
+        if (hashNum < 1 || hashNum > AbstractBitmap.MAX_BLOOM_HASH_NUM) {
+            throw new IllegalArgumentException("hashNum must be >= 1 and <= " + AbstractBitmap.MAX_BLOOM_HASH_NUM + ", but it's " + hashNum);
+        }
+        if (storage == null) {
+            throw new IllegalArgumentException("storage is null");
+        }
+        if (storage == BloomBitmapBuilder.Storage.SYNC) {
+            throw new IllegalArgumentException("CountingBloomFilter does not support SYNC storage, use CONCURRENT instead");
+        }
+        counterNum = (counterNum + 1) & ~1;
+        this.storage = BloomBitmapBuilder.createStorage(counterNum << 2, storage);
+        this.counterNum = counterNum;
+        this.hashNum = hashNum;
+    }
+
+    /**
+     * 添加一个元素
+     *
+     * @param data 数据
+     */
+    public void bloomAdd(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        BloomHash.murmur3(data, 0, data.length, adder);
+    }
+
+    /**
+     * 检查一个元素是否存在
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean bloomContains(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return BloomHash.murmur3(data, 0, data.length, checker);
+    }
+
+    /**
+     * 删除一个元素. 注意!!! 只能删除添加过的元素!!!
+     *
+     * @param data 数据
+     * @return true: 删除成功, false: 元素不存在, 未删除
+     */
+    public boolean bloomRemove(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return BloomHash.murmur3(data, 0, data.length, remover);
+    }
+
+    /**
+     * 添加ByteBuffer中[position, limit)的数据, 不改变position/limit, 与添加等内容的byte[]效果相同
+     *
+     * @param data 数据
+     */
+    public void bloomAdd(ByteBuffer data) {
+        if (data == null) {
+            bloomAdd((byte[]) null);
+            return;
+        }
+        BloomHash.murmur3(data, adder);
+    }
+
+    /**
+     * 检查ByteBuffer中[position, limit)的数据是否存在, 不改变position/limit, 与检查等内容的byte[]效果相同
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean bloomContains(ByteBuffer data) {
+        if (data == null) {
+            return bloomContains((byte[]) null);
+        }
+        return BloomHash.murmur3(data, checker);
+    }
+
+    /**
+     * 删除ByteBuffer中[position, limit)的数据, 不改变position/limit. 注意!!! 只能删除添加过的元素!!!
+     *
+     * @param data 数据
+     * @return true: 删除成功, false: 元素不存在, 未删除
+     */
+    public boolean bloomRemove(ByteBuffer data) {
+        if (data == null) {
+            return bloomRemove((byte[]) null);
+        }
+        return BloomHash.murmur3(data, remover);
+    }
+
+    /**
+     * 添加一个字符串, 与添加String.getBytes("UTF-8")效果相同, 不创建byte[]
+     *
+     * @param data 数据
+     */
+    public void bloomAdd(CharSequence data) {
+        if (data == null) {
+            bloomAdd((byte[]) null);
+            return;
+        }
+        BloomHash.murmur3Utf8(data, adder);
+    }
+
+    /**
+     * 检查一个字符串是否存在, 与检查String.getBytes("UTF-8")效果相同, 不创建byte[]
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean bloomContains(CharSequence data) {
+        if (data == null) {
+            return bloomContains((byte[]) null);
+        }
+        return BloomHash.murmur3Utf8(data, checker);
+    }
+
+    /**
+     * 删除一个字符串, 与删除String.getBytes("UTF-8")效果相同. 注意!!! 只能删除添加过的元素!!!
+     *
+     * @param data 数据
+     * @return true: 删除成功, false: 元素不存在, 未删除
+     */
+    public boolean bloomRemove(CharSequence data) {
+        if (data == null) {
+            return bloomRemove((byte[]) null);
+        }
+        return BloomHash.murmur3Utf8(data, remover);
+    }
+
+    /**
+     * 根据不为0的计数器比例估算误判率: (不为0的计数器数量 / 计数器数量) ^ 哈希函数个数.
+     * 注意, 这个方法需要遍历全部计数器, 不要频繁调用.
+     *
+     * @return 估算的当前误判率
+     */
+    public double bloomEstimatedFpp() {
+        int nonZero = 0;
+        int slotSize = counterNum >>> 1;
+        byte[] buffer = new byte[Math.min(8192, slotSize)];
+        for (int offset = 0 ; offset < slotSize ; offset += buffer.length) {
+            if (slotSize - offset < buffer.length) {
+                buffer = new byte[slotSize - offset];
+            }
+            storage.extract(buffer, offset);
+            for (byte slot : buffer) {
+                if ((slot & 0x0F) != 0) {
+                    nonZero++;
+                }
+                if ((slot & 0xF0) != 0) {
+                    nonZero++;
+                }
+            }
+        }
+        return Math.pow((double) nonZero / counterNum, hashNum);
+    }
+
+    /**
+     * @return 计数器数量
+     */
+    public int getCounterNum() {
+        return counterNum;
+    }
+
+    /**
+     * @return 哈希函数个数
+     */
+    public int getHashNum() {
+        return hashNum;
+    }
+
+    /**
+     * 回收内存(DIRECT存储)
+     */
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+
+    private int getCounter(int index) {
+        return (storage.dataAccess_getSlot(index >>> 1) >>> shift(index)) & 0x0F;
+    }
+
+    private void increment(int index) {
+        int slotIndex = index >>> 1;
+        int shift = shift(index);
+        while (true) {
+            byte oldValue = storage.dataAccess_getSlot(slotIndex);
+            int count = (oldValue >>> shift) & 0x0F;
+            if (count >= MAX_COUNT) {
+                // 饱和
+                return;
+            }
+            byte newValue = (byte) ((oldValue & ~(0x0F << shift)) | ((count + 1) << shift));
+            // CAS失败表示同一个字节被其他线程修改, 重试
+            if (storage.dataAccess_putSlot(slotIndex, newValue, oldValue)) {
+                return;
+            }
+        }
+    }
+
+    private void decrement(int index) {
+        int slotIndex = index >>> 1;
+        int shift = shift(index);
+        while (true) {
+            byte oldValue = storage.dataAccess_getSlot(slotIndex);
+            int count = (oldValue >>> shift) & 0x0F;
+            if (count <= 0 || count >= MAX_COUNT) {
+                // 已饱和的计数器不知道真实值, 不再减少
+                return;
+            }
+            byte newValue = (byte) ((oldValue & ~(0x0F << shift)) | ((count - 1) << shift));
+            if (storage.dataAccess_putSlot(slotIndex, newValue, oldValue)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 偶数计数器在低4位, 奇数计数器在高4位
+     */
+    private static int shift(int index) {
+        return (index & 1) << 2;
+    }
+
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>[非线程安全]布谷鸟过滤器(Cuckoo Filter), 支持删除元素, 误判率很低时比布隆过滤器更省空间: 16bit指纹, 装载率95%时,
+ * 每个元素约16.8bit, 误判率约0.012%, 同误判率的布隆过滤器每个元素约18.8bit(不支持删除)</p>
+ *
+ * <p>对数据计算一次128位哈希(MurmurHash3), 得到指纹(8bit或16bit, 不为0)和第一个桶, 第二个桶 = 第一个桶 ^ hash(指纹).
+ * 每个桶4个槽, 添加时放入两个桶中的空槽, 都满时随机踢出一个指纹, 放到它的另一个桶中, 最多踢MAX_KICKS次,
+ * 仍然失败时撤销本次踢出, 返回false(过滤器已满), 不会丢失已有元素.</p>
+ *
+ * <p>内存占用 = 指纹位数 * 4 * 桶数量, 桶数量是2的幂, 且 >= 容量 / (4 * 0.95), 向上取整最多浪费一半, 容量最好略小于2的幂 * 3.8.
+ * 指纹存放在long[]中(little-endian, 与extractAll一致).</p>
+ *
+ * <p>误判率上限约为 8 / 2^指纹位数: 8bit约3%, 16bit约0.012%. 装载率在95%左右时开始添加失败.</p>
+ *
+ * <p>注意: 同一个元素最多添加8次(两个桶的槽数), 删除时只删除一次. 只能删除添加过的元素, 删除未添加过的元素(恰好误判为存在)
+ * 会导致其他元素被误删!</p>
+ *
+ * <p>一致性: 无同步锁, 多线程使用请用ConcurrentCuckooFilter.</p>
+ *
+ * <pre>
+ *      CuckooFilter filter = new BloomBitmapBuilder()
+ *              .expectedInsertions(1000000)
+ *              .falsePositiveProbability(0.001)
+ *              .buildCuckoo();
+ *      filter.add(key);
+ *      filter.remove(key);
+ * </pre>
+ *
+ * @see ConcurrentCuckooFilter
+ * @see BloomBitmapBuilder
+ * @author S.Violet
+ */
+public class CuckooFilter {
+
+    /**
+     * 每个桶的槽数
+     */
+    public static final int SLOTS_PER_BUCKET = 4;
+
+    /**
+     * 最多踢出次数
+     */
+    public static final int MAX_KICKS = 500;
+
+    /**
+     * 桶数量最大值
+     */
+    public static final int MAX_BUCKET_NUM = 1 << 30;
+
+    /**
+     * 计算桶数量时使用的装载率
+     */
+    private static final double LOAD_FACTOR = 0.95;
+
+    private final int fingerprintBits;
+    private final int fingerprintMask;
+    private final int bucketNum;
+    private final int bucketMask;
+    private final long[] table;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    // 踢出路径, 失败时用于撤销
+    private final long[] kickPath = new long[MAX_KICKS];
+    private int kickRandom = 0x2545F491;
+
+    private final BloomHash.Consumer adder = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int fingerprint = fingerprint(hash2);
+            int bucket1 = bucket(hash1);
+            return add0(fingerprint, bucket1, altBucket(bucket1, fingerprint));
+        }
+    };
+
+    private final BloomHash.Consumer checker = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int fingerprint = fingerprint(hash2);
+            int bucket1 = bucket(hash1);
+            return contains0(fingerprint, bucket1, altBucket(bucket1, fingerprint));
+        }
+    };
+
+    private final BloomHash.Consumer remover = new BloomHash.Consumer() {
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            int fingerprint = fingerprint(hash2);
+            int bucket1 = bucket(hash1);
+            return remove0(fingerprint, bucket1, altBucket(bucket1, fingerprint));
+        }
+    };
+
+    /**
+     * @param capacity 容量(预计元素数量), 桶数量 = 2的幂, 且 >= capacity / (4 * 0.95)
+     * @param fingerprintBits 指纹位数, 8或16
+     */
+    public CuckooFilter(int capacity, int fingerprintBits) {
+        this(bucketNumOf(capacity), fingerprintBits, null);
+    }
+
+    /**
+     * 根据extractAll()的数据创建
+     *
+     * @param data extractAll()的数据
+     * @param fingerprintBits 指纹位数, 8或16, 必须与导出时相同
+     */
+    public CuckooFilter(byte[] data, int fingerprintBits) {
+        this(bucketNumOf(data, fingerprintBits), fingerprintBits, data);
+    }
+
+    private CuckooFilter(int bucketNum, int fingerprintBits, byte[] data) {
+        checkFingerprintBits(fingerprintBits);
+        this.fingerprintBits = fingerprintBits;
+        this.fingerprintMask = (1 << fingerprintBits) - 1;
+        this.bucketNum = bucketNum;
+        this.bucketMask = bucketNum - 1;
+        this.table = new long[(int) ((long) bucketNum * SLOTS_PER_BUCKET * fingerprintBits >>> 6)];
+        if (data != null) {
+            inject(data, 0);
+        }
+    }
+
+    /**
+     * 添加一个元素
+     *
+     * @param data 数据
+     * @return true: 添加成功, false: 过滤器已满(或同一个元素添加超过8次)
+     */
+    public boolean add(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return BloomHash.murmur3(data, 0, data.length, adder);
+    }
+
+    /**
+     * 添加data[offset, offset + length), 与添加等内容的byte[]效果相同
+     *
+     * @return true: 添加成功, false: 过滤器已满(或同一个元素添加超过8次)
+     */
+    public boolean add(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        return BloomHash.murmur3(data, offset, length, adder);
+    }
+
+    /**
+     * 添加字符串, 与添加String.getBytes("UTF-8")效果相同, 不创建byte[]
+     *
+     * @return true: 添加成功, false: 过滤器已满(或同一个元素添加超过8次)
+     */
+    public boolean add(CharSequence data) {
+        if (data == null) {
+            return add((byte[]) null);
+        }
+        return BloomHash.murmur3Utf8(data, adder);
+    }
+
+    /**
+     * 检查一个元素是否存在
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean contains(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return BloomHash.murmur3(data, 0, data.length, checker);
+    }
+
+    /**
+     * 检查data[offset, offset + length)是否存在, 与检查等内容的byte[]效果相同
+     *
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean contains(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        return BloomHash.murmur3(data, offset, length, checker);
+    }
+
+    /**
+     * 检查字符串是否存在, 与检查String.getBytes("UTF-8")效果相同, 不创建byte[]
+     *
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean contains(CharSequence data) {
+        if (data == null) {
+            return contains((byte[]) null);
+        }
+        return BloomHash.murmur3Utf8(data, checker);
+    }
+
+    /**
+     * 删除一个元素. 注意!!! 只能删除添加过的元素!!!
+     *
+     * @param data 数据
+     * @return true: 删除成功, false: 元素不存在, 未删除
+     */
+    public boolean remove(byte[] data) {
+        if (data == null) {
+            data = BloomHash.EMPTY;
+        }
+        return BloomHash.murmur3(data, 0, data.length, remover);
+    }
+
+    /**
+     * 删除data[offset, offset + length). 注意!!! 只能删除添加过的元素!!!
+     *
+     * @return true: 删除成功, false: 元素不存在, 未删除
+     */
+    public boolean remove(byte[] data, int offset, int length) {
+        BloomHash.checkBounds(data, offset, length);
+        return BloomHash.murmur3(data, offset, length, remover);
+    }
+
+    /**
+     * 删除字符串. 注意!!! 只能删除添加过的元素!!!
+     *
+     * @return true: 删除成功, false: 元素不存在, 未删除
+     */
+    public boolean remove(CharSequence data) {
+        if (data == null) {
+            return remove((byte[]) null);
+        }
+        return BloomHash.murmur3Utf8(data, remover);
+    }
+
+    /**
+     * 导出全部数据(指纹表, little-endian), 可用new CuckooFilter(data, fingerprintBits)恢复
+     */
+    public byte[] extractAll() {
+        byte[] result = new byte[getByteSize()];
+        extract(result, 0);
+        return result;
+    }
+
+    /**
+     * 导出数据, 从byteOffset开始, 导出dst.length个字节
+     *
+     * @param dst 目标
+     * @param byteOffset 起始字节
+     */
+    public void extract(byte[] dst, int byteOffset) {
+        checkByteBound(byteOffset, dst.length);
+        for (int i = 0 ; i < dst.length ; i++) {
+            int index = byteOffset + i;
+            dst[i] = (byte) (table[index >>> 3] >>> ((index & 7) << 3));
+        }
+    }
+
+    /**
+     * 导入数据, 从byteOffset开始, 覆盖src.length个字节, 元素数量会重新统计
+     *
+     * @param src 数据
+     * @param byteOffset 起始字节
+     */
+    public void inject(byte[] src, int byteOffset) {
+        checkByteBound(byteOffset, src.length);
+        if (src.length == 0) {
+            return;
+        }
+        int fromWord = byteOffset >>> 3;
+        int toWord = ((byteOffset + src.length - 1) >>> 3) + 1;
+        int before = countSlots(fromWord, toWord);
+        for (int i = 0 ; i < src.length ; i++) {
+            int index = byteOffset + i;
+            int shift = (index & 7) << 3;
+            table[index >>> 3] = (table[index >>> 3] & ~(0xFFL << shift)) | (((long) src[i] & 0xFFL) << shift);
+        }
+        count.addAndGet(countSlots(fromWord, toWord) - before);
+    }
+
+    /**
+     * @return 元素数量
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return 槽数量(桶数量 * 4)
+     */
+    public long getCapacity() {
+        return (long) bucketNum * SLOTS_PER_BUCKET;
+    }
+
+    /**
+     * @return 装载率(元素数量 / 槽数量)
+     */
+    public double getLoadFactor() {
+        return (double) getCount() / getCapacity();
+    }
+
+    /**
+     * @return 根据当前装载率估算的误判率: 1 - (1 - 1 / (2^f - 1)) ^ (8 * 装载率)
+     */
+    public double estimatedFpp() {
+        return 1.0 - Math.pow(1.0 - 1.0 / fingerprintMask, 2 * SLOTS_PER_BUCKET * getLoadFactor());
+    }
+
+    /**
+     * @return 桶数量
+     */
+    public int getBucketNum() {
+        return bucketNum;
+    }
+
+    /**
+     * @return 指纹位数
+     */
+    public int getFingerprintBits() {
+        return fingerprintBits;
+    }
+
+    /**
+     * @return 数据字节数(extractAll()的长度)
+     */
+    public int getByteSize() {
+        return table.length << 3;
+    }
+
+    /* ******************************************************************************************************** */
+
+    /**
+     * 添加指纹, 先放入两个桶中的空槽, 都满时踢出
+     */
+    boolean add0(int fingerprint, int bucket1, int bucket2) {
+        return insertIfEmpty(bucket1, fingerprint) || insertIfEmpty(bucket2, fingerprint) || kick(fingerprint, bucket1);
+    }
+
+    boolean contains0(int fingerprint, int bucket1, int bucket2) {
+        return findSlot(bucket1, fingerprint) >= 0 || findSlot(bucket2, fingerprint) >= 0;
+    }
+
+    boolean remove0(int fingerprint, int bucket1, int bucket2) {
+        return removeFrom(bucket1, fingerprint) || removeFrom(bucket2, fingerprint);
+    }
+
+    boolean insertIfEmpty(int bucket, int fingerprint) {
+        int slot = findSlot(bucket, 0);
+        if (slot < 0) {
+            return false;
+        }
+        setSlot(bucket, slot, fingerprint);
+        count.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 两个桶都满时, 随机踢出一个指纹放到它的另一个桶, 最多MAX_KICKS次. 失败时按原路撤销, 不丢失已有元素.
+     * 并发版本在全部锁内调用.
+     */
+    boolean kick(int fingerprint, int bucket) {
+        int current = fingerprint;
+        if ((nextKickRandom() & 0x10) != 0) {
+            bucket = altBucket(bucket, fingerprint);
+        }
+        int kicks = 0;
+        while (kicks < MAX_KICKS) {
+            int slot = nextKickRandom() & (SLOTS_PER_BUCKET - 1);
+            int victim = getSlot(bucket, slot);
+            setSlot(bucket, slot, current);
+            kickPath[kicks++] = ((long) bucket << 2) | slot;
+            current = victim;
+            bucket = altBucket(bucket, current);
+            if (insertIfEmpty(bucket, current)) {
+                return true;
+            }
+        }
+        // 撤销: 逆序把每个槽恢复为原来的指纹
+        for (int i = kicks - 1 ; i >= 0 ; i--) {
+            int pathBucket = (int) (kickPath[i] >>> 2);
+            int pathSlot = (int) kickPath[i] & (SLOTS_PER_BUCKET - 1);
+            int replaced = getSlot(pathBucket, pathSlot);
+            setSlot(pathBucket, pathSlot, current);
+            current = replaced;
+        }
+        return false;
+    }
+
+    int bucket(long hash1) {
+        return (int) hash1 & bucketMask;
+    }
+
+    /**
+     * 桶所在的long序号. 指纹位数为8时, 两个相邻的桶共用一个long; 指纹位数为16时, 一个桶占一个long
+     */
+    int wordIndex(int bucket) {
+        return (int) (((long) bucket << 2) * fingerprintBits >>> 6);
+    }
+
+    /**
+     * 另一个桶 = 桶 ^ hash(指纹), 对两个桶都成立
+     */
+    int altBucket(int bucket, int fingerprint) {
+        return (bucket ^ (int) ((fingerprint * 0xc4ceb9fe1a85ec53L) >>> 32)) & bucketMask;
+    }
+
+    /**
+     * 指纹取哈希的高位, 0表示空槽, 所以指纹为0时改为1
+     */
+    private int fingerprint(long hash2) {
+        int fingerprint = (int) (hash2 >>> (64 - fingerprintBits));
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    /**
+     * @return 桶中第一个等于fingerprint的槽, 不存在返回-1
+     */
+    private int findSlot(int bucket, int fingerprint) {
+        for (int slot = 0 ; slot < SLOTS_PER_BUCKET ; slot++) {
+            if (getSlot(bucket, slot) == fingerprint) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean removeFrom(int bucket, int fingerprint) {
+        int slot = findSlot(bucket, fingerprint);
+        if (slot < 0) {
+            return false;
+        }
+        setSlot(bucket, slot, 0);
+        count.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * 指纹位数是8或16, 一个指纹不会跨越两个long
+     */
+    private int getSlot(int bucket, int slot) {
+        long position = (((long) bucket << 2) + slot) * fingerprintBits;
+        return (int) (table[(int) (position >>> 6)] >>> (position & 0x3F)) & fingerprintMask;
+    }
+
+    private void setSlot(int bucket, int slot, int fingerprint) {
+        long position = (((long) bucket << 2) + slot) * fingerprintBits;
+        int wordIndex = (int) (position >>> 6);
+        int shift = (int) (position & 0x3F);
+        table[wordIndex] = (table[wordIndex] & ~((long) fingerprintMask << shift)) | ((long) fingerprint << shift);
+    }
+
+    /**
+     * 统计[fromWord, toWord)中的非空槽
+     */
+    private int countSlots(int fromWord, int toWord) {
+        int result = 0;
+        int slotsPerWord = 64 / fingerprintBits;
+        for (int i = fromWord ; i < toWord ; i++) {
+            long word = table[i];
+            for (int j = 0 ; j < slotsPerWord ; j++) {
+                if (((word >>> (j * fingerprintBits)) & fingerprintMask) != 0) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int nextKickRandom() {
+        // xorshift
+        int x = kickRandom;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        return kickRandom = x;
+    }
+
+    private void checkByteBound(int byteOffset, int length) {
+        if (byteOffset < 0 || byteOffset > getByteSize() - length) {
+            throw new IllegalArgumentException("Out of bound, byteOffset: " + byteOffset + ", length: " + length + ", byte size: " + getByteSize());
+        }
+    }
+
+    private static void checkFingerprintBits(int fingerprintBits) {
+        if (fingerprintBits != 8 && fingerprintBits != 16) {
+            throw new IllegalArgumentException("fingerprintBits must be 8 or 16, but it's " + fingerprintBits);
+        }
+    }
+
+    private static int bucketNumOf(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0, but it's " + capacity);
+        }
+        long minBucketNum = (long) Math.ceil(capacity / (SLOTS_PER_BUCKET * LOAD_FACTOR));
+        if (minBucketNum > MAX_BUCKET_NUM) {
+            throw new IllegalArgumentException("capacity is too large, the bucket number " + minBucketNum + " > " + MAX_BUCKET_NUM);
+        }
+        // 2的幂, 至少2个桶(8bit指纹时一个long存放两个桶)
+        int bucketNum = 2;
+        while (bucketNum < minBucketNum) {
+            bucketNum <<= 1;
+        }
+        return bucketNum;
+    }
+
+    private static int bucketNumOf(byte[] data, int fingerprintBits) {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+        checkFingerprintBits(fingerprintBits);
+        // 每个桶 4 * f / 8 字节
+        int bucketBytes = fingerprintBits >>> 1;
+        int bucketNum = data.length / bucketBytes;
+        if (data.length % bucketBytes != 0 || bucketNum < 2 || (bucketNum & (bucketNum - 1)) != 0) {
+            throw new IllegalArgumentException("Illegal data length " + data.length + ", the bucket number must be a power of two (>= 2)");
+        }
+        return bucketNum;
+    }
+
+}
@@ -23,6 +23,8 @@ import sviolet.thistle.util.common.CloseableUtils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 
 /**
  * <p>[非线程安全]使用直接内存的Bitmap</p>
@@ -34,7 +36,7 @@ import java.nio.ByteBuffer;
  * <p>堆外内存占用 = 1 byte * ( 容量 / 8 )</p>
  * <p>容量: 指的是比特数, 不是指字节数</p>
  *
- * <p>一致性: extract/inject操作有同步锁, put/get/bloomAdd/bloomContains/computeWith无同步锁, 且不保证内存可见性(非CAS操作).</p>
+ * <p>一致性: 无同步锁, extract/inject使用buffer的副本(duplicate), 不修改共享的position, 可以与其他操作同时进行, 且不保证内存可见性(非CAS操作).</p>
  *
  * <p>特点: 数据放在堆外, 用于特殊场景; 内存占用小, bit读写速度快, bit读写不支持多线程</p>
  *
@@ -46,6 +48,8 @@ public class DirectBitmap extends AbstractBitmap {
 
     //Direct buffer
     private ByteBuffer buffer;
+    //按long读写buffer(little-endian), 不包含最后一个不完整的long
+    private LongBuffer wordBuffer;
 
     public DirectBitmap(int size) {
         super(size);
@@ -58,6 +62,7 @@ public class DirectBitmap extends AbstractBitmap {
     @Override
     protected void dataAccess_init(int slotSize) {
         buffer = ByteBuffer.allocateDirect(slotSize);
+        wordBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
     }
 
     @Override
@@ -73,18 +78,65 @@ public class DirectBitmap extends AbstractBitmap {
 
     @Override
     protected void dataAccess_extract(byte[] dst, int offset) {
-        synchronized (this) {
-            buffer.position(offset);
-            buffer.get(dst, 0, dst.length);
-        }
+        // 使用duplicate, 不修改共享buffer的position, 无需加锁
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(dst, 0, dst.length);
     }
 
     @Override
     protected void dataAccess_inject(byte[] src, int offset) {
-        synchronized (this) {
-            buffer.position(offset);
-            buffer.put(src, 0, src.length);
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.put(src, 0, src.length);
+    }
+
+    @Override
+    protected ByteBuffer dataAccess_view(int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(offset + length);
+        duplicate.position(offset);
+        return duplicate.slice();
+    }
+
+    @Override
+    protected long dataAccess_getWord(int wordIndex) {
+        if (wordIndex >= wordBuffer.limit()) {
+            // 最后一个long不完整
+            return super.dataAccess_getWord(wordIndex);
+        }
+        return wordBuffer.get(wordIndex);
+    }
+
+    @Override
+    protected void dataAccess_putWord(int wordIndex, long word) {
+        if (wordIndex >= wordBuffer.limit()) {
+            super.dataAccess_putWord(wordIndex, word);
+            return;
+        }
+        wordBuffer.put(wordIndex, word);
+    }
+
+    @Override
+    protected void dataAccess_getWords(int wordIndex, long[] dst, int length) {
+        if (wordIndex + length > wordBuffer.limit()) {
+            super.dataAccess_getWords(wordIndex, dst, length);
+            return;
+        }
+        LongBuffer duplicate = wordBuffer.duplicate();
+        duplicate.position(wordIndex);
+        duplicate.get(dst, 0, length);
+    }
+
+    @Override
+    protected void dataAccess_putWords(int wordIndex, long[] src, int length) {
+        if (wordIndex + length > wordBuffer.limit()) {
+            super.dataAccess_putWords(wordIndex, src, length);
+            return;
         }
+        LongBuffer duplicate = wordBuffer.duplicate();
+        duplicate.position(wordIndex);
+        duplicate.put(src, 0, length);
     }
 
     @Override
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import sviolet.thistle.util.common.CloseableUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>[非线程安全]使用直接内存的分页LongBitmap</p>
+ *
+ * <p>注意!!! 这个类请谨慎使用, 内存分配在堆外, 小心内存泄露!!!</p>
+ * <p>注意!!! 使用完后请调用close()方法回收内存!!!</p>
+ *
+ * <p>堆内存占用 = 约 4 byte * 总页数 + 约 64 byte * 已分配页数</p>
+ * <p>堆外内存占用 = 1 byte * 页大小 * 已分配页数</p>
+ * <p>页在第一次写入时分配, 未写入过的页不占用内存</p>
+ *
+ * <p>一致性: 页分配有同步锁, put/get/extract/inject无同步锁, 且不保证内存可见性(非CAS操作).</p>
+ *
+ * <p>特点: 容量可以超过Integer.MAX_VALUE个bit, 数据放在堆外, 适合超大且稀疏的数据; bit读写速度快, bit读写不支持多线程</p>
+ *
+ * @see LongBitmap
+ * @author S.Violet
+ */
+public class DirectLongBitmap extends AbstractLongBitmap<ByteBuffer> {
+
+    /**
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     */
+    public DirectLongBitmap(long size) {
+        super(size, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     * @param pageSize 页大小, 字节数, 必须是2的幂, 取值范围[1024, 1073741824]
+     */
+    public DirectLongBitmap(long size, int pageSize) {
+        super(size, pageSize);
+    }
+
+    @Override
+    protected ByteBuffer page_create(int pageIndex, int pageLength) {
+        return ByteBuffer.allocateDirect(pageLength);
+    }
+
+    @Override
+    protected byte page_getSlot(ByteBuffer page, int index) {
+        return page.get(index);
+    }
+
+    @Override
+    protected boolean page_putSlot(ByteBuffer page, int index, byte newValue, byte oldValue) {
+        page.put(index, newValue);
+        return true;
+    }
+
+    @Override
+    protected void page_extract(ByteBuffer page, int pageOffset, byte[] dst, int dstOffset, int length) {
+        // duplicate, 不修改共享buffer的position
+        ByteBuffer duplicate = page.duplicate();
+        duplicate.position(pageOffset);
+        duplicate.get(dst, dstOffset, length);
+    }
+
+    @Override
+    protected void page_inject(ByteBuffer page, int pageOffset, byte[] src, int srcOffset, int length) {
+        ByteBuffer duplicate = page.duplicate();
+        duplicate.position(pageOffset);
+        duplicate.put(src, srcOffset, length);
+    }
+
+    @Override
+    protected void page_release(ByteBuffer page) {
+        CloseableUtils.cleanMappedByteBuffer(page);
+    }
+
+}
@@ -19,6 +19,10 @@
 
 package sviolet.thistle.model.bitmap;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
 /**
  * <p>[非线程安全]使用堆内存(HEAP)的Bitmap</p>
  *
@@ -37,6 +41,8 @@ public class HeapBitmap extends AbstractBitmap {
 
     //Heap buffer
     private byte[] data;
+    //按long读写data(little-endian), 不包含最后一个不完整的long
+    private LongBuffer wordBuffer;
 
     public HeapBitmap(int size) {
         super(size);
@@ -49,6 +55,7 @@ public class HeapBitmap extends AbstractBitmap {
     @Override
     protected void dataAccess_init(int slotSize) {
         data = new byte[slotSize];
+        wordBuffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
     }
 
     @Override
@@ -94,4 +101,49 @@ public class HeapBitmap extends AbstractBitmap {
         }
     }
 
+    @Override
+    protected ByteBuffer dataAccess_view(int offset, int length) {
+        return ByteBuffer.wrap(data, offset, length).slice();
+    }
+
+    @Override
+    protected long dataAccess_getWord(int wordIndex) {
+        if (wordIndex >= wordBuffer.limit()) {
+            // 最后一个long不完整
+            return super.dataAccess_getWord(wordIndex);
+        }
+        return wordBuffer.get(wordIndex);
+    }
+
+    @Override
+    protected void dataAccess_putWord(int wordIndex, long word) {
+        if (wordIndex >= wordBuffer.limit()) {
+            super.dataAccess_putWord(wordIndex, word);
+            return;
+        }
+        wordBuffer.put(wordIndex, word);
+    }
+
+    @Override
+    protected void dataAccess_getWords(int wordIndex, long[] dst, int length) {
+        if (wordIndex + length > wordBuffer.limit()) {
+            super.dataAccess_getWords(wordIndex, dst, length);
+            return;
+        }
+        LongBuffer duplicate = wordBuffer.duplicate();
+        duplicate.position(wordIndex);
+        duplicate.get(dst, 0, length);
+    }
+
+    @Override
+    protected void dataAccess_putWords(int wordIndex, long[] src, int length) {
+        if (wordIndex + length > wordBuffer.limit()) {
+            super.dataAccess_putWords(wordIndex, src, length);
+            return;
+        }
+        LongBuffer duplicate = wordBuffer.duplicate();
+        duplicate.position(wordIndex);
+        duplicate.put(src, 0, length);
+    }
+
 }
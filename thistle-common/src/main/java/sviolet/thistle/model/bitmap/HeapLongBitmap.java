@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+/**
+ * <p>[非线程安全]使用堆内存(HEAP)的分页LongBitmap</p>
+ *
+ * <p>堆内存占用 = 约 4 byte * 总页数 + 1 byte * 页大小 * 已分配页数</p>
+ * <p>页在第一次写入时分配, 未写入过的页不占用内存</p>
+ *
+ * <p>一致性: 页分配有同步锁, put/get/extract/inject无同步锁, 且不保证内存可见性(非CAS操作).</p>
+ *
+ * <p>特点: 容量可以超过Integer.MAX_VALUE个bit, 适合超大且稀疏的数据; bit读写速度快, bit读写不支持多线程</p>
+ *
+ * @see LongBitmap
+ * @author S.Violet
+ */
+public class HeapLongBitmap extends AbstractLongBitmap<byte[]> {
+
+    /**
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     */
+    public HeapLongBitmap(long size) {
+        super(size, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     * @param pageSize 页大小, 字节数, 必须是2的幂, 取值范围[1024, 1073741824]
+     */
+    public HeapLongBitmap(long size, int pageSize) {
+        super(size, pageSize);
+    }
+
+    @Override
+    protected byte[] page_create(int pageIndex, int pageLength) {
+        return new byte[pageLength];
+    }
+
+    @Override
+    protected byte page_getSlot(byte[] page, int index) {
+        return page[index];
+    }
+
+    @Override
+    protected boolean page_putSlot(byte[] page, int index, byte newValue, byte oldValue) {
+        page[index] = newValue;
+        return true;
+    }
+
+    @Override
+    protected void page_extract(byte[] page, int pageOffset, byte[] dst, int dstOffset, int length) {
+        System.arraycopy(page, pageOffset, dst, dstOffset, length);
+    }
+
+    @Override
+    protected void page_inject(byte[] page, int pageOffset, byte[] src, int srcOffset, int length) {
+        System.arraycopy(src, srcOffset, page, pageOffset, length);
+    }
+
+    @Override
+    protected void page_release(byte[] page) {
+        // Do nothing
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.io.Closeable;
+
+/**
+ * <p>Long Bitmap</p>
+ *
+ * <p>与Bitmap相同, 但是索引和容量是long类型, 容量可以超过Integer.MAX_VALUE个bit. </p>
+ *
+ * @see Bitmap
+ * @author S.Violet
+ */
+public interface LongBitmap extends Closeable, AutoCloseable {
+
+    /**
+     * 取值(一个bit)
+     * @param bitIndex 索引位置(比特位置)
+     * @return true / false
+     */
+    boolean get(long bitIndex);
+
+    /**
+     * 存值(一个bit)
+     * @param bitIndex 索引位置(比特位置)
+     * @param value 值
+     * @return true: 存值成功, false: 存值失败
+     */
+    boolean put(long bitIndex, boolean value);
+
+    /**
+     * 抽取(复制)部分数据
+     * @param dst 抽取的数据存放到这里
+     * @param byteOffset 起始位置(注意, 这个不是比特位置, 是字节位置; 这是内部Bitmap的位置, 不是入参dst的位置, dst始终会从0位开始填充直至结束)
+     */
+    void extract(byte[] dst, long byteOffset);
+
+    /**
+     * 导入数据
+     * @param src 需要被导入的数据
+     * @param byteOffset 起始位置(注意, 这个不是比特位置, 是字节位置; 这是内部Bitmap的位置, 不是入参src的位置, src始终会从0位开始读取直至结束)
+     */
+    void inject(byte[] src, long byteOffset);
+
+    /**
+     * Bitmap的总比特长度(bit容量)
+     */
+    long size();
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import sviolet.thistle.util.common.CloseableUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>[非线程安全]使用内存映射文件(FileChannel.map)的Bitmap, 数据持久化在文件中, 重启后可直接打开, 无需重新inject</p>
+ *
+ * <p>注意!!! 使用完后请调用close()方法, 刷盘并释放映射(CloseableUtils.cleanMappedByteBuffer), 否则文件句柄会一直被占用!!!</p>
+ * <p>注意!!! close()之后禁止再访问这个Bitmap, 映射被释放后访问会导致JVM崩溃!!!</p>
+ *
+ * <p>堆内存占用 = 很小(固定)</p>
+ * <p>文件大小 = 32 byte(文件头) + 1 byte * ( 容量 / 8 )</p>
+ * <p>容量: 指的是比特数, 不是指字节数</p>
+ *
+ * <p>文件头(32 byte): magic(4) + version(4) + size(4) + hashConfig(4) + reserved(16). hashConfig记录布隆过滤器的
+ * 哈希函数个数(setBloomHashNum时写入, 0表示默认的bloomHash), 重新打开时自动恢复, 避免用不同的哈希配置读取同一份数据.</p>
+ *
+ * <p>一致性: 无同步锁, extract/inject使用buffer的副本(duplicate), 不修改共享的position, 可以与其他操作同时进行, 且不保证内存可见性(非CAS操作).
+ * 数据何时落盘由操作系统决定, 调用force()可以强制刷盘(检查点).</p>
+ *
+ * <p>特点: 数据放在文件映射的堆外内存中, 用于需要持久化的大Bitmap(例如大容量布隆过滤器); 重启时open()只读取文件头, 不复制数据,
+ * 耗时与容量无关; bit读写速度快, bit读写不支持多线程</p>
+ *
+ * <pre>
+ *      // 首次创建
+ *      MappedBitmap bitmap = MappedBitmap.create(file, 1000000000);
+ *      // 定期检查点
+ *      bitmap.force();
+ *      // 重启后打开
+ *      MappedBitmap bitmap = MappedBitmap.open(file);
+ * </pre>
+ *
+ * @see Bitmap
+ * @see BloomBitmap
+ * @see DirectBitmap
+ * @author S.Violet
+ */
+public class MappedBitmap extends AbstractBitmap {
+
+    /**
+     * 文件头长度
+     */
+    public static final int HEADER_LENGTH = 32;
+
+    private static final int MAGIC = 0x54424D50;//TBMP
+    private static final int VERSION = 1;
+
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 4;
+    private static final int HEADER_SIZE_OFFSET = 8;
+    private static final int HEADER_HASH_CONFIG_OFFSET = 12;
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    //按long读写数据(little-endian), 与buffer共享内存, 不包含文件头和最后一个不完整的long
+    private LongBuffer wordBuffer;
+
+    /**
+     * 创建一个新的MappedBitmap, 如果文件已存在, 会被清空覆盖
+     *
+     * @param file 文件
+     * @param size 容量, 比特数(不是字节数)
+     */
+    public static MappedBitmap create(File file, int size) throws IOException {
+        return new MappedBitmap(file, size, true);
+    }
+
+    /**
+     * 打开一个已存在的MappedBitmap, 只读取文件头, 数据不复制(O(1))
+     *
+     * @param file 文件
+     * @throws IOException 文件不存在, 或文件头校验失败
+     */
+    public static MappedBitmap open(File file) throws IOException {
+        return new MappedBitmap(file, readSize(file), false);
+    }
+
+    /**
+     * 文件存在则打开, 不存在则创建. 如果文件存在但容量与size不一致, 抛出异常
+     *
+     * @param file 文件
+     * @param size 容量, 比特数(不是字节数)
+     */
+    public static MappedBitmap openOrCreate(File file, int size) throws IOException {
+        if (file.exists() && file.length() > 0) {
+            int existedSize = readSize(file);
+            if (existedSize != size) {
+                throw new IOException("The size of the existed MappedBitmap file is " + existedSize + ", but expected size is " + size + ", file: " + file.getAbsolutePath());
+            }
+            return new MappedBitmap(file, existedSize, false);
+        }
+        return new MappedBitmap(file, size, true);
+    }
+
+    private MappedBitmap(File file, int size, boolean create) throws IOException {
+        super(size);
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        this.file = file;
+        long fileLength = HEADER_LENGTH + (long) bitIndexToSlotIndex(size);
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if (create) {
+                // 清空原有数据
+                randomAccessFile.setLength(0);
+            } else if (randomAccessFile.length() < fileLength) {
+                throw new IOException("The MappedBitmap file is corrupted, file length " + randomAccessFile.length() +
+                        " < expected " + fileLength + ", file: " + file.getAbsolutePath());
+            }
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+            ByteBuffer data = buffer.duplicate();
+            data.position(HEADER_LENGTH);
+            wordBuffer = data.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            if (create) {
+                buffer.putInt(HEADER_MAGIC_OFFSET, MAGIC);
+                buffer.putInt(HEADER_VERSION_OFFSET, VERSION);
+                buffer.putInt(HEADER_SIZE_OFFSET, size);
+                buffer.putInt(HEADER_HASH_CONFIG_OFFSET, 0);
+                buffer.force();
+            } else {
+                int hashConfig = buffer.getInt(HEADER_HASH_CONFIG_OFFSET);
+                if (hashConfig < 0 || hashConfig > MAX_BLOOM_HASH_NUM) {
+                    throw new IOException("The MappedBitmap file is corrupted, invalid hashConfig " + hashConfig + ", file: " + file.getAbsolutePath());
+                }
+                super.setBloomHashNum(hashConfig);
+            }
+        } catch (IOException e) {
+            CloseableUtils.cleanMappedByteBuffer(buffer);
+            CloseableUtils.closeQuiet(randomAccessFile);
+            throw e;
+        }
+    }
+
+    /**
+     * 读取文件头并校验, 返回容量
+     */
+    private static int readSize(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        if (!file.exists()) {
+            throw new IOException("MappedBitmap file does not exist, file: " + file.getAbsolutePath());
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("The MappedBitmap file is corrupted, incomplete header, file: " + file.getAbsolutePath());
+                }
+            }
+            if (header.getInt(HEADER_MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("The file is not a MappedBitmap file (magic mismatch), file: " + file.getAbsolutePath());
+            }
+            int version = header.getInt(HEADER_VERSION_OFFSET);
+            if (version != VERSION) {
+                throw new IOException("Unsupported MappedBitmap file version " + version + ", file: " + file.getAbsolutePath());
+            }
+            return header.getInt(HEADER_SIZE_OFFSET);
+        } finally {
+            CloseableUtils.closeQuiet(randomAccessFile);
+        }
+    }
+
+    /**
+     * 检查点: 强制将数据刷入磁盘
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * 设置布隆过滤器哈希函数个数, 同时记录到文件头中, 重新打开时自动恢复
+     */
+    @Override
+    public void setBloomHashNum(int bloomHashNum) {
+        super.setBloomHashNum(bloomHashNum);
+        buffer.putInt(HEADER_HASH_CONFIG_OFFSET, bloomHashNum);
+    }
+
+    /**
+     * @return 文件
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected void dataAccess_init(int slotSize) {
+        // 父类构造器中调用, 此时文件还未映射, 映射在构造器中完成
+    }
+
+    @Override
+    protected byte dataAccess_getSlot(int index) {
+        return buffer.get(HEADER_LENGTH + index);
+    }
+
+    @Override
+    protected boolean dataAccess_putSlot(int index, byte newValue, byte oldValue) {
+        buffer.put(HEADER_LENGTH + index, newValue);
+        return true;
+    }
+
+    @Override
+    protected void dataAccess_extract(byte[] dst, int offset) {
+        checkBound(offset, dst.length);
+        // 使用duplicate, 不修改共享buffer的position, 无需加锁
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(HEADER_LENGTH + offset);
+        duplicate.get(dst, 0, dst.length);
+    }
+
+    @Override
+    protected void dataAccess_inject(byte[] src, int offset) {
+        checkBound(offset, src.length);
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(HEADER_LENGTH + offset);
+        duplicate.put(src, 0, src.length);
+    }
+
+    @Override
+    protected ByteBuffer dataAccess_view(int offset, int length) {
+        checkBound(offset, length);
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(HEADER_LENGTH + offset + length);
+        duplicate.position(HEADER_LENGTH + offset);
+        return duplicate.slice();
+    }
+
+    @Override
+    protected long dataAccess_getWord(int wordIndex) {
+        if (wordIndex >= wordBuffer.limit()) {
+            // 最后一个long不完整
+            return super.dataAccess_getWord(wordIndex);
+        }
+        return wordBuffer.get(wordIndex);
+    }
+
+    @Override
+    protected void dataAccess_putWord(int wordIndex, long word) {
+        if (wordIndex >= wordBuffer.limit()) {
+            super.dataAccess_putWord(wordIndex, word);
+            return;
+        }
+        wordBuffer.put(wordIndex, word);
+    }
+
+    @Override
+    protected void dataAccess_getWords(int wordIndex, long[] dst, int length) {
+        if (wordIndex + length > wordBuffer.limit()) {
+            super.dataAccess_getWords(wordIndex, dst, length);
+            return;
+        }
+        LongBuffer duplicate = wordBuffer.duplicate();
+        duplicate.position(wordIndex);
+        duplicate.get(dst, 0, length);
+    }
+
+    @Override
+    protected void dataAccess_putWords(int wordIndex, long[] src, int length) {
+        if (wordIndex + length > wordBuffer.limit()) {
+            super.dataAccess_putWords(wordIndex, src, length);
+            return;
+        }
+        LongBuffer duplicate = wordBuffer.duplicate();
+        duplicate.position(wordIndex);
+        duplicate.put(src, 0, length);
+    }
+
+    private void checkBound(int offset, int length) {
+        int slotSize = bitIndexToSlotIndex(size);
+        if (offset < 0) {
+            throw new ArrayIndexOutOfBoundsException("offset < 0");
+        }
+        if (offset + length > slotSize) {
+            throw new ArrayIndexOutOfBoundsException("offset + length > max " + slotSize);
+        }
+    }
+
+    /**
+     * 刷盘并释放映射, 关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (randomAccessFile == null) {
+                return;
+            }
+            try {
+                buffer.force();
+            } finally {
+                CloseableUtils.cleanMappedByteBuffer(buffer);
+                CloseableUtils.closeQuiet(randomAccessFile);
+                randomAccessFile = null;
+            }
+        }
+    }
+
+}
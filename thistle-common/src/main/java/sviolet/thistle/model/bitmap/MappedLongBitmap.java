@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import sviolet.thistle.util.common.CloseableUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>[非线程安全]使用内存映射文件(FileChannel.map)的分页LongBitmap, 数据持久化在文件中, 重启后可直接打开</p>
+ *
+ * <p>注意!!! 使用完后请调用close()方法, 刷盘并释放映射(CloseableUtils.cleanMappedByteBuffer), 否则文件句柄会一直被占用!!!</p>
+ * <p>注意!!! close()之后禁止再访问这个Bitmap, 映射被释放后访问会导致JVM崩溃!!!</p>
+ *
+ * <p>堆内存占用 = 约 4 byte * 总页数 + 约 64 byte * 已映射页数</p>
+ * <p>文件大小 = 32 byte(文件头) + 1 byte * ( 容量 / 8 ), 创建时文件为稀疏文件(取决于文件系统), 只有写过的部分占用磁盘</p>
+ * <p>每个页单独映射, 第一次访问时才映射</p>
+ *
+ * <p>文件头(32 byte): magic(4) + version(4) + size(8) + pageSize(4) + reserved(12)</p>
+ *
+ * <p>一致性: 页映射有同步锁, put/get/extract/inject无同步锁, 且不保证内存可见性(非CAS操作).
+ * 数据何时落盘由操作系统决定, 调用force()可以强制刷盘(检查点).</p>
+ *
+ * @see LongBitmap
+ * @see MappedBitmap
+ * @author S.Violet
+ */
+public class MappedLongBitmap extends AbstractLongBitmap<MappedByteBuffer> {
+
+    /**
+     * 文件头长度
+     */
+    public static final int HEADER_LENGTH = 32;
+
+    private static final int MAGIC = 0x544C424D;//TLBM
+    private static final int VERSION = 1;
+
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 4;
+    private static final int HEADER_SIZE_OFFSET = 8;
+    private static final int HEADER_PAGE_SIZE_OFFSET = 16;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    /**
+     * 创建一个新的MappedLongBitmap, 如果文件已存在, 会被清空覆盖
+     *
+     * @param file 文件
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     */
+    public static MappedLongBitmap create(File file, long size) throws IOException {
+        return create(file, size, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * 创建一个新的MappedLongBitmap, 如果文件已存在, 会被清空覆盖
+     *
+     * @param file 文件
+     * @param size 容量, 比特数(不是字节数), 必须是8的倍数
+     * @param pageSize 页大小(每次映射的大小), 字节数, 必须是2的幂, 取值范围[1024, 1073741824]
+     */
+    public static MappedLongBitmap create(File file, long size, int pageSize) throws IOException {
+        return new MappedLongBitmap(file, size, pageSize, true);
+    }
+
+    /**
+     * 打开一个已存在的MappedLongBitmap, 只读取文件头, 数据不复制(O(1))
+     *
+     * @param file 文件
+     * @throws IOException 文件不存在, 或文件头校验失败
+     */
+    public static MappedLongBitmap open(File file) throws IOException {
+        ByteBuffer header = readHeader(file);
+        return new MappedLongBitmap(file, header.getLong(HEADER_SIZE_OFFSET), header.getInt(HEADER_PAGE_SIZE_OFFSET), false);
+    }
+
+    private MappedLongBitmap(File file, long size, int pageSize, boolean create) throws IOException {
+        super(size, pageSize);
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        this.file = file;
+        long fileLength = HEADER_LENGTH + slotSize;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (create) {
+                // 清空原有数据, 并扩展为稀疏文件
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(fileLength);
+            } else if (randomAccessFile.length() < fileLength) {
+                throw new IOException("The MappedLongBitmap file is corrupted, file length " + randomAccessFile.length() +
+                        " < expected " + fileLength + ", file: " + file.getAbsolutePath());
+            }
+            this.channel = randomAccessFile.getChannel();
+            if (create) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(HEADER_MAGIC_OFFSET, MAGIC);
+                header.putInt(HEADER_VERSION_OFFSET, VERSION);
+                header.putLong(HEADER_SIZE_OFFSET, size);
+                header.putInt(HEADER_PAGE_SIZE_OFFSET, pageSize);
+                writeFully(header, 0);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            CloseableUtils.closeQuiet(randomAccessFile);
+            throw e;
+        }
+    }
+
+    private static ByteBuffer readHeader(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        if (!file.exists()) {
+            throw new IOException("MappedLongBitmap file does not exist, file: " + file.getAbsolutePath());
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("The MappedLongBitmap file is corrupted, incomplete header, file: " + file.getAbsolutePath());
+                }
+            }
+            if (header.getInt(HEADER_MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("The file is not a MappedLongBitmap file (magic mismatch), file: " + file.getAbsolutePath());
+            }
+            int version = header.getInt(HEADER_VERSION_OFFSET);
+            if (version != VERSION) {
+                throw new IOException("Unsupported MappedLongBitmap file version " + version + ", file: " + file.getAbsolutePath());
+            }
+            return header;
+        } finally {
+            CloseableUtils.closeQuiet(randomAccessFile);
+        }
+    }
+
+    /**
+     * 检查点: 强制将已映射的页刷入磁盘
+     */
+    public void force() {
+        forEachAllocatedPage(new PageVisitor<MappedByteBuffer>() {
+            @Override
+            public void visit(int pageIndex, MappedByteBuffer page) {
+                page.force();
+            }
+        });
+    }
+
+    /**
+     * @return 文件
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected boolean page_loadOnRead() {
+        // 数据在文件中, 读取时也需要映射
+        return true;
+    }
+
+    @Override
+    protected MappedByteBuffer page_create(int pageIndex, int pageLength) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LENGTH + ((long) pageIndex * pageSize), pageLength);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to map page " + pageIndex + " of file " + file.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    protected byte page_getSlot(MappedByteBuffer page, int index) {
+        return page.get(index);
+    }
+
+    @Override
+    protected boolean page_putSlot(MappedByteBuffer page, int index, byte newValue, byte oldValue) {
+        page.put(index, newValue);
+        return true;
+    }
+
+    @Override
+    protected void page_extract(MappedByteBuffer page, int pageOffset, byte[] dst, int dstOffset, int length) {
+        // duplicate, 不修改共享buffer的position
+        ByteBuffer duplicate = page.duplicate();
+        duplicate.position(pageOffset);
+        duplicate.get(dst, dstOffset, length);
+    }
+
+    @Override
+    protected void page_inject(MappedByteBuffer page, int pageOffset, byte[] src, int srcOffset, int length) {
+        ByteBuffer duplicate = page.duplicate();
+        duplicate.position(pageOffset);
+        duplicate.put(src, srcOffset, length);
+    }
+
+    @Override
+    protected void page_release(MappedByteBuffer page) {
+        try {
+            page.force();
+        } finally {
+            CloseableUtils.cleanMappedByteBuffer(page);
+        }
+    }
+
+    /**
+     * 刷盘并释放所有映射, 关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            CloseableUtils.closeQuiet(randomAccessFile);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+}
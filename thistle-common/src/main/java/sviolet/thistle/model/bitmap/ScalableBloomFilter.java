@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>可扩容布隆过滤器(Scalable Bloom Filter), 元素数量超过预计时自动扩容, 无需重建</p>
+ *
+ * <p>由多级布隆过滤器(AbstractBitmap, 由BloomBitmapBuilder创建)组成. 第i级(从0开始)预计元素数量 = n * growthRatio^i,
+ * 期望误判率 = p * tighteningRatio^i. 元素只添加到最后一级, 最后一级元素数量达到预计值时, 创建新的一级.
+ * 查询时检查所有级. 总误判率上限 = p / (1 - tighteningRatio).</p>
+ *
+ * <p>一致性: 扩容有同步锁, 级列表使用copy-on-write. bloomAdd/bloomContains的一致性与存储相同,
+ * 多线程使用时请使用CONCURRENT或SYNC存储. 元素计数为近似值(多线程同时添加同一个元素可能重复计数).</p>
+ *
+ * <pre>
+ *      ScalableBloomFilter filter = new BloomBitmapBuilder()
+ *              .expectedInsertions(100000)
+ *              .falsePositiveProbability(0.001)
+ *              .storage(BloomBitmapBuilder.Storage.CONCURRENT)
+ *              .buildScalable();
+ * </pre>
+ *
+ * @see BloomBitmapBuilder
+ * @author S.Violet
+ */
+public class ScalableBloomFilter implements Closeable {
+
+    /**
+     * 默认扩容倍数
+     */
+    public static final int DEFAULT_GROWTH_RATIO = 2;
+
+    /**
+     * 默认误判率收紧比例
+     */
+    public static final double DEFAULT_TIGHTENING_RATIO = 0.8;
+
+    private final long initialExpectedInsertions;
+    private final double falsePositiveProbability;
+    private final BloomBitmapBuilder.Storage storage;
+    private final int growthRatio;
+    private final double tighteningRatio;
+
+    private volatile Stage[] stages;
+
+    /**
+     * @param initialExpectedInsertions 第一级预计元素数量
+     * @param falsePositiveProbability 第一级期望误判率
+     * @param storage 存储方式
+     * @param growthRatio 扩容倍数, 每一级的预计元素数量是上一级的几倍, 取值范围[1, 16]
+     * @param tighteningRatio 误判率收紧比例, 每一级的期望误判率是上一级的几倍, 取值范围(0, 1)
+     */
+    public ScalableBloomFilter(long initialExpectedInsertions, double falsePositiveProbability, BloomBitmapBuilder.Storage storage,
+                               int growthRatio, double tighteningRatio) {
+        if (growthRatio < 1 || growthRatio > 16) {
+            throw new IllegalArgumentException("growthRatio must be >= 1 and <= 16, but it's " + growthRatio);
+        }
+        if (!(tighteningRatio > 0.0 && tighteningRatio < 1.0)) {
+            throw new IllegalArgumentException("tighteningRatio must be > 0.0 and < 1.0, but it's " + tighteningRatio);
+        }
+        this.initialExpectedInsertions = initialExpectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.storage = storage;
+        this.growthRatio = growthRatio;
+        this.tighteningRatio = tighteningRatio;
+        // 校验参数并创建第一级
+        this.stages = new Stage[]{createStage(0)};
+    }
+
+    /**
+     * 添加一个元素, 已存在(可能存在)的元素不会重复添加
+     *
+     * @param data 数据
+     * @return true: 添加成功, false: 元素已存在(可能存在)
+     */
+    public boolean bloomAdd(byte[] data) {
+        if (bloomContains(data)) {
+            return false;
+        }
+        Stage stage = currentStage();
+        stage.bitmap.bloomAdd(data);
+        stage.count.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 检查一个元素是否存在
+     *
+     * @param data 数据
+     * @return true:存在(可能存在) false:不存在(一定不存在)
+     */
+    public boolean bloomContains(byte[] data) {
+        Stage[] stages = this.stages;
+        // 新的级元素多, 先检查
+        for (int i = stages.length - 1 ; i >= 0 ; i--) {
+            if (stages[i].bitmap.bloomContains(data)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 估算的总误判率: 1 - (1 - p0) * (1 - p1) * ... 注意, 这个方法需要统计全部bit, 不要频繁调用.
+     */
+    public double bloomEstimatedFpp() {
+        double notFalsePositive = 1.0;
+        for (Stage stage : stages) {
+            notFalsePositive *= 1.0 - stage.bitmap.bloomEstimatedFpp();
+        }
+        return 1.0 - notFalsePositive;
+    }
+
+    /**
+     * @return 级数
+     */
+    public int getStageNum() {
+        return stages.length;
+    }
+
+    /**
+     * @return 已添加的元素数量(近似值)
+     */
+    public long getCount() {
+        long count = 0;
+        for (Stage stage : stages) {
+            count += stage.count.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return 总容量(比特数)
+     */
+    public long getTotalSize() {
+        long size = 0;
+        for (Stage stage : stages) {
+            size += stage.bitmap.size();
+        }
+        return size;
+    }
+
+    /**
+     * 回收内存(DIRECT存储)
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (Stage stage : stages) {
+            try {
+                stage.bitmap.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * 获取最后一级, 已满时扩容
+     */
+    private Stage currentStage() {
+        Stage[] stages = this.stages;
+        Stage stage = stages[stages.length - 1];
+        if (stage.count.get() < stage.expectedInsertions) {
+            return stage;
+        }
+        synchronized (this) {
+            stages = this.stages;
+            stage = stages[stages.length - 1];
+            if (stage.count.get() < stage.expectedInsertions) {
+                return stage;
+            }
+            Stage[] newStages = new Stage[stages.length + 1];
+            System.arraycopy(stages, 0, newStages, 0, stages.length);
+            newStages[stages.length] = stage = createStage(stages.length);
+            this.stages = newStages;
+            return stage;
+        }
+    }
+
+    private Stage createStage(int stageIndex) {
+        double fpp = falsePositiveProbability * Math.pow(tighteningRatio, stageIndex);
+        double expectedInsertions = initialExpectedInsertions * Math.pow(growthRatio, stageIndex);
+        // 单级容量不能超过int范围, 超过时按最大容量计算预计元素数量
+        double maxInsertions = BloomBitmapBuilder.MAX_SIZE * (Math.log(2) * Math.log(2)) / -Math.log(fpp);
+        long insertions = (long) Math.max(Math.min(expectedInsertions, maxInsertions), 1.0);
+        AbstractBitmap bitmap = new BloomBitmapBuilder()
+                .expectedInsertions(insertions)
+                .falsePositiveProbability(fpp)
+                .storage(storage)
+                .build();
+        return new Stage(bitmap, insertions);
+    }
+
+    private static class Stage {
+
+        private final AbstractBitmap bitmap;
+        private final long expectedInsertions;
+        private final AtomicLong count = new AtomicLong(0);
+
+        private Stage(AbstractBitmap bitmap, long expectedInsertions) {
+            this.bitmap = bitmap;
+            this.expectedInsertions = expectedInsertions;
+        }
+
+    }
+
+}
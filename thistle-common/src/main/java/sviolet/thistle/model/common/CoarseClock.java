@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.common;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>粗粒度时钟: 后台守护线程每隔一个tick更新一次毫秒/纳秒时间, 读取时只是一次volatile读, 不调用System.currentTimeMillis().</p>
+ *
+ * <p>在虚拟机等时钟源较慢的环境中, System.currentTimeMillis()/System.nanoTime()每次调用都有明显开销, 每秒百万次的计数器
+ * (SlidingWindowCounter等)可以通过setTimeSource使用这个时钟. 代价是时间精度
+ * 降低为一个tick(线程调度不及时的时候可能更大), 不适用于需要精确计时的场景(例如耗时统计).</p>
+ *
+ * <code>
+ *     //共享实例, 1ms更新一次
+ *     counter.setTimeSource(CoarseClock.getDefault());
+ * </code>
+ *
+ * <p>关闭后不再启动后台线程, 读取时直接调用System.</p>
+ *
+ * @see TimeSource
+ * @author S.Violet
+ */
+public class CoarseClock implements TimeSource, Closeable {
+
+    public static final long DEFAULT_TICK_MILLIS = 1L;
+
+    private final long tickNanos;
+    private final boolean shared;
+    private final Thread thread;
+
+    private volatile long millis;
+    private volatile long nanos;
+    private volatile boolean closed = false;
+
+    /**
+     * @return 共享实例, 1ms更新一次, 第一次调用时启动后台线程, close无效果
+     */
+    public static CoarseClock getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * 创建并启动后台线程, 不再使用时请调用close()
+     * @param tickMillis 更新间隔, ms, > 0
+     */
+    public CoarseClock(long tickMillis) {
+        this(tickMillis, false);
+    }
+
+    private CoarseClock(long tickMillis, boolean shared) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must > 0");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.shared = shared;
+        this.millis = System.currentTimeMillis();
+        this.nanos = System.nanoTime();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    LockSupport.parkNanos(tickNanos);
+                    millis = System.currentTimeMillis();
+                    nanos = System.nanoTime();
+                }
+            }
+        }, "Thistle-CoarseClock-" + tickMillis + "ms");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return closed ? System.currentTimeMillis() : millis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return closed ? System.nanoTime() : nanos;
+    }
+
+    /**
+     * @return 更新间隔, ns
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * 停止后台线程, 之后读取时直接调用System. 共享实例(getDefault)被其他组件共用, 调用本方法无效果.
+     */
+    @Override
+    public void close() {
+        //共享实例, 忽略
+        if (shared) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    private static class DefaultHolder {
+        private static final CoarseClock INSTANCE = new CoarseClock(DEFAULT_TICK_MILLIS, true);
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.common;
+
+/**
+ * <p>时间源, 用于替换System.currentTimeMillis()/System.nanoTime()</p>
+ *
+ * <p>SYSTEM: 直接调用System, 精确. CoarseClock: 后台线程定时更新, 读取只是一次volatile读, 适用于每秒百万次以上的计数.</p>
+ *
+ * <p>取舍: 滑动窗口计数器/限流器/熔断器等默认使用SYSTEM, 每秒百万次以上时可以通过setTimeSource改用CoarseClock.getDefault(),
+ * 时间精度降低为一个tick(默认1ms), 不适用于需要精确计时的场景.</p>
+ *
+ * @see CoarseClock
+ * @author S.Violet
+ */
+public interface TimeSource {
+
+    /**
+     * 系统时间
+     */
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return 当前时间(毫秒数), 同System.currentTimeMillis()
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return 单调时间(纳秒), 同System.nanoTime(), 只能用于计算时间差
+     */
+    long nanoTime();
+
+}
@@ -29,6 +29,10 @@ import sviolet.thistle.util.math.MathUtils;
 abstract class AbstractHashLocks <T> {
 
     private T[] locks;
+    /**
+     * 锁对象之间的填充对象, 只是为了占位, 不能被回收, 不需要填充时为null
+     */
+    private Object[] paddings;
     private int barrier;
 
     AbstractHashLocks() {
@@ -40,22 +44,43 @@ abstract class AbstractHashLocks <T> {
      */
     AbstractHashLocks(int hashLockNum) {
         //limit
-        if (hashLockNum < 16 || hashLockNum > 1024 || !MathUtils.isPowerOfTwo(hashLockNum)) {
-            throw new IllegalArgumentException("hashLockNum must be 16 32 64 128 256 512 1024");
-        }
-        //create lock
+        checkLockNum(hashLockNum);
+        //create lock, 依次分配锁对象和填充对象, 让相邻的锁对象落在不同的缓存行
         locks = newArray(hashLockNum);
         for (int i = 0 ; i < hashLockNum ; i++) {
             locks[i] = newLock();
+            Object padding = newPadding();
+            if (padding != null) {
+                if (paddings == null) {
+                    paddings = new Object[hashLockNum];
+                }
+                paddings[i] = padding;
+            }
         }
         //build barrier
         barrier = hashLockNum - 1;
     }
 
+    /**
+     * 检查锁数量, 在构造器中调用
+     */
+    void checkLockNum(int hashLockNum) {
+        if (hashLockNum < 16 || hashLockNum > 1024 || !MathUtils.isPowerOfTwo(hashLockNum)) {
+            throw new IllegalArgumentException("hashLockNum must be 16 32 64 128 256 512 1024");
+        }
+    }
+
     abstract T[] newArray(int hashLockNum);
 
     abstract T newLock();
 
+    /**
+     * 锁对象之间的填充对象, 在构造器中调用, 不需要填充(或锁对象自身已经填充)时返回null
+     */
+    Object newPadding() {
+        return null;
+    }
+
     /**
      * 根据字符串的哈希获取锁对象
      * @param str 字符串, 尽量不要送null
@@ -66,6 +91,22 @@ abstract class AbstractHashLocks <T> {
         return locks[slot];
     }
 
+    /**
+     * 根据索引获取锁对象, 用于调用方自行计算哈希(例如按桶分段加锁), 索引会与(锁数量 - 1)按位与
+     * @param index 索引, 例如桶的序号
+     * @return 锁对象
+     */
+    public T getLockByIndex(int index) {
+        return locks[index & barrier];
+    }
+
+    /**
+     * @return 锁数量
+     */
+    public int getLockNum() {
+        return locks.length;
+    }
+
     /**
      * hash
      */
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.concurrent.lock;
+
+import sviolet.thistle.util.math.MathUtils;
+
+/**
+ * 产生指定数量(任意2的幂)的锁, 根据任意对象的哈希获取锁对象. 与AbstractHashLocks相比, 哈希经过充分混合(murmur3 fmix32),
+ * 哈希值低位分布差的KEY(例如连续的Long, 只有高位不同的对象)也能均匀分散.
+ *
+ * @author S.Violet
+ */
+abstract class AbstractStripedLocks <T> extends AbstractHashLocks<T> {
+
+    static final int DEFAULT_STRIPE_NUM = 64;
+    static final int MAX_STRIPE_NUM = 1 << 16;
+
+    /**
+     * @param stripeNum 锁数量, 2的幂, 1 ~ 65536, 数量越多发生碰撞的可能性更低, 但是消耗更多的内存
+     */
+    AbstractStripedLocks(int stripeNum) {
+        super(stripeNum);
+    }
+
+    @Override
+    void checkLockNum(int stripeNum) {
+        if (stripeNum < 1 || stripeNum > MAX_STRIPE_NUM || !MathUtils.isPowerOfTwo(stripeNum)) {
+            throw new IllegalArgumentException("stripeNum must be a power of two in [1, " + MAX_STRIPE_NUM + "]");
+        }
+    }
+
+    /**
+     * 根据对象的哈希获取锁对象
+     * @param key 任意对象(需要正确实现hashCode), 可以为null
+     * @return 锁对象
+     */
+    public T getLock(Object key) {
+        return getLockByIndex(hash(key));
+    }
+
+    /**
+     * 根据字符串的哈希获取锁对象, 与getLock(Object)相同
+     * @param str 字符串, 可以为null
+     * @return 锁对象
+     */
+    @Override
+    public T getLock(String str) {
+        return getLockByIndex(hash(str));
+    }
+
+    /**
+     * murmur3 fmix32
+     */
+    static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.concurrent.lock;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>产生指定数量的读写锁, 根据任意对象的哈希获取锁对象, 适用于读多写少的场景(例如配置表, 路由表按KEY分段加锁)</p>
+ *
+ * <p>锁数量可以是任意2的幂(1 ~ 65536), 哈希经过充分混合. 每个锁对象后面分配一个填充对象(128 byte), 使相邻的锁落在不同的缓存行,
+ * 减少伪共享(依赖对象按分配顺序连续存放, 这是HotSpot的通常行为, 不是JVM规范的保证).</p>
+ *
+ * <code>
+ *     private HashReadWriteLocks locks = new HashReadWriteLocks(256);
+ *
+ *     public Route get(Object key) {
+ *         ReentrantReadWriteLock.ReadLock readLock = locks.getLock(key).readLock();
+ *         readLock.lock();
+ *         try {
+ *             //read ...
+ *         } finally {
+ *             readLock.unlock();
+ *         }
+ *     }
+ * </code>
+ *
+ * @see HashStampedLocks
+ * @author S.Violet
+ */
+public class HashReadWriteLocks extends AbstractStripedLocks<ReentrantReadWriteLock> {
+
+    /**
+     * 填充对象大小: 16个long = 128 byte, 覆盖相邻缓存行预取
+     */
+    private static final int PADDING_LONGS = 16;
+
+    /**
+     * 锁数量默认64
+     */
+    public HashReadWriteLocks() {
+        this(DEFAULT_STRIPE_NUM);
+    }
+
+    /**
+     * @param stripeNum 锁数量, 2的幂, 1 ~ 65536
+     */
+    public HashReadWriteLocks(int stripeNum) {
+        super(stripeNum);
+    }
+
+    @Override
+    ReentrantReadWriteLock[] newArray(int stripeNum) {
+        return new ReentrantReadWriteLock[stripeNum];
+    }
+
+    @Override
+    ReentrantReadWriteLock newLock() {
+        return new ReentrantReadWriteLock();
+    }
+
+    @Override
+    Object newPadding() {
+        return new long[PADDING_LONGS];
+    }
+
+}
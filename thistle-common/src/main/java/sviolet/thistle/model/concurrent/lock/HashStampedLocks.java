@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.concurrent.lock;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * <p>产生指定数量的乐观读锁(顺序锁), 根据任意对象的哈希获取锁对象, 适用于读远多于写的场景(例如配置表, 路由表).
+ * 读操作不写任何共享内存, 读线程之间没有缓存行竞争.</p>
+ *
+ * <p>与JDK8的StampedLock的乐观读语义相同(兼容JDK7): 读之前获取版本号(stamp), 读完后校验版本号, 期间有写操作则校验失败,
+ * 重试或改用写锁读取. 写锁不可重入, 写锁之间自旋(Thread.yield)等待, 不适用于写操作耗时长或者写竞争激烈的场景.</p>
+ *
+ * <p>注意: JDK7没有loadFence, 乐观读期间读取的字段必须是volatile(或者读取不可变对象的volatile引用),
+ * 否则普通字段的读取可能被重排到校验之后, 导致校验成功但读到了写了一半的数据.</p>
+ *
+ * <code>
+ *     private HashStampedLocks locks = new HashStampedLocks(256);
+ *
+ *     public Route get(Object key) {
+ *         HashStampedLocks.OptimisticLock lock = locks.getLock(key);
+ *         long stamp = lock.tryOptimisticRead();
+ *         Route route = routes.get(key);//volatile read
+ *         if (lock.validate(stamp)) {
+ *             return route;
+ *         }
+ *         //写操作期间, 改用写锁读取
+ *         stamp = lock.writeLock();
+ *         try {
+ *             return routes.get(key);
+ *         } finally {
+ *             lock.unlockWrite(stamp);
+ *         }
+ *     }
+ * </code>
+ *
+ * <p>每个锁对象前后各填充7个long, 独占一个缓存行.</p>
+ *
+ * @see HashReadWriteLocks
+ * @author S.Violet
+ */
+public class HashStampedLocks extends AbstractStripedLocks<HashStampedLocks.OptimisticLock> {
+
+    /**
+     * 锁数量默认64
+     */
+    public HashStampedLocks() {
+        this(DEFAULT_STRIPE_NUM);
+    }
+
+    /**
+     * @param stripeNum 锁数量, 2的幂, 1 ~ 65536
+     */
+    public HashStampedLocks(int stripeNum) {
+        super(stripeNum);
+    }
+
+    @Override
+    OptimisticLock[] newArray(int stripeNum) {
+        return new OptimisticLock[stripeNum];
+    }
+
+    @Override
+    OptimisticLock newLock() {
+        return new OptimisticLock();
+    }
+
+    /**
+     * 缓存行填充(左)
+     */
+    @SuppressWarnings("unused")
+    private static class LhsPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * 版本号: 偶数为未锁定, 奇数为写锁定, 每次加锁/解锁+1
+     */
+    private static class StateValue extends LhsPadding {
+        volatile long state = ORIGIN;
+    }
+
+    /**
+     * 缓存行填充(右)
+     */
+    @SuppressWarnings("unused")
+    private static class RhsPadding extends StateValue {
+        long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    /**
+     * 版本号初始值, 保证有效的stamp不为0
+     */
+    private static final long ORIGIN = 2L;
+
+    /**
+     * 乐观读锁(顺序锁), 写锁不可重入
+     */
+    public static final class OptimisticLock extends RhsPadding {
+
+        private static final AtomicLongFieldUpdater<StateValue> STATE_UPDATER = AtomicLongFieldUpdater.newUpdater(StateValue.class, "state");
+
+        private OptimisticLock() {
+        }
+
+        /**
+         * 获取乐观读的版本号, 不阻塞
+         * @return 版本号, 写锁定时返回0(校验必定失败)
+         */
+        public long tryOptimisticRead() {
+            long s = state;
+            return (s & 1L) == 0L ? s : 0L;
+        }
+
+        /**
+         * 校验乐观读期间是否有写操作
+         * @param stamp tryOptimisticRead返回的版本号
+         * @return true: 没有写操作, 读到的数据有效
+         */
+        public boolean validate(long stamp) {
+            return stamp != 0L && state == stamp;
+        }
+
+        /**
+         * 获取写锁, 自旋等待
+         * @return 版本号, 用于解锁
+         */
+        public long writeLock() {
+            long stamp;
+            while ((stamp = tryWriteLock()) == 0L) {
+                Thread.yield();
+            }
+            return stamp;
+        }
+
+        /**
+         * 尝试获取写锁, 不阻塞
+         * @return 版本号, 用于解锁, 获取失败返回0
+         */
+        public long tryWriteLock() {
+            long s = state;
+            if ((s & 1L) == 0L && STATE_UPDATER.compareAndSet(this, s, s + 1L)) {
+                return s + 1L;
+            }
+            return 0L;
+        }
+
+        /**
+         * 释放写锁
+         * @param stamp writeLock/tryWriteLock返回的版本号
+         * @throws IllegalMonitorStateException 版本号不匹配
+         */
+        public void unlockWrite(long stamp) {
+            if (stamp == 0L || state != stamp) {
+                throw new IllegalMonitorStateException("The stamp does not match the current write lock");
+            }
+            state = stamp + 1L;
+        }
+
+        /**
+         * @return true: 写锁定中
+         */
+        public boolean isWriteLocked() {
+            return (state & 1L) != 0L;
+        }
+
+    }
+
+}
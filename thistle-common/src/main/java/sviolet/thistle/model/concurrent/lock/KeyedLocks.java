@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.concurrent.lock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>按KEY加锁, 每个KEY一把独立的锁(ReentrantLock), 不同的KEY之间互不阻塞</p>
+ *
+ * <p>与HashReentrantLocks不同, 这里不会因为哈希碰撞让无关的KEY互相等待, KEY也不限于String(需要正确实现hashCode/equals).
+ * 锁存放在ConcurrentHashMap中, 按引用计数管理: 持有者和等待者都计入引用, 最后一个引用释放时锁从Map中移除,
+ * 因此内存占用只与同时活跃的KEY数量有关.</p>
+ *
+ * <code>
+ *     KeyedLocks&lt;String&gt; locks = new KeyedLocks&lt;&gt;();
+ *     try (KeyedLocks.Handle handle = locks.lock(accountId)) {
+ *         //update account
+ *     }
+ * </code>
+ *
+ * <p>注意: 每次加锁分配一个Handle对象, 同一个KEY可以重入(每次加锁都要关闭对应的Handle), Handle必须由加锁的线程关闭.</p>
+ *
+ * @param <K> KEY类型
+ * @see HashReentrantLocks
+ * @author S.Violet
+ */
+public class KeyedLocks<K> {
+
+    private final ConcurrentMap<K, Entry> locks = new ConcurrentHashMap<>();
+    private final boolean fair;
+
+    public KeyedLocks() {
+        this(false);
+    }
+
+    /**
+     * @param fair true: 公平锁
+     */
+    public KeyedLocks(boolean fair) {
+        this.fair = fair;
+    }
+
+    /**
+     * 加锁, 阻塞直到获得锁
+     * @param key KEY, 不可为空
+     * @return Handle, 用完后关闭(try-with-resources)
+     */
+    public Handle lock(K key) {
+        Entry entry = retain(key);
+        entry.lock();
+        return new Handle(key, entry);
+    }
+
+    /**
+     * 加锁, 阻塞直到获得锁, 可中断
+     * @param key KEY, 不可为空
+     * @return Handle, 用完后关闭(try-with-resources)
+     * @throws InterruptedException 等待时被中断
+     */
+    public Handle lockInterruptibly(K key) throws InterruptedException {
+        Entry entry = retain(key);
+        try {
+            entry.lockInterruptibly();
+        } catch (InterruptedException e) {
+            release(key, entry);
+            throw e;
+        }
+        return new Handle(key, entry);
+    }
+
+    /**
+     * 尝试加锁, 不等待
+     * @param key KEY, 不可为空
+     * @return Handle, 用完后关闭, 加锁失败返回null
+     */
+    public Handle tryLock(K key) {
+        Entry entry = retain(key);
+        if (!entry.tryLock()) {
+            release(key, entry);
+            return null;
+        }
+        return new Handle(key, entry);
+    }
+
+    /**
+     * 尝试加锁, 最多等待指定时间
+     * @param key KEY, 不可为空
+     * @param timeout 超时时间
+     * @param unit 时间单位
+     * @return Handle, 用完后关闭, 超时返回null
+     * @throws InterruptedException 等待时被中断
+     */
+    public Handle tryLock(K key, long timeout, TimeUnit unit) throws InterruptedException {
+        Entry entry = retain(key);
+        boolean locked = false;
+        try {
+            locked = entry.tryLock(timeout, unit);
+        } finally {
+            if (!locked) {
+                release(key, entry);
+            }
+        }
+        return locked ? new Handle(key, entry) : null;
+    }
+
+    /**
+     * @return 当前存在的锁数量(被持有或者有线程在等待的KEY数)
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    /**
+     * 引用计数+1, 计数已经归零(正在移除)的锁不能再使用, 重新创建
+     */
+    private Entry retain(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key is null");
+        }
+        Entry entry = locks.get(key);
+        while (true) {
+            if (entry == null) {
+                Entry newEntry = new Entry(fair);
+                entry = locks.putIfAbsent(key, newEntry);
+                if (entry == null) {
+                    return newEntry;
+                }
+            }
+            if (entry.retain()) {
+                return entry;
+            }
+            //计数已归零, 帮忙移除后重试
+            locks.remove(key, entry);
+            entry = locks.get(key);
+        }
+    }
+
+    /**
+     * 引用计数-1, 归零时移除
+     */
+    private void release(K key, Entry entry) {
+        if (entry.references.decrementAndGet() == 0) {
+            locks.remove(key, entry);
+        }
+    }
+
+    /**
+     * 锁的持有凭证, 关闭时解锁, 只能关闭一次
+     */
+    public final class Handle implements AutoCloseable {
+
+        private final K key;
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Handle(K key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * 解锁, 必须由加锁的线程调用, 重复调用无效
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            //非加锁线程调用时抛出IllegalMonitorStateException, 不影响引用计数
+            entry.unlock();
+            closed = true;
+            release(key, entry);
+        }
+
+    }
+
+    /**
+     * 锁 + 引用计数(持有者和等待者)
+     */
+    private static final class Entry extends ReentrantLock {
+
+        private static final long serialVersionUID = 4283726153409917436L;
+
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Entry(boolean fair) {
+            super(fair);
+        }
+
+        private boolean retain() {
+            int current;
+            while ((current = references.get()) > 0) {
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
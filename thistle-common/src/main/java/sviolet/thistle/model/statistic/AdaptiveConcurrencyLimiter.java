@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+import sviolet.thistle.compat.concurrent.CompatThreadFactoryBuilder;
+import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>自适应并发限制器, 根据耗时的变化自动调整并发上限(梯度算法)</p>
+ *
+ * <p>原理: 耗时记录在SlidingWindowArray中(每个采样单元记录最小耗时/耗时总和/次数). 每隔一个采样时长调整一次并发上限: </p>
+ * <p>
+ *     1.minLatency = 整个统计周期内的最小耗时(无排队时的耗时基线) <br>
+ *     2.sampleLatency = 最近一个采样时长内的平均耗时 <br>
+ *     3.gradient = minLatency * latencyTolerance / sampleLatency, 取值范围[0.5, 1.0], 耗时升高说明后端开始排队, 梯度变小 <br>
+ *     4.newLimit = limit * gradient + sqrt(limit), sqrt(limit)为允许的排队数, 耗时不变时上限缓慢增加 <br>
+ *     5.limit = limit * (1 - smoothing) + newLimit * smoothing, 平滑处理, 并限制在[minLimit, maxLimit]内 <br>
+ *     6.并发数未达到上限的一半时(调用方自身流量不足), 上限不再增加 <br>
+ * </p>
+ *
+ * <code>
+ *     AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1000, 10, 20, 1, 200);
+ *
+ *     if (!limiter.tryAcquire()) {
+ *         //reject
+ *     }
+ *     long start = System.nanoTime();
+ *     try {
+ *         //invoke
+ *     } finally {
+ *         limiter.release(System.nanoTime() - start);
+ *     }
+ * </code>
+ *
+ * <p>线程池集成: limiter.createExecutor(...)创建的线程池, 线程数跟随并发上限变化,
+ * 任务耗时自动记录到限制器中. 也可以用executeListener()和setLimitListener()自行集成.</p>
+ *
+ * @see #createExecutor(long, String)
+ * @author S.Violet
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final SlidingWindowArray<LatencyStats> slidingWindowArray;
+    private final long samplingDuration;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile double smoothing = 0.2;
+    private volatile double latencyTolerance = 1.5;
+    private volatile int minSamples = 10;
+
+    private volatile double estimatedLimit;
+    private volatile int limit;
+    private final AtomicInteger inflight = new AtomicInteger(0);
+    private volatile int maxInflight;
+
+    private volatile long lastUpdateTime;
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+    private final UpdateVisitor updateVisitor = new UpdateVisitor();
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition waitCondition = waitLock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger(0);
+
+    private volatile LimitListener limitListener;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10, 也是调整并发上限的间隔
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 最小耗时在统计时长(采样时长 * 统计周期)内统计
+     * @param initialLimit 初始并发上限
+     * @param minLimit 最小并发上限, > 0
+     * @param maxLimit 最大并发上限, >= minLimit
+     */
+    public AdaptiveConcurrencyLimiter(int samplingDuration, int statisticalPeriod, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("minLimit must > 0");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit must >= minLimit");
+        }
+        this.slidingWindowArray = new SlidingWindowArray<>(statisticalPeriod, samplingDuration, new SlidingWindowArray.ElementOperator<LatencyStats>() {
+            @Override
+            public LatencyStats reset(LatencyStats element) {
+                //create
+                if (element == null) {
+                    return new LatencyStats();
+                }
+                //reset
+                element.reset();
+                return element;
+            }
+        });
+        this.samplingDuration = samplingDuration;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * 尝试获取许可, 不阻塞
+     * @return true: 获取成功, 使用完毕后必须调用release, false: 并发数已达上限
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                if (current + 1 > maxInflight) {
+                    maxInflight = current + 1;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取许可, 并发数达到上限时阻塞等待
+     * @throws InterruptedException 等待时被中断
+     */
+    public void acquire() throws InterruptedException {
+        if (tryAcquire()) {
+            return;
+        }
+        waitLock.lockInterruptibly();
+        //加锁后再登记, 等待锁时被中断不会遗留等待数; 登记在tryAcquire之前, 释放许可时不会漏掉通知
+        waiters.incrementAndGet();
+        try {
+            while (!tryAcquire()) {
+                waitCondition.await();
+            }
+        } finally {
+            waiters.decrementAndGet();
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * 获取许可, 并发数达到上限时阻塞等待, 超时返回false
+     * @param timeout 超时时间
+     * @param unit 时间单位
+     * @return true: 获取成功, 使用完毕后必须调用release, false: 超时
+     * @throws InterruptedException 等待时被中断
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryAcquire()) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        waitLock.lockInterruptibly();
+        waiters.incrementAndGet();
+        try {
+            while (!tryAcquire()) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = waitCondition.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            waiters.decrementAndGet();
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * 释放许可, 并记录耗时
+     * @param latencyNanos 耗时, 纳秒
+     */
+    public void release(long latencyNanos) {
+        release(latencyNanos, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 释放许可, 不记录耗时(例如调用失败, 耗时没有参考价值)
+     */
+    public void releaseWithoutSample() {
+        inflight.decrementAndGet();
+        signalWaiters();
+    }
+
+    /**
+     * 释放许可, 并记录耗时
+     * @param latencyNanos 耗时, 纳秒
+     * @param currentTimeMillis 当前时间(毫秒数)
+     */
+    protected void release(long latencyNanos, long currentTimeMillis) {
+        inflight.decrementAndGet();
+        slidingWindowArray.getElement(currentTimeMillis).record(Math.max(latencyNanos, 0L));
+        if (currentTimeMillis - lastUpdateTime >= samplingDuration) {
+            update(currentTimeMillis);
+        }
+        signalWaiters();
+    }
+
+    /**
+     * 调整并发上限, 同一时间只有一个线程执行
+     */
+    private void update(long currentTimeMillis) {
+        if (!updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (currentTimeMillis - lastUpdateTime < samplingDuration) {
+                return;
+            }
+            lastUpdateTime = currentTimeMillis;
+
+            //最近一个采样时长内的平均耗时
+            updateVisitor.reset();
+            slidingWindowArray.visitElementsAccurately(currentTimeMillis, samplingDuration, updateVisitor);
+            if (updateVisitor.count < minSamples) {
+                return;
+            }
+            double sampleLatency = (double) updateVisitor.sum / updateVisitor.count;
+            //整个统计周期内的最小耗时
+            updateVisitor.reset();
+            slidingWindowArray.visitElementsAccurately(currentTimeMillis, Integer.MAX_VALUE, updateVisitor);
+            long minLatency = updateVisitor.min;
+            if (minLatency == Long.MAX_VALUE || sampleLatency <= 0) {
+                return;
+            }
+
+            double current = estimatedLimit;
+            double gradient = Math.max(0.5, Math.min(1.0, latencyTolerance * minLatency / sampleLatency));
+            double newLimit = current * gradient + Math.sqrt(current);
+            //流量不足时不增加上限
+            if (newLimit > current && maxInflight * 2 < (int) current) {
+                newLimit = current;
+            }
+            newLimit = current * (1 - smoothing) + newLimit * smoothing;
+            newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            maxInflight = inflight.get();
+
+            estimatedLimit = newLimit;
+            int oldLimit = limit;
+            limit = (int) newLimit;
+            if (limit != oldLimit) {
+                LimitListener listener = limitListener;
+                if (listener != null) {
+                    listener.onLimitChanged(oldLimit, limit);
+                }
+            }
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    private void signalWaiters() {
+        if (waiters.get() <= 0) {
+            return;
+        }
+        waitLock.lock();
+        try {
+            waitCondition.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * @return 当前并发上限
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return 当前并发数
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * <p>创建自适应线程数的线程池, 线程数 = 并发上限(getLimit), 队列长度Integer.MAX_VALUE</p>
+     * <p>任务耗时自动记录到限制器中, 限制器根据耗时的变化调整并发上限, 线程池的线程数随之变化</p>
+     * <p>注意!!!这个线程池会阻止JVM自然结束(核心线程数大于0), 可以考虑设置为守护线程(daemon=true), 或者在合适的时候停止线程池(ExecutorService#shutdown)</p>
+     * <p>一个限制器只能用于一个线程池, 会占用它的LimitListener</p>
+     *
+     * @param keepAliveSeconds 线程保活时间(秒), 线程数减少时, 多余的线程空闲超过该时间后结束
+     * @param threadNameFormat 线程名称格式(rpc-pool-%d)
+     */
+    public ExecutorService createExecutor(long keepAliveSeconds, String threadNameFormat) {
+        return createExecutor(keepAliveSeconds, new CompatThreadFactoryBuilder().setNameFormat(threadNameFormat).build());
+    }
+
+    /**
+     * <p>创建自适应线程数的线程池, 线程数 = 并发上限(getLimit), 队列长度Integer.MAX_VALUE</p>
+     * <p>任务耗时自动记录到限制器中, 限制器根据耗时的变化调整并发上限, 线程池的线程数随之变化</p>
+     * <p>注意!!!这个线程池会阻止JVM自然结束(核心线程数大于0), 可以考虑设置为守护线程(daemon=true), 或者在合适的时候停止线程池(ExecutorService#shutdown)</p>
+     * <p>一个限制器只能用于一个线程池, 会占用它的LimitListener</p>
+     *
+     * @param keepAliveSeconds 线程保活时间(秒), 线程数减少时, 多余的线程空闲超过该时间后结束
+     * @param threadFactory 线程工厂 (可以设置线程名称, 是否daemon等)
+     */
+    public ExecutorService createExecutor(long keepAliveSeconds, ThreadFactory threadFactory) {
+        final ThreadPoolExecutor executor = (ThreadPoolExecutor) ThreadPoolExecutorUtils.create(
+                limit,
+                limit,
+                keepAliveSeconds,
+                threadFactory,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadPoolExecutor.AbortPolicy(),
+                executeListener());
+        setLimitListener(new LimitListener() {
+            @Override
+            public void onLimitChanged(int oldLimit, int newLimit) {
+                //保证任何时候 corePoolSize <= maximumPoolSize
+                if (newLimit > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(newLimit);
+                    executor.setCorePoolSize(newLimit);
+                } else {
+                    executor.setCorePoolSize(newLimit);
+                    executor.setMaximumPoolSize(newLimit);
+                }
+            }
+        });
+        return executor;
+    }
+
+    /**
+     * 创建线程池执行监听器: 任务执行前占用许可(不检查上限, 线程数已经由线程池限制), 执行后释放许可并记录耗时.
+     * 配合setLimitListener调整线程池大小, 或直接使用createExecutor.
+     * @return 线程池执行监听器
+     */
+    public ThreadPoolExecutorUtils.ExecuteListener executeListener() {
+        return new ThreadPoolExecutorUtils.ExecuteListener() {
+
+            private final ThreadLocal<long[]> startTime = new ThreadLocal<long[]>() {
+                @Override
+                protected long[] initialValue() {
+                    return new long[1];
+                }
+            };
+
+            @Override
+            public void beforeExecute(Thread t, Runnable r) {
+                int current = inflight.incrementAndGet();
+                if (current > maxInflight) {
+                    maxInflight = current;
+                }
+                startTime.get()[0] = System.nanoTime();
+            }
+
+            @Override
+            public void afterExecute(Runnable r, Throwable t) {
+                release(System.nanoTime() - startTime.get()[0]);
+            }
+
+        };
+    }
+
+    /**
+     * 设置并发上限变化监听器(同一时间只有一个线程回调)
+     * @param limitListener 监听器, 可为空
+     */
+    public AdaptiveConcurrencyLimiter setLimitListener(LimitListener limitListener) {
+        this.limitListener = limitListener;
+        return this;
+    }
+
+    /**
+     * 设置平滑系数, 默认0.2
+     * @param smoothing 平滑系数, (0, 1], 越大变化越快
+     */
+    public AdaptiveConcurrencyLimiter setSmoothing(double smoothing) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("smoothing must be (0, 1]");
+        }
+        this.smoothing = smoothing;
+        return this;
+    }
+
+    /**
+     * 设置耗时容忍度, 默认1.5
+     * @param latencyTolerance 耗时容忍度, >= 1, 平均耗时在最小耗时的该倍数以内时, 认为后端没有排队
+     */
+    public AdaptiveConcurrencyLimiter setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("latencyTolerance must >= 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    /**
+     * 设置最小样本数, 默认10
+     * @param minSamples 一个采样时长内的样本数少于该值时, 不调整并发上限
+     */
+    public AdaptiveConcurrencyLimiter setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+        return this;
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public AdaptiveConcurrencyLimiter setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+        return this;
+    }
+
+    /**
+     * 并发上限变化监听器
+     */
+    public interface LimitListener {
+
+        /**
+         * 并发上限变化
+         * @param oldLimit 旧上限
+         * @param newLimit 新上限
+         */
+        void onLimitChanged(int oldLimit, int newLimit);
+
+    }
+
+    /**
+     * 采样单元: 最小耗时/耗时总和/次数
+     */
+    private static final class LatencyStats {
+
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong sum = new AtomicLong(0L);
+        private final AtomicLong count = new AtomicLong(0L);
+
+        private void record(long latency) {
+            sum.addAndGet(latency);
+            count.incrementAndGet();
+            while (true) {
+                long current = min.get();
+                if (latency >= current || min.compareAndSet(current, latency)) {
+                    return;
+                }
+            }
+        }
+
+        private void reset() {
+            min.set(Long.MAX_VALUE);
+            sum.set(0L);
+            count.set(0L);
+        }
+
+    }
+
+    /**
+     * 统计最小耗时/耗时总和/次数, 重复使用, 避免分配内存
+     */
+    private static final class UpdateVisitor implements SlidingWindowArray.ElementVisitor<LatencyStats> {
+
+        private long min;
+        private long sum;
+        private long count;
+
+        private void reset() {
+            min = Long.MAX_VALUE;
+            sum = 0L;
+            count = 0L;
+        }
+
+        @Override
+        public void visit(long startTime, long endTime, float weight, LatencyStats element) {
+            if (weight <= 0.0f) {
+                return;
+            }
+            min = Math.min(min, element.min.get());
+            sum += element.sum.get();
+            count += element.count.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.util.math.MathUtils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Count-Min Sketch, 固定内存的频率估计, 线程安全, 累加无锁</p>
+ *
+ * <p>depth行 * width列计数器, 每行用一个哈希函数选择一列累加, 估计值取各行的最小值. 估计值只会偏大不会偏小,
+ * 误差 <= 总次数 * e / width 的概率为 1 - e^(-depth). 行索引由一个64位哈希双重哈希得到(同BlockedBloomBitmap).</p>
+ *
+ * <p>堆内存占用 ≈ 8 byte * depth * width</p>
+ *
+ * @see SlidingWindowTopK
+ * @author S.Violet
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param depth 行数(哈希函数个数), 1 ~ 16, 越大误差概率越低
+     * @param width 列数, 2的幂, 越大误差越小
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > 16) {
+            throw new IllegalArgumentException("depth must be 1 ~ 16");
+        }
+        if (width <= 0 || !MathUtils.isPowerOfTwo(width)) {
+            throw new IllegalArgumentException("width must be a power of two");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.mask = width - 1;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    /**
+     * 累加
+     * @param hash KEY的64位哈希(例如HashUtils.xxHash64)
+     * @param count 次数
+     * @return 累加后的估计值
+     */
+    public long add(long hash, long count) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0 ; row < depth ; row++) {
+            long value = counters.addAndGet(row * width + ((h1 + row * h2) & mask), count);
+            if (value < estimate) {
+                estimate = value;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * @param hash KEY的64位哈希(例如HashUtils.xxHash64)
+     * @return 估计值
+     */
+    public long estimate(long hash) {
+        return estimate(hash, null);
+    }
+
+    /**
+     * 从合并后的计数器中估计
+     * @param hash KEY的64位哈希(例如HashUtils.xxHash64)
+     * @param merged 合并后的计数器(addTo的结果), 为空时使用自身的计数器
+     * @return 估计值
+     */
+    public long estimate(long hash, long[] merged) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0 ; row < depth ; row++) {
+            int index = row * width + ((h1 + row * h2) & mask);
+            long value = merged != null ? merged[index] : counters.get(index);
+            if (value < estimate) {
+                estimate = value;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * 把计数器乘以权重后累加到dst中, 用于合并多个Sketch(depth和width必须相同)
+     * @param dst 目标, 长度必须等于depth * width
+     * @param weight 权重, 1.0表示原样累加
+     */
+    public void addTo(long[] dst, float weight) {
+        if (dst.length != counters.length()) {
+            throw new IllegalArgumentException("dst.length must be " + counters.length());
+        }
+        if (weight >= 1.0f) {
+            for (int i = 0 ; i < dst.length ; i++) {
+                dst[i] += counters.get(i);
+            }
+        } else if (weight > 0.0f) {
+            for (int i = 0 ; i < dst.length ; i++) {
+                long count = counters.get(i);
+                if (count != 0) {
+                    dst[i] += Math.round((double) count * weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清零
+     */
+    public void reset() {
+        for (int i = 0 ; i < counters.length() ; i++) {
+            counters.set(i, 0L);
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+}
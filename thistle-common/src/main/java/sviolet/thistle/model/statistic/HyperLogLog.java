@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>HyperLogLog基数估计(去重计数), 固定内存, 线程安全, 更新无锁</p>
+ *
+ * <p>2^precision个寄存器, 每个寄存器1 byte, 8个寄存器打包在一个long里, 用CAS更新(只增不减, 已经更大时直接返回).
+ * 标准误差约为 1.04 / sqrt(2^precision), 例如precision=12时约1.6%, 内存4KB.</p>
+ *
+ * <p>多个HyperLogLog(精度相同)可以合并(寄存器取最大值), 合并结果等同于对所有数据一起计数. toByteArray输出紧凑的序列化格式
+ * (每个寄存器6 bit), 可以把多个JVM的快照汇总后离线合并:</p>
+ *
+ * <code>
+ *     HyperLogLog merged = HyperLogLog.fromByteArray(snapshot1);
+ *     merged.merge(HyperLogLog.fromByteArray(snapshot2));
+ *     long uv = merged.cardinality();
+ * </code>
+ *
+ * @see SlidingWindowCardinality
+ * @author S.Violet
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 2;
+    private static final int REGISTER_BITS = 6;
+
+    private final int precision;
+    private final int registerNum;
+    private final AtomicLongArray registers;
+
+    /**
+     * @param precision 精度, 4 ~ 18, 寄存器数量 = 2^precision, 默认12
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be " + MIN_PRECISION + " ~ " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.registerNum = 1 << precision;
+        this.registers = new AtomicLongArray(registerNum >>> 3);
+    }
+
+    /**
+     * 记录一个值
+     * @param hash 值的64位哈希(例如HashUtils.xxHash64), 哈希分布越均匀, 估计越准确
+     * @return true: 寄存器有变化
+     */
+    public boolean addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        //剩余位的前导0个数 + 1, 末尾补1防止全0
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        return raise(index, rank);
+    }
+
+    /**
+     * 估计基数
+     * @return 不重复的值的数量(估计值)
+     */
+    public long cardinality() {
+        double sum = 0.0;
+        int zeros = 0;
+        for (int i = 0 ; i < registerNum ; i++) {
+            int register = getRegister(i);
+            if (register == 0) {
+                zeros++;
+            }
+            sum += 1.0 / (1L << register);
+        }
+        double estimate = alpha(registerNum) * registerNum * registerNum / sum;
+        //小基数修正(线性计数)
+        if (estimate <= 2.5 * registerNum && zeros > 0) {
+            estimate = registerNum * Math.log((double) registerNum / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 合并另一个HyperLogLog(寄存器取最大值), 合并期间另一个HyperLogLog仍可以更新
+     * @param other 精度必须相同
+     */
+    public void merge(HyperLogLog other) {
+        if (other == null) {
+            return;
+        }
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("precision mismatch, expect " + precision + ", actual " + other.precision);
+        }
+        for (int i = 0 ; i < registerNum ; i++) {
+            int register = other.getRegister(i);
+            if (register != 0) {
+                raise(i, register);
+            }
+        }
+    }
+
+    /**
+     * 清零
+     */
+    public void reset() {
+        for (int i = 0 ; i < registers.length() ; i++) {
+            registers.set(i, 0L);
+        }
+    }
+
+    /**
+     * 序列化, 格式: 版本(1 byte) + 精度(1 byte) + 寄存器(每个6 bit, 高位在前)
+     * @return 长度 = 2 + 2^precision * 6 / 8
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[HEADER_LENGTH + (registerNum * REGISTER_BITS >>> 3)];
+        data[0] = FORMAT_VERSION;
+        data[1] = (byte) precision;
+        int bitOffset = HEADER_LENGTH << 3;
+        for (int i = 0 ; i < registerNum ; i++) {
+            int register = getRegister(i);
+            for (int b = REGISTER_BITS - 1 ; b >= 0 ; b--) {
+                if (((register >>> b) & 1) != 0) {
+                    data[bitOffset >>> 3] |= (byte) (0x80 >>> (bitOffset & 7));
+                }
+                bitOffset++;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 反序列化
+     * @param data toByteArray的结果
+     * @return HyperLogLog
+     */
+    public static HyperLogLog fromByteArray(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid HyperLogLog data, too short");
+        }
+        if (data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Invalid HyperLogLog data, unsupported version " + data[0]);
+        }
+        HyperLogLog hyperLogLog = new HyperLogLog(data[1]);
+        int registerNum = hyperLogLog.registerNum;
+        if (data.length != HEADER_LENGTH + (registerNum * REGISTER_BITS >>> 3)) {
+            throw new IllegalArgumentException("Invalid HyperLogLog data, length mismatch");
+        }
+        int bitOffset = HEADER_LENGTH << 3;
+        for (int i = 0 ; i < registerNum ; i++) {
+            int register = 0;
+            for (int b = 0 ; b < REGISTER_BITS ; b++) {
+                register = (register << 1) | ((data[bitOffset >>> 3] >>> (7 - (bitOffset & 7))) & 1);
+                bitOffset++;
+            }
+            if (register != 0) {
+                hyperLogLog.raise(i, register);
+            }
+        }
+        return hyperLogLog;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @param index 寄存器序号, 0 ~ 2^precision - 1
+     * @return 寄存器的值
+     */
+    public int getRegister(int index) {
+        return (int) (registers.get(index >>> 3) >>> ((index & 7) << 3)) & 0xff;
+    }
+
+    /**
+     * 寄存器只增不减
+     */
+    private boolean raise(int index, int rank) {
+        int arrayIndex = index >>> 3;
+        int shift = (index & 7) << 3;
+        long mask = 0xffL << shift;
+        for (;;) {
+            long current = registers.get(arrayIndex);
+            if (((current & mask) >>> shift) >= rank) {
+                return false;
+            }
+            if (registers.compareAndSet(arrayIndex, current, (current & ~mask) | ((long) rank << shift))) {
+                return true;
+            }
+        }
+    }
+
+    private static double alpha(int registerNum) {
+        switch (registerNum) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1.0 + 1.079 / registerNum);
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>固定内存的对数-线性直方图(HDR风格), 线程安全, 记录无锁且不分配内存</p>
+ *
+ * <p>取值划分: [0, 2^precision)区间每个值一个槽位; 之后每个2的幂区间[2^e, 2^(e+1))均分为2^(precision-1)个槽位.
+ * 因此记录值的相对误差不超过 1 / 2^(precision-1), 例如precision=7时误差小于1.6%.</p>
+ *
+ * <p>小于0的值按0记录, 大于maxValue的值按maxValue记录.</p>
+ *
+ * <p>堆内存占用 ≈ 8 byte * 槽位数, 槽位数 ≈ 2^(precision-1) * (log2(maxValue) - precision + 3),
+ * 例如precision=7, maxValue=60000时约700个槽位(5.6KB).</p>
+ *
+ * <p>一致性: 查询与记录并发时不阻塞记录, 查询结果可能包含部分正在进行的记录.</p>
+ *
+ * @see SlidingWindowHistogram
+ * @author S.Violet
+ */
+public class LogLinearHistogram {
+
+    public static final int DEFAULT_PRECISION = 7;
+
+    private final int precision;
+    private final long maxValue;
+    private final int halfSubBucketCount;
+    private final int subBucketCount;
+
+    private final AtomicLongArray counts;
+
+    /**
+     * @param maxValue 最大记录值, > 0, 超过该值的按该值记录
+     */
+    public LogLinearHistogram(long maxValue) {
+        this(maxValue, DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param maxValue 最大记录值, > 0, 超过该值的按该值记录
+     * @param precision 精度(二进制有效位数), 2 ~ 16, 相对误差不超过 1 / 2^(precision-1)
+     */
+    public LogLinearHistogram(long maxValue, int precision) {
+        if (maxValue <= 0) {
+            throw new IllegalArgumentException("maxValue must > 0");
+        }
+        if (precision < 2 || precision > 16) {
+            throw new IllegalArgumentException("precision must be 2 ~ 16");
+        }
+        this.precision = precision;
+        this.maxValue = maxValue;
+        this.subBucketCount = 1 << precision;
+        this.halfSubBucketCount = subBucketCount >> 1;
+        this.counts = new AtomicLongArray(indexOf(maxValue) + 1);
+    }
+
+    /**
+     * 记录一个值
+     * @param value 值
+     */
+    public void record(long value) {
+        counts.getAndIncrement(indexOf(value));
+    }
+
+    /**
+     * 记录一个值多次
+     * @param value 值
+     * @param count 次数
+     */
+    public void record(long value, long count) {
+        counts.getAndAdd(indexOf(value), count);
+    }
+
+    /**
+     * 清零
+     */
+    public void reset() {
+        for (int i = 0 ; i < counts.length() ; i++) {
+            counts.set(i, 0L);
+        }
+    }
+
+    /**
+     * 把计数值乘以权重后累加到dst中, 用于合并多个直方图(布局必须相同)
+     * @param dst 目标, 长度必须等于getSlotNum()
+     * @param weight 权重, 1.0表示原样累加
+     */
+    public void addTo(long[] dst, float weight) {
+        if (dst.length != counts.length()) {
+            throw new IllegalArgumentException("dst.length must be " + counts.length());
+        }
+        if (weight >= 1.0f) {
+            for (int i = 0 ; i < dst.length ; i++) {
+                dst[i] += counts.get(i);
+            }
+        } else if (weight > 0.0f) {
+            for (int i = 0 ; i < dst.length ; i++) {
+                long count = counts.get(i);
+                if (count != 0) {
+                    dst[i] += Math.round((double) count * weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 总记录次数(遍历求和)
+     */
+    public long getTotalCount() {
+        long total = 0L;
+        for (int i = 0 ; i < counts.length() ; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile 百分位, 0 ~ 100, 例如99.9
+     * @return 百分位值(槽位的上界), 无数据时返回0
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        addTo(snapshot, 1.0f);
+        return valueAtPercentile(snapshot, percentile);
+    }
+
+    /**
+     * 从合并后的计数中计算百分位值
+     * @param counts 合并后的计数(addTo的结果)
+     * @param percentile 百分位, 0 ~ 100, 例如99.9
+     * @return 百分位值(槽位的上界), 无数据时返回0
+     */
+    public long valueAtPercentile(long[] counts, double percentile) {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total <= 0) {
+            return 0L;
+        }
+        double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        long target = Math.max((long) Math.ceil(p / 100.0 * total), 1L);
+        long accumulated = 0L;
+        for (int i = 0 ; i < counts.length ; i++) {
+            accumulated += counts[i];
+            if (accumulated >= target) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(counts.length - 1);
+    }
+
+    /**
+     * @return 槽位数
+     */
+    public int getSlotNum() {
+        return counts.length();
+    }
+
+    /**
+     * @return 精度(二进制有效位数)
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return 最大记录值
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @param value 值
+     * @return 值所在的槽位
+     */
+    public int indexOf(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        if (value > maxValue) {
+            value = maxValue;
+        }
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        //value >> shift 落在[2^(precision-1), 2^precision)
+        int shift = 64 - Long.numberOfLeadingZeros(value) - precision;
+        return (shift * halfSubBucketCount) + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index 槽位
+     * @return 槽位的下界(包含)
+     */
+    public long lowestValueOf(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = index / halfSubBucketCount - 1;
+        long mantissa = index - (long) shift * halfSubBucketCount;
+        return mantissa << shift;
+    }
+
+    /**
+     * @param index 槽位
+     * @return 槽位的上界(包含), 不超过maxValue
+     */
+    public long highestValueOf(int index) {
+        if (index < subBucketCount) {
+            return Math.min(index, maxValue);
+        }
+        int shift = index / halfSubBucketCount - 1;
+        long mantissa = index - (long) shift * halfSubBucketCount;
+        long highest = (mantissa << shift) + ((1L << shift) - 1);
+        //溢出(maxValue接近Long.MAX_VALUE时)
+        if (highest < 0) {
+            return maxValue;
+        }
+        return Math.min(highest, maxValue);
+    }
+
+}
@@ -46,6 +46,8 @@ public class SlidingWindowArray<E> {
 
     private final AtomicInteger timeReverseCount = new AtomicInteger(0);
 
+    private volatile long expiredGeneration = Long.MIN_VALUE;
+
     /**
      * @param bucketSize bucket size, > 0
      * @param durationPerBucket duration per bucket, milliseconds, >= 10 ms
@@ -88,7 +90,57 @@ public class SlidingWindowArray<E> {
      * @return the statistical element of current time
      */
     public E getElement(long currentTime){
-        return getByGeneration(generation(currentTime), true).element;
+        return getByGeneration(generation(currentTime), true, true).element;
+    }
+
+    /**
+     * <p>Get the element to record current statistics, return null if time reverse (instead of a dummy element).</p>
+     *
+     * <p>Used when the caller maintains its own aggregation (e.g. a running total), and must not count data written
+     * to a dummy element.</p>
+     *
+     * @param currentTime current timestamp
+     * @return the statistical element of current time, null if time reverse
+     */
+    public E getElementOrNull(long currentTime){
+        Bucket<E> bucket = getByGeneration(generation(currentTime), true, false);
+        return bucket != null ? bucket.element : null;
+    }
+
+    /**
+     * <p>Get the element of current time for reading, no time reverse counting (same as getElementsAccurately).</p>
+     *
+     * @param currentTime current timestamp
+     * @return the statistical element of current time (a dummy element if time reverse)
+     */
+    public E peekElement(long currentTime){
+        return getByGeneration(generation(currentTime), false, true).element;
+    }
+
+    /**
+     * <p>Reset all expired buckets (out of [currentTime - bucketSize * durationPerBucket, currentTime]).</p>
+     *
+     * <p>Buckets are reset lazily when they are accessed, so a bucket which is not accessed for a long time still
+     * holds old data. Call this method before reading an aggregation maintained by ElementOperator (e.g. a running
+     * total). It only traverses the buckets once per durationPerBucket, other calls return immediately.</p>
+     *
+     * @param currentTime current timestamp
+     * @return false if time reverse (currentTime is earlier than the last expiring)
+     */
+    public boolean expireElements(long currentTime) {
+        long endGeneration = generation(currentTime);
+        long expiredGeneration = this.expiredGeneration;
+        if (endGeneration == expiredGeneration) {
+            return true;
+        }
+        if (endGeneration < expiredGeneration) {
+            return false;
+        }
+        for (long generation = endGeneration - bucketSize + 1 ; generation <= endGeneration ; generation++) {
+            getByGeneration(generation, false, false);
+        }
+        this.expiredGeneration = endGeneration;
+        return true;
     }
 
     /**
@@ -113,7 +165,7 @@ public class SlidingWindowArray<E> {
         List<E> result = new ArrayList<>(endGeneration - startGeneration + 1);
         for (int generation = startGeneration ; generation <= endGeneration ; generation++) {
             //put all
-            result.add(getByGeneration(generation, false).element);
+            result.add(getByGeneration(generation, false, true).element);
         }
         return result;
     }
@@ -138,28 +190,142 @@ public class SlidingWindowArray<E> {
 
         List<Element<E>> result = new ArrayList<>(endGeneration - startGeneration + 1);
         for (int generation = startGeneration ; generation <= endGeneration ; generation++) {
-            Bucket<E> bucket = getByGeneration(generation, false);
+            Bucket<E> bucket = getByGeneration(generation, false, true);
             //bucket info
             long bucketStartTime = bucket.startTime;
             long bucketEndTime = bucketStartTime + durationPerBucket;
-            //weight calculation
-            long validDuration = durationPerBucket;
-            if (bucketStartTime < statisticStartTime) {
-                validDuration -= statisticStartTime - bucketStartTime;
-            }
-            if (bucketEndTime > currentTime) {
-                validDuration -= bucketEndTime - currentTime;
-            }
             //element with infos
             result.add(new Element<>(
                     bucketStartTime,
                     bucketEndTime,
-                    validDuration == durationPerBucket ? 1.0f : Math.max((float)validDuration / floatDurationPerBucket, 0.0f),
+                    weight(bucketStartTime, bucketEndTime, statisticStartTime, currentTime),
                     bucket.element));
         }
         return result;
     }
 
+    /**
+     * <p>Visit the elements of recent period, no allocation (unless time reverse). The weight is the same as
+     * getElementsAccurately.</p>
+     *
+     * @param currentTime current timestamp
+     * @param statisticDuration statistic duration, milliseconds, statisticDuration <= bucketSize * durationPerBucket
+     * @param visitor element visitor, reuse it to avoid allocation
+     */
+    public void visitElementsAccurately(long currentTime, long statisticDuration, ElementVisitor<E> visitor) {
+        long statisticStartTime = currentTime - Math.max(statisticDuration, 0);
+        int endGeneration = (int) (currentTime / durationPerBucket);
+        int startGeneration = Math.max((int) (statisticStartTime / durationPerBucket), endGeneration - bucketSize + 1);
+
+        for (int generation = startGeneration ; generation <= endGeneration ; generation++) {
+            Bucket<E> bucket = getByGeneration(generation, false, true);
+            long bucketStartTime = bucket.startTime;
+            long bucketEndTime = bucketStartTime + durationPerBucket;
+            visitor.visit(bucketStartTime, bucketEndTime, weight(bucketStartTime, bucketEndTime, statisticStartTime, currentTime), bucket.element);
+        }
+    }
+
+    /**
+     * <p>Sum the values of recent period: value * weight (rounded) of each element, no allocation (unless time reverse).
+     * The weight is the same as getElementsAccurately.</p>
+     *
+     * <p>For Example, if you want to get the count of the last 10 seconds:
+     * slidingWindowArray.sumAccurately(System.currentTimeMillis(), 10000L, getter);</p>
+     *
+     * @param currentTime current timestamp
+     * @param statisticDuration statistic duration, milliseconds, statisticDuration <= bucketSize * durationPerBucket
+     * @param getter get value from element, reuse it to avoid allocation
+     * @return sum of recent period
+     */
+    public long sumAccurately(long currentTime, long statisticDuration, LongValueGetter<E> getter) {
+        long statisticStartTime = currentTime - Math.max(statisticDuration, 0);
+        int endGeneration = (int) (currentTime / durationPerBucket);
+        int startGeneration = Math.max((int) (statisticStartTime / durationPerBucket), endGeneration - bucketSize + 1);
+
+        long sum = 0L;
+        for (int generation = startGeneration ; generation <= endGeneration ; generation++) {
+            Bucket<E> bucket = getByGeneration(generation, false, true);
+            long bucketStartTime = bucket.startTime;
+            float weight = weight(bucketStartTime, bucketStartTime + durationPerBucket, statisticStartTime, currentTime);
+            if (weight >= 1.0f) {
+                sum += getter.getValue(bucket.element);
+            } else if (weight > 0.0f) {
+                sum += Math.round((double) getter.getValue(bucket.element) * weight);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * <p>Take a snapshot of the buckets in [currentTime - bucketSize * durationPerBucket, currentTime]: start time
+     * (generation) and value of each bucket. Lock-free, no bucket will be reset, writers are not blocked. Expired,
+     * not yet created and zero value buckets are skipped.</p>
+     *
+     * <p>The snapshot can be serialized (SlidingWindowSnapshot#toByteArray), and snapshots from different JVMs can be
+     * merged by generation (SlidingWindowSnapshot#merge).</p>
+     *
+     * @param currentTime current timestamp
+     * @param getter get value from element, reuse it to avoid allocation
+     * @return snapshot
+     */
+    public SlidingWindowSnapshot snapshot(long currentTime, LongValueGetter<E> getter) {
+        long endGeneration = generation(currentTime);
+        long[] generations = new long[bucketSize];
+        long[] values = new long[bucketSize];
+        int size = 0;
+        for (long generation = endGeneration - bucketSize + 1 ; generation <= endGeneration ; generation++) {
+            int index = (int) (generation % bucketSize);
+            if (index < 0) {
+                index += bucketSize;
+            }
+            Bucket<E> bucket = buckets.get(index);
+            long startTime = generation * durationPerBucket;
+            if (bucket == null || bucket.startTime != startTime) {
+                continue;
+            }
+            long value = getter.getValue(bucket.element);
+            //reset while reading
+            if (value == 0L || bucket.startTime != startTime) {
+                continue;
+            }
+            generations[size] = generation;
+            values[size] = value;
+            size++;
+        }
+        return new SlidingWindowSnapshot(durationPerBucket, generations, values, size);
+    }
+
+    /**
+     * Weight of current bucket (0 ~ 1) in the range [currentTime - durationPerBucket, currentTime],
+     * used to adjust a running total maintained by caller.
+     *
+     * @param currentTime current timestamp
+     * @return weight of current bucket, the same as getElementsAccurately
+     */
+    public float currentWeight(long currentTime) {
+        long bucketStartTime = generation(currentTime) * durationPerBucket;
+        return weight(bucketStartTime, bucketStartTime + durationPerBucket, Long.MIN_VALUE, currentTime);
+    }
+
+    /**
+     * <p>Reset all elements (by ElementOperator), the start time of buckets will not be changed.</p>
+     *
+     * <p>For example, clear the statistics after a circuit breaker closed.</p>
+     */
+    public void resetAll() {
+        lock.lock();
+        try {
+            for (int i = 0 ; i < bucketSize ; i++) {
+                Bucket<E> b = buckets.get(i);
+                if (b != null) {
+                    b.element = operator.reset(b.element);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * bucket size
      * @return bucket size
@@ -175,10 +341,32 @@ public class SlidingWindowArray<E> {
         return new ReentrantLock();
     }
 
+    /**
+     * weight calculation
+     */
+    private float weight(long bucketStartTime, long bucketEndTime, long statisticStartTime, long currentTime) {
+        return weight(durationPerBucket, floatDurationPerBucket, bucketStartTime, bucketEndTime, statisticStartTime, currentTime);
+    }
+
+    /**
+     * weight calculation, shared with the flat sliding windows in this package (e.g. SlidingWindowMetric)
+     */
+    static float weight(long durationPerBucket, float floatDurationPerBucket, long bucketStartTime, long bucketEndTime, long statisticStartTime, long currentTime) {
+        long validDuration = durationPerBucket;
+        if (bucketStartTime < statisticStartTime) {
+            validDuration -= statisticStartTime - bucketStartTime;
+        }
+        if (bucketEndTime > currentTime) {
+            validDuration -= bucketEndTime - currentTime;
+        }
+        return validDuration == durationPerBucket ? 1.0f : Math.max((float)validDuration / floatDurationPerBucket, 0.0f);
+    }
+
     /**
      * @param generation currentTime / durationPerBucket
+     * @param dummyEnabled true: return a dummy bucket if time reverse, false: return null if time reverse
      */
-    private Bucket<E> getByGeneration(long generation, boolean resetEnabled){
+    private Bucket<E> getByGeneration(long generation, boolean resetEnabled, boolean dummyEnabled){
         //index of bucket
         int index = (int) (generation % bucketSize);
         if (index < 0) {
@@ -211,12 +399,12 @@ public class SlidingWindowArray<E> {
                 //reset disabled
                 if (!resetEnabled) {
                     //return dummy
-                    return new Bucket<>(startTime, operator.reset(null));
+                    return dummyEnabled ? new Bucket<>(startTime, operator.reset(null)) : null;
                 }
                 //reset enabled
                 if (timeReverseCount.incrementAndGet() <= timeReverseThreshold) {
                     //return dummy
-                    return new Bucket<>(startTime, operator.reset(null));
+                    return dummyEnabled ? new Bucket<>(startTime, operator.reset(null)) : null;
                 } else {
                     //reset all if time reverse exceeded threshold
                     lock.lock();
@@ -330,6 +518,36 @@ public class SlidingWindowArray<E> {
         }
     }
 
+    /**
+     * Visit element without allocation
+     * @param <E> Element type
+     */
+    public interface ElementVisitor<E> {
+
+        /**
+         * @param startTime start time of the bucket
+         * @param endTime end time of the bucket
+         * @param weight you can multiply the statistical value by the weight to get more accurate result
+         * @param element statistical data
+         */
+        void visit(long startTime, long endTime, float weight, E element);
+
+    }
+
+    /**
+     * Get primitive value from element
+     * @param <E> Element type
+     */
+    public interface LongValueGetter<E> {
+
+        /**
+         * @param element statistical data
+         * @return value of element
+         */
+        long getValue(E element);
+
+    }
+
     /**
      * Create element when bucket creating, reset element when the bucket is expired
      * @param <E>
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+import sviolet.thistle.util.conversion.HashUtils;
+
+/**
+ * <p>滑动窗口去重计数, 用于统计最近一段时间内不重复的值的数量, 例如最近1分钟/1小时的UV</p>
+ *
+ * <p>每个采样单元是一个固定内存的HyperLogLog(默认4KB), 记录无锁且不分配内存, 内存占用与值的数量无关(相比每个采样单元一个
+ * HeapBitmap节省大量内存). 查询时把指定时间范围内的采样单元合并(寄存器取最大值)后估计基数, 标准误差约1.6%(默认精度).</p>
+ *
+ * <p>注意: 去重计数无法按权重拆分采样单元, 查询范围的起点落在某个采样单元中间时, 整个采样单元都会计入. 因此结果的时间精度为一个采样时长.</p>
+ *
+ * <code>
+ *     //采样时长1分钟, 统计最近1小时
+ *     SlidingWindowCardinality uv = new SlidingWindowCardinality(60000, 60);
+ *     uv.add(userId);
+ *     //最近1分钟/1小时的UV
+ *     long uv1m = uv.cardinality(60000);
+ *     long uv1h = uv.cardinality(3600000);
+ *     //快照, 汇总多个JVM后离线合并(HyperLogLog.fromByteArray + merge)
+ *     byte[] snapshot = uv.snapshot(3600000).toByteArray();
+ * </code>
+ *
+ * <p>内存占用 ≈ 统计周期 * 2^precision byte</p>
+ *
+ * @see HyperLogLog
+ * @see SlidingWindowCounter
+ * @author S.Violet
+ */
+public class SlidingWindowCardinality {
+
+    private final SlidingWindowArray<HyperLogLog> slidingWindowArray;
+    private final int precision;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     */
+    public SlidingWindowCardinality(int samplingDuration, int statisticalPeriod) {
+        this(samplingDuration, statisticalPeriod, HyperLogLog.DEFAULT_PRECISION, SlidingWindowArray.DEFAULT_TIME_REVERSE_THRESHOLD);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param precision HyperLogLog精度, 4 ~ 18, 默认12, 标准误差约为 1.04 / sqrt(2^precision)
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     */
+    public SlidingWindowCardinality(int samplingDuration, int statisticalPeriod, final int precision, int timeReverseThreshold) {
+        if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be " + HyperLogLog.MIN_PRECISION + " ~ " + HyperLogLog.MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.slidingWindowArray = new SlidingWindowArray<>(statisticalPeriod, samplingDuration, timeReverseThreshold, new SlidingWindowArray.ElementOperator<HyperLogLog>() {
+            @Override
+            public HyperLogLog reset(HyperLogLog element) {
+                //create
+                if (element == null) {
+                    return new HyperLogLog(precision);
+                }
+                //reset
+                element.reset();
+                return element;
+            }
+        });
+    }
+
+    /**
+     * 记录一个值
+     * @param value 值, 例如用户ID, 为空时忽略
+     */
+    public void add(String value) {
+        if (value == null) {
+            return;
+        }
+        addHash(HashUtils.xxHash64(value), timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 记录一个值
+     * @param value 值, 例如用户ID
+     */
+    public void add(long value) {
+        addHash(HashUtils.xxHash64(value), timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内不重复的值的数量
+     * @param duration 时间, 精度为一个采样时长
+     * @return 估计值
+     */
+    public long cardinality(int duration) {
+        return cardinality(duration, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内的合并结果(新的HyperLogLog, 与计数器无关), 可以用toByteArray序列化后汇总
+     * @param duration 时间, 精度为一个采样时长
+     * @return 合并结果
+     */
+    public HyperLogLog snapshot(int duration) {
+        return snapshot(duration, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    /**
+     * 记录一个值
+     * @param hash 值的64位哈希(例如HashUtils.xxHash64)
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     */
+    protected void addHash(long hash, long currentTimeMillis) {
+        HyperLogLog element = slidingWindowArray.getElementOrNull(currentTimeMillis);
+        //时间倒流, 计数无效
+        if (element != null) {
+            element.addHash(hash);
+        }
+    }
+
+    /**
+     * 获取最近一段时间内不重复的值的数量
+     * @param duration 时间, 精度为一个采样时长
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 估计值
+     */
+    protected long cardinality(int duration, long currentTimeMillis) {
+        return snapshot(duration, currentTimeMillis).cardinality();
+    }
+
+    /**
+     * 获取最近一段时间内的合并结果(新的HyperLogLog, 与计数器无关), 可以用toByteArray序列化后汇总
+     * @param duration 时间, 精度为一个采样时长
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 合并结果
+     */
+    protected HyperLogLog snapshot(int duration, long currentTimeMillis) {
+        final HyperLogLog merged = new HyperLogLog(precision);
+        //去重计数不能按权重拆分, 只要有交集就整个计入
+        slidingWindowArray.visitElementsAccurately(currentTimeMillis, duration, new SlidingWindowArray.ElementVisitor<HyperLogLog>() {
+            @Override
+            public void visit(long startTime, long endTime, float weight, HyperLogLog element) {
+                if (weight > 0.0f) {
+                    merged.merge(element);
+                }
+            }
+        });
+        return merged;
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>滑动窗口熔断器, 根据最近一段时间内的失败率/慢调用率决定是否快速失败</p>
+ *
+ * <p>状态: </p>
+ * <p>
+ *     1.CLOSED(关闭): 放行所有请求, 统计成功/失败/慢调用次数. 当统计周期内的调用次数 >= minimumCalls,
+ *     且失败率 >= failureRateThreshold 或 慢调用率 >= slowCallRateThreshold时, 切换到OPEN <br>
+ *     2.OPEN(打开): 拒绝所有请求, 经过openDuration后, 切换到HALF_OPEN <br>
+ *     3.HALF_OPEN(半开): 放行halfOpenPermits个试探请求, 任意一个失败(或慢调用)则切换回OPEN, 全部成功则切换到CLOSED并清空统计数据.
+ *     试探许可用完后经过openDuration仍未结束(有试探请求没有记录结果), 重新开始一轮试探, 之前的试探结果作废 <br>
+ * </p>
+ *
+ * <p>成功/失败/慢调用次数记录在同一个采样单元中(SlidingWindowArray), 统计周期内的总数在记录时维护(采样单元过期时扣减),
+ * 因此记录和判断都是常数时间, 不分配内存. 每次记录失败后立即判断是否熔断, 下游故障时在一个采样时长内即可切断.
+ * 状态切换使用CAS, 无锁, 状态/熔断时间/半开许可放在同一个不可变的Phase对象中整体替换(只在状态切换时分配内存).</p>
+ *
+ * <p>每次状态切换都会递增代数(generation), acquire返回的许可即放行时的代数, 记录结果时代数不一致的(例如CLOSED时放行,
+ * 结束时已经是HALF_OPEN)视为过期结果直接忽略, 不会被当作试探结果.</p>
+ *
+ * <code>
+ *     //采样时长1秒, 统计最近10秒
+ *     SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker(1000, 10)
+ *             .setFailureRateThreshold(0.5f)
+ *             .setMinimumCalls(20)
+ *             .setOpenDuration(5000L);
+ *
+ *     long permit = breaker.acquire();
+ *     if (permit == SlidingWindowCircuitBreaker.NO_PERMIT) {
+ *         //fail fast
+ *     }
+ *     long start = System.currentTimeMillis();
+ *     try {
+ *         //invoke
+ *         breaker.onSuccess(permit, System.currentTimeMillis() - start);
+ *     } catch (Exception e) {
+ *         breaker.onFailure(permit, System.currentTimeMillis() - start);
+ *     }
+ * </code>
+ *
+ * @author S.Violet
+ */
+public class SlidingWindowCircuitBreaker {
+
+    /**
+     * acquire的返回值: 不放行
+     */
+    public static final long NO_PERMIT = -1L;
+
+    private static final int SUCCESS = 0;
+    private static final int FAILURE = 1;
+    private static final int SLOW = 2;
+
+    private final SlidingWindowArray<AtomicLongArray> slidingWindowArray;
+
+    /**
+     * 所有采样单元的成功/失败/慢调用次数之和, 记录时累加, 采样单元过期(重置)时扣减
+     */
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    private final AtomicReference<Phase> phase = new AtomicReference<>(new Phase(State.CLOSED, 0L, 0L, 0));
+
+    private volatile float failureRateThreshold = 0.5f;
+    private volatile float slowCallRateThreshold = 1.0f;
+    private volatile long slowCallDurationThreshold = Long.MAX_VALUE;
+    private volatile int minimumCalls = 20;
+    private volatile long openDuration = 10000L;
+    private volatile int halfOpenPermits = 5;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     */
+    public SlidingWindowCircuitBreaker(int samplingDuration, int statisticalPeriod) {
+        this(samplingDuration, statisticalPeriod, SlidingWindowArray.DEFAULT_TIME_REVERSE_THRESHOLD);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     */
+    public SlidingWindowCircuitBreaker(int samplingDuration, int statisticalPeriod, int timeReverseThreshold) {
+        this.slidingWindowArray = new SlidingWindowArray<>(statisticalPeriod, samplingDuration, timeReverseThreshold, new SlidingWindowArray.ElementOperator<AtomicLongArray>() {
+            @Override
+            public AtomicLongArray reset(AtomicLongArray element) {
+                //create
+                if (element == null) {
+                    return new AtomicLongArray(3);
+                }
+                //reset, 从总数中扣减
+                for (int i = 0 ; i < 3 ; i++) {
+                    totals.addAndGet(i, -element.getAndSet(i, 0L));
+                }
+                return element;
+            }
+        });
+    }
+
+    /**
+     * 判断是否放行请求, 常数时间. 放行后必须调用onSuccess/onFailure记录结果(传入本方法返回的许可).
+     * @return 许可(放行时的代数, >= 0), NO_PERMIT: 快速失败
+     */
+    public long acquire() {
+        return acquire(timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 记录调用成功
+     * @param permit acquire返回的许可, 与当前代数不一致时忽略
+     * @param elapsedMillis 耗时, ms, 超过slowCallDurationThreshold记为慢调用
+     */
+    public void onSuccess(long permit, long elapsedMillis) {
+        record(permit, true, elapsedMillis, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 记录调用失败
+     * @param permit acquire返回的许可, 与当前代数不一致时忽略
+     * @param elapsedMillis 耗时, ms, 超过slowCallDurationThreshold记为慢调用
+     */
+    public void onFailure(long permit, long elapsedMillis) {
+        record(permit, false, elapsedMillis, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 判断是否放行请求, 常数时间. 放行后必须调用onSuccess/onFailure记录结果(传入本方法返回的许可).
+     * @param currentTimeMillis 当前时间(毫秒数)
+     * @return 许可(放行时的代数, >= 0), NO_PERMIT: 快速失败
+     */
+    protected long acquire(long currentTimeMillis) {
+        while (true) {
+            Phase current = phase.get();
+            switch (current.state) {
+                case CLOSED:
+                    return current.generation;
+                case OPEN:
+                    if (currentTimeMillis - current.since < openDuration) {
+                        return NO_PERMIT;
+                    }
+                    //CAS失败说明其他线程已经切换, 重新判断
+                    phase.compareAndSet(current, new Phase(State.HALF_OPEN, current.generation + 1, currentTimeMillis, halfOpenPermits));
+                    break;
+                case HALF_OPEN:
+                default:
+                    while (true) {
+                        int left = current.permitsLeft.get();
+                        if (left <= 0) {
+                            //试探请求没有全部记录结果(例如调用方异常/超时后没有调用onSuccess/onFailure), 超时后重新开始一轮试探
+                            if (currentTimeMillis - current.since >= openDuration &&
+                                    phase.compareAndSet(current, new Phase(State.HALF_OPEN, current.generation + 1, currentTimeMillis, halfOpenPermits))) {
+                                break;
+                            }
+                            if (phase.get() != current) {
+                                break;
+                            }
+                            return NO_PERMIT;
+                        }
+                        if (current.permitsLeft.compareAndSet(left, left - 1)) {
+                            return current.generation;
+                        }
+                    }
+            }
+        }
+    }
+
+    /**
+     * 记录调用结果
+     * @param permit acquire返回的许可, 与当前代数不一致时忽略(放行后状态已经切换)
+     * @param success true: 成功, false: 失败
+     * @param elapsedMillis 耗时, ms, 超过slowCallDurationThreshold记为慢调用
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     */
+    protected void record(long permit, boolean success, long elapsedMillis, long currentTimeMillis) {
+        Phase current = phase.get();
+        //放行后状态已经切换, 过期结果忽略
+        if (permit != current.generation) {
+            return;
+        }
+        boolean slow = elapsedMillis > slowCallDurationThreshold;
+        switch (current.state) {
+            case CLOSED:
+                AtomicLongArray element = slidingWindowArray.getElementOrNull(currentTimeMillis);
+                //时间倒流, 记录无效
+                if (element == null) {
+                    return;
+                }
+                int type = success ? SUCCESS : FAILURE;
+                element.incrementAndGet(type);
+                totals.incrementAndGet(type);
+                if (slow) {
+                    element.incrementAndGet(SLOW);
+                    totals.incrementAndGet(SLOW);
+                }
+                //成功且不慢, 不会导致熔断
+                if (success && !slow) {
+                    return;
+                }
+                if (shouldOpen(currentTimeMillis)) {
+                    open(current, currentTimeMillis);
+                }
+                return;
+            case HALF_OPEN:
+                if (!success || slow) {
+                    open(current, currentTimeMillis);
+                } else if (current.successes.incrementAndGet() == current.permits) {
+                    //只有最后一个试探成功的线程到达这里, 先清空统计再关闭, 上一个CLOSED代的结果已经被忽略
+                    slidingWindowArray.resetAll();
+                    phase.compareAndSet(current, new Phase(State.CLOSED, current.generation + 1, 0L, 0));
+                }
+                return;
+            case OPEN:
+            default:
+                //OPEN状态不发放许可
+        }
+    }
+
+    private boolean shouldOpen(long currentTimeMillis) {
+        if (!slidingWindowArray.expireElements(currentTimeMillis)) {
+            return false;
+        }
+        long failures = totals.get(FAILURE);
+        long calls = totals.get(SUCCESS) + failures;
+        if (calls < minimumCalls || calls <= 0) {
+            return false;
+        }
+        return failures >= failureRateThreshold * calls ||
+                totals.get(SLOW) >= slowCallRateThreshold * calls;
+    }
+
+    private void open(Phase expect, long currentTimeMillis) {
+        //状态和熔断时间一起替换, CAS失败说明其他线程已经切换, 不会延长熔断时间
+        phase.compareAndSet(expect, new Phase(State.OPEN, expect.generation + 1, currentTimeMillis, 0));
+    }
+
+    /**
+     * @return 当前状态
+     */
+    public State getState() {
+        return phase.get().state;
+    }
+
+    /**
+     * @return 统计周期内的失败率(0 ~ 1), 无调用时为0
+     */
+    public float getFailureRate() {
+        return rate(FAILURE);
+    }
+
+    /**
+     * @return 统计周期内的慢调用率(0 ~ 1), 无调用时为0
+     */
+    public float getSlowCallRate() {
+        return rate(SLOW);
+    }
+
+    /**
+     * @return 统计周期内的调用次数
+     */
+    public long getCalls() {
+        slidingWindowArray.expireElements(timeSource.currentTimeMillis());
+        return totals.get(SUCCESS) + totals.get(FAILURE);
+    }
+
+    private float rate(int type) {
+        slidingWindowArray.expireElements(timeSource.currentTimeMillis());
+        long calls = totals.get(SUCCESS) + totals.get(FAILURE);
+        return calls > 0 ? (float) totals.get(type) / calls : 0.0f;
+    }
+
+    /**
+     * 设置失败率阈值, 默认0.5
+     * @param failureRateThreshold 失败率阈值, 0 ~ 1, 失败率 >= 该值时熔断
+     */
+    public SlidingWindowCircuitBreaker setFailureRateThreshold(float failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * 设置慢调用率阈值, 默认1.0
+     * @param slowCallRateThreshold 慢调用率阈值, 0 ~ 1, 慢调用率 >= 该值时熔断
+     */
+    public SlidingWindowCircuitBreaker setSlowCallRateThreshold(float slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * 设置慢调用时长, 默认Long.MAX_VALUE(不统计慢调用)
+     * @param slowCallDurationThreshold 慢调用时长, ms, 耗时超过该值记为慢调用
+     */
+    public SlidingWindowCircuitBreaker setSlowCallDurationThreshold(long slowCallDurationThreshold) {
+        this.slowCallDurationThreshold = slowCallDurationThreshold;
+        return this;
+    }
+
+    /**
+     * 设置最小调用次数, 默认20
+     * @param minimumCalls 统计周期内调用次数少于该值时, 不熔断
+     */
+    public SlidingWindowCircuitBreaker setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * 设置熔断时长, 默认10000ms
+     * @param openDuration 熔断时长, ms, 熔断后经过该时长进入半开状态
+     */
+    public SlidingWindowCircuitBreaker setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+        return this;
+    }
+
+    /**
+     * 设置半开状态的试探请求数, 默认5
+     * @param halfOpenPermits 试探请求数, > 0, 全部成功后关闭熔断
+     */
+    public SlidingWindowCircuitBreaker setHalfOpenPermits(int halfOpenPermits) {
+        if (halfOpenPermits <= 0) {
+            throw new IllegalArgumentException("halfOpenPermits must > 0");
+        }
+        this.halfOpenPermits = halfOpenPermits;
+        return this;
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public SlidingWindowCircuitBreaker setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+        return this;
+    }
+
+    /**
+     * 状态快照, 不可变(试探计数除外), 每次状态切换整体替换
+     */
+    private static final class Phase {
+
+        private final State state;
+        private final long generation;
+        /**
+         * OPEN: 熔断时间, HALF_OPEN: 进入半开状态的时间
+         */
+        private final long since;
+        private final int permits;
+        private final AtomicInteger permitsLeft;
+        private final AtomicInteger successes = new AtomicInteger(0);
+
+        private Phase(State state, long generation, long since, int permits) {
+            this.state = state;
+            this.generation = generation;
+            this.since = since;
+            this.permits = permits;
+            this.permitsLeft = new AtomicInteger(permits);
+        }
+
+    }
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+
+        /**
+         * 关闭, 放行所有请求
+         */
+        CLOSED,
+
+        /**
+         * 打开, 拒绝所有请求
+         */
+        OPEN,
+
+        /**
+         * 半开, 放行少量试探请求
+         */
+        HALF_OPEN
+
+    }
+
+}
@@ -19,8 +19,11 @@
 
 package sviolet.thistle.model.statistic;
 
+import sviolet.thistle.model.common.TimeSource;
+
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>滑动窗口计数器</p>
@@ -39,12 +42,33 @@ import java.util.concurrent.atomic.AtomicInteger;
  *     3.如果需要统计多种时间尺度, 比如最近10秒和最近5分钟, 建议: new SlidingWindowCounter(10000, 30), getRecently(10000), getTotally() <br>
  * </p>
  *
+ * <p>查询不分配内存: getTotally()读取计数时维护的总数(采样单元过期时扣减), 时间复杂度O(1); getRecently()遍历采样单元累加,
+ * 时间复杂度O(统计周期). 适合健康检查/负载均衡等高频查询的场景.</p>
+ *
  * @author S.Violet
  */
 public class SlidingWindowCounter {
 
+    private static final SlidingWindowArray.LongValueGetter<AtomicInteger> VALUE_GETTER = new SlidingWindowArray.LongValueGetter<AtomicInteger>() {
+        @Override
+        public long getValue(AtomicInteger element) {
+            return element.get();
+        }
+    };
+
     private final SlidingWindowArray<AtomicInteger> slidingWindowArray;
 
+    /**
+     * 所有采样单元的计数值之和, 计数时累加, 采样单元过期(重置)时扣减
+     */
+    private final AtomicLong total = new AtomicLong(0L);
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * 子类覆写了printDebugLog, 查询时获取采样单元列表并调用printDebugLog(与旧版本行为一致)
+     */
+    private final boolean debugLogOverridden = isDebugLogOverridden(getClass());
+
     /**
      * @param samplingDuration 采样时长, ms, 取值范围 >= 10
      * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
@@ -66,8 +90,8 @@ public class SlidingWindowCounter {
                 if (element == null) {
                     return new AtomicInteger(0);
                 }
-                //reset
-                element.set(0);
+                //reset, 从总数中扣减
+                total.addAndGet(-element.getAndSet(0));
                 return element;
             }
         });
@@ -79,7 +103,7 @@ public class SlidingWindowCounter {
      * @return 计算前的数值(当前采样时长内的计数值, 不是整个统计周期内的计数值)
      */
     public int getAndAdd(int delta){
-        return getAndAdd(delta, System.currentTimeMillis());
+        return getAndAdd(delta, timeSource.currentTimeMillis());
     }
 
     /**
@@ -88,7 +112,7 @@ public class SlidingWindowCounter {
      * @return 计算后的数值(当前采样时长内的计数值, 不是整个统计周期内的计数值)
      */
     public int addAndGet(int delta) {
-        return addAndGet(delta, System.currentTimeMillis());
+        return addAndGet(delta, timeSource.currentTimeMillis());
     }
 
     /**
@@ -98,7 +122,14 @@ public class SlidingWindowCounter {
      * @return 计算前的数值(当前采样时长内的计数值, 不是整个统计周期内的计数值)
      */
     protected int getAndAdd(int delta, long currentTimeMillis){
-        return slidingWindowArray.getElement(currentTimeMillis).getAndAdd(delta);
+        AtomicInteger element = slidingWindowArray.getElementOrNull(currentTimeMillis);
+        //时间倒流, 计数无效
+        if (element == null) {
+            return 0;
+        }
+        int result = element.getAndAdd(delta);
+        total.addAndGet(delta);
+        return result;
     }
 
     /**
@@ -108,7 +139,14 @@ public class SlidingWindowCounter {
      * @return 计算后的数值(当前采样时长内的计数值, 不是整个统计周期内的计数值)
      */
     protected int addAndGet(int delta, long currentTimeMillis) {
-        return slidingWindowArray.getElement(currentTimeMillis).addAndGet(delta);
+        AtomicInteger element = slidingWindowArray.getElementOrNull(currentTimeMillis);
+        //时间倒流, 计数无效
+        if (element == null) {
+            return delta;
+        }
+        int result = element.addAndGet(delta);
+        total.addAndGet(delta);
+        return result;
     }
 
     /**
@@ -117,15 +155,36 @@ public class SlidingWindowCounter {
      * @return 最近一段时间内的计数值
      */
     public int getRecently(int duration) {
-        return getRecently(duration, System.currentTimeMillis());
+        return getRecently(duration, timeSource.currentTimeMillis());
     }
 
     /**
-     * 获取整个统计周期内的计数值, 数值不精确, 存在一定的近似计算.
+     * 获取整个统计周期内的计数值, 数值不精确, 存在一定的近似计算. 时间复杂度O(1), 不分配内存.
      * @return 整个统计周期内的计数值
      */
     public int getTotally(){
-        return getRecently(Integer.MAX_VALUE, System.currentTimeMillis());
+        return getTotally(timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取整个统计周期内的计数值, 数值不精确, 存在一定的近似计算. 时间复杂度O(1), 不分配内存.
+     * 结果与getRecently(Integer.MAX_VALUE, currentTimeMillis)相同(舍入误差除外).
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 整个统计周期内的计数值
+     */
+    protected int getTotally(long currentTimeMillis) {
+        //时间倒流或调试时, 逐个采样单元累加
+        if (isDebugEnabled() || !slidingWindowArray.expireElements(currentTimeMillis)) {
+            return getRecently(Integer.MAX_VALUE, currentTimeMillis);
+        }
+        //当前采样单元按权重计算(与getRecently的权重计算相同), 其他采样单元的权重都是1
+        float weight = slidingWindowArray.currentWeight(currentTimeMillis);
+        long result = total.get();
+        if (weight < 1.0f) {
+            long current = slidingWindowArray.peekElement(currentTimeMillis).get();
+            result += Math.round((double) current * weight) - current;
+        }
+        return (int) result;
     }
 
     /**
@@ -135,6 +194,11 @@ public class SlidingWindowCounter {
      * @return 最近一段时间内的计数值
      */
     protected int getRecently(int duration, long currentTimeMillis) {
+        //遍历累加, 不分配内存
+        if (!isDebugEnabled()) {
+            return (int) slidingWindowArray.sumAccurately(currentTimeMillis, duration, VALUE_GETTER);
+        }
+
         //获取指定时间范围的统计信息
         List<SlidingWindowArray.Element<AtomicInteger>> elements = slidingWindowArray.getElementsAccurately(currentTimeMillis, duration);
         printDebugLog(duration, currentTimeMillis, elements);
@@ -153,8 +217,59 @@ public class SlidingWindowCounter {
         return result;
     }
 
+    /**
+     * 获取快照(每个采样单元的开始时间和计数值), 用于多节点汇总, 不阻塞计数.
+     * 可以序列化(SlidingWindowSnapshot#toByteArray)后发送, 汇总时按采样单元合并(SlidingWindowSnapshot#merge).
+     * @return 快照
+     */
+    public SlidingWindowSnapshot snapshot() {
+        return snapshot(timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取快照(每个采样单元的开始时间和计数值), 用于多节点汇总, 不阻塞计数.
+     * @param currentTimeMillis 当前时间(毫秒数)
+     * @return 快照
+     */
+    protected SlidingWindowSnapshot snapshot(long currentTimeMillis) {
+        return slidingWindowArray.snapshot(currentTimeMillis, VALUE_GETTER);
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    /**
+     * 返回true时, 查询会获取采样单元列表并调用printDebugLog(会分配内存).
+     * 默认: 子类覆写了printDebugLog时返回true, 否则返回false
+     */
+    protected boolean isDebugEnabled() {
+        return debugLogOverridden;
+    }
+
+    /**
+     * 覆写后查询时会调用该方法(isDebugEnabled()默认返回true), 不需要时不要覆写, 否则查询会分配内存
+     */
     protected void printDebugLog(int duration, long currentTimeMillis, List<SlidingWindowArray.Element<AtomicInteger>> elements) {
         //override to print debug log
     }
 
+    private static boolean isDebugLogOverridden(Class<?> clazz) {
+        for (Class<?> c = clazz ; c != null && c != SlidingWindowCounter.class ; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("printDebugLog", int.class, long.class, List.class);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+            } catch (SecurityException e) {
+                //无法判断, 保持旧版本行为
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+
+import java.util.List;
+
+/**
+ * <p>滑动窗口直方图, 用于统计最近一段时间内的耗时分布(p50/p99/p999)</p>
+ *
+ * <p>每个采样单元是一个固定内存的LogLinearHistogram, 记录无锁且不分配内存. 查询时把指定时间范围内的采样单元按权重合并
+ * (权重计算与SlidingWindowCounter#getRecently相同), 查询不阻塞记录. 数值不精确, 存在一定的近似计算.</p>
+ *
+ * <p>例如, 统计最近1分钟内的耗时(ms), 统计精度为1秒, 最大耗时60秒: </p>
+ *
+ * <code>
+ *     SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 60, 60000L);
+ *     //记录耗时
+ *     histogram.record(elapsed);
+ *     //最近10秒的p99
+ *     long p99 = histogram.getPercentile(10000, 99.0);
+ *     //最近1分钟的p50/p99/p999
+ *     long[] values = histogram.getPercentiles(60000, 50.0, 99.0, 99.9);
+ * </code>
+ *
+ * <p>内存占用 ≈ 统计周期 * LogLinearHistogram内存占用, 注意控制maxValue和precision.</p>
+ *
+ * @see LogLinearHistogram
+ * @see SlidingWindowCounter
+ * @author S.Violet
+ */
+public class SlidingWindowHistogram {
+
+    private final SlidingWindowArray<LogLinearHistogram> slidingWindowArray;
+    private final LogLinearHistogram layout;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param maxValue 最大记录值, > 0, 超过该值的按该值记录
+     */
+    public SlidingWindowHistogram(int samplingDuration, int statisticalPeriod, long maxValue) {
+        this(samplingDuration, statisticalPeriod, maxValue, LogLinearHistogram.DEFAULT_PRECISION, SlidingWindowArray.DEFAULT_TIME_REVERSE_THRESHOLD);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param maxValue 最大记录值, > 0, 超过该值的按该值记录
+     * @param precision 精度(二进制有效位数), 2 ~ 16, 相对误差不超过 1 / 2^(precision-1), 默认7
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     */
+    public SlidingWindowHistogram(int samplingDuration, int statisticalPeriod, final long maxValue, final int precision, int timeReverseThreshold) {
+        this.layout = new LogLinearHistogram(maxValue, precision);
+        this.slidingWindowArray = new SlidingWindowArray<>(statisticalPeriod, samplingDuration, timeReverseThreshold, new SlidingWindowArray.ElementOperator<LogLinearHistogram>() {
+            @Override
+            public LogLinearHistogram reset(LogLinearHistogram element) {
+                //create
+                if (element == null) {
+                    return new LogLinearHistogram(maxValue, precision);
+                }
+                //reset
+                element.reset();
+                return element;
+            }
+        });
+    }
+
+    /**
+     * 记录一个值(例如耗时)
+     * @param value 值
+     */
+    public void record(long value) {
+        record(value, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 记录一个值(例如耗时)
+     * @param value 值
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     */
+    protected void record(long value, long currentTimeMillis) {
+        slidingWindowArray.getElement(currentTimeMillis).record(value);
+    }
+
+    /**
+     * 获取最近一段时间内的百分位值
+     * @param duration 时间
+     * @param percentile 百分位, 0 ~ 100, 例如99.9
+     * @return 百分位值, 无数据时返回0
+     */
+    public long getPercentile(int duration, double percentile) {
+        return getPercentile(duration, percentile, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内的多个百分位值(只合并一次)
+     * @param duration 时间
+     * @param percentiles 百分位, 0 ~ 100, 例如50.0, 99.0, 99.9
+     * @return 百分位值, 与percentiles一一对应, 无数据时为0
+     */
+    public long[] getPercentiles(int duration, double... percentiles) {
+        return getPercentiles(duration, percentiles, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内的记录次数
+     * @param duration 时间
+     * @return 记录次数
+     */
+    public long getCount(int duration) {
+        return getCount(duration, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内的百分位值
+     * @param duration 时间
+     * @param percentile 百分位, 0 ~ 100, 例如99.9
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 百分位值, 无数据时返回0
+     */
+    protected long getPercentile(int duration, double percentile, long currentTimeMillis) {
+        return layout.valueAtPercentile(merge(duration, currentTimeMillis), percentile);
+    }
+
+    /**
+     * 获取最近一段时间内的多个百分位值(只合并一次)
+     * @param duration 时间
+     * @param percentiles 百分位, 0 ~ 100, 例如50.0, 99.0, 99.9
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 百分位值, 与percentiles一一对应, 无数据时为0
+     */
+    protected long[] getPercentiles(int duration, double[] percentiles, long currentTimeMillis) {
+        long[] counts = merge(duration, currentTimeMillis);
+        long[] result = new long[percentiles.length];
+        for (int i = 0 ; i < percentiles.length ; i++) {
+            result[i] = layout.valueAtPercentile(counts, percentiles[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 获取最近一段时间内的记录次数
+     * @param duration 时间
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 记录次数
+     */
+    protected long getCount(int duration, long currentTimeMillis) {
+        long total = 0L;
+        for (long count : merge(duration, currentTimeMillis)) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 按权重合并最近一段时间内的采样单元
+     * @param duration 时间
+     * @param currentTimeMillis 当前时间(毫秒数)
+     * @return 合并后的计数, 槽位布局与LogLinearHistogram相同
+     */
+    protected long[] merge(int duration, long currentTimeMillis) {
+        final long[] counts = new long[layout.getSlotNum()];
+
+        //遍历合并, 计数 * 权重 = 近似结果
+        if (!isDebugEnabled()) {
+            slidingWindowArray.visitElementsAccurately(currentTimeMillis, duration, new SlidingWindowArray.ElementVisitor<LogLinearHistogram>() {
+                @Override
+                public void visit(long startTime, long endTime, float weight, LogLinearHistogram element) {
+                    element.addTo(counts, weight);
+                }
+            });
+            return counts;
+        }
+
+        //获取指定时间范围的统计信息
+        List<SlidingWindowArray.Element<LogLinearHistogram>> elements = slidingWindowArray.getElementsAccurately(currentTimeMillis, duration);
+        printDebugLog(duration, currentTimeMillis, elements);
+
+        //计数 * 权重 = 近似结果
+        for (SlidingWindowArray.Element<LogLinearHistogram> element : elements) {
+            element.getValue().addTo(counts, element.getWeight());
+        }
+        return counts;
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    /**
+     * 返回true时, 查询会获取采样单元列表并调用printDebugLog
+     */
+    protected boolean isDebugEnabled() {
+        return false;
+    }
+
+    /**
+     * 需要同时覆写isDebugEnabled()并返回true
+     */
+    protected void printDebugLog(int duration, long currentTimeMillis, List<SlidingWindowArray.Element<LogLinearHistogram>> elements) {
+        //override to print debug log
+    }
+
+}
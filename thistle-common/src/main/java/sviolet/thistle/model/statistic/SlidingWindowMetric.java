@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>滑动窗口指标(次数/总和/最小值/最大值), 例如每个接口的耗时统计</p>
+ *
+ * <p>与SlidingWindowArray&lt;E&gt;不同, 所有采样单元存放在一个AtomicLongArray中, 每个采样单元5个long:
+ * [代数(generation), 次数, 总和, 最小值, 最大值], 没有Bucket对象和元素对象, 过期时也不经过ElementOperator.
+ * 每个采样单元40 byte, 读取时没有指针跳转.</p>
+ *
+ * <p>记录: 代数一致时无锁累加(min/max用CAS). 采样单元过期时, 由一个线程CAS抢占代数后重置(4次写入), 同时写入该采样单元的
+ * 其他线程会让步(Thread.yield)等待重置完成, 因此记录不是严格无锁的, 每个采样单元每个采样时长最多等待一次.
+ * 查询不等待: 对每个采样单元做"读代数-读数据-再读代数"校验, 代数不一致(期间被重置)的采样单元不计入.</p>
+ *
+ * <code>
+ *     //采样时长1秒, 统计最近1分钟
+ *     SlidingWindowMetric metric = new SlidingWindowMetric(1000, 60);
+ *     metric.record(elapsed);
+ *     SlidingWindowMetric.Snapshot snapshot = metric.getSnapshot(10000);
+ *     long count = snapshot.getCount();
+ *     long max = snapshot.getMax();
+ * </code>
+ *
+ * <p>次数和总和按权重计算(与SlidingWindowCounter#getRecently相同), 数值不精确, 存在一定的近似计算. 最小值和最大值无法按权重拆分,
+ * 与查询范围有交集的采样单元都会计入.</p>
+ *
+ * <p>内存占用 ≈ 统计周期 * 40 byte</p>
+ *
+ * @see SlidingWindowCounter
+ * @author S.Violet
+ */
+public class SlidingWindowMetric {
+
+    private static final int SLOT_SIZE = 5;
+    private static final int GENERATION = 0;
+    private static final int COUNT = 1;
+    private static final int SUM = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+
+    /**
+     * 代数: 空(从未使用或已全部重置)
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+    /**
+     * 代数: 重置中
+     */
+    private static final long RESETTING = Long.MIN_VALUE + 1;
+
+    private final int statisticalPeriod;
+    private final long samplingDuration;
+    private final float floatSamplingDuration;
+    private final int timeReverseThreshold;
+
+    private final AtomicLongArray slots;
+    private final AtomicInteger timeReverseCount = new AtomicInteger(0);
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     */
+    public SlidingWindowMetric(int samplingDuration, int statisticalPeriod) {
+        this(samplingDuration, statisticalPeriod, SlidingWindowArray.DEFAULT_TIME_REVERSE_THRESHOLD);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     */
+    public SlidingWindowMetric(int samplingDuration, int statisticalPeriod, int timeReverseThreshold) {
+        if (statisticalPeriod <= 0) {
+            throw new IllegalArgumentException("statisticalPeriod must > 0");
+        }
+        if (samplingDuration < 10) {
+            throw new IllegalArgumentException("samplingDuration must >= 10 ms");
+        }
+        this.statisticalPeriod = statisticalPeriod;
+        this.samplingDuration = samplingDuration;
+        this.floatSamplingDuration = samplingDuration;
+        this.timeReverseThreshold = timeReverseThreshold;
+        this.slots = new AtomicLongArray(statisticalPeriod * SLOT_SIZE);
+        for (int i = 0 ; i < statisticalPeriod ; i++) {
+            slots.set(i * SLOT_SIZE + GENERATION, EMPTY);
+        }
+    }
+
+    /**
+     * 记录一个值(例如耗时)
+     * @param value 值
+     */
+    public void record(long value) {
+        record(value, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内的次数/总和/最小值/最大值
+     * @param duration 时间
+     * @return 快照
+     */
+    public Snapshot getSnapshot(int duration) {
+        return getSnapshot(duration, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    /**
+     * 记录一个值(例如耗时)
+     * @param value 值
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return true: 记录成功, false: 时间倒流, 记录无效
+     */
+    protected boolean record(long value, long currentTimeMillis) {
+        long generation = currentTimeMillis / samplingDuration;
+        int base = index(generation) * SLOT_SIZE;
+        while (true) {
+            long current = slots.get(base + GENERATION);
+            if (current == generation) {
+                break;
+            }
+            //其他线程正在重置, 等待4次写入完成
+            if (current == RESETTING) {
+                Thread.yield();
+                continue;
+            }
+            //时间倒流
+            if (current > generation) {
+                if (timeReverseCount.incrementAndGet() <= timeReverseThreshold) {
+                    return false;
+                }
+                resetAll();
+                continue;
+            }
+            //过期, 抢占后重置
+            if (slots.compareAndSet(base + GENERATION, current, RESETTING)) {
+                slots.set(base + COUNT, 0L);
+                slots.set(base + SUM, 0L);
+                slots.set(base + MIN, Long.MAX_VALUE);
+                slots.set(base + MAX, Long.MIN_VALUE);
+                slots.set(base + GENERATION, generation);
+                timeReverseCount.set(0);
+                break;
+            }
+        }
+        slots.getAndIncrement(base + COUNT);
+        slots.getAndAdd(base + SUM, value);
+        long min;
+        while (value < (min = slots.get(base + MIN))) {
+            if (slots.compareAndSet(base + MIN, min, value)) {
+                break;
+            }
+        }
+        long max;
+        while (value > (max = slots.get(base + MAX))) {
+            if (slots.compareAndSet(base + MAX, max, value)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取最近一段时间内的次数/总和/最小值/最大值
+     * @param duration 时间
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 快照
+     */
+    protected Snapshot getSnapshot(int duration, long currentTimeMillis) {
+        long statisticStartTime = currentTimeMillis - Math.max(duration, 0);
+        long endGeneration = currentTimeMillis / samplingDuration;
+        long startGeneration = Math.max(statisticStartTime / samplingDuration, endGeneration - statisticalPeriod + 1);
+
+        long count = 0L;
+        long sum = 0L;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long generation = startGeneration ; generation <= endGeneration ; generation++) {
+            int base = index(generation) * SLOT_SIZE;
+            if (slots.get(base + GENERATION) != generation) {
+                continue;
+            }
+            long bucketCount = slots.get(base + COUNT);
+            long bucketSum = slots.get(base + SUM);
+            long bucketMin = slots.get(base + MIN);
+            long bucketMax = slots.get(base + MAX);
+            //读取期间被重置
+            if (slots.get(base + GENERATION) != generation || bucketCount <= 0) {
+                continue;
+            }
+            long bucketStartTime = generation * samplingDuration;
+            float weight = SlidingWindowArray.weight(samplingDuration, floatSamplingDuration, bucketStartTime, bucketStartTime + samplingDuration, statisticStartTime, currentTimeMillis);
+            if (weight <= 0.0f) {
+                continue;
+            }
+            if (weight >= 1.0f) {
+                count += bucketCount;
+                sum += bucketSum;
+            } else {
+                count += Math.round((double) bucketCount * weight);
+                sum += Math.round((double) bucketSum * weight);
+            }
+            min = Math.min(min, bucketMin);
+            max = Math.max(max, bucketMax);
+        }
+        return max == Long.MIN_VALUE ? new Snapshot(count, sum, 0L, 0L) : new Snapshot(count, sum, min, max);
+    }
+
+    /**
+     * 重置所有统计数据
+     */
+    public void resetAll() {
+        for (int i = 0 ; i < statisticalPeriod ; i++) {
+            int base = i * SLOT_SIZE;
+            while (true) {
+                long current = slots.get(base + GENERATION);
+                if (current == RESETTING) {
+                    Thread.yield();
+                    continue;
+                }
+                if (slots.compareAndSet(base + GENERATION, current, EMPTY)) {
+                    break;
+                }
+            }
+        }
+        timeReverseCount.set(0);
+    }
+
+    private int index(long generation) {
+        int index = (int) (generation % statisticalPeriod);
+        return index < 0 ? index + statisticalPeriod : index;
+    }
+
+    /**
+     * 快照: 次数/总和/最小值/最大值
+     */
+    public static final class Snapshot {
+
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        public Snapshot(long count, long sum, long min, long max) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @return 次数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 总和
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return 最小值, 无数据时为0
+         */
+        public long getMin() {
+            return min;
+        }
+
+        /**
+         * @return 最大值, 无数据时为0
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return 平均值, 无数据时为0
+         */
+        public double getAverage() {
+            return count > 0 ? (double) sum / count : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "count=" + count +
+                    ", sum=" + sum +
+                    ", min=" + min +
+                    ", max=" + max +
+                    '}';
+        }
+
+    }
+
+}
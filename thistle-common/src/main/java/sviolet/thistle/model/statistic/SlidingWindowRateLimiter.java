@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+import sviolet.thistle.util.math.MathUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>按KEY限流器, 限制每个KEY在一个时间窗口内的许可数, 例如每个租户每秒100次</p>
+ *
+ * <p>模式: </p>
+ * <p>
+ *     1.SLIDING_WINDOW: 滑动窗口, 每个KEY只保存当前窗口和上一个窗口的计数, 按时间比例加权估算最近一个窗口时长内的计数
+ *     (估算值 = 上一个窗口计数 * (1 - 当前窗口已过时间 / 窗口时长) + 当前窗口计数), 与SlidingWindowArray的权重计算思路相同 <br>
+ *     2.TOKEN_BUCKET: 令牌桶, 桶容量为limit(允许突发), 每个窗口时长匀速补充limit个令牌 <br>
+ * </p>
+ *
+ * <p>KEY的状态分段存放(每段一个HashMap, 分段加锁), 不同分段之间互不阻塞. 空闲超过指定时间的KEY会在访问所在分段时顺带清理,
+ * 无需手动维护计数器Map. 默认空闲时间为两个窗口时长, 这时KEY的状态已经不影响限流结果, 清理不会改变限流行为.</p>
+ *
+ * <p>时间取自System.nanoTime()(可通过setTimeSource替换为CoarseClock), 每次请求只取一次, 不调用System.currentTimeMillis().</p>
+ *
+ * <code>
+ *     //每个租户每秒最多100个请求
+ *     SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(SlidingWindowRateLimiter.Mode.SLIDING_WINDOW, 100, 1000L);
+ *     if (!limiter.tryAcquire(tenantId, 1)) {
+ *         //throttled
+ *     }
+ * </code>
+ *
+ * <p>内存占用: 每个活跃KEY约100 byte(不含KEY本身)</p>
+ *
+ * @author S.Violet
+ */
+public class SlidingWindowRateLimiter {
+
+    public static final int DEFAULT_STRIPE_NUM = 64;
+
+    private final Mode mode;
+    private final long limit;
+    private final long windowNanos;
+    private final long idleTimeoutNanos;
+
+    private final Stripe[] stripes;
+    private final int barrier;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param mode 模式, SLIDING_WINDOW: 滑动窗口, TOKEN_BUCKET: 令牌桶
+     * @param limit 每个KEY在一个窗口时长内的许可数(令牌桶模式下也是桶容量), > 0
+     * @param windowMillis 窗口时长, ms, > 0
+     */
+    public SlidingWindowRateLimiter(Mode mode, long limit, long windowMillis) {
+        this(mode, limit, windowMillis, windowMillis * 2, DEFAULT_STRIPE_NUM);
+    }
+
+    /**
+     * @param mode 模式, SLIDING_WINDOW: 滑动窗口, TOKEN_BUCKET: 令牌桶
+     * @param limit 每个KEY在一个窗口时长内的许可数(令牌桶模式下也是桶容量), > 0
+     * @param windowMillis 窗口时长, ms, > 0
+     * @param idleTimeoutMillis KEY空闲超过该时间会被清理, ms, 建议 >= windowMillis * 2, 小于这个值时, 被清理的KEY会提前恢复许可
+     * @param stripeNum 分段数, 2的幂, 数量越多并发越好, 但是消耗更多的内存
+     */
+    public SlidingWindowRateLimiter(Mode mode, long limit, long windowMillis, long idleTimeoutMillis, int stripeNum) {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode is null");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must > 0");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must > 0");
+        }
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must > 0");
+        }
+        if (stripeNum <= 0 || !MathUtils.isPowerOfTwo(stripeNum)) {
+            throw new IllegalArgumentException("stripeNum must be a power of two");
+        }
+        this.mode = mode;
+        this.limit = limit;
+        this.windowNanos = windowMillis * 1000000L;
+        this.idleTimeoutNanos = idleTimeoutMillis * 1000000L;
+        this.stripes = new Stripe[stripeNum];
+        for (int i = 0 ; i < stripeNum ; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.barrier = stripeNum - 1;
+    }
+
+    /**
+     * 尝试获取1个许可
+     * @param key KEY, 例如租户ID, 尽量不要送null
+     * @return true: 获取成功, false: 被限流
+     */
+    public boolean tryAcquire(String key) {
+        return tryAcquire(key, 1, timeSource.nanoTime());
+    }
+
+    /**
+     * 尝试获取许可
+     * @param key KEY, 例如租户ID, 尽量不要送null
+     * @param permits 许可数, >= 0
+     * @return true: 获取成功, false: 被限流
+     */
+    public boolean tryAcquire(String key, int permits) {
+        return tryAcquire(key, permits, timeSource.nanoTime());
+    }
+
+    /**
+     * 尝试获取许可
+     * @param key KEY, 例如租户ID, 尽量不要送null
+     * @param permits 许可数, >= 0
+     * @param currentNanos 当前时间(System.nanoTime())
+     * @return true: 获取成功, false: 被限流
+     */
+    protected boolean tryAcquire(String key, int permits, long currentNanos) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("permits must >= 0");
+        }
+        Stripe stripe = stripes[hash(key) & barrier];
+        synchronized (stripe) {
+            //顺带清理空闲的KEY
+            if (stripe.states.isEmpty()) {
+                stripe.lastEvictNanos = currentNanos;
+            } else if (currentNanos - stripe.lastEvictNanos > idleTimeoutNanos) {
+                stripe.evict(currentNanos, idleTimeoutNanos);
+            }
+            State state = stripe.states.get(key);
+            if (state == null) {
+                state = new State(currentNanos, mode == Mode.TOKEN_BUCKET ? limit : 0);
+                stripe.states.put(key, state);
+            }
+            state.lastAccessNanos = currentNanos;
+            return mode == Mode.TOKEN_BUCKET ?
+                    tryAcquireTokenBucket(state, permits, currentNanos) :
+                    tryAcquireSlidingWindow(state, permits, currentNanos);
+        }
+    }
+
+    /**
+     * 清理所有空闲的KEY(一般无需手动调用, 访问时会顺带清理)
+     */
+    public void evictIdle() {
+        evictIdle(timeSource.nanoTime());
+    }
+
+    /**
+     * 清理所有空闲的KEY(一般无需手动调用, 访问时会顺带清理)
+     * @param currentNanos 当前时间(System.nanoTime())
+     */
+    protected void evictIdle(long currentNanos) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.evict(currentNanos, idleTimeoutNanos);
+            }
+        }
+    }
+
+    /**
+     * @return 当前保存的KEY数量
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.states.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    private boolean tryAcquireSlidingWindow(State state, int permits, long currentNanos) {
+        long elapsed = currentNanos - state.time;
+        //进入新的窗口
+        if (elapsed >= windowNanos) {
+            long windows = elapsed / windowNanos;
+            state.previous = windows == 1 ? state.current : 0;
+            state.current = 0;
+            state.time += windows * windowNanos;
+            elapsed -= windows * windowNanos;
+        } else if (elapsed < 0) {
+            elapsed = 0;
+        }
+        //上一个窗口按未过去的时间比例计入
+        double estimated = state.previous == 0 ? state.current :
+                (double) state.previous * (windowNanos - elapsed) / windowNanos + state.current;
+        if (estimated + permits > limit) {
+            return false;
+        }
+        state.current += permits;
+        return true;
+    }
+
+    private boolean tryAcquireTokenBucket(State state, int permits, long currentNanos) {
+        long elapsed = currentNanos - state.time;
+        //补充令牌
+        if (elapsed > 0) {
+            state.tokens = Math.min((double) limit, state.tokens + (double) elapsed * limit / windowNanos);
+            state.time = currentNanos;
+        }
+        if (state.tokens < permits) {
+            return false;
+        }
+        state.tokens -= permits;
+        return true;
+    }
+
+    private static int hash(Object key) {
+        int h;
+        return (key == null) ? 0 : (h = key.hashCode()) ^ (h >>> 16);
+    }
+
+    /**
+     * 限流模式
+     */
+    public enum Mode {
+
+        /**
+         * 滑动窗口
+         */
+        SLIDING_WINDOW,
+
+        /**
+         * 令牌桶
+         */
+        TOKEN_BUCKET
+
+    }
+
+    private static final class Stripe {
+
+        private final Map<String, State> states = new HashMap<>();
+        private long lastEvictNanos;
+
+        private void evict(long currentNanos, long idleTimeoutNanos) {
+            Iterator<State> iterator = states.values().iterator();
+            while (iterator.hasNext()) {
+                if (currentNanos - iterator.next().lastAccessNanos > idleTimeoutNanos) {
+                    iterator.remove();
+                }
+            }
+            lastEvictNanos = currentNanos;
+        }
+
+    }
+
+    /**
+     * 滑动窗口: time = 当前窗口开始时间, previous/current = 上一个/当前窗口计数;
+     * 令牌桶: time = 上次补充令牌的时间, tokens = 令牌数
+     */
+    private static final class State {
+
+        private long time;
+        private long previous;
+        private long current;
+        private double tokens;
+        private long lastAccessNanos;
+
+        private State(long time, double tokens) {
+            this.time = time;
+            this.tokens = tokens;
+        }
+
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Snapshot of SlidingWindowArray: start time (generation) and value of each valid bucket, immutable.</p>
+ *
+ * <p>Generation = bucket start time / durationPerBucket, it's absolute (since 1970), so snapshots from different
+ * JVMs (with the same durationPerBucket) can be aligned and merged by generation. For example, merge the
+ * SlidingWindowCounter snapshots of all nodes to get the cluster-wide QPS:</p>
+ *
+ * <pre>
+ *     //node: export every second
+ *     byte[] data = counter.snapshot().toByteArray();
+ *     //aggregator: merge
+ *     SlidingWindowSnapshot merged = SlidingWindowSnapshot.merge(snapshots);
+ *     long recently = merged.sumSince(System.currentTimeMillis() - 10000L);
+ * </pre>
+ *
+ * <p>Binary format (varint, little-endian base 128): version(1 byte) + durationPerBucket + size + zigzag(first generation)
+ * + generation deltas + zigzag(values). A 60 buckets counter snapshot is about 100 ~ 300 bytes.</p>
+ *
+ * @see SlidingWindowArray#snapshot(long, SlidingWindowArray.LongValueGetter)
+ * @author S.Violet
+ */
+public class SlidingWindowSnapshot {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private final long durationPerBucket;
+    private final long[] generations;
+    private final long[] values;
+
+    /**
+     * @param durationPerBucket duration per bucket, milliseconds, > 0
+     * @param generations generations of buckets (start time / durationPerBucket), ascending, no duplicates
+     * @param values values of buckets
+     * @param size number of buckets
+     */
+    public SlidingWindowSnapshot(long durationPerBucket, long[] generations, long[] values, int size) {
+        if (durationPerBucket <= 0) {
+            throw new IllegalArgumentException("durationPerBucket must > 0");
+        }
+        if (size < 0 || size > generations.length || size > values.length) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        for (int i = 1 ; i < size ; i++) {
+            if (generations[i] <= generations[i - 1]) {
+                throw new IllegalArgumentException("generations must be ascending without duplicates");
+            }
+        }
+        this.durationPerBucket = durationPerBucket;
+        this.generations = copyOf(generations, size);
+        this.values = copyOf(values, size);
+    }
+
+    /**
+     * Merge snapshots, align buckets by generation, values of the same generation are added
+     * @param snapshots snapshots with the same durationPerBucket, null elements are skipped
+     * @return merged snapshot, null if there is no snapshot
+     */
+    public static SlidingWindowSnapshot merge(SlidingWindowSnapshot... snapshots) {
+        TreeMap<Long, long[]> merged = new TreeMap<>();
+        long durationPerBucket = 0L;
+        for (SlidingWindowSnapshot snapshot : snapshots) {
+            if (snapshot == null) {
+                continue;
+            }
+            if (durationPerBucket == 0L) {
+                durationPerBucket = snapshot.durationPerBucket;
+            } else if (durationPerBucket != snapshot.durationPerBucket) {
+                throw new IllegalArgumentException("durationPerBucket mismatch, expect " + durationPerBucket +
+                        ", actual " + snapshot.durationPerBucket);
+            }
+            for (int i = 0 ; i < snapshot.generations.length ; i++) {
+                long[] value = merged.get(snapshot.generations[i]);
+                if (value == null) {
+                    merged.put(snapshot.generations[i], new long[]{snapshot.values[i]});
+                } else {
+                    value[0] += snapshot.values[i];
+                }
+            }
+        }
+        if (durationPerBucket == 0L) {
+            return null;
+        }
+        long[] generations = new long[merged.size()];
+        long[] values = new long[merged.size()];
+        int size = 0;
+        for (Map.Entry<Long, long[]> entry : merged.entrySet()) {
+            generations[size] = entry.getKey();
+            values[size] = entry.getValue()[0];
+            size++;
+        }
+        return new SlidingWindowSnapshot(durationPerBucket, generations, values, size);
+    }
+
+    /**
+     * Merge snapshots, align buckets by generation, values of the same generation are added
+     * @param snapshots snapshots with the same durationPerBucket, null elements are skipped
+     * @return merged snapshot, null if there is no snapshot
+     */
+    public static SlidingWindowSnapshot merge(Collection<SlidingWindowSnapshot> snapshots) {
+        return merge(snapshots.toArray(new SlidingWindowSnapshot[0]));
+    }
+
+    /**
+     * @return sum of all buckets
+     */
+    public long getTotal() {
+        long sum = 0L;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * @param startTime buckets start at or after this time are counted
+     * @return sum of buckets whose start time >= startTime
+     */
+    public long sumSince(long startTime) {
+        long sum = 0L;
+        for (int i = values.length - 1 ; i >= 0 && generations[i] * durationPerBucket >= startTime ; i--) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    public long getDurationPerBucket() {
+        return durationPerBucket;
+    }
+
+    /**
+     * @return number of buckets (empty buckets are not included)
+     */
+    public int size() {
+        return generations.length;
+    }
+
+    /**
+     * @param index 0 ~ size - 1, ascending by time
+     * @return generation of bucket (start time / durationPerBucket)
+     */
+    public long getGeneration(int index) {
+        return generations[index];
+    }
+
+    /**
+     * @param index 0 ~ size - 1, ascending by time
+     * @return start time of bucket
+     */
+    public long getStartTime(int index) {
+        return generations[index] * durationPerBucket;
+    }
+
+    /**
+     * @param index 0 ~ size - 1, ascending by time
+     * @return value of bucket
+     */
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Serialize to compact binary (varint)
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(16 + generations.length * 4);
+        outputStream.write(FORMAT_VERSION);
+        writeVarLong(outputStream, durationPerBucket);
+        writeVarLong(outputStream, generations.length);
+        for (int i = 0 ; i < generations.length ; i++) {
+            //the first one is absolute (zigzag), others are deltas (> 0)
+            writeVarLong(outputStream, i == 0 ? zigzag(generations[0]) : generations[i] - generations[i - 1]);
+        }
+        for (long value : values) {
+            writeVarLong(outputStream, zigzag(value));
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Deserialize from toByteArray
+     * @param data binary data
+     * @return snapshot
+     */
+    public static SlidingWindowSnapshot fromByteArray(byte[] data) {
+        if (data == null || data.length < 1) {
+            throw new IllegalArgumentException("Invalid snapshot data, empty");
+        }
+        if (data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Invalid snapshot data, unsupported version " + data[0]);
+        }
+        int[] offset = {1};
+        long durationPerBucket = readVarLong(data, offset);
+        long size = readVarLong(data, offset);
+        //every bucket takes at least 2 bytes
+        if (size < 0 || size > (data.length - offset[0]) / 2) {
+            throw new IllegalArgumentException("Invalid snapshot data, illegal size " + size);
+        }
+        long[] generations = new long[(int) size];
+        long[] values = new long[(int) size];
+        for (int i = 0 ; i < size ; i++) {
+            long varLong = readVarLong(data, offset);
+            generations[i] = i == 0 ? unzigzag(varLong) : generations[i - 1] + varLong;
+        }
+        for (int i = 0 ; i < size ; i++) {
+            values[i] = unzigzag(readVarLong(data, offset));
+        }
+        if (offset[0] != data.length) {
+            throw new IllegalArgumentException("Invalid snapshot data, redundant bytes");
+        }
+        return new SlidingWindowSnapshot(durationPerBucket, generations, values, (int) size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("SlidingWindowSnapshot{durationPerBucket=").append(durationPerBucket).append(", buckets=[");
+        for (int i = 0 ; i < generations.length ; i++) {
+            if (i > 0) {
+                stringBuilder.append(", ");
+            }
+            stringBuilder.append(getStartTime(i)).append('=').append(values[i]);
+        }
+        return stringBuilder.append("]}").toString();
+    }
+
+    private static long[] copyOf(long[] array, int size) {
+        long[] copy = new long[size];
+        System.arraycopy(array, 0, copy, 0, size);
+        return copy;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream outputStream, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    private static long readVarLong(byte[] data, int[] offset) {
+        long result = 0L;
+        for (int shift = 0 ; shift < 64 ; shift += 7) {
+            if (offset[0] >= data.length) {
+                throw new IllegalArgumentException("Invalid snapshot data, unexpected end");
+            }
+            byte b = data[offset[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Invalid snapshot data, varint too long");
+    }
+
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+import sviolet.thistle.util.conversion.HashUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>滑动窗口热点统计(Top-K), 用于统计最近一段时间内访问最多的KEY, 例如最热的接口/租户/用户</p>
+ *
+ * <p>每个采样单元由一个CountMinSketch(频率估计)和一个容量固定的候选列表组成, 内存占用与KEY的数量无关.
+ * 候选列表采用Space-Saving的思路: 列表未满时直接加入, 列表已满时, 新KEY的估计值超过列表中的最小值才会替换掉最小值.
+ * 已在列表中的KEY只做一次CAS, 不在列表中且未达到门槛的KEY只读一次volatile, 不加锁. 替换时用小顶堆找最小值, O(log capacity).</p>
+ *
+ * <p>采样单元过期时由SlidingWindowArray重置(清零后复用), 不会重新分配内存. 查询时把指定时间范围内的采样单元按权重合并
+ * (权重计算与SlidingWindowCounter#getRecently相同), 用合并后的Sketch重新估计所有候选KEY的次数, 排序后取前K个.
+ * 次数是估计值, 只会偏大不会偏小.</p>
+ *
+ * <code>
+ *     //采样时长1秒, 统计最近1分钟, 每个采样单元最多保留100个候选
+ *     SlidingWindowTopK topK = new SlidingWindowTopK(1000, 60, 100);
+ *     topK.add(tenantId);
+ *     //最近10秒访问最多的10个租户
+ *     List&lt;SlidingWindowTopK.Item&gt; items = topK.topK(10000, 10);
+ * </code>
+ *
+ * <p>内存占用 ≈ 统计周期 * (8 byte * depth * width + 候选KEY)</p>
+ *
+ * @see CountMinSketch
+ * @see SlidingWindowCounter
+ * @author S.Violet
+ */
+public class SlidingWindowTopK {
+
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_WIDTH = 1024;
+
+    private final SlidingWindowArray<Bucket> slidingWindowArray;
+    private final CountMinSketch layout;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param capacity 每个采样单元的候选KEY数量, > 0, 建议为查询K值的数倍
+     */
+    public SlidingWindowTopK(int samplingDuration, int statisticalPeriod, int capacity) {
+        this(samplingDuration, statisticalPeriod, capacity, DEFAULT_DEPTH, DEFAULT_WIDTH, SlidingWindowArray.DEFAULT_TIME_REVERSE_THRESHOLD);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param capacity 每个采样单元的候选KEY数量, > 0, 建议为查询K值的数倍
+     * @param depth CountMinSketch行数, 1 ~ 16, 默认4
+     * @param width CountMinSketch列数, 2的幂, 默认1024, 误差约为 总次数 * 2.7 / width
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     */
+    public SlidingWindowTopK(int samplingDuration, int statisticalPeriod, final int capacity, final int depth, final int width, int timeReverseThreshold) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must > 0");
+        }
+        this.layout = new CountMinSketch(depth, width);
+        this.slidingWindowArray = new SlidingWindowArray<>(statisticalPeriod, samplingDuration, timeReverseThreshold, new SlidingWindowArray.ElementOperator<Bucket>() {
+            @Override
+            public Bucket reset(Bucket element) {
+                //create
+                if (element == null) {
+                    return new Bucket(capacity, depth, width);
+                }
+                //reset
+                element.reset();
+                return element;
+            }
+        });
+    }
+
+    /**
+     * 记录一次访问
+     * @param key KEY, 不可为空
+     */
+    public void add(String key) {
+        add(key, 1L, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 记录访问
+     * @param key KEY, 不可为空
+     * @param count 次数, > 0
+     */
+    public void add(String key, long count) {
+        add(key, count, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内次数最多的K个KEY
+     * @param duration 时间
+     * @param k 数量, 大于候选数量时返回全部候选
+     * @return 按次数降序排列, 次数为估计值
+     */
+    public List<Item> topK(int duration, int k) {
+        return topK(duration, k, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 估计最近一段时间内某个KEY的次数(即使它不在候选列表中)
+     * @param key KEY, 不可为空
+     * @param duration 时间
+     * @return 估计次数, 只会偏大不会偏小
+     */
+    public long estimate(String key, int duration) {
+        return estimate(key, duration, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 记录访问
+     * @param key KEY, 不可为空
+     * @param count 次数, > 0
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     */
+    protected void add(String key, long count, long currentTimeMillis) {
+        if (key == null) {
+            throw new IllegalArgumentException("key is null");
+        }
+        if (count <= 0) {
+            return;
+        }
+        Bucket bucket = slidingWindowArray.getElementOrNull(currentTimeMillis);
+        //时间倒流, 计数无效
+        if (bucket == null) {
+            return;
+        }
+        long hash = HashUtils.xxHash64(key);
+        bucket.candidates.offer(key, bucket.sketch.add(hash, count));
+    }
+
+    /**
+     * 获取最近一段时间内次数最多的K个KEY
+     * @param duration 时间
+     * @param k 数量, 大于候选数量时返回全部候选
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 按次数降序排列, 次数为估计值
+     */
+    protected List<Item> topK(int duration, int k, long currentTimeMillis) {
+        if (k <= 0) {
+            return new ArrayList<>(0);
+        }
+        final long[] merged = new long[layout.getDepth() * layout.getWidth()];
+        final Set<String> keys = new HashSet<>();
+        slidingWindowArray.visitElementsAccurately(currentTimeMillis, duration, new SlidingWindowArray.ElementVisitor<Bucket>() {
+            @Override
+            public void visit(long startTime, long endTime, float weight, Bucket element) {
+                element.sketch.addTo(merged, weight);
+                keys.addAll(element.candidates.map.keySet());
+            }
+        });
+
+        //用合并后的Sketch重新估计所有候选
+        List<Item> items = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            long count = layout.estimate(HashUtils.xxHash64(key), merged);
+            if (count > 0) {
+                items.add(new Item(key, count));
+            }
+        }
+        Collections.sort(items, ITEM_COMPARATOR);
+        return items.size() > k ? new ArrayList<>(items.subList(0, k)) : items;
+    }
+
+    /**
+     * 估计最近一段时间内某个KEY的次数(即使它不在候选列表中)
+     * @param key KEY, 不可为空
+     * @param duration 时间
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 估计次数, 只会偏大不会偏小
+     */
+    protected long estimate(String key, int duration, long currentTimeMillis) {
+        if (key == null) {
+            throw new IllegalArgumentException("key is null");
+        }
+        final long hash = HashUtils.xxHash64(key);
+        final long[] result = new long[1];
+        slidingWindowArray.visitElementsAccurately(currentTimeMillis, duration, new SlidingWindowArray.ElementVisitor<Bucket>() {
+            @Override
+            public void visit(long startTime, long endTime, float weight, Bucket element) {
+                long count = element.sketch.estimate(hash);
+                if (count != 0) {
+                    result[0] += weight >= 1.0f ? count : Math.round((double) count * weight);
+                }
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    private static final Comparator<Item> ITEM_COMPARATOR = new Comparator<Item>() {
+        @Override
+        public int compare(Item o1, Item o2) {
+            if (o1.count != o2.count) {
+                return o1.count > o2.count ? -1 : 1;
+            }
+            return o1.key.compareTo(o2.key);
+        }
+    };
+
+    /**
+     * 热点KEY
+     */
+    public static final class Item {
+
+        private final String key;
+        private final long count;
+
+        public Item(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return 估计次数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count;
+        }
+
+    }
+
+    /**
+     * 采样单元
+     */
+    private static final class Bucket {
+
+        private final CountMinSketch sketch;
+        private final Candidates candidates;
+
+        private Bucket(int capacity, int depth, int width) {
+            this.sketch = new CountMinSketch(depth, width);
+            this.candidates = new Candidates(capacity);
+        }
+
+        private void reset() {
+            sketch.reset();
+            candidates.reset();
+        }
+
+    }
+
+    /**
+     * 候选列表(Space-Saving), 容量固定, 已满时替换估计值最小的候选.
+     * 候选的估计值无锁递增(CAS), 小顶堆按入堆时的估计值排序, 取最小值时发现堆顶已经增大则下沉后重新取(估计值只增不减,
+     * 堆顶的实际值不变时一定是最小值), 每次替换的摊还复杂度为O(log capacity).
+     */
+    private static final class Candidates {
+
+        private final Map<String, Candidate> map;
+
+        /**
+         * 小顶堆, 只在持有锁时访问
+         */
+        private final Candidate[] heap;
+        private int size = 0;
+
+        /**
+         * 进入列表的门槛(列表已满时为列表中的最小值), 未达到门槛的KEY不加锁
+         */
+        private volatile long threshold = 0L;
+
+        private Candidates(int capacity) {
+            this.map = new ConcurrentHashMap<>(capacity * 2);
+            this.heap = new Candidate[capacity];
+        }
+
+        private void offer(String key, long estimate) {
+            Candidate candidate = map.get(key);
+            //已在列表中, 更新估计值
+            if (candidate != null) {
+                candidate.raise(estimate);
+                return;
+            }
+            //未达到门槛
+            if (estimate <= threshold) {
+                return;
+            }
+            synchronized (this) {
+                candidate = map.get(key);
+                if (candidate != null) {
+                    candidate.raise(estimate);
+                    return;
+                }
+                if (size < heap.length) {
+                    candidate = new Candidate(key, estimate);
+                    map.put(key, candidate);
+                    heap[size] = candidate;
+                    siftUp(size++);
+                    if (size >= heap.length) {
+                        threshold = min();
+                    }
+                    return;
+                }
+                //替换最小值
+                long min = min();
+                if (estimate <= min) {
+                    threshold = min;
+                    return;
+                }
+                map.remove(heap[0].key);
+                candidate = new Candidate(key, estimate);
+                map.put(key, candidate);
+                heap[0] = candidate;
+                siftDown(0);
+                threshold = min();
+            }
+        }
+
+        /**
+         * 持有锁时调用, 列表非空
+         */
+        private long min() {
+            while (true) {
+                Candidate top = heap[0];
+                long current = top.count.get();
+                if (current == top.heapCount) {
+                    return current;
+                }
+                //堆顶已经增大, 下沉后重新取
+                top.heapCount = current;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int index) {
+            Candidate candidate = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (heap[parent].heapCount <= candidate.heapCount) {
+                    break;
+                }
+                heap[index] = heap[parent];
+                index = parent;
+            }
+            heap[index] = candidate;
+        }
+
+        private void siftDown(int index) {
+            Candidate candidate = heap[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int child = (index << 1) + 1;
+                if (child + 1 < size && heap[child + 1].heapCount < heap[child].heapCount) {
+                    child++;
+                }
+                if (candidate.heapCount <= heap[child].heapCount) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = candidate;
+        }
+
+        private synchronized void reset() {
+            map.clear();
+            Arrays.fill(heap, null);
+            size = 0;
+            threshold = 0L;
+        }
+
+    }
+
+    /**
+     * 候选KEY
+     */
+    private static final class Candidate {
+
+        private final String key;
+        private final AtomicLong count;
+
+        /**
+         * 入堆(或上次下沉)时的估计值, 只在持有锁时访问, 不大于count
+         */
+        private long heapCount;
+
+        private Candidate(String key, long count) {
+            this.key = key;
+            this.count = new AtomicLong(count);
+            this.heapCount = count;
+        }
+
+        private void raise(long estimate) {
+            long current;
+            while ((current = count.get()) < estimate) {
+                if (count.compareAndSet(current, estimate)) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.util.math.MathUtils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>分段累加器, 与JDK8的LongAdder语义相同(兼容JDK7): 写入时根据线程分散到不同的单元(cell), 读取时把所有单元求和.</p>
+ *
+ * <p>每个单元独占一个缓存行(64字节), 避免伪共享. 单元选择: 按线程ID哈希选择首选单元, CAS失败时(说明有其他线程在竞争同一个单元)
+ * 换到另一个单元直接累加, 不做重试.</p>
+ *
+ * <p>注意: sum()不是原子快照, 与add()并发时, 结果可能包含部分正在进行的累加. reset()与add()并发时, 正在进行的累加可能丢失.</p>
+ *
+ * <p>堆内存占用 ≈ 64 byte * 单元数</p>
+ *
+ * @author S.Violet
+ */
+public class StripedLongAdder {
+
+    /**
+     * 每个单元占用的long数(8 * 8 = 64字节, 一个缓存行)
+     */
+    private static final int CELL_STRIDE_SHIFT = 3;
+
+    private static final int MAX_CELLS = 1024;
+
+    private static final int DEFAULT_CELLS = defaultCells();
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * 单元数 = CPU核数(向上取整到2的幂, 最大64)
+     */
+    public StripedLongAdder() {
+        this(DEFAULT_CELLS);
+    }
+
+    /**
+     * @param cellNum 单元数, 2的幂, 1 ~ 1024, 建议与并发线程数接近
+     */
+    public StripedLongAdder(int cellNum) {
+        if (cellNum < 1 || cellNum > MAX_CELLS || !MathUtils.isPowerOfTwo(cellNum)) {
+            throw new IllegalArgumentException("cellNum must be a power of two in [1, " + MAX_CELLS + "]");
+        }
+        //最后补一个缓存行, 防止最后一个单元与数组之后的对象共享缓存行
+        this.cells = new AtomicLongArray((cellNum + 1) << CELL_STRIDE_SHIFT);
+        this.mask = cellNum - 1;
+    }
+
+    /**
+     * 累加, 不返回结果
+     * @param delta 增加的数字
+     */
+    public void add(long delta) {
+        int hash = hash(Thread.currentThread().getId());
+        int index = (hash & mask) << CELL_STRIDE_SHIFT;
+        long value = cells.get(index);
+        if (cells.compareAndSet(index, value, value + delta)) {
+            return;
+        }
+        //首选单元有竞争, 换一个单元(取哈希的高位)直接累加
+        cells.getAndAdd(((hash >>> 16) & mask) << CELL_STRIDE_SHIFT, delta);
+    }
+
+    /**
+     * 加一
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * @return 所有单元的和
+     */
+    public long sum() {
+        long sum = 0L;
+        int length = (mask + 1) << CELL_STRIDE_SHIFT;
+        for (int i = 0 ; i < length ; i += 1 << CELL_STRIDE_SHIFT) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * 所有单元清零
+     */
+    public void reset() {
+        int length = (mask + 1) << CELL_STRIDE_SHIFT;
+        for (int i = 0 ; i < length ; i += 1 << CELL_STRIDE_SHIFT) {
+            cells.set(i, 0L);
+        }
+    }
+
+    /**
+     * @return 单元数
+     */
+    public int getCellNum() {
+        return mask + 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+
+    /**
+     * 线程ID是连续的小整数, 需要打散
+     */
+    private static int hash(long threadId) {
+        long h = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int defaultCells() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        int cells = 1;
+        while (cells < processors) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+
+}
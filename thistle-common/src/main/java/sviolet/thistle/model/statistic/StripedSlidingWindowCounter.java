@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import sviolet.thistle.model.common.TimeSource;
+
+import java.util.List;
+
+/**
+ * <p>滑动窗口计数器(分段累加版), 适用于高并发计数</p>
+ *
+ * <p>与SlidingWindowCounter用法相同, 区别: </p>
+ *
+ * <p>
+ *     1.每个采样单元是一个StripedLongAdder(LongAdder语义), 多线程写入分散到不同的缓存行, 64线程并发计数时不会出现CAS风暴 <br>
+ *     2.计数值为long, 不会溢出 <br>
+ *     3.add方法不返回当前值(分段累加器无法廉价地得到当前值), 计数值在读取时求和 <br>
+ *     4.每个采样单元占用 64 byte * 分段数 的内存, 比SlidingWindowCounter大, 统计周期不宜设置太大 <br>
+ * </p>
+ *
+ * <p>时间倒流的处理与SlidingWindowCounter相同(由SlidingWindowArray处理).</p>
+ *
+ * @see SlidingWindowCounter
+ * @see StripedLongAdder
+ * @author S.Violet
+ */
+public class StripedSlidingWindowCounter {
+
+    private static final SlidingWindowArray.LongValueGetter<StripedLongAdder> VALUE_GETTER = new SlidingWindowArray.LongValueGetter<StripedLongAdder>() {
+        @Override
+        public long getValue(StripedLongAdder element) {
+            return element.sum();
+        }
+    };
+
+    private final SlidingWindowArray<StripedLongAdder> slidingWindowArray;
+    private volatile TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     */
+    public StripedSlidingWindowCounter(int samplingDuration, int statisticalPeriod) {
+        this(samplingDuration, statisticalPeriod, SlidingWindowArray.DEFAULT_TIME_REVERSE_THRESHOLD);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     */
+    public StripedSlidingWindowCounter(int samplingDuration, int statisticalPeriod, int timeReverseThreshold) {
+        this(samplingDuration, statisticalPeriod, timeReverseThreshold, 0);
+    }
+
+    /**
+     * @param samplingDuration 采样时长, ms, 取值范围 >= 10
+     * @param statisticalPeriod 统计周期, 取值范围 > 0, 统计时长 = 采样时长 * 统计周期
+     * @param timeReverseThreshold 当时间倒流的情况超过该设定值, 会重置所有统计数据, 默认64, 用于应对服务器时间重设的情况
+     * @param stripes 每个采样单元的分段数, 2的幂, 1 ~ 1024, 送0表示使用默认值(CPU核数, 最大64)
+     */
+    public StripedSlidingWindowCounter(int samplingDuration, int statisticalPeriod, int timeReverseThreshold, final int stripes) {
+        this.slidingWindowArray = new SlidingWindowArray<>(statisticalPeriod, samplingDuration, timeReverseThreshold, new SlidingWindowArray.ElementOperator<StripedLongAdder>() {
+            @Override
+            public StripedLongAdder reset(StripedLongAdder element) {
+                //create
+                if (element == null) {
+                    return stripes > 0 ? new StripedLongAdder(stripes) : new StripedLongAdder();
+                }
+                //reset
+                element.reset();
+                return element;
+            }
+        });
+    }
+
+    /**
+     * 累加(不返回计数值)
+     * @param delta 增加的数字
+     */
+    public void add(long delta) {
+        add(delta, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 加一(不返回计数值)
+     */
+    public void increment() {
+        add(1L, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 累加(不返回计数值)
+     * @param delta 增加的数字
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     */
+    protected void add(long delta, long currentTimeMillis) {
+        slidingWindowArray.getElement(currentTimeMillis).add(delta);
+    }
+
+    /**
+     * 获取最近一段时间内的计数值, 数值不精确, 存在一定的近似计算.
+     * @param duration 时间
+     * @return 最近一段时间内的计数值
+     */
+    public long getRecently(int duration) {
+        return getRecently(duration, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取整个统计周期内的计数值, 数值不精确, 存在一定的近似计算.
+     * @return 整个统计周期内的计数值
+     */
+    public long getTotally(){
+        return getRecently(Integer.MAX_VALUE, timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取最近一段时间内的计数值, 数值不精确, 存在一定的近似计算.
+     * @param duration 时间
+     * @param currentTimeMillis 当前时间(毫秒数), 注意, 这个时间不可以回拨, 回拨超过2个单位时间时会触发所有计数清零
+     * @return 最近一段时间内的计数值
+     */
+    protected long getRecently(int duration, long currentTimeMillis) {
+        //遍历累加(读取时求和), 不分配内存
+        if (!isDebugEnabled()) {
+            return slidingWindowArray.sumAccurately(currentTimeMillis, duration, VALUE_GETTER);
+        }
+
+        //获取指定时间范围的统计信息
+        List<SlidingWindowArray.Element<StripedLongAdder>> elements = slidingWindowArray.getElementsAccurately(currentTimeMillis, duration);
+        printDebugLog(duration, currentTimeMillis, elements);
+
+        //数值累加(读取时求和)
+        long result = 0L;
+        for (SlidingWindowArray.Element<StripedLongAdder> element : elements) {
+            if (element.getWeight() < 1.0f) {
+                //数值 * 权重 = 近似结果
+                result += Math.round((double) element.getValue().sum() * element.getWeight());
+            } else {
+                result += element.getValue().sum();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 获取快照(每个采样单元的开始时间和计数值), 用于多节点汇总, 不阻塞计数.
+     * 可以序列化(SlidingWindowSnapshot#toByteArray)后发送, 汇总时按采样单元合并(SlidingWindowSnapshot#merge).
+     * @return 快照
+     */
+    public SlidingWindowSnapshot snapshot() {
+        return snapshot(timeSource.currentTimeMillis());
+    }
+
+    /**
+     * 获取快照(每个采样单元的开始时间和计数值), 用于多节点汇总, 不阻塞计数.
+     * @param currentTimeMillis 当前时间(毫秒数)
+     * @return 快照
+     */
+    protected SlidingWindowSnapshot snapshot(long currentTimeMillis) {
+        return slidingWindowArray.snapshot(currentTimeMillis, VALUE_GETTER);
+    }
+
+    /**
+     * 设置时间源, 默认TimeSource.SYSTEM, 取舍见TimeSource
+     * @param timeSource 时间源, 为空时使用TimeSource.SYSTEM
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource != null ? timeSource : TimeSource.SYSTEM;
+    }
+
+    /**
+     * 返回true时, 查询会获取采样单元列表并调用printDebugLog(会分配内存)
+     */
+    protected boolean isDebugEnabled() {
+        return false;
+    }
+
+    /**
+     * 需要同时覆写isDebugEnabled()并返回true
+     */
+    protected void printDebugLog(int duration, long currentTimeMillis, List<SlidingWindowArray.Element<StripedLongAdder>> elements) {
+        //override to print debug log
+    }
+
+}
@@ -19,8 +19,27 @@
 
 package sviolet.thistle.util.conversion;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
 /**
- * Hash算法工具
+ * <p>Hash算法工具</p>
+ *
+ * <p>fnv1/sdbm/djb2: 32位, 逐字节计算, 速度慢, 分布一般, 保留用于兼容.</p>
+ *
+ * <p>xxHash64 / murmur3(MurmurHash3 x64 128) / wyHash: 64位(或128位), 每次处理8字节, 分布好, 适用于布隆过滤器, 分段锁, 分片等.
+ * 每种算法都支持(byte[], offset, length), ByteBuffer(position到limit, 不改变position, 支持直接内存), CharSequence,
+ * long和int, 除ByteBuffer为非堆内存且非little-endian时复制一个视图对象外, 不创建对象(murmur3_128返回的数组除外).</p>
+ *
+ * <p>CharSequence统一按UTF-8计算, 结果与string.getBytes("UTF-8")相同(不成对的代理字符编码为'?'), 与BloomBitmap等布隆过滤器一致.
+ * 纯ASCII时直接读取char, murmur3边编码边计算, 都不创建对象; xxHash64/wyHash遇到非ASCII字符时先编码为byte[].
+ * long/int按little-endian的8/4个字节计算, 结果与对应的byte[]相同.</p>
+ *
+ * <p>流式计算(数据分多次到达)使用XxHash64Hasher和Murmur3Hasher, 结果与一次性计算相同. wyHash的尾部处理需要回读最后16字节,
+ * 不提供流式计算.</p>
+ *
+ * <p>吞吐量见HashUtilsTest#main, 64字节以上是fnv1/sdbm/djb2的3~14倍.</p>
  *
  * @author S.Violet
  */
@@ -56,4 +75,1134 @@ public class HashUtils {
         return (hash & 0x7FFFFFFF);
     }
 
+    /* ******************************************************************************************************** */
+    /* xxHash64 */
+
+    private static final long XX_P1 = 0x9E3779B185EBCA87L;
+    private static final long XX_P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long XX_P3 = 0x165667B19E3779F9L;
+    private static final long XX_P4 = 0x85EBCA77C2B2AE63L;
+    private static final long XX_P5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * xxHash64, seed = 0
+     */
+    public static long xxHash64(byte[] data) {
+        checkNotNull(data);
+        return xxHash64Bytes(data, 0, data.length, 0L);
+    }
+
+    /**
+     * xxHash64, 计算data[offset, offset + length), seed = 0
+     */
+    public static long xxHash64(byte[] data, int offset, int length) {
+        return xxHash64(data, offset, length, 0L);
+    }
+
+    /**
+     * xxHash64, 计算data[offset, offset + length)
+     */
+    public static long xxHash64(byte[] data, int offset, int length, long seed) {
+        checkBounds(data, offset, length);
+        return xxHash64Bytes(data, offset, length, seed);
+    }
+
+    /**
+     * xxHash64, 计算[position, limit), 不改变position, seed = 0
+     */
+    public static long xxHash64(ByteBuffer data) {
+        return xxHash64(data, 0L);
+    }
+
+    /**
+     * xxHash64, 计算[position, limit), 不改变position
+     */
+    public static long xxHash64(ByteBuffer data, long seed) {
+        checkNotNull(data);
+        if (data.hasArray()) {
+            return xxHash64Bytes(data.array(), data.arrayOffset() + data.position(), data.remaining(), seed);
+        }
+        return xxHash64(BYTE_BUFFER, littleEndian(data), data.position(), data.remaining(), seed);
+    }
+
+    /**
+     * xxHash64, 按UTF-8计算, seed = 0
+     */
+    public static long xxHash64(CharSequence data) {
+        return xxHash64(data, 0L);
+    }
+
+    /**
+     * xxHash64, 按UTF-8计算
+     */
+    public static long xxHash64(CharSequence data, long seed) {
+        checkNotNull(data);
+        if (isAscii(data)) {
+            return xxHash64(ASCII, data, 0, data.length(), seed);
+        }
+        byte[] bytes = utf8(data);
+        return xxHash64Bytes(bytes, 0, bytes.length, seed);
+    }
+
+    /**
+     * xxHash64, 按little-endian的8个字节计算, seed = 0
+     */
+    public static long xxHash64(long data) {
+        return xxHash64(data, 0L);
+    }
+
+    /**
+     * xxHash64, 按little-endian的8个字节计算
+     */
+    public static long xxHash64(long data, long seed) {
+        long hash = seed + XX_P5 + 8;
+        hash ^= xxRound(0L, data);
+        hash = Long.rotateLeft(hash, 27) * XX_P1 + XX_P4;
+        return xxAvalanche(hash);
+    }
+
+    /**
+     * xxHash64, 按little-endian的4个字节计算, seed = 0
+     */
+    public static long xxHash64(int data) {
+        return xxHash64(data, 0L);
+    }
+
+    /**
+     * xxHash64, 按little-endian的4个字节计算
+     */
+    public static long xxHash64(int data, long seed) {
+        long hash = seed + XX_P5 + 4;
+        hash ^= ((long) data & 0xFFFFFFFFL) * XX_P1;
+        hash = Long.rotateLeft(hash, 23) * XX_P2 + XX_P3;
+        return xxAvalanche(hash);
+    }
+
+    private static <T> long xxHash64(Access<T> access, T input, int offset, int length, long seed) {
+        int position = offset;
+        int end = offset + length;
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + XX_P1 + XX_P2;
+            long v2 = seed + XX_P2;
+            long v3 = seed;
+            long v4 = seed - XX_P1;
+            int limit = end - 32;
+            do {
+                v1 = xxRound(v1, access.getLong(input, position));
+                v2 = xxRound(v2, access.getLong(input, position + 8));
+                v3 = xxRound(v3, access.getLong(input, position + 16));
+                v4 = xxRound(v4, access.getLong(input, position + 24));
+                position += 32;
+            } while (position <= limit);
+            hash = xxMerge(v1, v2, v3, v4);
+        } else {
+            hash = seed + XX_P5;
+        }
+        hash += length;
+        return xxTail(access, input, position, end - position, hash);
+    }
+
+    private static long xxHash64Bytes(byte[] data, int offset, int length, long seed) {
+        if (length >= WRAP_THRESHOLD) {
+            return xxHash64(BYTE_BUFFER, wrap(data), offset, length, seed);
+        }
+        return xxHash64(BYTE_ARRAY, data, offset, length, seed);
+    }
+
+    private static long xxRound(long acc, long input) {
+        acc += input * XX_P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * XX_P1;
+    }
+
+    private static long xxMerge(long v1, long v2, long v3, long v4) {
+        long hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        hash = xxMergeRound(hash, v1);
+        hash = xxMergeRound(hash, v2);
+        hash = xxMergeRound(hash, v3);
+        return xxMergeRound(hash, v4);
+    }
+
+    private static long xxMergeRound(long acc, long value) {
+        acc ^= xxRound(0L, value);
+        return acc * XX_P1 + XX_P4;
+    }
+
+    /**
+     * 处理不足32字节的尾部, 并完成最后的混合
+     */
+    private static <T> long xxTail(Access<T> access, T input, int position, int length, long hash) {
+        int end = position + length;
+        while (position + 8 <= end) {
+            hash ^= xxRound(0L, access.getLong(input, position));
+            hash = Long.rotateLeft(hash, 27) * XX_P1 + XX_P4;
+            position += 8;
+        }
+        if (position + 4 <= end) {
+            hash ^= access.getUnsignedInt(input, position) * XX_P1;
+            hash = Long.rotateLeft(hash, 23) * XX_P2 + XX_P3;
+            position += 4;
+        }
+        while (position < end) {
+            hash ^= access.getUnsignedByte(input, position) * XX_P5;
+            hash = Long.rotateLeft(hash, 11) * XX_P1;
+            position++;
+        }
+        return xxAvalanche(hash);
+    }
+
+    private static long xxAvalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= XX_P2;
+        hash ^= hash >>> 29;
+        hash *= XX_P3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /* ******************************************************************************************************** */
+    /* MurmurHash3 x64 128 */
+
+    private static final long MURMUR_C1 = 0x87c37b91114253d5L;
+    private static final long MURMUR_C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * MurmurHash3 x64 128的低64位, seed = 0
+     */
+    public static long murmur3_64(byte[] data) {
+        checkNotNull(data);
+        return murmur3Bytes(data, 0, data.length, 0, null, null);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 计算data[offset, offset + length), seed = 0
+     */
+    public static long murmur3_64(byte[] data, int offset, int length) {
+        return murmur3_64(data, offset, length, 0);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 计算data[offset, offset + length)
+     *
+     * @param seed 与C实现相同, 32位(无符号)
+     */
+    public static long murmur3_64(byte[] data, int offset, int length, int seed) {
+        checkBounds(data, offset, length);
+        return murmur3Bytes(data, offset, length, seed, null, null);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 计算[position, limit), 不改变position, seed = 0
+     */
+    public static long murmur3_64(ByteBuffer data) {
+        return murmur3_64(data, 0);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 计算[position, limit), 不改变position
+     */
+    public static long murmur3_64(ByteBuffer data, int seed) {
+        return murmur3(data, seed, null, null);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 按UTF-8计算, seed = 0
+     */
+    public static long murmur3_64(CharSequence data) {
+        return murmur3_64(data, 0);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 按UTF-8计算, 边编码边计算
+     */
+    public static long murmur3_64(CharSequence data, int seed) {
+        checkNotNull(data);
+        return murmur3Utf8(data, seed, null, null);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 按little-endian的8个字节计算, seed = 0
+     */
+    public static long murmur3_64(long data) {
+        return murmur3_64(data, 0);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 按little-endian的8个字节计算
+     */
+    public static long murmur3_64(long data, int seed) {
+        long h1 = (long) seed & 0xFFFFFFFFL;
+        long h2 = h1;
+        h1 ^= murmurMixK1(data);
+        return murmurFinish(h1, h2, 8, null, null);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 按little-endian的4个字节计算, seed = 0
+     */
+    public static long murmur3_64(int data) {
+        return murmur3_64(data, 0);
+    }
+
+    /**
+     * MurmurHash3 x64 128的低64位, 按little-endian的4个字节计算
+     */
+    public static long murmur3_64(int data, int seed) {
+        long h1 = (long) seed & 0xFFFFFFFFL;
+        long h2 = h1;
+        h1 ^= murmurMixK1((long) data & 0xFFFFFFFFL);
+        return murmurFinish(h1, h2, 4, null, null);
+    }
+
+    /**
+     * MurmurHash3 x64 128, seed = 0
+     *
+     * @return long[]{h1, h2}, 对应C实现输出的前8字节和后8字节(little-endian)
+     */
+    public static long[] murmur3_128(byte[] data) {
+        checkNotNull(data);
+        return murmur3_128(data, 0, data.length, 0);
+    }
+
+    /**
+     * MurmurHash3 x64 128, 计算data[offset, offset + length)
+     *
+     * @return long[]{h1, h2}
+     */
+    public static long[] murmur3_128(byte[] data, int offset, int length, int seed) {
+        checkBounds(data, offset, length);
+        long[] result = new long[2];
+        murmur3Bytes(data, offset, length, seed, result, null);
+        return result;
+    }
+
+    /**
+     * MurmurHash3 x64 128, 计算[position, limit), 不改变position
+     *
+     * @return long[]{h1, h2}
+     */
+    public static long[] murmur3_128(ByteBuffer data, int seed) {
+        long[] result = new long[2];
+        murmur3(data, seed, result, null);
+        return result;
+    }
+
+    /**
+     * MurmurHash3 x64 128, 按UTF-8计算, 边编码边计算
+     *
+     * @return long[]{h1, h2}
+     */
+    public static long[] murmur3_128(CharSequence data, int seed) {
+        checkNotNull(data);
+        long[] result = new long[2];
+        murmur3Utf8(data, seed, result, null);
+        return result;
+    }
+
+    /**
+     * MurmurHash3 x64 128, 计算data[offset, offset + length), 结果交给consumer, 不创建对象
+     *
+     * @return consumer的返回值
+     */
+    public static boolean murmur3_128(byte[] data, int offset, int length, int seed, Hash128Consumer consumer) {
+        checkBounds(data, offset, length);
+        checkNotNull(consumer);
+        return murmur3Bytes(data, offset, length, seed, null, consumer) != 0L;
+    }
+
+    /**
+     * MurmurHash3 x64 128, 计算[position, limit), 不改变position, 结果交给consumer
+     *
+     * @return consumer的返回值
+     */
+    public static boolean murmur3_128(ByteBuffer data, int seed, Hash128Consumer consumer) {
+        checkNotNull(consumer);
+        return murmur3(data, seed, null, consumer) != 0L;
+    }
+
+    /**
+     * MurmurHash3 x64 128, 按UTF-8计算, 边编码边计算, 结果交给consumer, 不创建对象
+     *
+     * @return consumer的返回值
+     */
+    public static boolean murmur3_128(CharSequence data, int seed, Hash128Consumer consumer) {
+        checkNotNull(data);
+        checkNotNull(consumer);
+        return murmur3Utf8(data, seed, null, consumer) != 0L;
+    }
+
+    /**
+     * 接收MurmurHash3 x64 128的结果, 用于不创建数组的计算(例如布隆过滤器用h1 + i * h2生成k个索引)
+     */
+    public interface Hash128Consumer {
+
+        /**
+         * @param h1 128位哈希的低64位
+         * @param h2 128位哈希的高64位
+         * @return 由实现决定, 会作为murmur3_128的返回值
+         */
+        boolean accept(long h1, long h2);
+
+    }
+
+    private static long murmur3(ByteBuffer data, int seed, long[] result, Hash128Consumer consumer) {
+        checkNotNull(data);
+        if (data.hasArray()) {
+            return murmur3Bytes(data.array(), data.arrayOffset() + data.position(), data.remaining(), seed, result, consumer);
+        }
+        return murmur3(BYTE_BUFFER, littleEndian(data), data.position(), data.remaining(), seed, result, consumer);
+    }
+
+    private static long murmur3Bytes(byte[] data, int offset, int length, int seed, long[] result, Hash128Consumer consumer) {
+        if (length >= WRAP_THRESHOLD) {
+            return murmur3(BYTE_BUFFER, wrap(data), offset, length, seed, result, consumer);
+        }
+        return murmur3(BYTE_ARRAY, data, offset, length, seed, result, consumer);
+    }
+
+    /**
+     * @param result 不为null时, 输出h1和h2
+     * @param consumer 不为null时, h1和h2交给consumer
+     * @return consumer为null时返回h1, 否则consumer返回true时为1, false时为0
+     */
+    private static <T> long murmur3(Access<T> access, T input, int offset, int length, int seed, long[] result, Hash128Consumer consumer) {
+        long h1 = (long) seed & 0xFFFFFFFFL;
+        long h2 = h1;
+        int position = offset;
+        int limit = offset + (length & ~15);
+        while (position < limit) {
+            h1 ^= murmurMixK1(access.getLong(input, position));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= murmurMixK2(access.getLong(input, position + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+            position += 16;
+        }
+        return murmurTail(access, input, position, length & 15, h1, h2, length, result, consumer);
+    }
+
+    /**
+     * 按UTF-8计算, 边编码边计算, 不创建对象, 结果与String.getBytes("UTF-8")的哈希一致(不成对的代理字符编码为'?')
+     */
+    private static long murmur3Utf8(CharSequence chars, int seed, long[] result, Hash128Consumer consumer) {
+        long h1 = (long) seed & 0xFFFFFFFFL;
+        long h2 = h1;
+        long k1 = 0L;
+        long k2 = 0L;
+        // 当前块中的字节数(0~15)
+        int blockPosition = 0;
+        long length = 0L;
+
+        int charLength = chars.length();
+        for (int i = 0 ; i < charLength ; i++) {
+            char c = chars.charAt(i);
+            // 编码后的字节, 低位在前
+            int encoded;
+            int encodedLength;
+            if (c < 0x80) {
+                encoded = c;
+                encodedLength = 1;
+            } else if (c < 0x800) {
+                encoded = (0xC0 | (c >>> 6)) | ((0x80 | (c & 0x3F)) << 8);
+                encodedLength = 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < charLength && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    encoded = (0xF0 | (codePoint >>> 18))
+                            | ((0x80 | ((codePoint >>> 12) & 0x3F)) << 8)
+                            | ((0x80 | ((codePoint >>> 6) & 0x3F)) << 16)
+                            | ((0x80 | (codePoint & 0x3F)) << 24);
+                    encodedLength = 4;
+                } else {
+                    encoded = '?';
+                    encodedLength = 1;
+                }
+            } else {
+                encoded = (0xE0 | (c >>> 12)) | ((0x80 | ((c >>> 6) & 0x3F)) << 8) | ((0x80 | (c & 0x3F)) << 16);
+                encodedLength = 3;
+            }
+
+            for (int j = 0 ; j < encodedLength ; j++) {
+                long b = (encoded >>> (j << 3)) & 0xFFL;
+                if (blockPosition < 8) {
+                    k1 |= b << (blockPosition << 3);
+                } else {
+                    k2 |= b << ((blockPosition - 8) << 3);
+                }
+                length++;
+                if (++blockPosition == 16) {
+                    h1 ^= murmurMixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27);
+                    h1 += h2;
+                    h1 = h1 * 5 + 0x52dce729;
+
+                    h2 ^= murmurMixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31);
+                    h2 += h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+
+                    k1 = 0L;
+                    k2 = 0L;
+                    blockPosition = 0;
+                }
+            }
+        }
+
+        if (blockPosition > 8) {
+            h2 ^= murmurMixK2(k2);
+        }
+        if (blockPosition > 0) {
+            h1 ^= murmurMixK1(k1);
+        }
+        return murmurFinish(h1, h2, length, result, consumer);
+    }
+
+    /**
+     * 处理不足16字节的尾部, 并完成最后的混合
+     */
+    private static <T> long murmurTail(Access<T> access, T input, int position, int tailLength, long h1, long h2, long totalLength,
+                                       long[] result, Hash128Consumer consumer) {
+        long k1 = 0L;
+        long k2 = 0L;
+        for (int i = tailLength - 1 ; i >= 0 ; i--) {
+            long b = access.getUnsignedByte(input, position + i);
+            if (i >= 8) {
+                k2 |= b << ((i - 8) << 3);
+            } else {
+                k1 |= b << (i << 3);
+            }
+        }
+        if (tailLength > 8) {
+            h2 ^= murmurMixK2(k2);
+        }
+        if (tailLength > 0) {
+            h1 ^= murmurMixK1(k1);
+        }
+        return murmurFinish(h1, h2, totalLength, result, consumer);
+    }
+
+    private static long murmurFinish(long h1, long h2, long totalLength, long[] result, Hash128Consumer consumer) {
+        h1 ^= totalLength;
+        h2 ^= totalLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = murmurFmix64(h1);
+        h2 = murmurFmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        if (result != null) {
+            result[0] = h1;
+            result[1] = h2;
+        }
+        if (consumer != null) {
+            return consumer.accept(h1, h2) ? 1L : 0L;
+        }
+        return h1;
+    }
+
+    private static long murmurMixK1(long k1) {
+        k1 *= MURMUR_C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * MURMUR_C2;
+    }
+
+    private static long murmurMixK2(long k2) {
+        k2 *= MURMUR_C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * MURMUR_C1;
+    }
+
+    private static long murmurFmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /* ******************************************************************************************************** */
+    /* wyHash */
+
+    private static final long WY_P0 = 0x2d358dccaa6c78a5L;
+    private static final long WY_P1 = 0x8bb84b93962eacc9L;
+    private static final long WY_P2 = 0x4b33a62ed433d4a3L;
+    private static final long WY_P3 = 0x4d5a2da51de1aa47L;
+
+    /**
+     * wyHash(结构参考wyhash final4, 默认secret, 未与C实现的测试向量比对, 不保证结果与其一致), seed = 0
+     */
+    public static long wyHash(byte[] data) {
+        checkNotNull(data);
+        return wyHashBytes(data, 0, data.length, 0L);
+    }
+
+    /**
+     * wyHash, 计算data[offset, offset + length), seed = 0
+     */
+    public static long wyHash(byte[] data, int offset, int length) {
+        return wyHash(data, offset, length, 0L);
+    }
+
+    /**
+     * wyHash, 计算data[offset, offset + length)
+     */
+    public static long wyHash(byte[] data, int offset, int length, long seed) {
+        checkBounds(data, offset, length);
+        return wyHashBytes(data, offset, length, seed);
+    }
+
+    /**
+     * wyHash, 计算[position, limit), 不改变position, seed = 0
+     */
+    public static long wyHash(ByteBuffer data) {
+        return wyHash(data, 0L);
+    }
+
+    /**
+     * wyHash, 计算[position, limit), 不改变position
+     */
+    public static long wyHash(ByteBuffer data, long seed) {
+        checkNotNull(data);
+        if (data.hasArray()) {
+            return wyHashBytes(data.array(), data.arrayOffset() + data.position(), data.remaining(), seed);
+        }
+        return wyHash(BYTE_BUFFER, littleEndian(data), data.position(), data.remaining(), seed);
+    }
+
+    /**
+     * wyHash, 按UTF-8计算, seed = 0
+     */
+    public static long wyHash(CharSequence data) {
+        return wyHash(data, 0L);
+    }
+
+    /**
+     * wyHash, 按UTF-8计算
+     */
+    public static long wyHash(CharSequence data, long seed) {
+        checkNotNull(data);
+        if (isAscii(data)) {
+            return wyHash(ASCII, data, 0, data.length(), seed);
+        }
+        byte[] bytes = utf8(data);
+        return wyHashBytes(bytes, 0, bytes.length, seed);
+    }
+
+    /**
+     * wyHash, 按little-endian的8个字节计算, seed = 0
+     */
+    public static long wyHash(long data) {
+        return wyHash(data, 0L);
+    }
+
+    /**
+     * wyHash, 按little-endian的8个字节计算
+     */
+    public static long wyHash(long data, long seed) {
+        long low = data & 0xFFFFFFFFL;
+        long high = data >>> 32;
+        return wyFinish((low << 32) | high, (high << 32) | low, seed ^ wyMix(seed ^ WY_P0, WY_P1), 8);
+    }
+
+    /**
+     * wyHash, 按little-endian的4个字节计算, seed = 0
+     */
+    public static long wyHash(int data) {
+        return wyHash(data, 0L);
+    }
+
+    /**
+     * wyHash, 按little-endian的4个字节计算
+     */
+    public static long wyHash(int data, long seed) {
+        long value = (long) data & 0xFFFFFFFFL;
+        long a = (value << 32) | value;
+        return wyFinish(a, a, seed ^ wyMix(seed ^ WY_P0, WY_P1), 4);
+    }
+
+    private static <T> long wyHash(Access<T> access, T input, int offset, int length, long seed) {
+        seed ^= wyMix(seed ^ WY_P0, WY_P1);
+        long a;
+        long b;
+        if (length <= 16) {
+            if (length >= 4) {
+                int quarter = (length >>> 3) << 2;
+                a = (access.getUnsignedInt(input, offset) << 32) | access.getUnsignedInt(input, offset + quarter);
+                b = (access.getUnsignedInt(input, offset + length - 4) << 32) | access.getUnsignedInt(input, offset + length - 4 - quarter);
+            } else if (length > 0) {
+                a = ((long) access.getUnsignedByte(input, offset) << 16)
+                        | ((long) access.getUnsignedByte(input, offset + (length >>> 1)) << 8)
+                        | access.getUnsignedByte(input, offset + length - 1);
+                b = 0L;
+            } else {
+                a = 0L;
+                b = 0L;
+            }
+        } else {
+            int position = offset;
+            int remaining = length;
+            if (remaining > 48) {
+                long see1 = seed;
+                long see2 = seed;
+                do {
+                    seed = wyMix(access.getLong(input, position) ^ WY_P1, access.getLong(input, position + 8) ^ seed);
+                    see1 = wyMix(access.getLong(input, position + 16) ^ WY_P2, access.getLong(input, position + 24) ^ see1);
+                    see2 = wyMix(access.getLong(input, position + 32) ^ WY_P3, access.getLong(input, position + 40) ^ see2);
+                    position += 48;
+                    remaining -= 48;
+                } while (remaining > 48);
+                seed ^= see1 ^ see2;
+            }
+            while (remaining > 16) {
+                seed = wyMix(access.getLong(input, position) ^ WY_P1, access.getLong(input, position + 8) ^ seed);
+                position += 16;
+                remaining -= 16;
+            }
+            // 最后16字节, 可能与已处理的数据重叠
+            a = access.getLong(input, position + remaining - 16);
+            b = access.getLong(input, position + remaining - 8);
+        }
+        return wyFinish(a, b, seed, length);
+    }
+
+    private static long wyHashBytes(byte[] data, int offset, int length, long seed) {
+        if (length >= WRAP_THRESHOLD) {
+            return wyHash(BYTE_BUFFER, wrap(data), offset, length, seed);
+        }
+        return wyHash(BYTE_ARRAY, data, offset, length, seed);
+    }
+
+    private static long wyFinish(long a, long b, long seed, long length) {
+        a ^= WY_P1;
+        b ^= seed;
+        long low = a * b;
+        long high = unsignedMultiplyHigh(a, b);
+        return wyMix(low ^ WY_P0 ^ length, high ^ WY_P1);
+    }
+
+    /**
+     * 128位乘积的低64位 ^ 高64位
+     */
+    private static long wyMix(long a, long b) {
+        return (a * b) ^ unsignedMultiplyHigh(a, b);
+    }
+
+    /**
+     * 无符号64位乘法的高64位(Java 7没有Math.multiplyHigh)
+     */
+    static long unsignedMultiplyHigh(long x, long y) {
+        long x0 = x & 0xFFFFFFFFL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long p10 = x1 * y0;
+        // 不会溢出: (2^32 - 1)^2 + 2 * (2^32 - 1) = 2^64 - 1
+        long cross = ((x0 * y0) >>> 32) + (p10 & 0xFFFFFFFFL) + x0 * y1;
+        return (p10 >>> 32) + (cross >>> 32) + x1 * y1;
+    }
+
+    /* ******************************************************************************************************** */
+    /* 流式计算 */
+
+    /**
+     * <p>流式哈希计算, 数据可以分多次update, 结果与一次性计算全部数据相同. 非线程安全.</p>
+     *
+     * <p>update(CharSequence)按UTF-8, updateLong/updateInt按little-endian, 与HashUtils的静态方法一致.
+     * getValue()不影响内部状态, 可以继续update.</p>
+     */
+    public static abstract class StreamHasher {
+
+        // 不足一块的数据
+        final byte[] buffer;
+        int bufferLength = 0;
+        long totalLength = 0L;
+
+        StreamHasher(int blockSize) {
+            this.buffer = new byte[blockSize];
+        }
+
+        public StreamHasher update(byte data) {
+            buffer[bufferLength++] = data;
+            totalLength++;
+            if (bufferLength == buffer.length) {
+                processBlock(buffer, 0);
+                bufferLength = 0;
+            }
+            return this;
+        }
+
+        public StreamHasher update(byte[] data) {
+            checkNotNull(data);
+            return update(data, 0, data.length);
+        }
+
+        public StreamHasher update(byte[] data, int offset, int length) {
+            checkBounds(data, offset, length);
+            totalLength += length;
+            if (bufferLength > 0) {
+                int copy = Math.min(length, buffer.length - bufferLength);
+                System.arraycopy(data, offset, buffer, bufferLength, copy);
+                bufferLength += copy;
+                offset += copy;
+                length -= copy;
+                if (bufferLength < buffer.length) {
+                    return this;
+                }
+                processBlock(buffer, 0);
+                bufferLength = 0;
+            }
+            // 整块直接计算, 不复制
+            while (length >= buffer.length) {
+                processBlock(data, offset);
+                offset += buffer.length;
+                length -= buffer.length;
+            }
+            System.arraycopy(data, offset, buffer, 0, length);
+            bufferLength = length;
+            return this;
+        }
+
+        /**
+         * 计算[position, limit), 不改变position
+         */
+        public StreamHasher update(ByteBuffer data) {
+            checkNotNull(data);
+            if (data.hasArray()) {
+                return update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+            ByteBuffer duplicate = data.duplicate();
+            while (duplicate.hasRemaining()) {
+                int copy = Math.min(duplicate.remaining(), buffer.length - bufferLength);
+                duplicate.get(buffer, bufferLength, copy);
+                bufferLength += copy;
+                totalLength += copy;
+                if (bufferLength == buffer.length) {
+                    processBlock(buffer, 0);
+                    bufferLength = 0;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 按UTF-8计算, 不成对的代理字符编码为'?'
+         */
+        public StreamHasher update(CharSequence data) {
+            checkNotNull(data);
+            int length = data.length();
+            for (int i = 0 ; i < length ; i++) {
+                char c = data.charAt(i);
+                if (c < 0x80) {
+                    update((byte) c);
+                } else if (c < 0x800) {
+                    update((byte) (0xC0 | (c >>> 6)));
+                    update((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(data.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, data.charAt(++i));
+                        update((byte) (0xF0 | (codePoint >>> 18)));
+                        update((byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+                        update((byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+                        update((byte) (0x80 | (codePoint & 0x3F)));
+                    } else {
+                        update((byte) '?');
+                    }
+                } else {
+                    update((byte) (0xE0 | (c >>> 12)));
+                    update((byte) (0x80 | ((c >>> 6) & 0x3F)));
+                    update((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 按little-endian的8个字节计算
+         */
+        public StreamHasher updateLong(long data) {
+            for (int i = 0 ; i < 64 ; i += 8) {
+                update((byte) (data >>> i));
+            }
+            return this;
+        }
+
+        /**
+         * 按little-endian的4个字节计算
+         */
+        public StreamHasher updateInt(int data) {
+            for (int i = 0 ; i < 32 ; i += 8) {
+                update((byte) (data >>> i));
+            }
+            return this;
+        }
+
+        /**
+         * @return 当前的哈希值, 不影响内部状态
+         */
+        public long getValue() {
+            return finish(buffer, bufferLength, totalLength);
+        }
+
+        /**
+         * @return 已计算的字节数
+         */
+        public long getLength() {
+            return totalLength;
+        }
+
+        /**
+         * 重置, 可以重新计算
+         */
+        public StreamHasher reset() {
+            bufferLength = 0;
+            totalLength = 0L;
+            resetState();
+            return this;
+        }
+
+        abstract void processBlock(byte[] data, int offset);
+
+        abstract long finish(byte[] tail, int tailLength, long totalLength);
+
+        abstract void resetState();
+
+    }
+
+    /**
+     * 流式xxHash64, 结果与HashUtils.xxHash64相同
+     */
+    public static final class XxHash64Hasher extends StreamHasher {
+
+        private final long seed;
+        private long v1;
+        private long v2;
+        private long v3;
+        private long v4;
+
+        public XxHash64Hasher() {
+            this(0L);
+        }
+
+        public XxHash64Hasher(long seed) {
+            super(32);
+            this.seed = seed;
+            resetState();
+        }
+
+        @Override
+        void processBlock(byte[] data, int offset) {
+            v1 = xxRound(v1, BYTE_ARRAY.getLong(data, offset));
+            v2 = xxRound(v2, BYTE_ARRAY.getLong(data, offset + 8));
+            v3 = xxRound(v3, BYTE_ARRAY.getLong(data, offset + 16));
+            v4 = xxRound(v4, BYTE_ARRAY.getLong(data, offset + 24));
+        }
+
+        @Override
+        long finish(byte[] tail, int tailLength, long totalLength) {
+            long hash = totalLength >= 32 ? xxMerge(v1, v2, v3, v4) : seed + XX_P5;
+            hash += totalLength;
+            return xxTail(BYTE_ARRAY, tail, 0, tailLength, hash);
+        }
+
+        @Override
+        void resetState() {
+            v1 = seed + XX_P1 + XX_P2;
+            v2 = seed + XX_P2;
+            v3 = seed;
+            v4 = seed - XX_P1;
+        }
+
+    }
+
+    /**
+     * 流式MurmurHash3 x64 128, getValue()结果与HashUtils.murmur3_64相同, getValue128()结果与HashUtils.murmur3_128相同
+     */
+    public static final class Murmur3Hasher extends StreamHasher {
+
+        private final int seed;
+        private long h1;
+        private long h2;
+
+        public Murmur3Hasher() {
+            this(0);
+        }
+
+        /**
+         * @param seed 与C实现相同, 32位(无符号)
+         */
+        public Murmur3Hasher(int seed) {
+            super(16);
+            this.seed = seed;
+            resetState();
+        }
+
+        /**
+         * @return long[]{h1, h2}, 不影响内部状态
+         */
+        public long[] getValue128() {
+            long[] result = new long[2];
+            murmurTail(BYTE_ARRAY, buffer, 0, bufferLength, h1, h2, totalLength, result, null);
+            return result;
+        }
+
+        @Override
+        void processBlock(byte[] data, int offset) {
+            h1 ^= murmurMixK1(BYTE_ARRAY.getLong(data, offset));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= murmurMixK2(BYTE_ARRAY.getLong(data, offset + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        @Override
+        long finish(byte[] tail, int tailLength, long totalLength) {
+            return murmurTail(BYTE_ARRAY, tail, 0, tailLength, h1, h2, totalLength, null, null);
+        }
+
+        @Override
+        void resetState() {
+            h1 = (long) seed & 0xFFFFFFFFL;
+            h2 = h1;
+        }
+
+    }
+
+    /* ******************************************************************************************************** */
+    /* 数据读取 */
+
+    /**
+     * 按little-endian读取数据, 使同一个算法可以用于byte[]/ByteBuffer/ASCII字符串
+     */
+    private static abstract class Access<T> {
+
+        abstract long getLong(T input, int offset);
+
+        abstract long getUnsignedInt(T input, int offset);
+
+        abstract int getUnsignedByte(T input, int offset);
+
+    }
+
+    private static final Access<byte[]> BYTE_ARRAY = new Access<byte[]>() {
+        @Override
+        long getLong(byte[] input, int offset) {
+            return ((long) input[offset] & 0xFFL)
+                    | (((long) input[offset + 1] & 0xFFL) << 8)
+                    | (((long) input[offset + 2] & 0xFFL) << 16)
+                    | (((long) input[offset + 3] & 0xFFL) << 24)
+                    | (((long) input[offset + 4] & 0xFFL) << 32)
+                    | (((long) input[offset + 5] & 0xFFL) << 40)
+                    | (((long) input[offset + 6] & 0xFFL) << 48)
+                    | (((long) input[offset + 7] & 0xFFL) << 56);
+        }
+
+        @Override
+        long getUnsignedInt(byte[] input, int offset) {
+            return ((long) input[offset] & 0xFFL)
+                    | (((long) input[offset + 1] & 0xFFL) << 8)
+                    | (((long) input[offset + 2] & 0xFFL) << 16)
+                    | (((long) input[offset + 3] & 0xFFL) << 24);
+        }
+
+        @Override
+        int getUnsignedByte(byte[] input, int offset) {
+            return input[offset] & 0xFF;
+        }
+    };
+
+    /**
+     * 必须是little-endian的ByteBuffer(见littleEndian方法), 使用绝对位置读取
+     */
+    private static final Access<ByteBuffer> BYTE_BUFFER = new Access<ByteBuffer>() {
+        @Override
+        long getLong(ByteBuffer input, int offset) {
+            return input.getLong(offset);
+        }
+
+        @Override
+        long getUnsignedInt(ByteBuffer input, int offset) {
+            return (long) input.getInt(offset) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        int getUnsignedByte(ByteBuffer input, int offset) {
+            return input.get(offset) & 0xFF;
+        }
+    };
+
+    /**
+     * 纯ASCII的CharSequence, UTF-8编码后第i个字节就是第i个char
+     */
+    private static final Access<CharSequence> ASCII = new Access<CharSequence>() {
+        @Override
+        long getLong(CharSequence input, int offset) {
+            return getUnsignedInt(input, offset) | (getUnsignedInt(input, offset + 4) << 32);
+        }
+
+        @Override
+        long getUnsignedInt(CharSequence input, int offset) {
+            return (long) input.charAt(offset)
+                    | ((long) input.charAt(offset + 1) << 8)
+                    | ((long) input.charAt(offset + 2) << 16)
+                    | ((long) input.charAt(offset + 3) << 24);
+        }
+
+        @Override
+        int getUnsignedByte(CharSequence input, int offset) {
+            return input.charAt(offset);
+        }
+    };
+
+    /**
+     * byte[]达到该长度时, 包装为little-endian的ByteBuffer读取. 新版本JDK的ByteBuffer.getLong是一次8字节的读取(内联),
+     * 比逐字节拼装快; 短数据包装的开销更大, 仍逐字节读取.
+     */
+    private static final int WRAP_THRESHOLD = 32;
+
+    private static ByteBuffer wrap(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer littleEndian(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static boolean isAscii(CharSequence data) {
+        for (int i = 0 ; i < data.length() ; i++) {
+            if (data.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] utf8(CharSequence data) {
+        return data.toString().getBytes(UTF_8);
+    }
+
+    private static void checkNotNull(Object data) {
+        if (data == null) {
+            throw new NullPointerException("data is null");
+        }
+    }
+
+    private static void checkBounds(byte[] data, int offset, int length) {
+        checkNotNull(data);
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("data length: " + data.length + ", offset: " + offset + ", length: " + length);
+        }
+    }
+
 }
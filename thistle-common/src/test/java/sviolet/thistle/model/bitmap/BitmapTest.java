@@ -24,8 +24,19 @@ import org.junit.Test;
 import sviolet.thistle.util.conversion.ByteUtils;
 import sviolet.thistle.util.crypto.DigestCipher;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class BitmapTest {
@@ -36,6 +47,8 @@ public class BitmapTest {
         test0(new DirectBitmap(1024));
         test0(new ConcurrentHeapBitmap(1024));
         test0(new SyncHeapBitmap(1024));
+        test0(new ConcurrentWordHeapBitmap(1024));
+        test0(new CompressedBitmap(1024));
     }
 
     private void test0(Bitmap bitmap) {
@@ -104,6 +117,804 @@ public class BitmapTest {
         computeTest0(new DirectBitmap(data1), new DirectBitmap(data2), expected);
         computeTest0(new SyncHeapBitmap(data1), new SyncHeapBitmap(data2), expected);
         computeTest0(new ConcurrentHeapBitmap(data1), new ConcurrentHeapBitmap(data2), expected);
+        computeTest0(new ConcurrentWordHeapBitmap(data1), new ConcurrentWordHeapBitmap(data2), expected);
+        computeTest0(new CompressedBitmap(data1), new CompressedBitmap(data2), expected);
+    }
+
+    @Test
+    public void bulkTest(){
+        // 8008: 最后一个long不完整, 1 << 20: 超过并行计算阈值
+        for (int size : new int[]{8008, 1 << 20}) {
+            Random random = new Random(size);
+            byte[] data1 = new byte[size >> 3];
+            byte[] data2 = new byte[size >> 3];
+            random.nextBytes(data1);
+            random.nextBytes(data2);
+            // 制造一些全0和全1的区域
+            Arrays.fill(data1, 0, 100, (byte) 0x00);
+            Arrays.fill(data2, 50, 200, (byte) 0xFF);
+            data1[data1.length - 1] = (byte) 0xFF;
+            for (int type = 0 ; type < 6 ; type++) {
+                bulkTest0(type, data1, data2);
+            }
+        }
+    }
+
+    private void bulkTest0(int type, byte[] data1, byte[] data2) {
+        BitSet set1 = BitSet.valueOf(data1);
+        BitSet set2 = BitSet.valueOf(data2);
+        int size = data1.length << 3;
+
+        BulkBitmap bitmap1 = newBitmap(type, data1);
+        Assert.assertEquals(set1.cardinality(), bitmap1.cardinality());
+        for (int i = 0 ; i < size ; i += 13) {
+            Assert.assertEquals(set1.nextSetBit(i), bitmap1.nextSetBit(i));
+            int clear = set1.nextClearBit(i);
+            Assert.assertEquals(clear < size ? clear : -1, bitmap1.nextClearBit(i));
+        }
+        Assert.assertEquals(-1, bitmap1.nextSetBit(size));
+        final BitSet visited = new BitSet();
+        bitmap1.forEachSetBit(new BulkBitmap.BitVisitor() {
+            @Override
+            public boolean visit(int bitIndex) {
+                visited.set(bitIndex);
+                return true;
+            }
+        });
+        Assert.assertEquals(set1, visited);
+
+        BitSet expected = (BitSet) set1.clone();
+        expected.and(set2);
+        BulkBitmap result = newBitmap(type, new byte[data1.length]);
+        bitmap1.and(newBitmap(type, data2), result);
+        assertBitmapEquals(expected, result);
+        // 与其他实现混合计算
+        result = new HeapBitmap(size);
+        bitmap1.and(new CompressedBitmap(data2), result);
+        assertBitmapEquals(expected, result);
+
+        expected = (BitSet) set1.clone();
+        expected.or(set2);
+        bitmap1 = newBitmap(type, data1);
+        bitmap1.or(newBitmap(type, data2));
+        assertBitmapEquals(expected, bitmap1);
+
+        expected = (BitSet) set1.clone();
+        expected.xor(set2);
+        bitmap1 = newBitmap(type, data1);
+        bitmap1.xor(newBitmap(type, data2));
+        assertBitmapEquals(expected, bitmap1);
+
+        expected = (BitSet) set1.clone();
+        expected.andNot(set2);
+        bitmap1 = newBitmap(type, data1);
+        bitmap1.andNot(newBitmap(type, data2));
+        assertBitmapEquals(expected, bitmap1);
+    }
+
+    private BulkBitmap newBitmap(int type, byte[] data) {
+        switch (type) {
+            case 0:
+                return new HeapBitmap(data);
+            case 1:
+                return new DirectBitmap(data);
+            case 2:
+                return new ConcurrentHeapBitmap(data);
+            case 3:
+                return new SyncHeapBitmap(data);
+            case 4:
+                return new ConcurrentWordHeapBitmap(data);
+            default:
+                return new CompressedBitmap(data);
+        }
+    }
+
+    private void assertBitmapEquals(BitSet expected, BulkBitmap bitmap) {
+        byte[] expectedData = Arrays.copyOf(expected.toByteArray(), bitmap.size() >> 3);
+        Assert.assertArrayEquals(expectedData, bitmap.extractAll());
+        Assert.assertEquals(expected.cardinality(), bitmap.cardinality());
+    }
+
+    @Test
+    public void bloomBuilderTest() throws IOException {
+        BloomBitmapBuilder builder = new BloomBitmapBuilder()
+                .expectedInsertions(10000)
+                .falsePositiveProbability(0.01);
+        Assert.assertEquals(95872, builder.getSize());
+        Assert.assertEquals(7, builder.getHashNum());
+
+        for (BloomBitmapBuilder.Storage storage : BloomBitmapBuilder.Storage.values()) {
+            AbstractBitmap bloom = builder.storage(storage).build();
+            try {
+                Assert.assertEquals(7, bloom.getBloomHashNum());
+                Assert.assertEquals(0.0, bloom.bloomEstimatedFpp(), 0.0);
+                for (int i = 0 ; i < 10000 ; i++) {
+                    bloom.bloomAdd(("key-" + i).getBytes());
+                }
+                for (int i = 0 ; i < 10000 ; i++) {
+                    Assert.assertTrue(bloom.bloomContains(("key-" + i).getBytes()));
+                }
+                int falsePositive = 0;
+                for (int i = 0 ; i < 100000 ; i++) {
+                    if (bloom.bloomContains(("other-" + i).getBytes())) {
+                        falsePositive++;
+                    }
+                }
+                double fpp = falsePositive / 100000.0;
+                Assert.assertTrue("fpp " + fpp, fpp < 0.015);
+                double estimatedFpp = bloom.bloomEstimatedFpp();
+                Assert.assertTrue("estimated fpp " + estimatedFpp, estimatedFpp > 0.005 && estimatedFpp < 0.015);
+            } finally {
+                bloom.close();
+            }
+        }
+
+        // 旧算法
+        HeapBitmap legacy = new HeapBitmap(95872);
+        legacy.bloomAdd("legacy".getBytes());
+        Assert.assertTrue(legacy.bloomContains("legacy".getBytes()));
+        Assert.assertEquals(3, legacy.cardinality());
+
+        // 哈希函数个数持久化
+        File file = File.createTempFile("thistle-bloom-bitmap", ".bitmap");
+        Assert.assertTrue(file.delete());
+        try {
+            MappedBitmap bloom = builder.buildMapped(file);
+            try {
+                bloom.bloomAdd("mapped".getBytes());
+            } finally {
+                bloom.close();
+            }
+            bloom = builder.buildMapped(file);
+            try {
+                Assert.assertEquals(7, bloom.getBloomHashNum());
+                Assert.assertTrue(bloom.bloomContains("mapped".getBytes()));
+            } finally {
+                bloom.close();
+            }
+            try {
+                new BloomBitmapBuilder().expectedInsertions(10000).falsePositiveProbability(0.001).buildMapped(file);
+                Assert.fail("size mismatch should fail");
+            } catch (IOException ignore) {
+            }
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void blockedBloomTest() throws IOException {
+        BloomBitmapBuilder builder = new BloomBitmapBuilder()
+                .expectedInsertions(10000)
+                .falsePositiveProbability(0.01);
+        for (BloomBitmapBuilder.Storage storage : BloomBitmapBuilder.Storage.values()) {
+            BlockedBloomBitmap bloom = builder.storage(storage).buildBlocked();
+            try {
+                Assert.assertEquals(0, bloom.size() % BlockedBloomBitmap.BLOCK_SIZE);
+                Assert.assertEquals(7, bloom.getHashNum());
+                for (int i = 0 ; i < 10000 ; i++) {
+                    bloom.bloomAdd(("key-" + i).getBytes());
+                }
+                // 期望值 m * (1 - e^(-kn/m))
+                double expectedCardinality = bloom.size() * (1 - Math.exp(-7.0 * 10000 / bloom.size()));
+                Assert.assertEquals(expectedCardinality, bloom.cardinality(), expectedCardinality * 0.02);
+                for (int i = 0 ; i < 10000 ; i++) {
+                    Assert.assertTrue(bloom.bloomContains(("key-" + i).getBytes()));
+                }
+                int falsePositive = 0;
+                for (int i = 0 ; i < 100000 ; i++) {
+                    if (bloom.bloomContains(("other-" + i).getBytes())) {
+                        falsePositive++;
+                    }
+                }
+                double fpp = falsePositive / 100000.0;
+                Assert.assertTrue("fpp " + fpp, fpp < 0.02);
+
+                // 一个数据的所有bit在同一个块中
+                BlockedBloomBitmap single = new BlockedBloomBitmap(bloom.size(), 7, storage);
+                try {
+                    single.bloomAdd("single".getBytes());
+                    int first = single.nextSetBit(0);
+                    Assert.assertTrue(first >= 0);
+                    final int block = first / BlockedBloomBitmap.BLOCK_SIZE;
+                    final AtomicInteger count = new AtomicInteger(0);
+                    single.forEachSetBit(new BulkBitmap.BitVisitor() {
+                        @Override
+                        public boolean visit(int bitIndex) {
+                            Assert.assertEquals(block, bitIndex / BlockedBloomBitmap.BLOCK_SIZE);
+                            count.incrementAndGet();
+                            return true;
+                        }
+                    });
+                    Assert.assertEquals(7, count.get());
+
+                    // 合并
+                    single.or(bloom);
+                    Assert.assertTrue(single.bloomContains("single".getBytes()));
+                    Assert.assertTrue(single.bloomContains("key-1".getBytes()));
+                } finally {
+                    single.close();
+                }
+            } finally {
+                bloom.close();
+            }
+        }
+    }
+
+    @Test
+    public void countingBloomTest() throws IOException {
+        BloomBitmapBuilder builder = new BloomBitmapBuilder()
+                .expectedInsertions(10000)
+                .falsePositiveProbability(0.01);
+        for (BloomBitmapBuilder.Storage storage : new BloomBitmapBuilder.Storage[]{
+                BloomBitmapBuilder.Storage.HEAP, BloomBitmapBuilder.Storage.DIRECT, BloomBitmapBuilder.Storage.CONCURRENT}) {
+            CountingBloomFilter filter = builder.storage(storage).buildCounting();
+            try {
+                Assert.assertEquals(builder.getSize(), filter.getCounterNum());
+                for (int i = 0 ; i < 10000 ; i++) {
+                    filter.bloomAdd(("key-" + i).getBytes());
+                }
+                double fpp = filter.bloomEstimatedFpp();
+                Assert.assertTrue("estimated fpp " + fpp, fpp > 0.005 && fpp < 0.015);
+                for (int i = 0 ; i < 10000 ; i += 2) {
+                    Assert.assertTrue(filter.bloomRemove(("key-" + i).getBytes()));
+                }
+                // 删除后, 未删除的元素仍然存在
+                for (int i = 1 ; i < 10000 ; i += 2) {
+                    Assert.assertTrue(filter.bloomContains(("key-" + i).getBytes()));
+                }
+                int remained = 0;
+                for (int i = 0 ; i < 10000 ; i += 2) {
+                    if (filter.bloomContains(("key-" + i).getBytes())) {
+                        remained++;
+                    }
+                }
+                Assert.assertTrue("remained " + remained, remained < 50);
+                Assert.assertTrue(filter.bloomEstimatedFpp() < fpp);
+            } finally {
+                filter.close();
+            }
+        }
+
+        // 饱和
+        CountingBloomFilter filter = new CountingBloomFilter(64, 3, BloomBitmapBuilder.Storage.HEAP);
+        for (int i = 0 ; i < 20 ; i++) {
+            filter.bloomAdd("saturated".getBytes());
+        }
+        for (int i = 0 ; i < 20 ; i++) {
+            filter.bloomRemove("saturated".getBytes());
+        }
+        Assert.assertTrue(filter.bloomContains("saturated".getBytes()));
+        Assert.assertFalse(filter.bloomRemove("absent".getBytes()) && filter.bloomContains("absent".getBytes()));
+
+        // ByteBuffer/CharSequence与byte[]等价
+        filter = new CountingBloomFilter(1024, 3, BloomBitmapBuilder.Storage.HEAP);
+        filter.bloomAdd("中文-key".getBytes("UTF-8"));
+        Assert.assertTrue(filter.bloomContains("中文-key"));
+        ByteBuffer direct = ByteBuffer.allocateDirect(32);
+        direct.put("中文-key".getBytes("UTF-8")).flip();
+        Assert.assertTrue(filter.bloomContains(direct));
+        Assert.assertEquals(0, direct.position());
+        Assert.assertTrue(filter.bloomRemove(new StringBuilder("中文-key")));
+        Assert.assertFalse(filter.bloomContains(direct));
+        filter.bloomAdd((CharSequence) null);
+        Assert.assertTrue(filter.bloomContains((byte[]) null));
+        Assert.assertTrue(filter.bloomRemove((ByteBuffer) null));
+
+        try {
+            builder.storage(BloomBitmapBuilder.Storage.SYNC).buildCounting();
+            Assert.fail("SYNC storage should not be supported");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void scalableBloomTest() throws IOException {
+        ScalableBloomFilter filter = new BloomBitmapBuilder()
+                .expectedInsertions(1000)
+                .falsePositiveProbability(0.01)
+                .storage(BloomBitmapBuilder.Storage.CONCURRENT)
+                .buildScalable();
+        try {
+            for (int i = 0 ; i < 20000 ; i++) {
+                filter.bloomAdd(("key-" + i).getBytes());
+            }
+            // 1000 + 2000 + 4000 + 8000 + 16000
+            Assert.assertEquals(5, filter.getStageNum());
+            // 误判为已存在的元素不会添加
+            Assert.assertTrue(filter.getCount() <= 20000 && filter.getCount() > 19000);
+            for (int i = 0 ; i < 20000 ; i++) {
+                Assert.assertTrue(filter.bloomContains(("key-" + i).getBytes()));
+            }
+            int falsePositive = 0;
+            for (int i = 0 ; i < 100000 ; i++) {
+                if (filter.bloomContains(("other-" + i).getBytes())) {
+                    falsePositive++;
+                }
+            }
+            // 上限 0.01 / (1 - 0.8)
+            double fpp = falsePositive / 100000.0;
+            Assert.assertTrue("fpp " + fpp, fpp < 0.05);
+            Assert.assertTrue(filter.bloomEstimatedFpp() < 0.05);
+            Assert.assertFalse(filter.bloomAdd("key-1".getBytes()));
+        } finally {
+            filter.close();
+        }
+    }
+
+    @Test
+    public void bloomKeyTest() throws IOException {
+        // 各种长度(跨越16字节块边界)和字符(1~4字节UTF-8, 不成对的代理字符)
+        Random random = new Random(1234);
+        String chars = "a1Z~\u00e9\u00df\u4e2d\u6587\ud83d\ude00\ud800";
+        for (int length = 0 ; length < 40 ; length++) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0 ; i < length ; i++) {
+                builder.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            String string = builder.toString();
+            byte[] bytes = string.getBytes("UTF-8");
+            long[] expected = hash(bytes);
+            Assert.assertArrayEquals(string, expected, hashUtf8(string));
+            Assert.assertArrayEquals(string, expected, hashUtf8(new StringBuilder(string)));
+
+            byte[] padded = new byte[bytes.length + 7];
+            System.arraycopy(bytes, 0, padded, 3, bytes.length);
+            Assert.assertArrayEquals(expected, hashSlice(padded, 3, bytes.length));
+            ByteBuffer heapBuffer = ByteBuffer.wrap(padded, 3, bytes.length);
+            Assert.assertArrayEquals(expected, hash(heapBuffer.slice()));
+            Assert.assertArrayEquals(expected, hash(heapBuffer));
+            ByteBuffer directBuffer = ByteBuffer.allocateDirect(padded.length);
+            directBuffer.put(padded);
+            directBuffer.position(3).limit(3 + bytes.length);
+            Assert.assertArrayEquals(expected, hash(directBuffer));
+            Assert.assertArrayEquals(expected, hash(directBuffer.order(ByteOrder.LITTLE_ENDIAN)));
+            Assert.assertEquals(3, directBuffer.position());
+            Assert.assertEquals(3 + bytes.length, directBuffer.limit());
+        }
+
+        BloomBitmapBuilder builder = new BloomBitmapBuilder().expectedInsertions(10000).falsePositiveProbability(0.01);
+        HeapBitmap legacy = new HeapBitmap(1 << 16);
+        for (BulkBloomBitmap bloom : new BulkBloomBitmap[]{builder.build(), builder.buildBlocked(), legacy}) {
+            byte[] padded = "##key-\u4e2d##".getBytes("UTF-8");
+            bloom.bloomAdd(padded, 2, padded.length - 4);
+            Assert.assertTrue(bloom.bloomContains("key-\u4e2d"));
+            Assert.assertTrue(bloom.bloomContains("key-\u4e2d".getBytes("UTF-8")));
+            Assert.assertTrue(bloom.bloomContains(ByteBuffer.wrap(padded, 2, padded.length - 4)));
+            bloom.bloomAdd(new StringBuilder("string"));
+            Assert.assertTrue(bloom.bloomContains("string".getBytes("UTF-8")));
+            ByteBuffer direct = ByteBuffer.allocateDirect(6);
+            direct.put("direct".getBytes("UTF-8")).flip();
+            bloom.bloomAdd(direct);
+            Assert.assertEquals(0, direct.position());
+            Assert.assertTrue(bloom.bloomContains("direct"));
+            try {
+                bloom.bloomAdd(padded, 2, padded.length);
+                Assert.fail("out of bounds");
+            } catch (IllegalArgumentException ignore) {
+            }
+
+            // 批量
+            byte[][] keys = new byte[1000][];
+            for (int i = 0 ; i < keys.length ; i++) {
+                keys[i] = ("batch-" + i).getBytes();
+            }
+            bloom.bloomAddAll(keys);
+            byte[][] queries = new byte[2000][];
+            for (int i = 0 ; i < queries.length ; i++) {
+                queries[i] = ((i & 1) == 0 ? "batch-" + (i >> 1) : "other-" + i).getBytes();
+            }
+            BitSet result = new BitSet();
+            int containsNum = bloom.bloomContainsAll(queries, result);
+            Assert.assertEquals(result.cardinality(), containsNum);
+            Assert.assertTrue(containsNum >= 1000 && containsNum < 1100);
+            for (int i = 0 ; i < queries.length ; i++) {
+                Assert.assertEquals(bloom.bloomContains(queries[i]), result.get(i));
+            }
+            bloom.close();
+        }
+    }
+
+    private static long[] hash(byte[] data) {
+        return hashSlice(data, 0, data.length);
+    }
+
+    private static long[] hashSlice(byte[] data, int offset, int length) {
+        HashCapture capture = new HashCapture();
+        BloomHash.murmur3(data, offset, length, capture);
+        return capture.hash;
+    }
+
+    private static long[] hash(ByteBuffer data) {
+        HashCapture capture = new HashCapture();
+        BloomHash.murmur3(data, capture);
+        return capture.hash;
+    }
+
+    private static long[] hashUtf8(CharSequence data) {
+        HashCapture capture = new HashCapture();
+        BloomHash.murmur3Utf8(data, capture);
+        return capture.hash;
+    }
+
+    private static class HashCapture implements BloomHash.Consumer {
+        private final long[] hash = new long[2];
+        @Override
+        public boolean accept(long hash1, long hash2) {
+            hash[0] = hash1;
+            hash[1] = hash2;
+            return true;
+        }
+    }
+
+    @Test
+    public void cuckooTest() throws InterruptedException {
+        for (int fingerprintBits : new int[]{8, 16}) {
+            CuckooFilter filter = new CuckooFilter(10000, fingerprintBits);
+            for (int i = 0 ; i < 10000 ; i++) {
+                Assert.assertTrue(filter.add(("key-" + i).getBytes()));
+            }
+            Assert.assertEquals(10000, filter.getCount());
+            for (int i = 0 ; i < 10000 ; i++) {
+                Assert.assertTrue(filter.contains("key-" + i));
+            }
+            int falsePositive = 0;
+            for (int i = 0 ; i < 100000 ; i++) {
+                if (filter.contains(("other-" + i).getBytes())) {
+                    falsePositive++;
+                }
+            }
+            double fpp = falsePositive / 100000.0;
+            Assert.assertTrue("fpp " + fpp, fpp < (fingerprintBits == 8 ? 0.03 : 0.0002));
+            Assert.assertTrue(filter.estimatedFpp() < (fingerprintBits == 8 ? 0.03 : 0.0002));
+
+            // 导出恢复
+            CuckooFilter restored = new CuckooFilter(filter.extractAll(), fingerprintBits);
+            Assert.assertEquals(10000, restored.getCount());
+            for (int i = 0 ; i < 10000 ; i++) {
+                Assert.assertTrue(restored.contains(("key-" + i).getBytes()));
+            }
+
+            // 删除一半
+            for (int i = 0 ; i < 10000 ; i += 2) {
+                Assert.assertTrue(filter.remove(("key-" + i).getBytes()));
+            }
+            Assert.assertEquals(5000, filter.getCount());
+            int remained = 0;
+            for (int i = 0 ; i < 10000 ; i++) {
+                if ((i & 1) == 1) {
+                    Assert.assertTrue(filter.contains(("key-" + i).getBytes()));
+                } else if (filter.contains(("key-" + i).getBytes())) {
+                    remained++;
+                }
+            }
+            Assert.assertTrue(remained < 5000 * (fingerprintBits == 8 ? 0.03 : 0.0002) + 5);
+        }
+
+        // 装满, 添加失败时撤销踢出, 已添加的元素不丢失
+        CuckooFilter small = new CuckooFilter(100, 16);
+        int added = 0;
+        while (small.add(("full-" + added).getBytes())) {
+            added++;
+        }
+        Assert.assertEquals(added, small.getCount());
+        Assert.assertTrue("load factor " + small.getLoadFactor(), small.getLoadFactor() > 0.85);
+        for (int i = 0 ; i < added ; i++) {
+            Assert.assertTrue(small.contains(("full-" + i).getBytes()));
+        }
+
+        // 并发
+        final ConcurrentCuckooFilter concurrent = new ConcurrentCuckooFilter(40000, 16, 16);
+        final CountDownLatch latch = new CountDownLatch(4);
+        final AtomicInteger failed = new AtomicInteger(0);
+        for (int t = 0 ; t < 4 ; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0 ; i < 9000 ; i++) {
+                        if (!concurrent.add("thread-" + thread + "-" + i)) {
+                            failed.incrementAndGet();
+                        }
+                        if (!concurrent.contains("thread-" + thread + "-" + i)) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(0, failed.get());
+        Assert.assertEquals(36000, concurrent.getCount());
+        ConcurrentCuckooFilter concurrentRestored = new ConcurrentCuckooFilter(concurrent.extractAll(), 16, 16);
+        Assert.assertEquals(36000, concurrentRestored.getCount());
+
+        BloomBitmapBuilder builder = new BloomBitmapBuilder().expectedInsertions(1000);
+        Assert.assertEquals(8, builder.falsePositiveProbability(0.05).buildCuckoo().getFingerprintBits());
+        Assert.assertEquals(16, builder.falsePositiveProbability(0.001).buildCuckoo().getFingerprintBits());
+        Assert.assertTrue(builder.storage(BloomBitmapBuilder.Storage.CONCURRENT).buildCuckoo() instanceof ConcurrentCuckooFilter);
+        try {
+            new CuckooFilter(new byte[24], 16);
+            Assert.fail("illegal data length");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void concurrentCuckooTest() throws InterruptedException {
+        // 8位指纹时相邻的两个桶共用一个long, 必须使用同一个锁
+        ConcurrentCuckooFilter mapping = new ConcurrentCuckooFilter(80000, 8, 64);
+        for (int bucket = 0 ; bucket < 1024 ; bucket += 2) {
+            Assert.assertEquals(mapping.lockIndex(bucket), mapping.lockIndex(bucket + 1));
+        }
+        // 多线程写相邻的桶不允许丢失指纹(假阴性)
+        for (int round = 0 ; round < 5 ; round++) {
+            final ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(80000, 8, 64);
+            final int threads = 8;
+            final CountDownLatch latch = new CountDownLatch(threads);
+            final AtomicInteger failed = new AtomicInteger(0);
+            for (int t = 0 ; t < threads ; t++) {
+                final int thread = t;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0 ; i < 8000 ; i++) {
+                            if (!filter.add("round-" + thread + "-" + i)) {
+                                failed.incrementAndGet();
+                            }
+                        }
+                        latch.countDown();
+                    }
+                }).start();
+            }
+            latch.await();
+            Assert.assertEquals(0, failed.get());
+            Assert.assertEquals(threads * 8000, filter.getCount());
+            for (int t = 0 ; t < threads ; t++) {
+                for (int i = 0 ; i < 8000 ; i++) {
+                    Assert.assertTrue("false negative", filter.contains("round-" + t + "-" + i));
+                }
+            }
+            // 每个元素占一个非空槽
+            Assert.assertEquals(threads * 8000, new CuckooFilter(filter.extractAll(), 8).getCount());
+        }
+    }
+
+    @Test
+    public void compressedTest(){
+        int size = 1 << 20;
+        Random random = new Random(1234);
+        HeapBitmap heap1 = new HeapBitmap(size);
+        HeapBitmap heap2 = new HeapBitmap(size);
+        CompressedBitmap compressed1 = new CompressedBitmap(size);
+        CompressedBitmap compressed2 = new CompressedBitmap(size);
+        // 稀疏(ArrayContainer)
+        for (int i = 0 ; i < 2000 ; i++) {
+            int index = random.nextInt(size);
+            heap1.put(index, true);
+            compressed1.put(index, true);
+            index = random.nextInt(size);
+            heap2.put(index, true);
+            compressed2.put(index, true);
+        }
+        // 稠密(BitmapContainer)
+        for (int i = 65536 ; i < 65536 * 2 ; i += 3) {
+            heap1.put(i, true);
+            compressed1.put(i, true);
+        }
+        // 连续(RunContainer)
+        byte[] run = new byte[4096];
+        Arrays.fill(run, (byte) 0xFF);
+        heap2.inject(run, 8192 * 5 + 100);
+        compressed2.inject(run, 8192 * 5 + 100);
+        heap1.put(65536 + 1, false);
+        compressed1.put(65536 + 1, false);
+        heap1.put(65536 + 3, false);
+        compressed1.put(65536 + 3, false);
+
+        Assert.assertArrayEquals(heap1.extractAll(), compressed1.extractAll());
+        Assert.assertArrayEquals(heap2.extractAll(), compressed2.extractAll());
+        Assert.assertArrayEquals(heap2.extractAll(), new CompressedBitmap(heap2.extractAll()).extractAll());
+
+        compressedComputeTest0(heap1, heap2, compressed1, compressed2, Bitmap.ComputeFunction.AND);
+        compressedComputeTest0(heap1, heap2, compressed1, compressed2, Bitmap.ComputeFunction.OR);
+        compressedComputeTest0(heap1, heap2, compressed1, compressed2, Bitmap.ComputeFunction.XOR);
+
+        // 结果写回自身
+        byte[] expected = new byte[size >> 3];
+        HeapBitmap heapExpected = new HeapBitmap(size);
+        heap1.computeWith(heap2, heapExpected, Bitmap.ComputeFunction.OR);
+        heapExpected.extract(expected, 0);
+        compressed1.computeWith(compressed2, compressed1, Bitmap.ComputeFunction.OR);
+        Assert.assertArrayEquals(expected, compressed1.extractAll());
+
+        long memory = compressed2.getMemoryUsage();
+        compressed2.runOptimize();
+        Assert.assertTrue(compressed2.getMemoryUsage() <= memory);
+        Assert.assertArrayEquals(heap2.extractAll(), compressed2.extractAll());
+        for (int i = 0 ; i < size ; i += 7) {
+            Assert.assertEquals(heap2.get(i), compressed2.get(i));
+        }
+        // 修改RunContainer
+        heap2.put((8192 * 5 + 200) << 3, false);
+        compressed2.put((8192 * 5 + 200) << 3, false);
+        Assert.assertArrayEquals(heap2.extractAll(), compressed2.extractAll());
+
+        // 稀疏数据内存占用远小于HeapBitmap
+        Assert.assertTrue(new CompressedBitmap(size).getMemoryUsage() < (size >> 3) / 100);
+    }
+
+    private void compressedComputeTest0(Bitmap heap1, Bitmap heap2, CompressedBitmap compressed1, CompressedBitmap compressed2, Bitmap.ComputeFunction function) {
+        Bitmap heapResult = new HeapBitmap(heap1.size());
+        heap1.computeWith(heap2, heapResult, function);
+        CompressedBitmap compressedResult = new CompressedBitmap(heap1.size());
+        compressed1.computeWith(compressed2, compressedResult, function);
+        Assert.assertArrayEquals(heapResult.extractAll(), compressedResult.extractAll());
+    }
+
+    @Test
+    public void mappedTest() throws IOException {
+        File file = File.createTempFile("thistle-mapped-bitmap", ".bitmap");
+        try {
+            MappedBitmap bitmap = MappedBitmap.create(file, 1024);
+            try {
+                test0(bitmap);
+                bitmap.put(1, true);
+                bitmap.put(1, false);
+                bitmap.put(77, true);
+                bitmap.bloomAdd("mapped".getBytes());
+                bitmap.force();
+            } finally {
+                bitmap.close();
+            }
+            Assert.assertEquals(MappedBitmap.HEADER_LENGTH + 128, file.length());
+
+            bitmap = MappedBitmap.open(file);
+            try {
+                Assert.assertEquals(1024, bitmap.size());
+                Assert.assertFalse(bitmap.get(1));
+                Assert.assertTrue(bitmap.get(77));
+                Assert.assertTrue(bitmap.get(1023));
+                Assert.assertTrue(bitmap.bloomContains("mapped".getBytes()));
+            } finally {
+                bitmap.close();
+            }
+
+            try {
+                MappedBitmap.openOrCreate(file, 2048);
+                Assert.fail("size mismatch should fail");
+            } catch (IOException ignore) {
+            }
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void deltaTest() throws IOException {
+        // 10个完整页 + 1个不完整页
+        int size = AbstractBitmap.DIRTY_PAGE_SIZE * 8 * 10 + 64;
+        File file = File.createTempFile("thistle-bitmap-delta", ".bitmap");
+        try {
+            AbstractBitmap[] sources = {new HeapBitmap(size), new DirectBitmap(size), new ConcurrentWordHeapBitmap(size), MappedBitmap.create(file, size)};
+            for (AbstractBitmap src : sources) {
+                AbstractBitmap dst = new ConcurrentWordHeapBitmap(size);
+                Random random = new Random(1234);
+                for (int i = 0 ; i < 3000 ; i++) {
+                    src.put(random.nextInt(size), true);
+                }
+                Assert.assertEquals(-1, src.getDirtyPageNum());
+                src.setDirtyTracking(true);
+                Assert.assertEquals(11, src.getDirtyPageNum());
+
+                // 全量
+                ByteArrayOutputStream full = new ByteArrayOutputStream();
+                src.writeTo(Channels.newChannel(full));
+                Assert.assertArrayEquals(src.extractAll(), full.toByteArray());
+                HeapBitmap restored = new HeapBitmap(size);
+                restored.readFrom(Channels.newChannel(new ByteArrayInputStream(full.toByteArray())));
+                Assert.assertArrayEquals(src.extractAll(), restored.extractAll());
+                Assert.assertEquals(11, src.getDirtyPageNum());
+
+                // 第一次增量包含全部页
+                Assert.assertEquals(11, applyDelta(src, dst));
+                Assert.assertArrayEquals(src.extractAll(), dst.extractAll());
+                Assert.assertEquals(0, src.getDirtyPageNum());
+                Assert.assertEquals(0, applyDelta(src, dst));
+
+                // 修改第2页, 第10页(不完整), inject第5页
+                src.put(AbstractBitmap.DIRTY_PAGE_SIZE * 8 * 2 + 1, true);
+                src.put(size - 1, true);
+                src.inject(new byte[]{(byte) 0xFF, (byte) 0xFF}, AbstractBitmap.DIRTY_PAGE_SIZE * 5 + 100);
+                Assert.assertEquals(3, src.getDirtyPageNum());
+                ByteArrayOutputStream delta = new ByteArrayOutputStream();
+                Assert.assertEquals(3, src.writeDeltaTo(Channels.newChannel(delta)));
+                Assert.assertEquals(4 + 3 * 8 + AbstractBitmap.DIRTY_PAGE_SIZE * 2 + 8 + 4, delta.size());
+                Assert.assertEquals(3, dst.applyDelta(Channels.newChannel(new ByteArrayInputStream(delta.toByteArray()))));
+                Assert.assertArrayEquals(src.extractAll(), dst.extractAll());
+
+                // 计算结果全部标记为脏
+                src.or(dst);
+                Assert.assertEquals(11, src.getDirtyPageNum());
+
+                // 容量不一致, 数据不完整
+                try {
+                    new HeapBitmap(size + 8).applyDelta(Channels.newChannel(new ByteArrayInputStream(delta.toByteArray())));
+                    Assert.fail("size mismatch");
+                } catch (IOException ignore) {
+                }
+                try {
+                    dst.applyDelta(Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(delta.toByteArray(), 100))));
+                    Assert.fail("truncated");
+                } catch (EOFException ignore) {
+                }
+                try {
+                    dst.writeDeltaTo(Channels.newChannel(new ByteArrayOutputStream()));
+                    Assert.fail("dirty tracking disabled");
+                } catch (IllegalStateException ignore) {
+                }
+                src.setDirtyTracking(false);
+                Assert.assertFalse(src.isDirtyTracking());
+                src.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void injectNullTest() throws IOException {
+        // inject(null)忽略, 不标记脏页
+        for (AbstractBitmap bitmap : new AbstractBitmap[]{new HeapBitmap(1024), new SyncHeapBitmap(1024), new ConcurrentHeapBitmap(1024),
+                new ConcurrentWordHeapBitmap(1024)}) {
+            bitmap.put(3, true);
+            bitmap.setDirtyTracking(true);
+            Assert.assertEquals(1, bitmap.writeDeltaTo(Channels.newChannel(new ByteArrayOutputStream())));
+            Assert.assertEquals(0, bitmap.getDirtyPageNum());
+            bitmap.inject(null, 0);
+            Assert.assertEquals(0, bitmap.getDirtyPageNum());
+            Assert.assertTrue(bitmap.get(3));
+        }
+    }
+
+    private static int applyDelta(AbstractBitmap src, AbstractBitmap dst) throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        int pageNum = src.writeDeltaTo(Channels.newChannel(delta));
+        Assert.assertEquals(pageNum, dst.applyDelta(Channels.newChannel(new ByteArrayInputStream(delta.toByteArray()))));
+        return pageNum;
+    }
+
+    @Test
+    public void concurrentWordTest() throws InterruptedException {
+        // 多线程同时写同一个long中的不同bit, 不允许丢失
+        final Bitmap bitmap = new ConcurrentWordHeapBitmap(1024);
+        final int threads = 8;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final AtomicInteger failed = new AtomicInteger(0);
+        for (int t = 0 ; t < threads ; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = offset ; i < 1024 ; i += threads) {
+                        if (!bitmap.put(i, true)) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(0, failed.get());
+        for (int i = 0 ; i < 1024 ; i++) {
+            Assert.assertTrue(bitmap.get(i));
+        }
+        byte[] data = bitmap.extractAll();
+        for (byte b : data) {
+            Assert.assertEquals((byte) 0xFF, b);
+        }
     }
 
     private void computeTest0(Bitmap bitmap1, Bitmap bitmap2, byte[] expected) {
@@ -116,12 +927,184 @@ public class BitmapTest {
     /* *********************************************************************************************************** */
 
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 //        baseline1();//性能
 //        baseline2();//误判率
+//        contention();//并发性能
+//        bulk();//批量计算性能
+//        blocked();//分块布隆过滤器性能
+//        batch();//布隆过滤器批量/零拷贝性能
         consistency();//一致性
     }
 
+    private static final int BULK_SIZE = Integer.MAX_VALUE - 7;
+
+    /**
+     * 批量计算性能(两个256MB的Bitmap按位与), 按字节计算(自定义ComputeFunction) vs 按long批量计算(and), 单核机器, 第5轮结果
+     * HeapBitmap byte 64ms word 106ms
+     * DirectBitmap byte 239ms word 111ms
+     * 按字节计算依赖JIT内联(只用一种Bitmap一种ComputeFunction时HeapBitmap可以向量化), 多种Bitmap/ComputeFunction混用后,
+     * 调用点变为megamorphic, 按字节计算会下降到1400~1900ms, 按long计算不受影响(约100ms). 多核机器上按long计算会并行执行.
+     */
+    private static void bulk() {
+        BulkBitmap heap1 = new HeapBitmap(BULK_SIZE);
+        BulkBitmap heap2 = new HeapBitmap(BULK_SIZE);
+        for (int i = 0 ; i < BULK_SIZE ; i += 3) {
+            heap1.put(i, true);
+            heap2.put(i + 1, true);
+        }
+        BulkBitmap heapResult = new HeapBitmap(BULK_SIZE);
+        BulkBitmap direct1 = new DirectBitmap(heap1.extractAll());
+        BulkBitmap direct2 = new DirectBitmap(heap2.extractAll());
+        BulkBitmap directResult = new DirectBitmap(BULK_SIZE);
+        Bitmap.ComputeFunction function = new Bitmap.ComputeFunction() {
+            @Override
+            public byte compute(byte b1, byte b2) {
+                return (byte) (b1 & b2);
+            }
+        };
+        for (int round = 0 ; round < 5 ; round++) {
+            long time = System.currentTimeMillis();
+            heap1.computeWith(heap2, heapResult, function);
+            long heapByte = System.currentTimeMillis() - time;
+            time = System.currentTimeMillis();
+            heap1.and(heap2, heapResult);
+            long heapWord = System.currentTimeMillis() - time;
+            time = System.currentTimeMillis();
+            direct1.computeWith(direct2, directResult, function);
+            long directByte = System.currentTimeMillis() - time;
+            time = System.currentTimeMillis();
+            direct1.and(direct2, directResult);
+            long directWord = System.currentTimeMillis() - time;
+            System.out.println("HeapBitmap byte " + heapByte + "ms word " + heapWord + "ms");
+            System.out.println("DirectBitmap byte " + directByte + "ms word " + directWord + "ms");
+        }
+    }
+
+    private static final int BLOCKED_INSERTIONS = 50000000;
+    private static final int BLOCKED_TIMES = 10000000;
+
+    /**
+     * 分块布隆过滤器 vs 经典布隆过滤器, 5000万元素, 期望误判率0.01, 约57M byte(远大于CPU缓存), 查询1000万次(一半存在)
+     * 单核机器, 第3轮结果:
+     * classic contains 309ns/op fpp 0.0099564
+     * blocked contains 204ns/op fpp 0.013325
+     */
+    private static void blocked() {
+        BloomBitmapBuilder builder = new BloomBitmapBuilder()
+                .expectedInsertions(BLOCKED_INSERTIONS)
+                .falsePositiveProbability(0.01);
+        BloomBitmap classic = builder.build();
+        BloomBitmap blocked = builder.buildBlocked();
+        byte[] key = new byte[8];
+        for (long i = 0 ; i < BLOCKED_INSERTIONS ; i++) {
+            putLong(key, i);
+            classic.bloomAdd(key);
+            blocked.bloomAdd(key);
+        }
+        for (int round = 0 ; round < 3 ; round++) {
+            System.out.println("classic " + blocked0(classic, key));
+            System.out.println("blocked " + blocked0(blocked, key));
+        }
+    }
+
+    private static String blocked0(BloomBitmap bloom, byte[] key) {
+        Random random = new Random(0);
+        int hit = 0;
+        int falsePositive = 0;
+        long time = System.nanoTime();
+        for (int i = 0 ; i < BLOCKED_TIMES ; i++) {
+            // 一半存在, 一半不存在
+            long value = (i & 1) == 0 ? random.nextInt(BLOCKED_INSERTIONS) : BLOCKED_INSERTIONS + (random.nextLong() & Long.MAX_VALUE >>> 1);
+            putLong(key, value);
+            if (bloom.bloomContains(key)) {
+                hit++;
+                if ((i & 1) != 0) {
+                    falsePositive++;
+                }
+            }
+        }
+        long elapse = System.nanoTime() - time;
+        return "contains " + (elapse / BLOCKED_TIMES) + "ns/op fpp " + ((double) falsePositive / (BLOCKED_TIMES / 2)) + " hit " + hit;
+    }
+
+    private static final int BATCH_KEYS = 1000;
+
+    /**
+     * 布隆过滤器批量/零拷贝性能, 5000万元素, 期望误判率0.01, 约57M byte, 查询1000万次(一半存在)
+     * 单核机器, 第3轮结果:
+     * bytes contains: single 355ns/op batch 177ns/op
+     * string contains: getBytes 342ns/op CharSequence 140ns/op
+     * 批量检查先算完一批的索引, 不提前返回, 多个缓存未命中可以重叠. 字符串测试访问的缓存行与前面相同(已被前面的测试加载),
+     * 主要体现getBytes的开销.
+     */
+    private static void batch() throws IOException {
+        BulkBloomBitmap bloom = new BloomBitmapBuilder()
+                .expectedInsertions(BLOCKED_INSERTIONS)
+                .falsePositiveProbability(0.01)
+                .build();
+        byte[][] keys = new byte[BATCH_KEYS][];
+        for (int i = 0 ; i < BATCH_KEYS ; i++) {
+            keys[i] = new byte[8];
+        }
+        for (int i = 0 ; i < BLOCKED_INSERTIONS ; i += BATCH_KEYS) {
+            for (int j = 0 ; j < BATCH_KEYS ; j++) {
+                putLong(keys[j], i + j);
+            }
+            bloom.bloomAddAll(keys);
+        }
+        String[] strings = new String[BATCH_KEYS];
+        BitSet result = new BitSet(BATCH_KEYS);
+        for (int round = 0 ; round < 3 ; round++) {
+            Random random = new Random(0);
+            long single = 0;
+            long batch = 0;
+            long getBytes = 0;
+            long charSequence = 0;
+            int hit = 0;
+            for (int i = 0 ; i < BLOCKED_TIMES ; i += BATCH_KEYS) {
+                for (int j = 0 ; j < BATCH_KEYS ; j++) {
+                    // 一半存在, 一半不存在
+                    long value = (j & 1) == 0 ? random.nextInt(BLOCKED_INSERTIONS) : BLOCKED_INSERTIONS + (random.nextLong() & Long.MAX_VALUE >>> 1);
+                    putLong(keys[j], value);
+                    strings[j] = "key-" + value;
+                }
+                long time = System.nanoTime();
+                for (byte[] key : keys) {
+                    if (bloom.bloomContains(key)) {
+                        hit++;
+                    }
+                }
+                single += System.nanoTime() - time;
+                time = System.nanoTime();
+                hit += bloom.bloomContainsAll(keys, result);
+                batch += System.nanoTime() - time;
+                time = System.nanoTime();
+                for (String string : strings) {
+                    if (bloom.bloomContains(string.getBytes("UTF-8"))) {
+                        hit++;
+                    }
+                }
+                getBytes += System.nanoTime() - time;
+                time = System.nanoTime();
+                for (String string : strings) {
+                    if (bloom.bloomContains(string)) {
+                        hit++;
+                    }
+                }
+                charSequence += System.nanoTime() - time;
+            }
+            System.out.println("bytes contains: single " + (single / BLOCKED_TIMES) + "ns/op batch " + (batch / BLOCKED_TIMES) + "ns/op");
+            System.out.println("string contains: getBytes " + (getBytes / BLOCKED_TIMES) + "ns/op CharSequence " + (charSequence / BLOCKED_TIMES) + "ns/op hit " + hit);
+        }
+    }
+
+    private static void putLong(byte[] key, long value) {
+        for (int i = 0 ; i < 8 ; i++) {
+            key[i] = (byte) (value >>> (i << 3));
+        }
+    }
+
     private static final int BITMAP_SIZE = 1000000000;
     private static final int TIMES = 10000000;
     private static final Random random = new Random();
@@ -138,6 +1121,7 @@ public class BitmapTest {
 //        Bitmap bitmap = new DirectBitmap(BITMAP_SIZE);
 //        Bitmap bitmap = new ConcurrentHeapBitmap(BITMAP_SIZE);
 //        Bitmap bitmap = new SyncHeapBitmap(BITMAP_SIZE);
+//        Bitmap bitmap = new ConcurrentWordHeapBitmap(BITMAP_SIZE);
 
         long time = System.currentTimeMillis();
 
@@ -187,6 +1171,53 @@ public class BitmapTest {
         System.out.println(collisions);
     }
 
+    private static final int CONTENTION_THREADS = 16;
+    private static final int CONTENTION_SIZE = 1 << 20;
+    private static final int CONTENTION_TIMES = 2000000;
+
+    /**
+     * 并发性能(16线程同时put, 位置集中在1M bit以内, 制造热点)
+     * ConcurrentHeapBitmap 1054ms
+     * SyncHeapBitmap 3306ms
+     * ConcurrentWordHeapBitmap 866ms
+     */
+    private static void contention() {
+        System.out.println("ConcurrentHeapBitmap " + contention0(new ConcurrentHeapBitmap(CONTENTION_SIZE)));
+        System.out.println("SyncHeapBitmap " + contention0(new SyncHeapBitmap(CONTENTION_SIZE)));
+        System.out.println("ConcurrentWordHeapBitmap " + contention0(new ConcurrentWordHeapBitmap(CONTENTION_SIZE)));
+    }
+
+    private static String contention0(final Bitmap bitmap) {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch finishLatch = new CountDownLatch(CONTENTION_THREADS);
+        final AtomicInteger failed = new AtomicInteger(0);
+        for (int i = 0 ; i < CONTENTION_THREADS ; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int i = 0 ; i < CONTENTION_TIMES ; i++) {
+                        if (!bitmap.put(random.nextInt(CONTENTION_SIZE), true)) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+        long time = System.currentTimeMillis();
+        startLatch.countDown();
+        try {
+            finishLatch.await();
+        } catch (InterruptedException ignored) {
+        }
+        return (System.currentTimeMillis() - time) + "ms, put failed: " + failed.get();
+    }
+
     private static final long THREADS = 16;
 
     /**
@@ -219,6 +1250,11 @@ public class BitmapTest {
         byte[] data4 = consistencySync(new DirectBitmap(1000000));
         String hash4 = ByteUtils.bytesToHex(DigestCipher.digest(data4, DigestCipher.TYPE_SHA1));
         System.out.println("必须相同" + hash4);
+
+        // 多线程给ConcurrentWordHeapBitmap赋值
+        byte[] data5 = consistencyAsync(new ConcurrentWordHeapBitmap(1000000));
+        String hash5 = ByteUtils.bytesToHex(DigestCipher.digest(data5, DigestCipher.TYPE_SHA1));
+        System.out.println("必须相同" + hash5);
     }
 
     private static byte[] consistencySync(final BloomBitmap bitmap){
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.bitmap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class LongBitmapTest {
+
+    // 2^34 bit, 超过Integer.MAX_VALUE
+    private static final long SIZE = 1L << 34;
+
+    @Test
+    public void test() throws IOException {
+        HeapLongBitmap heap = new HeapLongBitmap(SIZE, 4096);
+        try {
+            test0(heap);
+            // 只有写过的页才分配内存
+            Assert.assertEquals(5, heap.getAllocatedPageCount());
+        } finally {
+            heap.close();
+        }
+
+        DirectLongBitmap direct = new DirectLongBitmap(SIZE, 4096);
+        try {
+            test0(direct);
+            Assert.assertEquals(5, direct.getAllocatedPageCount());
+        } finally {
+            direct.close();
+        }
+    }
+
+    @Test
+    public void mappedTest() throws IOException {
+        File file = File.createTempFile("thistle-mapped-long-bitmap", ".bitmap");
+        try {
+            MappedLongBitmap bitmap = MappedLongBitmap.create(file, SIZE, 4096);
+            try {
+                test0(bitmap);
+                bitmap.force();
+            } finally {
+                bitmap.close();
+            }
+
+            bitmap = MappedLongBitmap.open(file);
+            try {
+                Assert.assertEquals(SIZE, bitmap.size());
+                Assert.assertEquals(4096, bitmap.getPageSize());
+                Assert.assertTrue(bitmap.get(0));
+                Assert.assertTrue(bitmap.get(SIZE - 1));
+                Assert.assertTrue(bitmap.get(5000000001L));
+                Assert.assertFalse(bitmap.get(5000000000L));
+            } finally {
+                bitmap.close();
+            }
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    private void test0(LongBitmap bitmap) {
+        Assert.assertFalse(bitmap.get(5000000001L));
+        bitmap.put(0, true);
+        bitmap.put(SIZE - 1, true);
+        bitmap.put(5000000001L, true);
+        // 写0不分配页
+        bitmap.put(10000000000L, false);
+        Assert.assertTrue(bitmap.get(0));
+        Assert.assertTrue(bitmap.get(SIZE - 1));
+        Assert.assertTrue(bitmap.get(5000000001L));
+        Assert.assertFalse(bitmap.get(5000000000L));
+        Assert.assertFalse(bitmap.get(10000000000L));
+
+        bitmap.put(5000000001L, false);
+        Assert.assertFalse(bitmap.get(5000000001L));
+        bitmap.put(5000000001L, true);
+
+        // 跨页读写
+        byte[] data = new byte[8192];
+        long byteOffset = (5000000001L >>> 3) - 4096;
+        bitmap.extract(data, byteOffset);
+        Assert.assertEquals((byte) 0x02, data[4096]);
+        data[0] = (byte) 0x80;
+        data[8191] = (byte) 0x01;
+        bitmap.inject(data, byteOffset);
+        Assert.assertTrue(bitmap.get((byteOffset << 3) + 7));
+        Assert.assertTrue(bitmap.get((byteOffset + 8191) << 3));
+
+        try {
+            bitmap.get(SIZE);
+            Assert.fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sviolet.thistle.model.statistic.SlidingWindowCounter;
+
+public class CoarseClockTest {
+
+    /**
+     * 后台线程更新时间, 关闭后直接取系统时间
+     */
+    @Test
+    public void test() throws InterruptedException {
+        CoarseClock clock = new CoarseClock(1L);
+        try {
+            long millis = clock.currentTimeMillis();
+            long nanos = clock.nanoTime();
+            Assert.assertTrue(Math.abs(System.currentTimeMillis() - millis) < 1000L);
+            Thread.sleep(50L);
+            Assert.assertTrue(clock.currentTimeMillis() > millis);
+            Assert.assertTrue(clock.nanoTime() > nanos);
+        } finally {
+            clock.close();
+        }
+        long before = System.nanoTime();
+        Assert.assertTrue(clock.nanoTime() >= before);
+
+        //共享实例关闭无效果
+        CoarseClock.getDefault().close();
+        long millis = CoarseClock.getDefault().currentTimeMillis();
+        Thread.sleep(50L);
+        Assert.assertTrue(CoarseClock.getDefault().currentTimeMillis() > millis);
+    }
+
+    /**
+     * 计数器使用指定的时间源
+     */
+    @Test
+    public void timeSource() {
+        final long[] now = {0L};
+        SlidingWindowCounter counter = new SlidingWindowCounter(1000, 10);
+        counter.setTimeSource(new TimeSource() {
+            @Override
+            public long currentTimeMillis() {
+                return now[0];
+            }
+
+            @Override
+            public long nanoTime() {
+                return now[0] * 1000000L;
+            }
+        });
+
+        counter.addAndGet(3);
+        now[0] = 5000L;
+        counter.addAndGet(2);
+        now[0] = 6000L;
+        Assert.assertEquals(5, counter.getTotally());
+        now[0] = 11000L;
+        Assert.assertEquals(2, counter.getTotally());
+        now[0] = 100000L;
+        Assert.assertEquals(0, counter.getTotally());
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.concurrent.lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyedLocksTest {
+
+    /**
+     * 不同的KEY互不阻塞, 同一个KEY互斥, 释放后移除
+     */
+    @Test
+    public void test() throws InterruptedException {
+        final KeyedLocks<Long> locks = new KeyedLocks<>();
+
+        try (KeyedLocks<Long>.Handle handle = locks.lock(1L)) {
+            Assert.assertEquals(Long.valueOf(1L), handle.getKey());
+            Assert.assertEquals(1, locks.size());
+
+            //重入
+            try (KeyedLocks<Long>.Handle reentrant = locks.lock(1L)) {
+                Assert.assertNotNull(reentrant);
+            }
+            Assert.assertEquals(1, locks.size());
+
+            //其他线程: 同一个KEY被阻塞, 不同的KEY不受影响
+            final AtomicInteger result = new AtomicInteger(0);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    KeyedLocks<Long>.Handle same = locks.tryLock(1L);
+                    if (same == null) {
+                        result.addAndGet(1);
+                    }
+                    try (KeyedLocks<Long>.Handle other = locks.tryLock(2L)) {
+                        if (other != null) {
+                            result.addAndGet(10);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+            Assert.assertEquals(11, result.get());
+        }
+
+        Assert.assertEquals(0, locks.size());
+
+        try {
+            locks.lock(null);
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * 并发测试: 同一个KEY的累加不丢失, 结束后没有残留
+     */
+    @Test
+    public void concurrent() throws InterruptedException {
+        final KeyedLocks<String> locks = new KeyedLocks<>();
+        final int threads = 8;
+        final int times = 20000;
+        final long[] accounts = new long[4];
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0 ; t < threads ; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0 ; i < times ; i++) {
+                            int account = i & 3;
+                            if ((i & 7) == 0) {
+                                KeyedLocks<String>.Handle handle = locks.tryLock("account-" + account, 1, TimeUnit.SECONDS);
+                                Assert.assertNotNull(handle);
+                                try {
+                                    accounts[account]++;
+                                } finally {
+                                    handle.close();
+                                }
+                            } else {
+                                try (KeyedLocks<String>.Handle ignored = locks.lock("account-" + account)) {
+                                    accounts[account]++;
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+
+        for (long account : accounts) {
+            Assert.assertEquals(threads * times / 4, account);
+        }
+        Assert.assertEquals(0, locks.size());
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.concurrent.lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StripedLocksTest {
+
+    /**
+     * 锁数量与哈希分布
+     */
+    @Test
+    public void stripes() {
+        Assert.assertEquals(1, new HashReadWriteLocks(1).getLockNum());
+        Assert.assertEquals(4096, new HashStampedLocks(4096).getLockNum());
+        try {
+            new HashReadWriteLocks(100);
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        //只有高位不同的KEY, 也能均匀分散
+        HashReadWriteLocks locks = new HashReadWriteLocks(16);
+        int[] counts = new int[16];
+        for (long i = 0 ; i < 1600 ; i++) {
+            Object lock = locks.getLock(i << 32);
+            for (int s = 0 ; s < 16 ; s++) {
+                if (locks.getLockByIndex(s) == lock) {
+                    counts[s]++;
+                }
+            }
+        }
+        for (int count : counts) {
+            Assert.assertTrue("count " + count, count > 50 && count < 150);
+        }
+        Assert.assertSame(locks.getLock("a"), locks.getLock(new String("a")));
+        Assert.assertNotNull(locks.getLock(null));
+    }
+
+    /**
+     * 乐观读
+     */
+    @Test
+    public void optimisticRead() {
+        HashStampedLocks.OptimisticLock lock = new HashStampedLocks(8).getLock("key");
+
+        long stamp = lock.tryOptimisticRead();
+        Assert.assertTrue(stamp != 0L);
+        Assert.assertTrue(lock.validate(stamp));
+
+        long writeStamp = lock.writeLock();
+        Assert.assertTrue(lock.isWriteLocked());
+        Assert.assertEquals(0L, lock.tryWriteLock());
+        Assert.assertEquals(0L, lock.tryOptimisticRead());
+        Assert.assertFalse(lock.validate(stamp));
+        lock.unlockWrite(writeStamp);
+
+        Assert.assertFalse(lock.validate(stamp));
+        Assert.assertTrue(lock.validate(lock.tryOptimisticRead()));
+        try {
+            lock.unlockWrite(writeStamp);
+            Assert.fail();
+        } catch (IllegalMonitorStateException ignored) {
+        }
+    }
+
+    /**
+     * 并发测试: 写线程成对修改两个volatile字段, 乐观读校验成功时两个字段必须一致
+     */
+    @Test
+    public void concurrent() throws InterruptedException {
+        final HashStampedLocks.OptimisticLock lock = new HashStampedLocks().getLock(1L);
+        final Pair pair = new Pair();
+        final AtomicInteger inconsistent = new AtomicInteger(0);
+        final int threads = 4;
+        final CountDownLatch latch = new CountDownLatch(threads * 2);
+        for (int t = 0 ; t < threads ; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0 ; i < 20000 ; i++) {
+                        long stamp = lock.writeLock();
+                        try {
+                            pair.a++;
+                            pair.b++;
+                        } finally {
+                            lock.unlockWrite(stamp);
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0 ; i < 100000 ; i++) {
+                        long stamp = lock.tryOptimisticRead();
+                        long a = pair.a;
+                        long b = pair.b;
+                        if (lock.validate(stamp) && a != b) {
+                            inconsistent.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(0, inconsistent.get());
+        Assert.assertEquals(threads * 20000L, pair.a);
+        Assert.assertEquals(threads * 20000L, pair.b);
+    }
+
+    private static class Pair {
+        private volatile long a;
+        private volatile long b;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void limit(){
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 10, 2, 100);
+        for (int i = 0 ; i < 10 ; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+        }
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertEquals(10, limiter.getInflight());
+        limiter.releaseWithoutSample();
+        Assert.assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void adapt(){
+        final AtomicInteger changes = new AtomicInteger(0);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 10, 2, 100)
+                .setLimitListener(new AdaptiveConcurrencyLimiter.LimitListener() {
+                    @Override
+                    public void onLimitChanged(int oldLimit, int newLimit) {
+                        changes.incrementAndGet();
+                    }
+                });
+
+        //耗时稳定且并发跑满, 上限增加
+        long time = 0;
+        for (int round = 0 ; round < 20 ; round++) {
+            time = runRound(limiter, time, 10 * MS);
+        }
+        int grown = limiter.getLimit();
+        Assert.assertTrue("limit should grow, actual " + grown, grown > 10);
+
+        //耗时升高(后端排队), 上限减少
+        for (int round = 0 ; round < 10 ; round++) {
+            time = runRound(limiter, time, 100 * MS);
+        }
+        int shrunk = limiter.getLimit();
+        Assert.assertTrue("limit should shrink, actual " + shrunk, shrunk < grown);
+        Assert.assertTrue(shrunk >= 2);
+        Assert.assertTrue(changes.get() > 0);
+    }
+
+    /**
+     * 线程池模式(executeListener)的并发峰值也要计入, 否则"流量不足时不增加上限"会误判
+     */
+    @Test
+    public void executeListenerPeak(){
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 10, 2, 100);
+        ThreadPoolExecutorUtils.ExecuteListener listener = limiter.executeListener();
+        long time = 0;
+        for (int round = 0 ; round < 20 ; round++) {
+            //每轮开始时并发数很低, 此时触发调整
+            listener.beforeExecute(null, null);
+            limiter.release(10 * MS, time);
+            //然后并发跑满
+            int limit = limiter.getLimit();
+            for (int i = 0 ; i < limit ; i++) {
+                listener.beforeExecute(null, null);
+            }
+            for (int i = 0 ; i < limit ; i++) {
+                limiter.release(10 * MS, time);
+            }
+            time += 100;
+        }
+        Assert.assertTrue("limit should grow, actual " + limiter.getLimit(), limiter.getLimit() > 10);
+    }
+
+    /**
+     * 占满许可, 以指定耗时全部释放, 时间前进一个采样时长
+     */
+    private long runRound(AdaptiveConcurrencyLimiter limiter, long time, long latencyNanos) {
+        int acquired = 0;
+        while (limiter.tryAcquire()) {
+            acquired++;
+        }
+        for (int i = 0 ; i < acquired ; i++) {
+            limiter.release(latencyNanos, time);
+        }
+        return time + 100;
+    }
+
+    @Test
+    public void executor() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 4, 1, 16);
+        ExecutorService executorService = limiter.createExecutor(60L, "adaptive-test-%d");
+        try {
+            Assert.assertEquals(4, ((ThreadPoolExecutor) executorService).getCorePoolSize());
+            final CountDownLatch latch = new CountDownLatch(50);
+            for (int i = 0 ; i < 50 ; i++) {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                });
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100L);
+            Assert.assertEquals(0, limiter.getInflight());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+}
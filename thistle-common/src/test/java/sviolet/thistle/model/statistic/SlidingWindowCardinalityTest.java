@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sviolet.thistle.util.conversion.HashUtils;
+
+public class SlidingWindowCardinalityTest {
+
+    /**
+     * 简单测试
+     */
+    @Test
+    public void test(){
+        //采样时长1s, 统计时长60s
+        SlidingWindowCardinality cardinality = new SlidingWindowCardinality(1000, 60);
+
+        //每秒1000个用户, 其中500个与上一秒重复
+        for (int second = 0 ; second < 10 ; second++) {
+            for (int i = 0 ; i < 1000 ; i++) {
+                cardinality.addHash(HashUtils.xxHash64((long) (second * 500 + i)), second * 1000L + i);
+            }
+        }
+
+        assertAbout(1000, cardinality.cardinality(1000, 10000));
+        assertAbout(1500, cardinality.cardinality(2000, 10000));
+        assertAbout(5500, cardinality.cardinality(Integer.MAX_VALUE, 10000));
+
+        //重复记录不影响结果
+        for (int i = 0 ; i < 1000 ; i++) {
+            cardinality.addHash(HashUtils.xxHash64((long) (9 * 500 + i)), 9999L);
+        }
+        assertAbout(1000, cardinality.cardinality(1000, 10000));
+
+        //过期
+        Assert.assertEquals(0, cardinality.cardinality(Integer.MAX_VALUE, 100000));
+    }
+
+    /**
+     * 序列化与离线合并
+     */
+    @Test
+    public void merge(){
+        SlidingWindowCardinality jvm1 = new SlidingWindowCardinality(1000, 60);
+        SlidingWindowCardinality jvm2 = new SlidingWindowCardinality(1000, 60);
+        for (long i = 0 ; i < 20000 ; i++) {
+            jvm1.addHash(HashUtils.xxHash64(i), 1000L);
+            jvm2.addHash(HashUtils.xxHash64(i + 10000), 1000L);
+        }
+
+        byte[] snapshot1 = jvm1.snapshot(60000, 2000L).toByteArray();
+        byte[] snapshot2 = jvm2.snapshot(60000, 2000L).toByteArray();
+        Assert.assertEquals(2 + 4096 * 6 / 8, snapshot1.length);
+
+        HyperLogLog hyperLogLog1 = HyperLogLog.fromByteArray(snapshot1);
+        Assert.assertEquals(jvm1.cardinality(60000, 2000L), hyperLogLog1.cardinality());
+        Assert.assertArrayEquals(snapshot1, hyperLogLog1.toByteArray());
+
+        hyperLogLog1.merge(HyperLogLog.fromByteArray(snapshot2));
+        assertAbout(30000, hyperLogLog1.cardinality());
+
+        try {
+            hyperLogLog1.merge(new HyperLogLog(10));
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    private static void assertAbout(long expected, long actual) {
+        //默认精度标准误差约1.6%, 取5%
+        Assert.assertTrue("expected " + expected + ", actual " + actual, Math.abs(actual - expected) <= expected * 0.05);
+    }
+
+}
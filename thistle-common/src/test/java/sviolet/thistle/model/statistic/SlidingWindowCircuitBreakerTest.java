@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingWindowCircuitBreakerTest {
+
+    @Test
+    public void failureRate(){
+        //采样时长1秒, 统计最近10秒
+        SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker(1000, 10)
+                .setFailureRateThreshold(0.5f)
+                .setMinimumCalls(10)
+                .setOpenDuration(5000L)
+                .setHalfOpenPermits(2);
+
+        //调用次数不足, 不熔断
+        for (int i = 0 ; i < 9 ; i++) {
+            long permit = breaker.acquire(1000);
+            Assert.assertNotEquals(SlidingWindowCircuitBreaker.NO_PERMIT, permit);
+            breaker.record(permit, false, 10, 1000);
+        }
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+
+        //第10次失败, 熔断
+        long permit = breaker.acquire(1000);
+        Assert.assertNotEquals(SlidingWindowCircuitBreaker.NO_PERMIT, permit);
+        breaker.record(permit, false, 10, 1000);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(SlidingWindowCircuitBreaker.NO_PERMIT, breaker.acquire(5999));
+
+        //熔断前放行的请求在OPEN之后才失败, 不会延长熔断时间
+        breaker.record(permit, false, 10, 3000);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.NO_PERMIT, breaker.acquire(5999));
+
+        //半开, 放行2个试探请求
+        long probe1 = breaker.acquire(6000);
+        Assert.assertNotEquals(SlidingWindowCircuitBreaker.NO_PERMIT, probe1);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        long probe2 = breaker.acquire(6000);
+        Assert.assertEquals(probe1, probe2);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.NO_PERMIT, breaker.acquire(6000));
+
+        //CLOSED时放行的请求在HALF_OPEN时才结束, 不计为试探结果
+        breaker.record(permit, true, 10, 6050);
+        breaker.record(permit, true, 10, 6050);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        //试探失败, 重新熔断
+        breaker.record(probe1, false, 10, 6100);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.OPEN, breaker.getState());
+        //同一轮的另一个试探也失败, 不会延长熔断时间
+        breaker.record(probe2, false, 10, 8000);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.NO_PERMIT, breaker.acquire(11000));
+
+        //试探成功, 关闭熔断并清空统计
+        probe1 = breaker.acquire(11100);
+        probe2 = breaker.acquire(11100);
+        Assert.assertNotEquals(SlidingWindowCircuitBreaker.NO_PERMIT, probe2);
+        breaker.record(probe1, true, 10, 11200);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.record(probe2, true, 10, 11200);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+
+        //统计已清空, 单次失败不熔断
+        permit = breaker.acquire(11300);
+        breaker.record(permit, false, 10, 11300);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+
+        //过期的试探许可不计入新的CLOSED统计
+        for (int i = 0 ; i < 20 ; i++) {
+            breaker.record(probe1, false, 10, 11300);
+        }
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * 试探请求没有记录结果, 超时后重新开始一轮试探
+     */
+    @Test
+    public void lostProbe(){
+        SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker(1000, 10)
+                .setMinimumCalls(1)
+                .setOpenDuration(5000L)
+                .setHalfOpenPermits(1);
+
+        breaker.record(breaker.acquire(1000), false, 10, 1000);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.OPEN, breaker.getState());
+
+        //试探请求放行后没有记录结果(调用方异常/超时)
+        long lost = breaker.acquire(6000);
+        Assert.assertNotEquals(SlidingWindowCircuitBreaker.NO_PERMIT, lost);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.NO_PERMIT, breaker.acquire(6000));
+        Assert.assertEquals(SlidingWindowCircuitBreaker.NO_PERMIT, breaker.acquire(10999));
+
+        //超过openDuration, 重新开始一轮试探
+        long probe = breaker.acquire(11000);
+        Assert.assertNotEquals(SlidingWindowCircuitBreaker.NO_PERMIT, probe);
+        Assert.assertNotEquals(lost, probe);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        //上一轮的试探结果作废
+        breaker.record(lost, false, 10, 11100);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.record(probe, true, 10, 11100);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void slowCall(){
+        SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker(1000, 10)
+                .setSlowCallDurationThreshold(100L)
+                .setSlowCallRateThreshold(0.8f)
+                .setMinimumCalls(5);
+
+        for (int i = 0 ; i < 3 ; i++) {
+            breaker.record(breaker.acquire(1000), true, 50, 1000);
+        }
+        for (int i = 0 ; i < 11 ; i++) {
+            breaker.record(breaker.acquire(1000), true, 200, 1000);
+        }
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.record(breaker.acquire(1000), true, 200, 1000);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void window(){
+        SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker(1000, 10)
+                .setMinimumCalls(10);
+
+        //旧的失败过期后不计入
+        for (int i = 0 ; i < 9 ; i++) {
+            breaker.record(breaker.acquire(0), false, 10, 0);
+        }
+        for (int i = 0 ; i < 9 ; i++) {
+            breaker.record(breaker.acquire(10000), true, 10, 10000);
+        }
+        breaker.record(breaker.acquire(10000), false, 10, 10000);
+        Assert.assertEquals(SlidingWindowCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+}
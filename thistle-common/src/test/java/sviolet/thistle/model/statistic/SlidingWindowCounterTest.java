@@ -22,6 +22,7 @@ package sviolet.thistle.model.statistic;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SlidingWindowCounterTest {
@@ -108,6 +109,34 @@ public class SlidingWindowCounterTest {
 
     }
 
+    /**
+     * getTotally(维护总数)与getRecently(逐个累加)结果一致
+     */
+    @Test
+    public void totally(){
+        SlidingWindowCounter counter = new SlidingWindowCounter(1000, 10, 10);
+
+        for (long time = 0 ; time < 30000 ; time += 100) {
+            counter.addAndGet(1, time);
+            if (time % 300 == 0) {
+                //抖动, 计入上一个采样单元
+                counter.addAndGet(2, time - 900);
+            }
+            long now = time + 50;
+            Assert.assertEquals(counter.getRecently(Integer.MAX_VALUE, now), counter.getTotally(now));
+        }
+
+        //长时间无计数, 所有采样单元过期
+        Assert.assertEquals(0, counter.getTotally(100000));
+        counter.addAndGet(5, 100000);
+        Assert.assertEquals(5, counter.getTotally(101000));
+
+        //时间倒流, 计数无效
+        counter.addAndGet(5, 0);
+        Assert.assertEquals(5, counter.getTotally(101000));
+        Assert.assertEquals(0, counter.getTotally(0));
+    }
+
     /**
      * 并发测试
      */
@@ -177,4 +206,25 @@ public class SlidingWindowCounterTest {
 
     }
 
+    /**
+     * 覆写printDebugLog的子类(旧版本用法)仍然会被调用
+     */
+    @Test
+    public void debugLog(){
+        final AtomicInteger calls = new AtomicInteger(0);
+        SlidingWindowCounter counter = new SlidingWindowCounter(1000, 10) {
+            @Override
+            protected void printDebugLog(int duration, long currentTimeMillis, List<SlidingWindowArray.Element<AtomicInteger>> elements) {
+                calls.incrementAndGet();
+            }
+        };
+        counter.addAndGet(1, 1000);
+        Assert.assertEquals(1, counter.getRecently(1000, 2000));
+        Assert.assertEquals(1, counter.getTotally(2000));
+        Assert.assertEquals(2, calls.get());
+
+        //未覆写时不调用
+        Assert.assertFalse(new SlidingWindowCounter(1000, 10).isDebugEnabled());
+    }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingWindowHistogramTest {
+
+    /**
+     * 槽位划分: 连续, 且相对误差不超过 1 / 2^(precision-1)
+     */
+    @Test
+    public void layout(){
+        LogLinearHistogram histogram = new LogLinearHistogram(1000000L, 7);
+        int lastIndex = 0;
+        for (long value = 0 ; value <= 1000000L ; value++) {
+            int index = histogram.indexOf(value);
+            Assert.assertTrue(index == lastIndex || index == lastIndex + 1);
+            lastIndex = index;
+            long lowest = histogram.lowestValueOf(index);
+            long highest = histogram.highestValueOf(index);
+            Assert.assertTrue(lowest <= value && value <= highest);
+            Assert.assertTrue((double) (highest - lowest) <= (double) value / 64.0);
+        }
+        Assert.assertEquals(histogram.getSlotNum() - 1, lastIndex);
+        //超出范围
+        Assert.assertEquals(0, histogram.indexOf(-1L));
+        Assert.assertEquals(lastIndex, histogram.indexOf(Long.MAX_VALUE));
+        //极大值
+        LogLinearHistogram large = new LogLinearHistogram(Long.MAX_VALUE, 16);
+        Assert.assertEquals(Long.MAX_VALUE, large.highestValueOf(large.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentile(){
+        LogLinearHistogram histogram = new LogLinearHistogram(100000L, 7);
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99.0));
+        for (long value = 1 ; value <= 10000 ; value++) {
+            histogram.record(value);
+        }
+        Assert.assertEquals(10000, histogram.getTotalCount());
+        assertAbout(5000, histogram.getValueAtPercentile(50.0));
+        assertAbout(9900, histogram.getValueAtPercentile(99.0));
+        assertAbout(9990, histogram.getValueAtPercentile(99.9));
+        assertAbout(10000, histogram.getValueAtPercentile(100.0));
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void slidingWindow(){
+        //每个样本1s, 共10个样本
+        SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 10, 60000L);
+
+        //第0秒: 100个10ms
+        for (int i = 0 ; i < 100 ; i++) {
+            histogram.record(10, 500);
+        }
+        //第1秒: 100个1000ms
+        for (int i = 0 ; i < 100 ; i++) {
+            histogram.record(1000, 1500);
+        }
+
+        //当前时间2000, 最近1秒只有第1秒的数据
+        Assert.assertEquals(100, histogram.getCount(1000, 2000));
+        assertAbout(1000, histogram.getPercentile(1000, 50.0, 2000));
+        //最近2秒
+        Assert.assertEquals(200, histogram.getCount(2000, 2000));
+        long[] values = histogram.getPercentiles(2000, new double[]{25.0, 75.0}, 2000);
+        Assert.assertEquals(10, values[0]);
+        assertAbout(1000, values[1]);
+        //最近1.5秒, 第0秒的权重为0.5
+        Assert.assertEquals(150, histogram.getCount(1500, 2000));
+
+        //过期
+        Assert.assertEquals(0, histogram.getCount(Integer.MAX_VALUE, 20000));
+    }
+
+    private void assertAbout(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + ", actual " + actual, Math.abs(expected - actual) <= expected / 64 + 1);
+    }
+
+}
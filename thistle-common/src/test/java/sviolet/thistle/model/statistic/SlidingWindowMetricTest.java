@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class SlidingWindowMetricTest {
+
+    /**
+     * 简单测试
+     */
+    @Test
+    public void test(){
+        //采样时长1s, 统计时长10s
+        SlidingWindowMetric metric = new SlidingWindowMetric(1000, 10, 10);
+
+        Assert.assertEquals(0, metric.getSnapshot(Integer.MAX_VALUE, 0).getCount());
+
+        //第0秒: 10, 20, 30
+        metric.record(10, 0);
+        metric.record(20, 500);
+        metric.record(30, 999);
+        //第1秒: 5, 100
+        metric.record(5, 1000);
+        metric.record(100, 1500);
+
+        SlidingWindowMetric.Snapshot snapshot = metric.getSnapshot(Integer.MAX_VALUE, 2000);
+        Assert.assertEquals(5, snapshot.getCount());
+        Assert.assertEquals(165, snapshot.getSum());
+        Assert.assertEquals(5, snapshot.getMin());
+        Assert.assertEquals(100, snapshot.getMax());
+        Assert.assertEquals(33.0, snapshot.getAverage(), 0.0001);
+
+        //最近1秒
+        snapshot = metric.getSnapshot(1000, 2000);
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(105, snapshot.getSum());
+        Assert.assertEquals(5, snapshot.getMin());
+
+        //一半权重
+        snapshot = metric.getSnapshot(1500, 2000);
+        Assert.assertEquals(2 + 2, snapshot.getCount());
+        Assert.assertEquals(105 + 30, snapshot.getSum());
+        Assert.assertEquals(5, snapshot.getMin());
+        Assert.assertEquals(100, snapshot.getMax());
+
+        //采样单元过期后重用
+        metric.record(7, 10000);
+        snapshot = metric.getSnapshot(Integer.MAX_VALUE, 10000);
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(105, snapshot.getSum());
+        Assert.assertEquals(5, snapshot.getMin());
+        snapshot = metric.getSnapshot(Integer.MAX_VALUE, 11000);
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(7, snapshot.getMin());
+        Assert.assertEquals(7, snapshot.getMax());
+
+        //时间倒流, 记录无效
+        Assert.assertFalse(metric.record(1, 0));
+        Assert.assertEquals(1, metric.getSnapshot(Integer.MAX_VALUE, 11000).getCount());
+
+        //大量的时间倒流导致整个重置
+        for (int i = 0 ; i < 10 ; i++) {
+            metric.record(1, 0);
+        }
+        snapshot = metric.getSnapshot(Integer.MAX_VALUE, 1000);
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(0, metric.getSnapshot(Integer.MAX_VALUE, 11000).getCount());
+    }
+
+    /**
+     * 并发测试
+     */
+    @Test
+    public void concurrent() throws InterruptedException {
+        final SlidingWindowMetric metric = new SlidingWindowMetric(1000, 10);
+        final int threads = 8;
+        final int times = 100000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0 ; t < threads ; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0 ; i < times ; i++) {
+                        //两秒内均匀分布, 跨越采样单元
+                        metric.record(offset + 1, 1000L + (i * 2000L / times));
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        SlidingWindowMetric.Snapshot snapshot = metric.getSnapshot(Integer.MAX_VALUE, 3000);
+        Assert.assertEquals(threads * times, snapshot.getCount());
+        Assert.assertEquals((long) times * threads * (threads + 1) / 2, snapshot.getSum());
+        Assert.assertEquals(1, snapshot.getMin());
+        Assert.assertEquals(threads, snapshot.getMax());
+    }
+
+}
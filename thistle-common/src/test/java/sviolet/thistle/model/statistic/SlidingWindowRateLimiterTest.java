@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingWindowRateLimiterTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void slidingWindow(){
+        //每秒10个
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(SlidingWindowRateLimiter.Mode.SLIDING_WINDOW, 10, 1000L);
+
+        //第一个窗口用完
+        Assert.assertTrue(limiter.tryAcquire("a", 6, 0));
+        Assert.assertTrue(limiter.tryAcquire("a", 4, 500 * MS));
+        Assert.assertFalse(limiter.tryAcquire("a", 1, 900 * MS));
+        //其他KEY不受影响
+        Assert.assertTrue(limiter.tryAcquire("b", 10, 900 * MS));
+        Assert.assertFalse(limiter.tryAcquire("a", 11, 900 * MS));
+
+        //第二个窗口过去一半, 上一个窗口计数按一半计入: 10 * 0.5 = 5
+        Assert.assertTrue(limiter.tryAcquire("a", 5, 1500 * MS));
+        Assert.assertFalse(limiter.tryAcquire("a", 1, 1500 * MS));
+        //第二个窗口过去90%: 10 * 0.1 + 5 = 6
+        Assert.assertTrue(limiter.tryAcquire("a", 4, 1900 * MS));
+        Assert.assertFalse(limiter.tryAcquire("a", 1, 1900 * MS));
+
+        //跳过多个窗口, 计数清零
+        Assert.assertTrue(limiter.tryAcquire("a", 10, 5000 * MS));
+        Assert.assertFalse(limiter.tryAcquire("a", 1, 5000 * MS));
+    }
+
+    @Test
+    public void tokenBucket(){
+        //每秒10个, 桶容量10
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(SlidingWindowRateLimiter.Mode.TOKEN_BUCKET, 10, 1000L);
+
+        Assert.assertTrue(limiter.tryAcquire("a", 10, 0));
+        Assert.assertFalse(limiter.tryAcquire("a", 1, 0));
+        //100ms补充1个
+        Assert.assertTrue(limiter.tryAcquire("a", 1, 100 * MS));
+        Assert.assertFalse(limiter.tryAcquire("a", 1, 150 * MS));
+        Assert.assertTrue(limiter.tryAcquire("a", 1, 200 * MS));
+        //不超过桶容量
+        Assert.assertFalse(limiter.tryAcquire("a", 11, 60000 * MS));
+        Assert.assertTrue(limiter.tryAcquire("a", 10, 60000 * MS));
+    }
+
+    @Test
+    public void evict(){
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(SlidingWindowRateLimiter.Mode.SLIDING_WINDOW, 10, 1000L, 2000L, 1);
+
+        for (int i = 0 ; i < 100 ; i++) {
+            limiter.tryAcquire("key" + i, 1, 0);
+        }
+        Assert.assertEquals(100, limiter.size());
+
+        //访问时顺带清理空闲KEY
+        limiter.tryAcquire("key0", 1, 1500 * MS);
+        Assert.assertEquals(100, limiter.size());
+        limiter.tryAcquire("key1", 1, 2500 * MS);
+        Assert.assertEquals(2, limiter.size());
+
+        //手动清理
+        limiter.evictIdle(10000 * MS);
+        Assert.assertEquals(0, limiter.size());
+    }
+
+}
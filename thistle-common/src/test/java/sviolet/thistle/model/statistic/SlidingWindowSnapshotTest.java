@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingWindowSnapshotTest {
+
+    /**
+     * 导出快照, 序列化, 多节点合并
+     */
+    @Test
+    public void test(){
+        //两个节点, 采样时长1s, 统计时长10s
+        SlidingWindowCounter node1 = new SlidingWindowCounter(1000, 10);
+        SlidingWindowCounter node2 = new SlidingWindowCounter(1000, 10);
+
+        long base = 1600000000000L;
+        for (int i = 0 ; i < 10 ; i++) {
+            node1.addAndGet(i + 1, base + i * 1000L);
+            //节点2晚一秒启动, 第5秒没有数据
+            if (i > 0 && i != 5) {
+                node2.addAndGet(100, base + i * 1000L);
+            }
+        }
+
+        SlidingWindowSnapshot snapshot1 = node1.snapshot(base + 9500L);
+        SlidingWindowSnapshot snapshot2 = node2.snapshot(base + 9500L);
+        Assert.assertEquals(10, snapshot1.size());
+        Assert.assertEquals(8, snapshot2.size());
+        Assert.assertEquals(base, snapshot1.getStartTime(0));
+        Assert.assertEquals(55, snapshot1.getTotal());
+
+        //序列化
+        byte[] data1 = snapshot1.toByteArray();
+        byte[] data2 = snapshot2.toByteArray();
+        Assert.assertTrue("size " + data1.length, data1.length < 40);
+        SlidingWindowSnapshot decoded1 = SlidingWindowSnapshot.fromByteArray(data1);
+        SlidingWindowSnapshot decoded2 = SlidingWindowSnapshot.fromByteArray(data2);
+        Assert.assertEquals(snapshot1.toString(), decoded1.toString());
+        Assert.assertEquals(snapshot2.toString(), decoded2.toString());
+
+        //合并
+        SlidingWindowSnapshot merged = SlidingWindowSnapshot.merge(decoded1, decoded2, null);
+        Assert.assertEquals(10, merged.size());
+        Assert.assertEquals(55 + 800, merged.getTotal());
+        Assert.assertEquals(1, merged.getValue(0));
+        Assert.assertEquals(6, merged.getValue(5));
+        Assert.assertEquals(110, merged.getValue(9));
+        //最近3秒(第7~9秒)
+        Assert.assertEquals(8 + 9 + 10 + 300, merged.sumSince(base + 7000L));
+
+        //过期的采样单元不导出
+        Assert.assertEquals(1, node1.snapshot(base + 18500L).size());
+        Assert.assertEquals(0, node1.snapshot(base + 100000L).size());
+
+        //采样时长不一致
+        try {
+            SlidingWindowSnapshot.merge(snapshot1, new StripedSlidingWindowCounter(2000, 10).snapshot(base));
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        //负数
+        SlidingWindowSnapshot negative = new SlidingWindowSnapshot(1000L, new long[]{-5, 3}, new long[]{-1, Long.MIN_VALUE}, 2);
+        Assert.assertEquals(negative.toString(), SlidingWindowSnapshot.fromByteArray(negative.toByteArray()).toString());
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SlidingWindowTopKTest {
+
+    /**
+     * 简单测试
+     */
+    @Test
+    public void test(){
+        //采样时长1s, 统计时长10s, 每个采样单元10个候选
+        SlidingWindowTopK topK = new SlidingWindowTopK(1000, 10, 10);
+
+        //热点: hot-0 ~ hot-4, 长尾: 1000个只出现一次的KEY
+        for (int i = 0 ; i < 1000 ; i++) {
+            long time = i;
+            for (int h = 0 ; h < 5 ; h++) {
+                if (i % (h + 1) == 0) {
+                    topK.add("hot-" + h, 1, time);
+                }
+            }
+            topK.add("cold-" + i, 1, time);
+        }
+
+        List<SlidingWindowTopK.Item> items = topK.topK(Integer.MAX_VALUE, 5, 1000);
+        Assert.assertEquals(5, items.size());
+        for (int h = 0 ; h < 5 ; h++) {
+            Assert.assertEquals("hot-" + h, items.get(h).getKey());
+            //估计值只会偏大, 误差不超过 总次数 * e / width
+            long expected = 1000 / (h + 1) + (1000 % (h + 1) == 0 ? 0 : 1);
+            Assert.assertTrue(items.get(h).toString(), items.get(h).getCount() >= expected);
+            Assert.assertTrue(items.get(h).toString(), items.get(h).getCount() <= expected + 8);
+        }
+        Assert.assertTrue(topK.estimate("hot-0", Integer.MAX_VALUE, 1000) >= 1000);
+
+        //新的热点出现在之后的采样单元
+        for (int i = 0 ; i < 3000 ; i++) {
+            topK.add("new-hot", 1, 1000 + i);
+        }
+        items = topK.topK(Integer.MAX_VALUE, 2, 4000);
+        Assert.assertEquals("new-hot", items.get(0).getKey());
+        Assert.assertEquals(3000, items.get(0).getCount());
+        Assert.assertEquals("hot-0", items.get(1).getKey());
+
+        //只看最近2秒
+        items = topK.topK(2000, 10, 4000);
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals("new-hot", items.get(0).getKey());
+        Assert.assertEquals(2000, items.get(0).getCount());
+
+        //过期后采样单元被重置
+        items = topK.topK(Integer.MAX_VALUE, 10, 20000);
+        Assert.assertEquals(0, items.size());
+        Assert.assertEquals(0, topK.estimate("new-hot", Integer.MAX_VALUE, 20000));
+    }
+
+    /**
+     * 候选列表已满时替换最小值, 候选的估计值在入列后增大
+     */
+    @Test
+    public void replace(){
+        SlidingWindowTopK topK = new SlidingWindowTopK(1000, 10, 2);
+        topK.add("a", 5, 0);
+        topK.add("b", 1, 0);
+        //b入列后增大, 最小值变为a
+        topK.add("b", 9, 0);
+
+        //未超过最小值(a=5), 不替换
+        topK.add("c", 3, 0);
+        List<SlidingWindowTopK.Item> items = topK.topK(Integer.MAX_VALUE, 10, 1000);
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals("b", items.get(0).getKey());
+        Assert.assertEquals("a", items.get(1).getKey());
+
+        //超过最小值, 替换a而不是b
+        topK.add("c", 4, 0);
+        items = topK.topK(Integer.MAX_VALUE, 10, 1000);
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals("b", items.get(0).getKey());
+        Assert.assertEquals("c", items.get(1).getKey());
+        Assert.assertEquals(7, items.get(1).getCount());
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015-2022 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/thistle
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.thistle.model.statistic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedSlidingWindowCounterTest {
+
+    /**
+     * 与SlidingWindowCounterTest相同的用例
+     */
+    @Test
+    public void test(){
+
+        //每个样本10s
+        final int SAMPLING_DURATION = 10000;
+        //窗口总共30个样本
+        final int STATISTICAL_PERIOD = 30;
+
+        StripedSlidingWindowCounter counter = new StripedSlidingWindowCounter(SAMPLING_DURATION, STATISTICAL_PERIOD, 10);
+
+        //5 + 1 + 1
+        counter.add(1, 0);
+        counter.add(1, 2000);
+        counter.add(1, 3000);
+        counter.add(1, 1000);//小抖动
+        counter.add(1, 5000);
+
+        //3
+        counter.add(1, 11000);
+        counter.add(1, 12000);
+        counter.add(1, 8000);//大抖动
+        counter.add(1, 15000);
+
+        //2
+        counter.add(1, 21000);
+        counter.add(1, 5000);//大抖动
+        counter.add(1, 22000);
+
+        Assert.assertEquals(2, counter.getRecently(1 * SAMPLING_DURATION, 30000));
+        Assert.assertEquals(5, counter.getRecently(2 * SAMPLING_DURATION, 30000));
+        Assert.assertEquals(12, counter.getRecently(Integer.MAX_VALUE, 30000));
+
+        //2 * 2
+        counter.add(2, 41000);
+        counter.add(2, 31000);//大抖动
+
+        Assert.assertEquals(2, counter.getRecently(1 * SAMPLING_DURATION, 50000));
+        Assert.assertEquals(4, counter.getRecently(2 * SAMPLING_DURATION, 50000));
+        Assert.assertEquals(6, counter.getRecently(3 * SAMPLING_DURATION, 50000));
+        Assert.assertEquals(16, counter.getRecently(Integer.MAX_VALUE, 50000));
+
+        //2
+        counter.add(1, 301000);
+        counter.add(1, 291000);//大抖动
+
+        Assert.assertEquals(1, counter.getRecently(1 * SAMPLING_DURATION, 310000));
+        Assert.assertEquals(2, counter.getRecently(2 * SAMPLING_DURATION, 310000));
+        Assert.assertEquals(8, counter.getRecently(Integer.MAX_VALUE, 310000));
+
+        //1
+        counter.add(1, 311000);
+
+        Assert.assertEquals(1, counter.getRecently(1 * SAMPLING_DURATION, 320000));
+        Assert.assertEquals(2, counter.getRecently(2 * SAMPLING_DURATION, 320000));
+        Assert.assertEquals(7, counter.getRecently(Integer.MAX_VALUE, 320000));
+
+        //1
+        counter.add(1, 0);//时间倒流的话, 计数无效
+
+        Assert.assertEquals(0, counter.getRecently(1 * SAMPLING_DURATION, 10000));//时间回退的话, 取值也无效
+        Assert.assertEquals(0, counter.getRecently(2 * SAMPLING_DURATION, 10000));//时间回退的话, 取值也无效
+        Assert.assertEquals(7, counter.getRecently(Integer.MAX_VALUE, 320000));
+
+        for (int i = 0 ; i < 10 ; i++) {
+            counter.add(1, 0);//大量的时间倒流可以导致整个重置
+        }
+
+        Assert.assertEquals(1, counter.getRecently(Integer.MAX_VALUE, 10000));
+
+    }
+
+    /**
+     * long计数不溢出
+     */
+    @Test
+    public void testOverflow(){
+        StripedSlidingWindowCounter counter = new StripedSlidingWindowCounter(1000, 10);
+        counter.add(Integer.MAX_VALUE, 0);
+        counter.add(Integer.MAX_VALUE, 500);
+        counter.add(Integer.MAX_VALUE, 1500);
+        //当前桶(2000 ~ 2999)权重为0, 前两个桶权重为1
+        Assert.assertEquals(3L * Integer.MAX_VALUE, counter.getRecently(Integer.MAX_VALUE, 2000));
+    }
+
+    /**
+     * 多线程计数不丢失
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final StripedSlidingWindowCounter counter = new StripedSlidingWindowCounter(10000, 10, 10, 4);
+        final int threadNum = 16;
+        final int times = 100000;
+        Thread[] threads = new Thread[threadNum];
+        for (int i = 0 ; i < threadNum ; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0 ; j < times ; j++) {
+                        counter.add(1, 5000);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals((long) threadNum * times, counter.getRecently(Integer.MAX_VALUE, 10000));
+    }
+
+}
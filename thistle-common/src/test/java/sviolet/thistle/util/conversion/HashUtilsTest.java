@@ -19,13 +19,265 @@
 
 package sviolet.thistle.util.conversion;
 
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Random;
+
 public class HashUtilsTest {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void xxHash64Vectors() {
+        Assert.assertEquals(0xEF46DB3751D8E999L, HashUtils.xxHash64(new byte[0]));
+        Assert.assertEquals(0x44BC2CF5AD770999L, HashUtils.xxHash64("abc".getBytes(UTF_8)));
+        Assert.assertEquals(0xFBCEA83C8A378BF1L, HashUtils.xxHash64("Nobody inspects the spammish repetition".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void murmur3Vectors() {
+        long[] hash = HashUtils.murmur3_128("The quick brown fox jumps over the lazy dog".getBytes(UTF_8));
+        Assert.assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+        Assert.assertEquals(0x7a433ca9c49a9347L, hash[1]);
+        Assert.assertEquals(0xe34bbc7bbc071b6cL, HashUtils.murmur3_64("The quick brown fox jumps over the lazy dog".getBytes(UTF_8)));
+        hash = HashUtils.murmur3_128(new byte[0]);
+        Assert.assertEquals(0L, hash[0]);
+        Assert.assertEquals(0L, hash[1]);
+    }
+
+    @Test
+    public void unsignedMultiplyHigh() {
+        Random random = new Random(1);
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        long[] specials = {0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 0xFFFFFFFFL, 0x100000000L};
+        for (int i = 0 ; i < 10000 ; i++) {
+            long x = i < specials.length * specials.length ? specials[i % specials.length] : random.nextLong();
+            long y = i < specials.length * specials.length ? specials[i / specials.length] : random.nextLong();
+            long expected = new BigInteger(1, longToBytes(x)).multiply(new BigInteger(1, longToBytes(y))).shiftRight(64).and(mask).longValue();
+            Assert.assertEquals(expected, HashUtils.unsignedMultiplyHigh(x, y));
+        }
+    }
+
+    /**
+     * byte[]/切片/ByteBuffer/CharSequence/long/int/流式计算的结果一致
+     */
+    @Test
+    public void equivalence() {
+        Random random = new Random(2);
+        for (int length = 0 ; length <= 300 ; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            long seed = random.nextLong();
+
+            long xx = HashUtils.xxHash64(data, 0, length, seed);
+            long murmur = HashUtils.murmur3_64(data, 0, length, (int) seed);
+            long[] murmur128 = HashUtils.murmur3_128(data, 0, length, (int) seed);
+            long wy = HashUtils.wyHash(data, 0, length, seed);
+            Assert.assertEquals(murmur128[0], murmur);
+
+            // 切片
+            byte[] padded = new byte[length + 7];
+            random.nextBytes(padded);
+            System.arraycopy(data, 0, padded, 3, length);
+            Assert.assertEquals(xx, HashUtils.xxHash64(padded, 3, length, seed));
+            Assert.assertEquals(murmur, HashUtils.murmur3_64(padded, 3, length, (int) seed));
+            Assert.assertEquals(wy, HashUtils.wyHash(padded, 3, length, seed));
+
+            // ByteBuffer: 堆内, 直接内存(big-endian/little-endian), position不为0
+            ByteBuffer direct = ByteBuffer.allocateDirect(length + 5);
+            direct.position(5);
+            direct.put(data);
+            direct.position(5);
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(padded, 3, length), direct, direct.duplicate().order(ByteOrder.LITTLE_ENDIAN)}) {
+                int position = buffer.position();
+                Assert.assertEquals(xx, HashUtils.xxHash64(buffer, seed));
+                Assert.assertEquals(murmur, HashUtils.murmur3_64(buffer, (int) seed));
+                Assert.assertArrayEquals(murmur128, HashUtils.murmur3_128(buffer, (int) seed));
+                Assert.assertEquals(wy, HashUtils.wyHash(buffer, seed));
+                Assert.assertEquals(position, buffer.position());
+            }
+
+            // 流式, 分多次update
+            HashUtils.XxHash64Hasher xxHasher = new HashUtils.XxHash64Hasher(seed);
+            HashUtils.Murmur3Hasher murmurHasher = new HashUtils.Murmur3Hasher((int) seed);
+            for (HashUtils.StreamHasher hasher : new HashUtils.StreamHasher[]{xxHasher, murmurHasher}) {
+                int position = 0;
+                while (position < length) {
+                    int step = Math.min(random.nextInt(40), length - position);
+                    if (step == 1) {
+                        hasher.update(data[position]);
+                    } else if (step % 3 == 0) {
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(step);
+                        buffer.put(data, position, step).flip();
+                        hasher.update(buffer);
+                    } else {
+                        hasher.update(data, position, step);
+                    }
+                    position += step;
+                }
+                Assert.assertEquals(length, hasher.getLength());
+            }
+            Assert.assertEquals(xx, xxHasher.getValue());
+            Assert.assertEquals(xx, xxHasher.getValue());
+            Assert.assertEquals(murmur, murmurHasher.getValue());
+            Assert.assertArrayEquals(murmur128, murmurHasher.getValue128());
+            xxHasher.reset().update(data);
+            Assert.assertEquals(xx, xxHasher.getValue());
+
+            // consumer
+            final long[] captured = new long[2];
+            Assert.assertTrue(HashUtils.murmur3_128(data, 0, length, (int) seed, new HashUtils.Hash128Consumer() {
+                @Override
+                public boolean accept(long h1, long h2) {
+                    captured[0] = h1;
+                    captured[1] = h2;
+                    return true;
+                }
+            }));
+            Assert.assertArrayEquals(murmur128, captured);
+        }
+
+        // CharSequence按UTF-8, 包含ASCII, 2/3/4字节字符和不成对的代理字符
+        char[] alphabet = {'a', 'Z', '0', 0x7F, 0x80, 0x7FF, 0x800, '哈', 0xFFFF, 0xD83D, 0xDE00};
+        for (int length = 0 ; length <= 100 ; length++) {
+            StringBuilder string = new StringBuilder();
+            for (int i = 0 ; i < length ; i++) {
+                // 前半部分纯ASCII, 覆盖不编码的路径
+                string.append(length < 50 ? alphabet[random.nextInt(4)] : alphabet[random.nextInt(alphabet.length)]);
+            }
+            byte[] bytes = string.toString().getBytes(UTF_8);
+            long seed = random.nextLong();
+            Assert.assertEquals(HashUtils.xxHash64(bytes, 0, bytes.length, seed), HashUtils.xxHash64(string, seed));
+            Assert.assertEquals(HashUtils.murmur3_64(bytes, 0, bytes.length, (int) seed), HashUtils.murmur3_64(string, (int) seed));
+            Assert.assertArrayEquals(HashUtils.murmur3_128(bytes, 0, bytes.length, (int) seed), HashUtils.murmur3_128(string, (int) seed));
+            Assert.assertEquals(HashUtils.wyHash(bytes, 0, bytes.length, seed), HashUtils.wyHash(string, seed));
+            Assert.assertEquals(HashUtils.xxHash64(bytes, 0, bytes.length, seed), new HashUtils.XxHash64Hasher(seed).update(string).getValue());
+            Assert.assertEquals(HashUtils.murmur3_64(bytes, 0, bytes.length, (int) seed), new HashUtils.Murmur3Hasher((int) seed).update(string).getValue());
+        }
+
+        String string = "哈希 hash 😀";
+        byte[] bytes = string.getBytes(UTF_8);
+        Assert.assertEquals(HashUtils.xxHash64(bytes), HashUtils.xxHash64(string));
+        Assert.assertEquals(HashUtils.murmur3_64(bytes), HashUtils.murmur3_64(string));
+        Assert.assertEquals(HashUtils.wyHash(bytes), HashUtils.wyHash(string));
+    }
+
+    @Test
+    public void primitives() {
+        Random random = new Random(3);
+        for (int i = 0 ; i < 1000 ; i++) {
+            long value = random.nextLong();
+            long seed = random.nextLong();
+            byte[] longBytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+            byte[] intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) value).array();
+
+            Assert.assertEquals(HashUtils.xxHash64(longBytes, 0, 8, seed), HashUtils.xxHash64(value, seed));
+            Assert.assertEquals(HashUtils.xxHash64(intBytes, 0, 4, seed), HashUtils.xxHash64((int) value, seed));
+            Assert.assertEquals(HashUtils.murmur3_64(longBytes, 0, 8, (int) seed), HashUtils.murmur3_64(value, (int) seed));
+            Assert.assertEquals(HashUtils.murmur3_64(intBytes, 0, 4, (int) seed), HashUtils.murmur3_64((int) value, (int) seed));
+            Assert.assertEquals(HashUtils.wyHash(longBytes, 0, 8, seed), HashUtils.wyHash(value, seed));
+            Assert.assertEquals(HashUtils.wyHash(intBytes, 0, 4, seed), HashUtils.wyHash((int) value, seed));
+
+            Assert.assertEquals(HashUtils.xxHash64(longBytes, 0, 8, seed), new HashUtils.XxHash64Hasher(seed).updateLong(value).getValue());
+            Assert.assertEquals(HashUtils.murmur3_64(intBytes, 0, 4, (int) seed), new HashUtils.Murmur3Hasher((int) seed).updateInt((int) value).getValue());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void outOfBounds() {
+        HashUtils.xxHash64(new byte[8], 4, 5);
+    }
+
+    private static byte[] longToBytes(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
     public static void main(String[] args) {
+//        benchmark(args);//xxHash64/murmur3/wyHash吞吐量
         String s = "1111";
         System.out.println(HashUtils.fnv1(s.getBytes()) % 1000000000);
         System.out.println(HashUtils.sdbm(s.getBytes()) % 1000000000);
         System.out.println(HashUtils.djb2(s.getBytes()) % 1000000000);
     }
 
+    /**
+     * 吞吐量(GB/s), 单线程, JDK17, 1核虚拟机, 每组0.5秒, 每个算法单独一个进程(参数0~7), 误差较大, 仅供对比:
+     *
+     * <pre>
+     * size              8     16    64    256   4096  65536
+     * fnv1              0.93  1.22  1.11  0.81  0.68  0.64
+     * sdbm              0.80  0.87  0.73  0.67  0.66  0.60
+     * djb2              0.91  0.76  1.06  0.93  0.82  0.78
+     * xxHash64          1.05  1.37  1.36  4.10  9.06  8.85
+     * murmur3           0.45  0.97  2.01  2.85  3.20  2.93
+     * wyHash            0.56  1.13  2.44  2.95  5.10  5.07
+     * xxHash64(direct)  0.60  1.10  1.65  4.36  8.91  9.15
+     * xxHash64(String)  0.56  0.61  0.94  1.36  1.67  1.50
+     * </pre>
+     *
+     * 结论: 64字节以上, xxHash64/murmur3/wyHash是逐字节算法(fnv1/sdbm/djb2)的3~14倍, 而且分布好得多;
+     * 16字节以下差别不大(调用开销为主), wyHash因为Java 7没有Math.multiplyHigh, 短数据反而较慢.
+     * 直接内存的ByteBuffer与byte[]接近; String(ASCII)按char读取, 约1.5GB/s, 但省去了getBytes的编码和复制.
+     */
+    private static void benchmark(String[] args) {
+        String[] names = {"fnv1", "sdbm", "djb2", "xxHash64", "murmur3", "wyHash", "xxHash64(direct)", "xxHash64(String)"};
+        int[] sizes = {8, 16, 64, 256, 4096, 65536};
+        // 每个算法单独一个进程测试(参数为算法序号), 避免JIT的类型profile互相影响(例如heap/direct ByteBuffer)
+        int algorithm = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        StringBuilder line = new StringBuilder(names[algorithm]);
+        // 第一轮预热, 从大到小, 使JIT按主循环编译
+        for (int round = 0 ; round < 2 ; round++) {
+            for (int i = 0 ; i < sizes.length ; i++) {
+                int size = sizes[round == 0 ? sizes.length - 1 - i : i];
+                byte[] data = new byte[size];
+                new Random(size).nextBytes(data);
+                ByteBuffer direct = ByteBuffer.allocateDirect(size);
+                direct.put(data).flip();
+                // ASCII, UTF-8编码后的长度与byte[]相同
+                char[] chars = new char[size];
+                for (int c = 0 ; c < size ; c++) {
+                    chars[c] = (char) (data[c] & 0x7F);
+                }
+                String string = new String(chars);
+                double throughput = throughput(algorithm, data, direct, string);
+                if (round == 1) {
+                    line.append("  ").append(String.format("%.2f", throughput));
+                }
+            }
+        }
+        System.out.println(line);
+    }
+
+    private static double throughput(int algorithm, byte[] data, ByteBuffer direct, String string) {
+        long bytes = 0L;
+        long sink = 0L;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0 ; i < 1000 ; i++) {
+                switch (algorithm) {
+                    case 0: sink += HashUtils.fnv1(data); break;
+                    case 1: sink += HashUtils.sdbm(data); break;
+                    case 2: sink += HashUtils.djb2(data); break;
+                    case 3: sink += HashUtils.xxHash64(data); break;
+                    case 4: sink += HashUtils.murmur3_64(data); break;
+                    case 5: sink += HashUtils.wyHash(data); break;
+                    case 6: sink += HashUtils.xxHash64(direct); break;
+                    default: sink += HashUtils.xxHash64(string); break;
+                }
+            }
+            bytes += 1000L * data.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 500000000L);
+        if (sink == 42) {
+            System.out.println();
+        }
+        return (double) bytes / elapsed;
+    }
+
 }